@@ -0,0 +1,105 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Road emission evaluation of a set of random road segments.
+ *
+ * @author Nicolas Fortin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalRoadSourceBenchmark {
+    private static final int ROAD_COUNT = 1000;
+    private static final int[] ROAD_TYPES = {11, 21, 22, 23, 31, 32, 37, 41, 42, 43, 51, 52, 53, 54, 56, 57};
+
+    private double[] speed = new double[ROAD_COUNT];
+    private int[] lightVehicle = new int[ROAD_COUNT];
+    private int[] heavyVehicle = new int[ROAD_COUNT];
+    private int[] roadType = new int[ROAD_COUNT];
+    private double[] beginZ = new double[ROAD_COUNT];
+    private double[] endZ = new double[ROAD_COUNT];
+    private double[] length = new double[ROAD_COUNT];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        for (int i = 0; i < ROAD_COUNT; i++) {
+            speed[i] = 20 + random.nextInt(110);
+            lightVehicle[i] = random.nextInt(3000);
+            heavyVehicle[i] = random.nextInt(300);
+            roadType[i] = ROAD_TYPES[random.nextInt(ROAD_TYPES.length)];
+            beginZ[i] = random.nextDouble() * 20;
+            endZ[i] = random.nextDouble() * 20;
+            length[i] = 10 + random.nextDouble() * 200;
+        }
+    }
+
+    @Benchmark
+    public double evaluateSpeed() {
+        double sum = 0;
+        for (int i = 0; i < ROAD_COUNT; i++) {
+            sum += EvalRoadSource.evaluate(speed[i], lightVehicle[i], heavyVehicle[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluateRoadType() {
+        double sum = 0;
+        for (int i = 0; i < ROAD_COUNT; i++) {
+            sum += EvalRoadSource.evaluate(speed[i], lightVehicle[i], heavyVehicle[i], 0, 130, roadType[i],
+                    beginZ[i], endZ[i], length[i], false);
+        }
+        return sum;
+    }
+}
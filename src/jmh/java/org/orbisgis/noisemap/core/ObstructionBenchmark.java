@@ -0,0 +1,117 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Free field test and diffraction path between random points of the scene.
+ * A single invocation evaluates all the point couples.
+ *
+ * @author Nicolas Fortin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObstructionBenchmark {
+    private static final int PAIR_COUNT = 1000;
+    private static final double MAX_SOURCE_DISTANCE = 250;
+
+    @Param({"4", "16"})
+    public int blockCount;
+
+    private FastObstructionTest obstructionTest;
+    private ObstructionQueryContext context;
+    private Coordinate[] receivers;
+    private Coordinate[] sources;
+
+    @Setup
+    public void setup() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(blockCount, 1);
+        obstructionTest = scene.createObstructionTest();
+        context = obstructionTest.createQueryContext();
+        receivers = new Coordinate[PAIR_COUNT];
+        sources = new Coordinate[PAIR_COUNT];
+        Envelope envelope = scene.getEnvelope();
+        Random random = new Random(1);
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            receivers[i] = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight(),
+                    CitySceneGenerator.RECEIVER_HEIGHT);
+            // Sources are taken near receivers, as within the maximum source distance, and inside the mesh
+            double x = receivers[i].x + (random.nextDouble() - 0.5) * MAX_SOURCE_DISTANCE;
+            double y = receivers[i].y + (random.nextDouble() - 0.5) * MAX_SOURCE_DISTANCE;
+            sources[i] = new Coordinate(Math.max(envelope.getMinX() + 1, Math.min(envelope.getMaxX() - 1, x)),
+                    Math.max(envelope.getMinY() + 1, Math.min(envelope.getMaxY() - 1, y)),
+                    CitySceneGenerator.SOURCE_HEIGHT);
+        }
+    }
+
+    @Benchmark
+    public int isFreeField() {
+        int freeCount = 0;
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            if (obstructionTest.isFreeField(context, receivers[i], sources[i])) {
+                freeCount++;
+            }
+        }
+        return freeCount;
+    }
+
+    @Benchmark
+    public void getPath(Blackhole blackhole) {
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            blackhole.consume(obstructionTest.getPath(context, receivers[i], sources[i]).getDeltaDistance());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sound level of receivers of the scene, direct field, reflections and diffractions.
+ * A single invocation computes one receiver, receivers are taken in turn.
+ *
+ * @author Nicolas Fortin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropagationBenchmark {
+    private static final int RECEIVER_COUNT = 200;
+
+    @Param({"4", "16"})
+    public int blockCount;
+
+    @Param({"0", "2"})
+    public int reflexionOrder;
+
+    private PropagationProcess process;
+    private List<Coordinate> receivers;
+    private double[] energeticSum;
+    /** Reused like a computation thread of the cell does */
+    private PropagationWorkerContext context;
+    private int idReceiver = 0;
+
+    @Setup
+    public void setup() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(blockCount, 1);
+        receivers = scene.createReceiverGrid(RECEIVER_COUNT);
+        PropagationProcessData data = scene.createPropagationData(receivers, reflexionOrder, 1, 250);
+        process = new PropagationProcess(data, new PropagationProcessOut(null, null));
+        process.initStructures();
+        energeticSum = new double[scene.getFreqLvl().size()];
+        context = new PropagationWorkerContext(energeticSum.length, data.freeFieldFinder);
+    }
+
+    @Benchmark
+    public double computeSoundLevelAtPosition() {
+        Coordinate receiver = receivers.get(idReceiver);
+        idReceiver = (idReceiver + 1) % receivers.size();
+        Arrays.fill(energeticSum, 0);
+        process.computeSoundLevelAtPosition(receiver, energeticSum, context);
+        return energeticSum[0];
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range query of source segments, as done for each receiver, on the available index structures.
+ * A single invocation runs all the range queries.
+ *
+ * @author Nicolas Fortin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryIndexBenchmark {
+    private static final int QUERY_COUNT = 100;
+    private static final double SEGMENT_LENGTH = 10;
+    private static final double QUERY_DISTANCE = 200;
+
+    @Param({"grid", "quadtree", "rtree"})
+    public String indexType;
+
+    @Param({"4", "16"})
+    public int blockCount;
+
+    private QueryGeometryStructure index;
+    private Envelope[] queries;
+
+    @Setup
+    public void setup() {
+        CitySceneGenerator scene = new CitySceneGenerator(blockCount, 1);
+        Envelope envelope = scene.getEnvelope();
+        if ("grid".equals(indexType)) {
+            index = new QueryGridIndex(envelope, 16, 16);
+        } else if ("quadtree".equals(indexType)) {
+            index = new QueryQuadTree();
+        } else {
+            index = new QueryRTree();
+        }
+        // Roads cut into segments, one segment by source
+        GeometryFactory factory = new GeometryFactory();
+        Random random = new Random(1);
+        int segmentCount = (int) (envelope.getWidth() * envelope.getHeight() / (SEGMENT_LENGTH * SEGMENT_LENGTH * 10));
+        for (int id = 0; id < segmentCount; id++) {
+            Coordinate start = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                    envelope.getMinY() + random.nextDouble() * envelope.getHeight());
+            double angle = random.nextDouble() * Math.PI * 2;
+            Coordinate end = new Coordinate(start.x + Math.cos(angle) * SEGMENT_LENGTH,
+                    start.y + Math.sin(angle) * SEGMENT_LENGTH);
+            index.appendGeometry(factory.createLineString(new Coordinate[]{start, end}), id);
+        }
+        queries = new Envelope[QUERY_COUNT];
+        List<Coordinate> receivers = scene.createReceiverGrid(QUERY_COUNT);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queries[i] = new Envelope(receivers.get(i));
+            queries[i].expandBy(QUERY_DISTANCE);
+        }
+    }
+
+    @Benchmark
+    public long query() {
+        long sum = 0;
+        for (Envelope query : queries) {
+            Iterator<Integer> it = index.query(query);
+            while (it.hasNext()) {
+                sum += it.next();
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read access to a triangulation, as walked by {@link FastObstructionTest}. The corners of the triangle idTri are
+ * the vertices 0, 1 and 2 of {@link #getVertex(int, int)}. The neighbor on a side shares the triangle side opposite
+ * to the corner of the same rank, as {@link LayerDelaunay#getNeighbors()}.
+ * {@link TriangleMesh} stores the mesh in the heap, {@link MeshCache} reads it from a mapped file.
+ *
+ * @author Nicolas Fortin
+ */
+public abstract class AbstractTriangleMesh {
+
+    /**
+     * @return Number of triangles
+     */
+    public abstract int getTriangleCount();
+
+    /**
+     * @return Number of vertices
+     */
+    public abstract int getVertexCount();
+
+    /**
+     * @param idTri Triangle index
+     * @param corner Corner of the triangle [0-2]
+     * @return Vertex index
+     */
+    public abstract int getVertex(int idTri, int corner);
+
+    /**
+     * @param idTri Triangle index
+     * @param side Side of the triangle [0-2], opposite to the corner of the same rank
+     * @return Neighbor triangle index, -1 if there is no neighbor
+     */
+    public abstract int getNeighbor(int idTri, int side);
+
+    /**
+     * @param idTri Triangle index
+     * @return Building of the triangle, 0 if the triangle is not in a building
+     */
+    public abstract int getBuildingId(int idTri);
+
+    public abstract double getX(int idVertex);
+
+    public abstract double getY(int idVertex);
+
+    public abstract double getZ(int idVertex);
+
+    /**
+     * @param idVertex Vertex index
+     * @param coordinate Coordinate set to the vertex position
+     */
+    public void getCoordinate(int idVertex, Coordinate coordinate) {
+        coordinate.x = getX(idVertex);
+        coordinate.y = getY(idVertex);
+        coordinate.z = getZ(idVertex);
+    }
+
+    /**
+     * @param idVertex Vertex index
+     * @return New coordinate of the vertex
+     */
+    public Coordinate getCoordinate(int idVertex) {
+        return new Coordinate(getX(idVertex), getY(idVertex), getZ(idVertex));
+    }
+
+    /**
+     * @return New list of triangles vertices and building
+     */
+    public List<Triangle> getTriangles() {
+        List<Triangle> triangles = new ArrayList<Triangle>(getTriangleCount());
+        for (int idTri = 0; idTri < getTriangleCount(); idTri++) {
+            triangles.add(new Triangle(getVertex(idTri, 0), getVertex(idTri, 1), getVertex(idTri, 2),
+                    getBuildingId(idTri)));
+        }
+        return triangles;
+    }
+
+    /**
+     * @return New list of triangles neighbors
+     */
+    public List<Triangle> getNeighbors() {
+        List<Triangle> neighbors = new ArrayList<Triangle>(getTriangleCount());
+        for (int idTri = 0; idTri < getTriangleCount(); idTri++) {
+            neighbors.add(new Triangle(getNeighbor(idTri, 0), getNeighbor(idTri, 1), getNeighbor(idTri, 2),
+                    0));
+        }
+        return neighbors;
+    }
+
+    /**
+     * @return New list of vertices coordinates
+     */
+    public List<Coordinate> getVertices() {
+        List<Coordinate> vertices = new ArrayList<Coordinate>(getVertexCount());
+        for (int idVertex = 0; idVertex < getVertexCount(); idVertex++) {
+            vertices.add(getCoordinate(idVertex));
+        }
+        return vertices;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand over result batches to a single consumer thread that feeds another sink.
+ * Computation threads do not wait for the destination (file, database..) and the number of batches waiting
+ * in memory is bounded, a computation thread is paused when the consumer is late.
+ * {@link #close()} must be called when all cells are done.
+ *
+ * @author Nicolas Fortin
+ */
+public class AsyncResultSink implements ResultSink {
+    private static final Batch END_OF_DATA = new Batch(null, null);
+    private final BlockingQueue<Batch> batches;
+    private final ResultSink destination;
+    private final Thread consumer;
+    private volatile RuntimeException consumerError = null;
+    /** Set by {@link #close()}, read by the computation threads */
+    private volatile boolean closed = false;
+
+    /**
+     * Start the consumer thread.
+     *
+     * @param destination  Sink fed by the consumer thread only
+     * @param maxBatchCount Maximum number of batches waiting for the consumer
+     */
+    public AsyncResultSink(ResultSink destination, int maxBatchCount) {
+        this.destination = destination;
+        this.batches = new ArrayBlockingQueue<Batch>(Math.max(1, maxBatchCount));
+        consumer = new Thread(new Consumer(), "PropagationResultSink");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Override
+    public void addTriRecords(List<PropagationResultTriRecord> records) {
+        put(new Batch(records, null));
+    }
+
+    @Override
+    public void addPtRecords(List<PropagationResultPtRecord> records) {
+        put(new Batch(null, records));
+    }
+
+    /**
+     * @throws IllegalStateException The sink is closed or the destination sink has thrown an exception
+     */
+    private void put(Batch batch) {
+        if (consumerError != null) {
+            throw new IllegalStateException("Result consumer failed", consumerError);
+        }
+        try {
+            // A producer paused on a full queue must not wait for a consumer stopped by close
+            while (!closed && !batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            if (closed) {
+                throw new IllegalStateException("Result sink is closed");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the result consumer", ex);
+        }
+    }
+
+    /**
+     * Wait for the consumer to feed all remaining batches to the destination, then stop it.
+     *
+     * @throws InterruptedException  Interrupted while waiting for the consumer
+     * @throws IllegalStateException The destination sink has thrown an exception
+     */
+    public synchronized void close() throws InterruptedException {
+        if (!closed) {
+            closed = true;
+            // The consumer may have stopped with a full queue
+            while (consumer.isAlive() && !batches.offer(END_OF_DATA, 100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            consumer.join();
+        }
+        if (consumerError != null) {
+            throw new IllegalStateException("Result consumer failed", consumerError);
+        }
+    }
+
+    private static final class Batch {
+        private final List<PropagationResultTriRecord> triRecords;
+        private final List<PropagationResultPtRecord> ptRecords;
+
+        private Batch(List<PropagationResultTriRecord> triRecords, List<PropagationResultPtRecord> ptRecords) {
+            this.triRecords = triRecords;
+            this.ptRecords = ptRecords;
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Batch batch = batches.take();
+                while (batch != END_OF_DATA) {
+                    // After an error the batches are dropped, producers must not wait forever
+                    if (consumerError == null) {
+                        try {
+                            if (batch.triRecords != null) {
+                                destination.addTriRecords(batch.triRecords);
+                            } else {
+                                destination.addPtRecords(batch.ptRecords);
+                            }
+                        } catch (RuntimeException ex) {
+                            consumerError = ex;
+                        }
+                    }
+                    batch = batches.take();
+                }
+            } catch (InterruptedException ex) {
+                consumerError = new IllegalStateException("Result consumer interrupted", ex);
+            }
+        }
+    }
+}
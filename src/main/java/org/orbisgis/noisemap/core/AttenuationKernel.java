@@ -0,0 +1,220 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sound attenuation of a propagation path for all frequency bands.
+ * Attenuation terms are applied as linear factors on the sound power (W), all frequency bands
+ * dependent constants are computed at construction.
+ * A path is computed by filling a factor array then by adding the attenuated source power to the receiver:
+ * <pre>
+ * kernel.fill(factors, 1.);
+ * kernel.multiplyDiffraction(factors, delta, false, 0, AttenuationKernel.NO_LIMIT);
+ * kernel.addAttenuatedPower(energeticSum, wj, wjOffset, factors, distance, distance);
+ * </pre>
+ *
+ * @author Nicolas Fortin
+ */
+final class AttenuationKernel {
+    /** Upper limit of the diffraction attenuation, 25 dB (NF S 31-133 page 46) */
+    static final double MAX_DIFFRACTION_FACTOR = Math.pow(10, 25. / 10.);
+    /** No upper limit of the diffraction attenuation */
+    static final double NO_LIMIT = Double.POSITIVE_INFINITY;
+    /** ASoil of -3 dB when there is no ground effect (NF S 31-133 page 41) */
+    static final double NO_GROUND_FACTOR = Math.pow(10, 3. / 10.);
+    private final int bandCount;
+    /** Atmospheric absorption of one meter is exp(atmosphericCoefficient) */
+    private final double[] atmosphericCoefficient;
+    /** 40 / lambda */
+    private final double[] diffractionCoefficient;
+    /** (5 * lambda)^2 */
+    private final double[] squaredGamma;
+    /** Wave number k */
+    private final double[] waveNumber;
+    /** fm^2.5, fm^1.5, fm^0.75 of the ground effect equation */
+    private final double[] frequencyPow25;
+    private final double[] frequencyPow15;
+    private final double[] frequencyPow075;
+
+    /**
+     * @param frequencies Frequency by band (Hz)
+     * @param alphaAtmo   Atmospheric absorption by band (dB/km)
+     * @param lambda      Wave length by band (m)
+     * @param cel         Sound celerity (m/s)
+     */
+    AttenuationKernel(List<Integer> frequencies, double[] alphaAtmo, double[] lambda, double cel) {
+        bandCount = frequencies.size();
+        atmosphericCoefficient = new double[bandCount];
+        diffractionCoefficient = new double[bandCount];
+        squaredGamma = new double[bandCount];
+        waveNumber = new double[bandCount];
+        frequencyPow25 = new double[bandCount];
+        frequencyPow15 = new double[bandCount];
+        frequencyPow075 = new double[bandCount];
+        for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+            final int fm = frequencies.get(idfreq);
+            // 10^(-alpha * dist / 10000)
+            atmosphericCoefficient[idfreq] = -alphaAtmo[idfreq] * Math.log(10) / 10000.;
+            diffractionCoefficient[idfreq] = 40 / lambda[idfreq];
+            squaredGamma[idfreq] = (5 * lambda[idfreq]) * (5 * lambda[idfreq]);
+            //NF S 31-133 page 41 c
+            waveNumber[idfreq] = 2 * Math.PI * fm / cel;
+            frequencyPow25[idfreq] = Math.pow(fm, 2.5);
+            frequencyPow15[idfreq] = Math.pow(fm, 1.5);
+            frequencyPow075[idfreq] = Math.pow(fm, 0.75);
+        }
+    }
+
+    /**
+     * @return Number of frequency bands
+     */
+    int getBandCount() {
+        return bandCount;
+    }
+
+    void fill(double[] factors, double value) {
+        Arrays.fill(factors, 0, bandCount, value);
+    }
+
+    /**
+     * Apply the diffraction attenuation (7.11) NMPB 2008 P.32
+     *
+     * @param factors     Linear factors by band
+     * @param delta       Difference between the diffraction path length and the direct path length
+     * @param multiple    True to apply the multiple diffraction coefficient C" (NMPB 2008 P.33), else C"=1
+     * @param gammaLength Length used by the multiple diffraction coefficient
+     * @param maxFactor   Maximum attenuation as a power ratio, {@link #NO_LIMIT} or {@link #MAX_DIFFRACTION_FACTOR}
+     */
+    void multiplyDiffraction(double[] factors, double delta, boolean multiple, double gammaLength,
+                             double maxFactor) {
+        final double squaredGammaLength = gammaLength * gammaLength;
+        for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+            double cprime = 1.;
+            if (multiple) {
+                //CPRIME=( 1+(5*gamma)^2)/((1/3)+(5*gamma)^2)
+                double gammapart = squaredGamma[idfreq] / squaredGammaLength;
+                cprime = (1. + gammapart) / (1. / 3. + gammapart);
+            }
+            double testForm = diffractionCoefficient[idfreq] * cprime * delta;
+            // Attenuation is 10*log10(3+testForm), limited to [0, maxFactor]
+            if (testForm >= -2.) {
+                factors[idfreq] /= Math.min(3 + testForm, maxFactor);
+            }
+        }
+    }
+
+    /**
+     * Apply the ground effect ASoil of NF S 31-133 page 41.
+     *
+     * @param factors  Linear factors by band
+     * @param zs       z of source point
+     * @param zr       z of receiver point
+     * @param dp       dp in equation
+     * @param gPath    Ground factor of the path, there is no ground effect if it is 0
+     * @param gw       Gw in equation
+     * @param aSoilMin min ASoil
+     */
+    void multiplyGroundEffect(double[] factors, double zs, double zr, double dp, double gPath, double gw,
+                              double aSoilMin) {
+        if (Double.compare(gPath, 0.) == 0) {
+            for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+                factors[idfreq] *= NO_GROUND_FACTOR;
+            }
+            return;
+        }
+        final double gwPow26 = Math.pow(gw, 2.6);
+        final double gwPow13 = Math.pow(gw, 1.3);
+        // ASoil >= aSoilMin
+        final double maxFactor = Math.pow(10, -aSoilMin / 10);
+        for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+            final double k = waveNumber[idfreq];
+            //NF S 31-113 page 41 w
+            final double w = 0.0185 * frequencyPow25[idfreq] * gwPow26 /
+                    (frequencyPow15[idfreq] * gwPow26 + 1.3e3 * frequencyPow075[idfreq] * gwPow13 + 1.16e6);
+            //NF S 31-113 page 41 Cf
+            final double cf = dp * (1 + 3 * w * dp * Math.exp(-Math.sqrt(w * dp))) / (1 + w * dp);
+            final double cfk = cf / k;
+            final double sqrtCfk = Math.sqrt(2 * cfk);
+            //NF S 31-113 page 41 A sol = -10*log10(ratio)
+            final double ratio = 4 * k * k / (dp * dp) * (zs * zs - sqrtCfk * zs + cfk) * (zr * zr - sqrtCfk * zr + cfk);
+            if (ratio >= 0) {
+                factors[idfreq] *= Math.min(ratio, maxFactor);
+            } else {
+                // No logarithm of negative ratio
+                factors[idfreq] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Add the attenuated source power to the receiver energetic sum
+     *
+     * @param energeticSum        Receiver energetic sum by band
+     * @param wj                  Source power by band
+     * @param wjOffset            Index of the first band of the source in wj
+     * @param factors             Linear factors by band
+     * @param dispersionDistance  Distance of the geometric dispersion
+     * @param atmosphericDistance Distance of the atmospheric absorption
+     */
+    void addAttenuatedPower(double[] energeticSum, double[] wj, int wjOffset, double[] factors,
+                            double dispersionDistance, double atmosphericDistance) {
+        final double dispersion = PropagationProcess.attDistW(1., dispersionDistance);
+        for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+            energeticSum[idfreq] += wj[wjOffset + idfreq] * dispersion * factors[idfreq]
+                    * Math.exp(atmosphericCoefficient[idfreq] * atmosphericDistance);
+        }
+    }
+
+    /**
+     * Add the attenuated source power to the receiver energetic sum
+     *
+     * @param energeticSum        Receiver energetic sum by band
+     * @param wj                  Source power by band
+     * @param wjOffset            Index of the first band of the source in wj
+     * @param factor              Linear factor of all bands
+     * @param dispersionDistance  Distance of the geometric dispersion
+     * @param atmosphericDistance Distance of the atmospheric absorption
+     */
+    void addAttenuatedPower(double[] energeticSum, double[] wj, int wjOffset, double factor,
+                            double dispersionDistance, double atmosphericDistance) {
+        final double dispersion = PropagationProcess.attDistW(1., dispersionDistance) * factor;
+        for (int idfreq = 0; idfreq < bandCount; idfreq++) {
+            energeticSum[idfreq] += wj[wjOffset + idfreq] * dispersion
+                    * Math.exp(atmosphericCoefficient[idfreq] * atmosphericDistance);
+        }
+    }
+}
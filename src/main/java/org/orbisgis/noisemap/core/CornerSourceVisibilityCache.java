@@ -0,0 +1,181 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.Arrays;
+
+/**
+ * Free field test results between diffraction corners and point sources, filled when tested.
+ * Neighbouring receivers search diffraction paths to the same sources through the same corners.
+ * Shared by the receiver threads of the cell: results are stored in hash tables locked by stripe. The memory
+ * is bounded, a full stripe is cleared. Obstruction tests are done outside of the locks.
+ *
+ * @author Nicolas Fortin
+ */
+final class CornerSourceVisibilityCache {
+    /** Default maximum number of stored results */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int STRIPE_COUNT = 64;
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    /**
+     * @param capacity Maximum number of stored results
+     */
+    CornerSourceVisibilityCache(int capacity) {
+        int stripeCapacity = Math.max(1, capacity / STRIPE_COUNT);
+        for (int idStripe = 0; idStripe < STRIPE_COUNT; idStripe++) {
+            stripes[idStripe] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Free field test between a diffraction corner and a source, done once by couple.
+     *
+     * @param cornerId        Corner index, see {@link CornerVisibilityGraph}
+     * @param corner          Corner coordinate
+     * @param source          Source coordinate
+     * @param freeFieldFinder Obstruction test
+     * @param context         Query context of the calling thread
+     * @return {@link FastObstructionTest#isFreeField(ObstructionQueryContext, Coordinate, Coordinate)} from the
+     * corner to the source
+     */
+    boolean isFreeField(int cornerId, Coordinate corner, Coordinate source, FastObstructionTest freeFieldFinder,
+                        ObstructionQueryContext context) {
+        final long x = Double.doubleToLongBits(source.x + 0.);
+        final long y = Double.doubleToLongBits(source.y + 0.);
+        final long z = Double.doubleToLongBits(source.z + 0.);
+        final int hash = hash(cornerId, x, y, z);
+        final Stripe stripe = stripes[hash & (STRIPE_COUNT - 1)];
+        final int slotHash = hash >>> 6;
+        synchronized (stripe) {
+            int result = stripe.get(slotHash, cornerId, x, y, z);
+            if (result != Stripe.UNKNOWN) {
+                return result == Stripe.VISIBLE;
+            }
+        }
+        boolean freeField = freeFieldFinder.isFreeField(context, corner, source);
+        synchronized (stripe) {
+            stripe.put(slotHash, cornerId, x, y, z, freeField);
+        }
+        return freeField;
+    }
+
+    /**
+     * @return Number of stored results
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static int hash(int cornerId, long x, long y, long z) {
+        long h = cornerId * 0x9E3779B97F4A7C15L;
+        h = (h ^ x) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ y) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ z) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Open addressing table of a part of the results. Arrays are allocated with the first result.
+     */
+    private static final class Stripe {
+        static final byte UNKNOWN = 0;
+        static final byte VISIBLE = 1;
+        static final byte HIDDEN = 2;
+        private final int capacity;
+        private int size = 0;
+        private int[] cornerIds;
+        private long[] xs;
+        private long[] ys;
+        private long[] zs;
+        /** UNKNOWN for empty slots */
+        private byte[] results;
+
+        private Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private int get(int slotHash, int cornerId, long x, long y, long z) {
+            if (results == null) {
+                return UNKNOWN;
+            }
+            final int mask = results.length - 1;
+            for (int slot = slotHash & mask; results[slot] != UNKNOWN; slot = (slot + 1) & mask) {
+                if (cornerIds[slot] == cornerId && xs[slot] == x && ys[slot] == y && zs[slot] == z) {
+                    return results[slot];
+                }
+            }
+            return UNKNOWN;
+        }
+
+        private void put(int slotHash, int cornerId, long x, long y, long z, boolean freeField) {
+            if (results == null) {
+                // Load factor is at most one half
+                int tableSize = Integer.highestOneBit(capacity) * 4;
+                cornerIds = new int[tableSize];
+                xs = new long[tableSize];
+                ys = new long[tableSize];
+                zs = new long[tableSize];
+                results = new byte[tableSize];
+            } else if (size >= capacity) {
+                // Bounded memory, forget all results of this stripe
+                Arrays.fill(results, UNKNOWN);
+                size = 0;
+            }
+            final int mask = results.length - 1;
+            int slot = slotHash & mask;
+            while (results[slot] != UNKNOWN) {
+                if (cornerIds[slot] == cornerId && xs[slot] == x && ys[slot] == y && zs[slot] == z) {
+                    // Computed by another thread meanwhile
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            cornerIds[slot] = cornerId;
+            xs[slot] = x;
+            ys[slot] = y;
+            zs[slot] = z;
+            results[slot] = freeField ? VISIBLE : HIDDEN;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Free field links between diffraction corners. The corner j is visible from the corner i if
+ * {@link FastObstructionTest#isFreeField(ObstructionQueryContext, Coordinate, Coordinate)} from i to j is true.
+ * Only corners closer than the maximum link length are tested. Visible corners of the corner i are stored
+ * in ascending order at adjacencyStart[i] (included) to adjacencyStart[i + 1] (excluded) of a single array.
+ *
+ * @author Nicolas Fortin
+ */
+class CornerVisibilityGraph {
+    private final Coordinate[] corners;
+    private final int[] adjacencyStart;
+    private final int[] adjacency;
+
+    /**
+     * Test the visibility of all corners pairs closer than maxLinkLength.
+     *
+     * @param corners         Diffraction corners
+     * @param maxLinkLength   Maximum distance between two linked corners
+     * @param freeFieldFinder Obstruction test
+     * @param executor        Executor of helpers, null to compute on the calling thread only
+     * @param parallelism     Maximum number of threads testing corners
+     */
+    CornerVisibilityGraph(List<Coordinate> corners, double maxLinkLength, FastObstructionTest freeFieldFinder,
+                          Executor executor, int parallelism) {
+        this.corners = corners.toArray(new Coordinate[corners.size()]);
+        // Corners sorted by x, to find the corners close to a corner
+        final int cornerCount = this.corners.length;
+        Integer[] sortedIds = new Integer[cornerCount];
+        for (int idCorner = 0; idCorner < cornerCount; idCorner++) {
+            sortedIds[idCorner] = idCorner;
+        }
+        Arrays.sort(sortedIds, new CornerXComparator(this.corners));
+        int[] byX = new int[cornerCount];
+        double[] sortedX = new double[cornerCount];
+        for (int rank = 0; rank < cornerCount; rank++) {
+            byX[rank] = sortedIds[rank];
+            sortedX[rank] = this.corners[byX[rank]].x;
+        }
+        // Compute the visible corners of each corner
+        int[][] rows = new int[cornerCount][];
+        AtomicInteger nextCorner = new AtomicInteger(0);
+        List<LinkWorker> workers = new ArrayList<LinkWorker>();
+        LinkWorker mainWorker = new LinkWorker(rows, byX, sortedX, maxLinkLength, freeFieldFinder, nextCorner);
+        workers.add(mainWorker);
+        if (executor != null) {
+            int helperCount = Math.min(parallelism, cornerCount) - 1;
+            for (int idHelper = 0; idHelper < helperCount; idHelper++) {
+                LinkWorker helper = new LinkWorker(rows, byX, sortedX, maxLinkLength, freeFieldFinder, nextCorner);
+                try {
+                    executor.execute(helper);
+                    workers.add(helper);
+                } catch (RejectedExecutionException ex) {
+                    // Executor is full or shut down, the other threads will do the job
+                    break;
+                }
+            }
+        }
+        mainWorker.run();
+        // Wait for helpers, drop the ones that are still in the executor queue. Remaining corners are
+        // done by the calling thread, the wait is at most one corner long.
+        for (LinkWorker worker : workers) {
+            worker.awaitOrCancel();
+            if (worker.error != null) {
+                throw new IllegalStateException("Corner visibility computation failed", worker.error);
+            }
+        }
+        // Store rows in a single array
+        adjacencyStart = new int[cornerCount + 1];
+        for (int idCorner = 0; idCorner < cornerCount; idCorner++) {
+            adjacencyStart[idCorner + 1] = adjacencyStart[idCorner] + rows[idCorner].length;
+        }
+        adjacency = new int[adjacencyStart[cornerCount]];
+        for (int idCorner = 0; idCorner < cornerCount; idCorner++) {
+            System.arraycopy(rows[idCorner], 0, adjacency, adjacencyStart[idCorner], rows[idCorner].length);
+        }
+    }
+
+    /**
+     * @return Number of corners
+     */
+    int getCornerCount() {
+        return corners.length;
+    }
+
+    /**
+     * @param idCorner Corner index
+     * @return Corner coordinate, shared instance
+     */
+    Coordinate getCorner(int idCorner) {
+        return corners[idCorner];
+    }
+
+    /**
+     * @return Number of links
+     */
+    int getLinkCount() {
+        return adjacency.length;
+    }
+
+    /**
+     * @param from Corner index
+     * @param to   Corner index
+     * @return True if the corner to is visible from the corner from
+     */
+    boolean isVisible(int from, int to) {
+        return Arrays.binarySearch(adjacency, adjacencyStart[from], adjacencyStart[from + 1], to) >= 0;
+    }
+
+    /**
+     * @param idCorner Corner index
+     * @return Position of the first visible corner, see {@link #getLink(int)}
+     */
+    int getLinkBegin(int idCorner) {
+        return adjacencyStart[idCorner];
+    }
+
+    /**
+     * @param idCorner Corner index
+     * @return Position after the last visible corner
+     */
+    int getLinkEnd(int idCorner) {
+        return adjacencyStart[idCorner + 1];
+    }
+
+    /**
+     * @param position Position in [getLinkBegin(idCorner), getLinkEnd(idCorner)[
+     * @return Visible corner index
+     */
+    int getLink(int position) {
+        return adjacency[position];
+    }
+
+    private static final class CornerXComparator implements Comparator<Integer> {
+        private final Coordinate[] corners;
+
+        private CornerXComparator(Coordinate[] corners) {
+            this.corners = corners;
+        }
+
+        @Override
+        public int compare(Integer o1, Integer o2) {
+            return Double.compare(corners[o1].x, corners[o2].x);
+        }
+    }
+
+    /**
+     * Compute the visible corners of corners until there is no more corner to take.
+     */
+    private final class LinkWorker implements Runnable {
+        private final int[][] rows;
+        private final int[] byX;
+        private final double[] sortedX;
+        private final double maxLinkLength;
+        private final FastObstructionTest freeFieldFinder;
+        private final AtomicInteger nextCorner;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Throwable error = null;
+
+        private LinkWorker(int[][] rows, int[] byX, double[] sortedX, double maxLinkLength,
+                           FastObstructionTest freeFieldFinder, AtomicInteger nextCorner) {
+            this.rows = rows;
+            this.byX = byX;
+            this.sortedX = sortedX;
+            this.maxLinkLength = maxLinkLength;
+            this.freeFieldFinder = freeFieldFinder;
+            this.nextCorner = nextCorner;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                // Cancelled before being started
+                return;
+            }
+            try {
+                ObstructionQueryContext context = freeFieldFinder.createQueryContext();
+                int[] row = new int[16];
+                int idCorner;
+                while ((idCorner = nextCorner.getAndIncrement()) < corners.length) {
+                    final Coordinate from = corners[idCorner];
+                    int rowSize = 0;
+                    // First corner in the x range
+                    int rank = Arrays.binarySearch(sortedX, from.x - maxLinkLength);
+                    if (rank < 0) {
+                        rank = -rank - 1;
+                    }
+                    while (rank > 0 && sortedX[rank - 1] >= from.x - maxLinkLength) {
+                        rank--;
+                    }
+                    for (; rank < byX.length && sortedX[rank] <= from.x + maxLinkLength; rank++) {
+                        final int idOther = byX[rank];
+                        if (idOther != idCorner && from.distance(corners[idOther]) <= maxLinkLength
+                                && freeFieldFinder.isFreeField(context, from, corners[idOther])) {
+                            if (rowSize == row.length) {
+                                row = Arrays.copyOf(row, rowSize * 2);
+                            }
+                            row[rowSize++] = idOther;
+                        }
+                    }
+                    int[] sortedRow = Arrays.copyOf(row, rowSize);
+                    Arrays.sort(sortedRow);
+                    rows[idCorner] = sortedRow;
+                }
+            } catch (Throwable ex) {
+                error = ex;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Wait for the end of this worker, or cancel it if it has not been started yet.
+         */
+        private void awaitOrCancel() {
+            if (claimed.compareAndSet(false, true)) {
+                return;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
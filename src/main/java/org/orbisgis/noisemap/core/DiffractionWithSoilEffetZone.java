@@ -33,32 +33,133 @@
  */
 package org.orbisgis.noisemap.core;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 /**
  * DiffractionWithGroundEffectZone work for FastObstructionTest,
  * aims to keep the 3D diffraction, first diffraction zone and last diffraction zone data, 
  * to give them to propagation process data
+ * Instances returned by {@link FastObstructionTest#getPath(ObstructionQueryContext, Coordinate, Coordinate)}
+ * are owned by the query context and overwritten by the next query.
  * @author SU Qi
  */
 public class DiffractionWithSoilEffetZone {
-           private Double[] diffractionData= new Double[3]; //3D diffraction data
-           private LineString rOZone;//receiver-first intersection zone for 3D diffraction
-           private LineString oSZone;//last intersection-source zone for 3D diffraction
-           
+           private final double[] diffractionData = new double[3]; //3D diffraction data
+           //receiver-first intersection zone for 3D diffraction
+           private final Coordinate rOZoneStart = new Coordinate();
+           private final Coordinate rOZoneEnd = new Coordinate();
+           //last intersection-source zone for 3D diffraction
+           private final Coordinate oSZoneStart = new Coordinate();
+           private final Coordinate oSZoneEnd = new Coordinate();
+
            public DiffractionWithSoilEffetZone(Double[] diffractionData, LineString rOZone, LineString oSZone){
-               this.diffractionData=diffractionData;
-               this.rOZone=rOZone;
-               this.oSZone=oSZone;
+               for (int i = 0; i < this.diffractionData.length; i++) {
+                   this.diffractionData[i] = diffractionData[i];
+               }
+               rOZoneStart.setCoordinate(rOZone.getCoordinateN(0));
+               rOZoneEnd.setCoordinate(rOZone.getCoordinateN(rOZone.getNumPoints() - 1));
+               oSZoneStart.setCoordinate(oSZone.getCoordinateN(0));
+               oSZoneEnd.setCoordinate(oSZone.getCoordinateN(oSZone.getNumPoints() - 1));
+           }
+
+           /**
+            * Copy constructor
+            * @param other Data to copy
+            */
+           public DiffractionWithSoilEffetZone(DiffractionWithSoilEffetZone other) {
+               System.arraycopy(other.diffractionData, 0, diffractionData, 0, diffractionData.length);
+               rOZoneStart.setCoordinate(other.rOZoneStart);
+               rOZoneEnd.setCoordinate(other.rOZoneEnd);
+               oSZoneStart.setCoordinate(other.oSZoneStart);
+               oSZoneEnd.setCoordinate(other.oSZoneEnd);
+           }
+
+           DiffractionWithSoilEffetZone() {
+               reset();
+           }
+
+           /**
+            * Set the default values, no useful intersections.
+            */
+           void reset() {
+               diffractionData[0] = -1;
+               diffractionData[1] = -1;
+               diffractionData[2] = -1;
+               setUndefined(rOZoneStart);
+               setUndefined(rOZoneEnd);
+               setUndefined(oSZoneStart);
+               setUndefined(oSZoneEnd);
            }
+
+           private static void setUndefined(Coordinate coordinate) {
+               coordinate.x = -1;
+               coordinate.y = -1;
+               coordinate.z = Double.NaN;
+           }
+
+           void set(double deltaDistance, double eLength, double fullDiffractionDistance,
+                    Coordinate rOStart, Coordinate rOEnd, Coordinate oSStart, Coordinate oSEnd) {
+               diffractionData[0] = deltaDistance;
+               diffractionData[1] = eLength;
+               diffractionData[2] = fullDiffractionDistance;
+               rOZoneStart.setCoordinate(rOStart);
+               rOZoneEnd.setCoordinate(rOEnd);
+               oSZoneStart.setCoordinate(oSStart);
+               oSZoneEnd.setCoordinate(oSEnd);
+           }
+
+           /**
+            * @return A copy of the diffraction data, use the other getters to avoid boxing
+            */
            public Double[] getDiffractionData(){
+               return new Double[] {diffractionData[0], diffractionData[1], diffractionData[2]};
+           }
 
-               return this.diffractionData;
+           /**
+            * @return Delta distance, -1 if there is no diffraction
+            */
+           public double getDeltaDistance() {
+               return diffractionData[0];
            }
+
+           /**
+            * @return e length, -1 if there is no diffraction
+            */
+           public double getELength() {
+               return diffractionData[1];
+           }
+
+           /**
+            * @return Full distance of the diffraction path, -1 if there is no diffraction
+            */
+           public double getFullDiffractionDistance() {
+               return diffractionData[2];
+           }
+
+           public Coordinate getROZoneStart() {
+               return rOZoneStart;
+           }
+
+           public Coordinate getROZoneEnd() {
+               return rOZoneEnd;
+           }
+
+           public Coordinate getOSZoneStart() {
+               return oSZoneStart;
+           }
+
+           public Coordinate getOSZoneEnd() {
+               return oSZoneEnd;
+           }
+
            public LineString getROZone(){
-               return this.rOZone;
+               return new GeometryFactory().createLineString(new Coordinate[] {new Coordinate(rOZoneStart),
+                       new Coordinate(rOZoneEnd)});
            }
 
            public LineString getOSZone(){
-               return this.oSZone;
+               return new GeometryFactory().createLineString(new Coordinate[] {new Coordinate(oSZoneStart),
+                       new Coordinate(oSZoneEnd)});
            }
 }
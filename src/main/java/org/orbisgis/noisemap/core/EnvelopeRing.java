@@ -0,0 +1,98 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Split of an expanding search region into the rectangles added around the region already queried.
+ *
+ * @author Nicolas Fortin
+ */
+final class EnvelopeRing {
+
+    private EnvelopeRing() {
+    }
+
+    /**
+     * @param innerEnv Region already queried
+     * @param outerEnv New search region
+     * @return Up to four rectangles covering outerEnv minus innerEnv: below, above, left and right of innerEnv.
+     * An envelope intersecting outerEnv but not innerEnv intersects at least one of them.
+     */
+    static Envelope[] split(Envelope innerEnv, Envelope outerEnv) {
+        Envelope inner = innerEnv.intersection(outerEnv);
+        if (inner.isNull()) {
+            return new Envelope[]{outerEnv};
+        }
+        Envelope[] parts = new Envelope[4];
+        int partCount = 0;
+        if (inner.getMinY() > outerEnv.getMinY()) {
+            parts[partCount++] = new Envelope(outerEnv.getMinX(), outerEnv.getMaxX(), outerEnv.getMinY(),
+                    inner.getMinY());
+        }
+        if (inner.getMaxY() < outerEnv.getMaxY()) {
+            parts[partCount++] = new Envelope(outerEnv.getMinX(), outerEnv.getMaxX(), inner.getMaxY(),
+                    outerEnv.getMaxY());
+        }
+        if (inner.getMinX() > outerEnv.getMinX()) {
+            parts[partCount++] = new Envelope(outerEnv.getMinX(), inner.getMinX(), inner.getMinY(),
+                    inner.getMaxY());
+        }
+        if (inner.getMaxX() < outerEnv.getMaxX()) {
+            parts[partCount++] = new Envelope(inner.getMaxX(), outerEnv.getMaxX(), inner.getMinY(),
+                    inner.getMaxY());
+        }
+        Envelope[] ret = new Envelope[partCount];
+        System.arraycopy(parts, 0, ret, 0, partCount);
+        return ret;
+    }
+
+    /**
+     * Rectangles share their borders, an item is returned with the first rectangle it intersects.
+     *
+     * @param parts  Rectangles returned by {@link #split(Envelope, Envelope)}
+     * @param idPart Index of the rectangle being queried
+     * @param item   Item envelope
+     * @return True if the item intersects a rectangle before idPart
+     */
+    static boolean intersectsPrevious(Envelope[] parts, int idPart, Envelope item) {
+        for (int i = 0; i < idPart; i++) {
+            if (parts[i].intersects(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -33,27 +33,24 @@
  */
 package org.orbisgis.noisemap.core;
 
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Stack;
 
 import com.vividsolutions.jts.algorithm.Angle;
-import com.vividsolutions.jts.math.Vector2D;
+import com.vividsolutions.jts.algorithm.RobustDeterminant;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.Polygon;
 
 /**
  * FastObstructionTest speed up the search of
  * visibility test and get the 3D diffraction data. TODO  using income data to do something called
  * visibility culling.
+ * The mesh is not modified by queries, one instance can be shared by multiple threads as long as each
+ * thread use its own {@link ObstructionQueryContext}.
  *
  * @author Nicolas Fortin
  * @author SU Qi
@@ -62,17 +59,21 @@ public class FastObstructionTest {
     public static final double epsilon = 1e-7;
     public static final double wideAngleTranslationEpsilon = 0.01;
     public static final double receiverDefaultHeight = 1.6;
-    private long nbObstructionTest = 0;
-    private List<Triangle> triVertices;
-    private List<Coordinate> vertices;
-    private List<Triangle> triNeighbors; // Neighbors
-    private List<MeshBuilder.PolygonWithHeight> polygonWithHeight = new ArrayList<MeshBuilder.PolygonWithHeight>();//list polygon with height
-
-    private QueryGeometryStructure triIndex = null; //TODO remove
-    private int lastFountPointTriTest = 0;
-    private List<Float> verticesOpenAngle = null;
-    private List<Coordinate> verticesOpenAngleTranslated = null; /*Open angle*/
-    private boolean hasBuildingWithHeight;
+    /** Pseudo angles of {@link JarvisMarch#pseudoAngle(double, double)} are lower than this value */
+    private static final double JARVIS_MAX_ANGLE = 4;
+    private final AbstractTriangleMesh mesh;
+    /** Average height of buildings, by building id - 1 */
+    private final double[] buildingHeights;
+
+    /** Find triangle by coordinate */
+    private final TriangleGridLocator triangleLocator;
+    /** Query context of methods called without context */
+    private final ThreadLocal<ObstructionQueryContext> defaultQueryContext = new ThreadLocal<ObstructionQueryContext>();
+    /** Open angle by vertex, null until the first wide angle points query */
+    private FloatBuffer verticesOpenAngle = null;
+    /** Open angle point x, y, z by vertex, translated toward the open side of the vertex */
+    private DoubleBuffer verticesOpenAngleTranslated = null;
+    private final boolean hasBuildingWithHeight;
     //private LinkedList<Integer> BuildingTriangleIndex= new LinkedList<Integer>(); /* the buildings list between source and receiver. Reconstruction after get a new source-receiver */
     //private LinkedList<Coordinate> intersections= new LinkedList<Coordinate>();/* the intersection of the segment source-receiver and building's side. Reconstruction after get a new source-receiver */
 
@@ -95,42 +96,93 @@ public class FastObstructionTest {
      */
     public FastObstructionTest(LinkedList<MeshBuilder.PolygonWithHeight> buildings,
                                List<Triangle> triangles, List<Triangle> triNeighbors, List<Coordinate> points) {
+        this(buildings, TriangleMesh.fromLists(triangles, triNeighbors, points));
+    }
 
-        List<MeshBuilder.PolygonWithHeight> polygonWithHeightArray = new ArrayList<MeshBuilder.PolygonWithHeight>(buildings);
-        hasBuildingWithHeight = false;
-        for(MeshBuilder.PolygonWithHeight poly : polygonWithHeightArray) {
-            if(poly.hasHeight()) {
-                hasBuildingWithHeight = true;
-                break;
-            }
-        }
-        GeometryFactory factory = new GeometryFactory();
-        this.polygonWithHeight = polygonWithHeightArray;
-        this.triVertices = triangles;
-        this.triNeighbors = triNeighbors;
-        this.vertices = points;
+    /**
+     * Constructor from a mesh stored in arrays, see {@link MeshBuilder#getTriangleMesh()}
+     *
+     * @param buildings list of buildings with their height
+     * @param mesh      Triangles, with the building of the triangle e.x: buildingID=1 <=> buildings[0],
+     *                  neighbors and vertices. Unknown altitudes of vertices are set to 0.
+     */
+    public FastObstructionTest(List<MeshBuilder.PolygonWithHeight> buildings, TriangleMesh mesh) {
+        //give a average height to each building
+        this(setUnknownAltitude(mesh), setAverageBuildingHeight(buildings), hasHeight(buildings), null, null, null);
+    }
+
+    /**
+     * Constructor from a mesh and buildings already processed, see {@link MeshCache}
+     *
+     * @param mesh                        Triangles, neighbors and vertices
+     * @param buildingHeights             Average height of buildings, by building id - 1
+     * @param hasBuildingWithHeight       True if a building height has been set
+     * @param verticesOpenAngle           Open angle by vertex, null to compute it on the first query
+     * @param verticesOpenAngleTranslated Open angle point x, y, z by vertex, null to compute it on the first query
+     * @param triangleLocator             Triangle grid of the mesh, null to build it
+     */
+    FastObstructionTest(AbstractTriangleMesh mesh, double[] buildingHeights, boolean hasBuildingWithHeight,
+                        FloatBuffer verticesOpenAngle, DoubleBuffer verticesOpenAngleTranslated,
+                        TriangleGridLocator triangleLocator) {
+        this.buildingHeights = buildingHeights;
+        this.hasBuildingWithHeight = hasBuildingWithHeight;
+        this.verticesOpenAngle = verticesOpenAngle;
+        this.verticesOpenAngleTranslated = verticesOpenAngleTranslated;
+        this.mesh = mesh;
 
         // /////////////////////////////////
         // Feed Query Structure to find triangle, by coordinate
 
-        triIndex = new QueryQuadTree();
-        int triind = 0;
-        for (Triangle tri : this.triVertices) {
-            final Coordinate[] triCoords = {vertices.get(tri.getA()),
-                    vertices.get(tri.getB()), vertices.get(tri.getC()),
-                    vertices.get(tri.getA())};
-            Polygon newpoly = factory.createPolygon(
-                    factory.createLinearRing(triCoords), null);
-            triIndex.appendGeometry(newpoly, triind);
-            triind++;
+        this.triangleLocator = triangleLocator != null ? triangleLocator : new TriangleGridLocator(mesh);
+    }
+
+    /**
+     * Queries must not update shared vertices, unknown altitude is set here once
+     * @return The given mesh
+     */
+    private static TriangleMesh setUnknownAltitude(TriangleMesh mesh) {
+        for (int idVertex = 0; idVertex < mesh.getVertexCount(); idVertex++) {
+            if (Double.isNaN(mesh.getZ(idVertex))) {
+                mesh.setZ(idVertex, 0.);
+            }
         }
-        //give a average height to each building
-        setAverageBuildingHeight(this.polygonWithHeight);
+        return mesh;
     }
 
+    private static boolean hasHeight(List<MeshBuilder.PolygonWithHeight> buildings) {
+        for(MeshBuilder.PolygonWithHeight poly : buildings) {
+            if(poly.hasHeight()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+
+    /**
+     * @return A new query context, to be used by a single thread
+     */
+    public ObstructionQueryContext createQueryContext() {
+        return new ObstructionQueryContext(mesh.getTriangleCount());
+    }
+
+    /**
+     * @return Query context of the calling thread, used by methods without context parameter
+     */
+    private ObstructionQueryContext getDefaultQueryContext() {
+        ObstructionQueryContext context = defaultQueryContext.get();
+        if (context == null) {
+            context = createQueryContext();
+            defaultQueryContext.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * @return Number of free field tests done by the calling thread through methods without context parameter
+     */
     public long getNbObstructionTest() {
-        return nbObstructionTest;
+        return getDefaultQueryContext().getNbObstructionTest();
     }
 
     /**
@@ -139,7 +191,7 @@ public class FastObstructionTest {
      * @return Triangle list
      */
     public List<Triangle> getTriangles() {
-        return triVertices;
+        return mesh.getTriangles();
     }
 
 
@@ -147,246 +199,298 @@ public class FastObstructionTest {
      * @return vertices list, only for debug and unit test purpose
      */
     public List<Coordinate> getVertices() {
-        return vertices;
+        return mesh.getVertices();
+    }
+
+    /**
+     * @return Triangles, neighbors and vertices of the mesh
+     */
+    public AbstractTriangleMesh getTriangleMesh() {
+        return mesh;
+    }
+
+    /**
+     * @return Grid used to find the triangle of a coordinate
+     */
+    TriangleGridLocator getTriangleLocator() {
+        return triangleLocator;
+    }
+
+    /**
+     * @return Average height of buildings, by building id - 1
+     */
+    double[] getBuildingHeights() {
+        return buildingHeights;
     }
 
+    /**
+     * @return True if a building height has been set
+     */
+    boolean hasBuildingWithHeight() {
+        return hasBuildingWithHeight;
+    }
 
     /**
-     * Compute the next triangle index.Find the shortest intersection point of
-     * triIndex segments to the p1 coordinate
+     * @return Open angle by vertex
+     */
+    synchronized FloatBuffer getVerticesOpenAngle() {
+        computeVerticesOpenAngle();
+        return verticesOpenAngle.duplicate();
+    }
+
+    /**
+     * @return Open angle point x, y, z by vertex
+     */
+    synchronized DoubleBuffer getVerticesOpenAngleTranslated() {
+        computeVerticesOpenAngle();
+        return verticesOpenAngleTranslated.duplicate();
+    }
+
+    /**
+     * Copy the corners of a triangle into the coordinates of a query context
      *
-     * @param triIndex        Triangle index
-     * @param propagationLine Propagation line
-     * @return Next triangle to the specified direction, -1 if there is no
-     * triangle neighbor.
+     * @param triIndex Triangle index
+     * @param context  Query context, triangle corners are set in triA, triB and triC
      */
-    private int getNextTri(final int triIndex,
-                           final LineSegment propagationLine,
-                           HashSet<Integer> navigationHistory) {
-            //NonRobustLineIntersector linters = new NonRobustLineIntersector();
-            final Triangle tri = this.triVertices.get(triIndex);
-        int nearestIntersectionSide = -1;
-        int idneigh;
-
-        double nearestIntersectionPtDist = Double.MAX_VALUE;
-        // Find intersection pt
-        final Coordinate aTri = this.vertices.get(tri.getA());
-        final Coordinate bTri = this.vertices.get(tri.getB());
-        final Coordinate cTri = this.vertices.get(tri.getC());
-        double distline_line;
-        Coordinate intersection = new Coordinate();
-        //if there is no intersection, by default we set the - max value to Topography intersection to avoid the problem
-        double zTopoIntersection = -Double.MAX_VALUE;
-        double zRandSIntersection;
-        // Intersection First Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(2);
-        //add: search triangle without height
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(aTri, bTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist && this.triVertices.get(idneigh).getBuidlingID() == 0) {
-                nearestIntersectionPtDist = distline_line;
-                nearestIntersectionSide = 2;
-                //we will get the intersection point coordinate with(x,y,NaN)
-                if (!(propagationLine.intersection(new LineSegment(aTri, bTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(aTri, bTri)));
-                    //get this point Z using interested segment.
-                    zTopoIntersection = calculateLinearInterpolation(aTri, bTri, intersection);
-                }
-            }
-        }
-        // Intersection Second Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(0);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(bTri, cTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist && this.triVertices.get(idneigh).getBuidlingID() == 0) {
-                nearestIntersectionPtDist = distline_line;
-                nearestIntersectionSide = 0;
-                if (!(propagationLine.intersection(new LineSegment(bTri, cTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(bTri, cTri)));
-                    //get this point Z using interested segment.
-                    zTopoIntersection = calculateLinearInterpolation(bTri, cTri, intersection);
-                }
+    private void loadTriangle(int triIndex, ObstructionQueryContext context) {
+        mesh.getCoordinate(mesh.getVertex(triIndex, 0), context.triA);
+        mesh.getCoordinate(mesh.getVertex(triIndex, 1), context.triB);
+        mesh.getCoordinate(mesh.getVertex(triIndex, 2), context.triC);
+    }
 
 
+    /**
+     * Find the side of a triangle crossed by the line p0 p1 when going from p0 to p1. Sides are tested with the
+     * orientation of their vertices from the line, the side used to enter into the triangle is not tested.
+     * A side is crossed when its first vertex in counter-clockwise order is on the right of the line and its second
+     * vertex is on the left. A side crossed between its vertices is preferred to a side crossed at a vertex.
+     *
+     * @param context      Query context, triangle corners are loaded in its coordinates
+     * @param triIndex     Triangle index
+     * @param enteringSide Side crossed to enter into the triangle, -1 for the first triangle
+     * @param p0           First point of the propagation line
+     * @param p1           Second point of the propagation line
+     * @return Crossed side [0-2], opposite to the corner of the same rank. -1 if the line does not leave the triangle
+     */
+    private int getExitSide(ObstructionQueryContext context, final int triIndex, final int enteringSide,
+                            final Coordinate p0, final Coordinate p1) {
+        loadTriangle(triIndex, context);
+        final int triOrientation = RobustDeterminant.orientationIndex(context.triA, context.triB, context.triC);
+        if (triOrientation == 0) {
+            return -1;
+        }
+        // Orientation of corners, as if the triangle was counter-clockwise
+        final int orientationA = RobustDeterminant.orientationIndex(p0, p1, context.triA) * triOrientation;
+        final int orientationB = RobustDeterminant.orientationIndex(p0, p1, context.triB) * triOrientation;
+        final int orientationC = RobustDeterminant.orientationIndex(p0, p1, context.triC) * triOrientation;
+        int vertexExitSide = -1;
+        // Side 2 from A to B, side 0 from B to C, side 1 from C to A
+        for (int side = 2, tested = 0; tested < 3; side = (side + 1) % 3, tested++) {
+            if (side == enteringSide) {
+                continue;
+            }
+            final int first = side == 2 ? orientationA : side == 0 ? orientationB : orientationC;
+            final int second = side == 2 ? orientationB : side == 0 ? orientationC : orientationA;
+            if (first < 0 && second > 0) {
+                return side;
+            } else if (vertexExitSide == -1 && first <= 0 && second >= 0 && first != second) {
+                vertexExitSide = side;
             }
         }
+        return vertexExitSide;
+    }
 
-        // Intersection Third Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(1);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(cTri, aTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist && this.triVertices.get(idneigh).getBuidlingID() == 0) {
-                nearestIntersectionSide = 1;
-                if (!(propagationLine.intersection(new LineSegment(cTri, aTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(cTri, aTri)));
-                    //get this point Z using interested line.
-
-                    zTopoIntersection = calculateLinearInterpolation(cTri, aTri, intersection);
-                }
+    /**
+     * @param triIndex  Triangle index
+     * @param neighbor  Neighbor triangle index
+     * @return Side of the triangle shared with the neighbor, -1 if the triangles are not neighbors
+     */
+    private int getSharedSide(final int triIndex, final int neighbor) {
+        for (int side = 0; side < 3; side++) {
+            if (mesh.getNeighbor(triIndex, side) == neighbor) {
+                return side;
             }
         }
-        if (nearestIntersectionSide != -1) {
-            //get this point Z using propagation line
-            zRandSIntersection = calculateLinearInterpolation(propagationLine.p0, propagationLine.p1, intersection);
-            //If the Z calculated by propagation Line >= Z calculated by intersected line, we will find next triangle
-            if (zRandSIntersection >= zTopoIntersection) {
-                return this.triNeighbors.get(triIndex).get(nearestIntersectionSide);
-            }
-            //Else, the Z of Topographic intersection > Z calculated by propagation Line, the Topographic intersection will block the propagation line
-            else {
-                //Propagation line blocked by the topography
-                return -1;
-            }
+        return -1;
+    }
+
+    /**
+     * Test if the propagation line is blocked when it leaves a triangle, by a building or by the topography.
+     *
+     * @param context  Query context, corners of the triangle are loaded, see {@link #getExitSide}
+     * @param exitSide Crossed side of the triangle
+     * @param nextTri  Neighbor triangle on the crossed side
+     * @param p0       First point of the propagation line
+     * @param p1       Second point of the propagation line
+     * @return True if the propagation line is blocked
+     */
+    private boolean isBlocked(ObstructionQueryContext context, final int exitSide, final int nextTri,
+                              final Coordinate p0, final Coordinate p1) {
+        if (mesh.getBuildingId(nextTri) != 0) {
+            // Blocked by a building
+            return true;
+        }
+        final Coordinate sideStart = exitSide == 2 ? context.triA : exitSide == 0 ? context.triB : context.triC;
+        final Coordinate sideEnd = exitSide == 2 ? context.triB : exitSide == 0 ? context.triC : context.triA;
+        Coordinate intersection = context.intersection;
+        //if there is no intersection, by default we set the - max value to Topography intersection to avoid the problem
+        double zTopoIntersection = -Double.MAX_VALUE;
+        if (computeIntersection(p0, p1, sideStart, sideEnd, intersection)) {
+            //get this point Z using interested segment.
+            zTopoIntersection = calculateLinearInterpolation(sideStart, sideEnd, intersection);
         } else {
-            return -1;
+            intersection.x = 0;
+            intersection.y = 0;
+            intersection.z = Double.NaN;
         }
+        //get this point Z using propagation line
+        double zRandSIntersection = calculateLinearInterpolation(p0, p1, intersection);
+        //If the Z calculated by propagation Line >= Z calculated by intersected line, we will find next triangle
+        //else the propagation line is blocked by the topography
+        return zRandSIntersection < zTopoIntersection;
     }
 
     /**
-     * Compute the next triangle index.Find the shortest intersection point of
-     * triIndex segments to the p1 coordinate and add the triangles in building to the list
-     * and add the point of intersection(between segment of source-receiver and segment of triangle) to the list
+     * Walk through the triangles crossed by the propagation line from context.p1 to context.p2. Crossed triangles
+     * and their exit sides are stored in the context, see {@link ObstructionQueryContext#pushCrossedSide}.
      *
-     * @param triIndex        Triangle index
-     * @param propagationLine Propagation line
+     * @param context         Query context
+     * @param curTri          Triangle of context.p1
+     * @param stopWhenBlocked True to stop at the first obstruction, false to walk up to the triangle of context.p2
+     * @return True if the triangle of context.p2 is reached without obstruction
      */
-    private TriIdWithIntersection getNextTriWithIntersection(final int triIndex,
-                                                             final LineSegment propagationLine,
-                                                             HashSet<Integer> navigationHistory) {
-        //NonRobustLineIntersector linters = new NonRobustLineIntersector();
-        final Triangle tri = this.triVertices.get(triIndex);
-        int nearestIntersectionSide = -1;
-        int idneigh;
-        double nearestIntersectionPtDist = Double.MAX_VALUE;
-        // Find intersection pt
-        final Coordinate aTri = this.vertices.get(tri.getA());
-        final Coordinate bTri = this.vertices.get(tri.getB());
-        final Coordinate cTri = this.vertices.get(tri.getC());
-        double distline_line;
-        // Intersection First Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(2);
-        Coordinate intersection = new Coordinate();
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(aTri, bTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist) {
-                nearestIntersectionPtDist = distline_line;
-                nearestIntersectionSide = 2;
-                if (!(propagationLine.intersection(new LineSegment(aTri, bTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(aTri, bTri)));
-                }
+    private boolean walkPropagationLine(ObstructionQueryContext context, int curTri, boolean stopWhenBlocked) {
+        final Coordinate p1 = context.p1;
+        final Coordinate p2 = context.p2;
+        context.clearCrossedSides();
+        boolean freeField = true;
+        // The line goes forward at each step, the step limit only guards against an inconsistent mesh
+        int enteringSide = -1;
+        for (int step = 0; step <= mesh.getTriangleCount(); step++) {
+            if (dotInTri(p2, curTri)) {
+                return freeField;
             }
-        }
-        // Intersection Second Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(0);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(bTri, cTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist) {
-                nearestIntersectionPtDist = distline_line;
-                nearestIntersectionSide = 0;
-                if (!(propagationLine.intersection(new LineSegment(bTri, cTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(bTri, cTri)));
+            final int exitSide = getExitSide(context, curTri, enteringSide, p1, p2);
+            if (exitSide == -1) {
+                return false;
+            }
+            final int nextTri = mesh.getNeighbor(curTri, exitSide);
+            if (nextTri == -1) {
+                // Outside of the mesh
+                return false;
+            }
+            context.pushCrossedSide(curTri, exitSide);
+            if (freeField && isBlocked(context, exitSide, nextTri, p1, p2)) {
+                freeField = false;
+                if (stopWhenBlocked) {
+                    return false;
                 }
             }
+            enteringSide = getSharedSide(nextTri, curTri);
+            curTri = nextTri;
         }
+        return false;
+    }
 
-        // Intersection Third Side
-        idneigh = this.triNeighbors.get(
-                triIndex).get(1);
-        if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            distline_line = propagationLine.distance(new LineSegment(cTri, aTri));
-            if (distline_line < FastObstructionTest.epsilon &&
-                    distline_line < nearestIntersectionPtDist) {
-                nearestIntersectionSide = 1;
-                if (!(propagationLine.intersection(new LineSegment(cTri, aTri)) == null)) {
-                    intersection = new Coordinate(propagationLine.intersection(new LineSegment(cTri, aTri)));
-                }
-            }
+    /**
+     * Compute the intersection of the segment p0 p1 with the line a b. The segments must be known to intersect.
+     *
+     * @param p0           First point of the first segment
+     * @param p1           Second point of the first segment
+     * @param a            First point of the second segment
+     * @param b            Second point of the second segment
+     * @param intersection Intersection coordinate (z is NaN)
+     * @return False if the segments are collinear, intersection is not modified
+     */
+    private static boolean computeIntersection(Coordinate p0, Coordinate p1, Coordinate a, Coordinate b,
+                                               Coordinate intersection) {
+        final double rx = p1.x - p0.x;
+        final double ry = p1.y - p0.y;
+        final double sx = b.x - a.x;
+        final double sy = b.y - a.y;
+        final double denom = rx * sy - ry * sx;
+        if (denom == 0) {
+            return false;
         }
+        double t = ((a.x - p0.x) * sy - (a.y - p0.y) * sx) / denom;
+        // Segments are closer than epsilon, keep the point on p0 p1
+        t = Math.max(0, Math.min(1, t));
+        intersection.x = p0.x + t * rx;
+        intersection.y = p0.y + t * ry;
+        intersection.z = Double.NaN;
+        return true;
+    }
 
+    /**
+     * Add to the vertical profile the intersection of the propagation line with a crossed triangle side, with the
+     * altitude of the building or of the topography. The intersection is not kept if it is between two triangles
+     * of the same building.
+     *
+     * @param triIndex                Triangle index, its corners are loaded in the context
+     * @param nearestIntersectionSide Side crossed by the propagation line, with a neighbor triangle
+     * @param context                 Query context, the propagation line is context.p1 context.p2
+     * @param profileSize             Number of points in the profile
+     * @return New number of points in the profile
+     */
+    private int addProfileIntersection(final int triIndex, final int nearestIntersectionSide,
+                                       ObstructionQueryContext context, int profileSize) {
+        final int triBuildingId = mesh.getBuildingId(triIndex);
         //these points will be used by calculate Linear interpolation
-        Coordinate p1 = new Coordinate();
-        Coordinate p2 = new Coordinate();
-
-        switch (nearestIntersectionSide) {
-            case 0: {
-                p1 = bTri;
-                p2 = cTri;
-                break;
-            }
-            case 1: {
-                p1 = cTri;
-                p2 = aTri;
-                break;
-            }
-            case 2: {
-                p1 = aTri;
-                p2 = bTri;
-                break;
-            }
-        }
-        int BuildingNextTriID = this.triNeighbors.get(triIndex).get(nearestIntersectionSide);
+        final Coordinate p1 = nearestIntersectionSide == 2 ? context.triA :
+                nearestIntersectionSide == 0 ? context.triB : context.triC;
+        final Coordinate p2 = nearestIntersectionSide == 2 ? context.triB :
+                nearestIntersectionSide == 0 ? context.triC : context.triA;
+        final Coordinate intersection = context.intersection;
+        intersection.x = 0;
+        intersection.y = 0;
+        intersection.z = Double.NaN;
+        computeIntersection(context.p1, context.p2, p1, p2, intersection);
+        int buildingNextTriID = mesh.getNeighbor(triIndex, nearestIntersectionSide);
         boolean triNeighborIsBuilding = false;//check if the point is the intersection of triangle In the same building
         boolean intersectionPointOnBuilding = false;//check if the intersection point is On the building
         double nextTriHeight = 0.;
 
-        if (this.triVertices.get(BuildingNextTriID).getBuidlingID() > 0) {
-            nextTriHeight = this.polygonWithHeight.get(this.triVertices.get(BuildingNextTriID).getBuidlingID() - 1).getHeight();
+        if (mesh.getBuildingId(buildingNextTriID) > 0) {
+            nextTriHeight = buildingHeights[mesh.getBuildingId(buildingNextTriID) - 1];
         }
 
-        if (tri.getBuidlingID() > 0 && (nextTriHeight > 0)) {
+        if (triBuildingId > 0 && (nextTriHeight > 0)) {
             //intersection is between two triangle in the same building, so we will not keep intersection point
             triNeighborIsBuilding = true;
         }
         //add height to this intersection
-        if (tri.getBuidlingID() == 0 && nextTriHeight > 0) {
+        if (triBuildingId == 0 && nextTriHeight > 0) {
             intersectionPointOnBuilding = true;
-            intersection.setOrdinate(2, nextTriHeight);
+            intersection.z = nextTriHeight;
         }
-
-                /*
-                //not useful for the Max function because we merged all buildings, 
-                //so we don't have intersection between the two differents buildings and the building height will be the same in a building
-                else if(tri.getBuildingID()>0&&nextTriHeight>0){
-                    intersection.z=nextTriHeight;
-                            //Math.max(nextTriHeight, this.polygonWithHeight.get(tri.getBuildingID()-1).getHeight());
-                }
-                */
-        else if (tri.getBuidlingID() > 0 && Double.compare(nextTriHeight, 0.) == 0) {
-            intersection.setOrdinate(2, this.polygonWithHeight.get(tri.getBuidlingID() - 1).getHeight());
+        else if (triBuildingId > 0 && Double.compare(nextTriHeight, 0.) == 0) {
+            intersection.z = buildingHeights[triBuildingId - 1];
             intersectionPointOnBuilding = true;
         }
         //if in these two triangles we have no building
-        else if (tri.getBuidlingID() == 0 && Double.compare(nextTriHeight, 0.) == 0) {
-            intersection.setOrdinate(2, calculateLinearInterpolation(p1, p2, intersection));
+        else if (triBuildingId == 0 && Double.compare(nextTriHeight, 0.) == 0) {
+            intersection.z = calculateLinearInterpolation(p1, p2, intersection);
         }
 
-        if (nearestIntersectionSide != -1) {
-
-            //if intersection is not the intersection in the same building, save this intersection to intersection list
-            if (!triNeighborIsBuilding && !propagationLine.p0.equals(intersection) && !propagationLine.p1.equals(intersection)) {
-
-                //Building which is between ray source-receiver have 2 intersections,
-                //If the intersection is corner of the building, intersections will save 2 times with the same value
-                return new TriIdWithIntersection(BuildingNextTriID, intersection, intersectionPointOnBuilding);
-            } else {
-                return new TriIdWithIntersection(BuildingNextTriID, new Coordinate(-1, -1, -1), intersectionPointOnBuilding);
-            }
-
+        //if intersection is not the intersection in the same building, save this intersection to the profile
+        if (!triNeighborIsBuilding && !context.p1.equals(intersection) && !context.p2.equals(intersection)) {
+            //Building which is between ray source-receiver have 2 intersections,
+            //If the intersection is corner of the building, intersections will save 2 times with the same value
+            setProfilePoint(context, profileSize, intersection, intersectionPointOnBuilding);
+            return profileSize + 1;
         } else {
-            return new TriIdWithIntersection(-1, new Coordinate(-1, -1, -1), intersectionPointOnBuilding);
+            return profileSize;
         }
     }
 
+    private static void setProfilePoint(ObstructionQueryContext context, int index, Coordinate point,
+                                        boolean onBuilding) {
+        context.profileX[index] = point.x;
+        context.profileY[index] = point.y;
+        context.profileZ[index] = point.z;
+        context.profileOnBuilding[index] = onBuilding;
+    }
+
     /**
      * Fast dot in triangle test
      * <p/>
@@ -398,18 +502,21 @@ public class FastObstructionTest {
      * @param c Coordinate of the C vertex of triangle
      * @return True if dot is in triangle
      */
-    private boolean dotInTri(Coordinate p, Coordinate a, Coordinate b,
+    private static boolean dotInTri(Coordinate p, Coordinate a, Coordinate b,
                              Coordinate c) {
-        Vector2D v0 = new Vector2D(c.x - a.x, c.y - a.y);
-        Vector2D v1 = new Vector2D(b.x - a.x, b.y - a.y);
-        Vector2D v2 = new Vector2D(p.x - a.x, p.y - a.y);
+        final double v0x = c.x - a.x;
+        final double v0y = c.y - a.y;
+        final double v1x = b.x - a.x;
+        final double v1y = b.y - a.y;
+        final double v2x = p.x - a.x;
+        final double v2y = p.y - a.y;
 
         // Compute dot products
-        double dot00 = v0.dot(v0);
-        double dot01 = v0.dot(v1);
-        double dot02 = v0.dot(v2);
-        double dot11 = v1.dot(v1);
-        double dot12 = v1.dot(v2);
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
 
         // Compute barycentric coordinates
         double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
@@ -422,33 +529,64 @@ public class FastObstructionTest {
 
     }
 
+    private boolean dotInTri(Coordinate p, int triIndex) {
+        final int a = mesh.getVertex(triIndex, 0);
+        final int b = mesh.getVertex(triIndex, 1);
+        final int c = mesh.getVertex(triIndex, 2);
+        final double ax = mesh.getX(a);
+        final double ay = mesh.getY(a);
+        final double v0x = mesh.getX(c) - ax;
+        final double v0y = mesh.getY(c) - ay;
+        final double v1x = mesh.getX(b) - ax;
+        final double v1y = mesh.getY(b) - ay;
+        final double v2x = p.x - ax;
+        final double v2y = p.y - ay;
+
+        // Same computation as dotInTri(Coordinate, Coordinate, Coordinate, Coordinate)
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
+
+        double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+        double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
+        double v = (dot00 * dot12 - dot01 * dot02) * invDenom;
+
+        return (u > (0. - epsilon)) && (v > (0. - epsilon))
+                && (u + v < (1. + epsilon));
+    }
+
     Coordinate[] getTriangle(int triIndex) {
-        final Triangle tri = this.triVertices.get(triIndex);
-        return new Coordinate[]{this.vertices.get(tri.getA()),
-                this.vertices.get(tri.getB()), this.vertices.get(tri.getC())};
+        return new Coordinate[]{mesh.getCoordinate(mesh.getVertex(triIndex, 0)),
+                mesh.getCoordinate(mesh.getVertex(triIndex, 1)), mesh.getCoordinate(mesh.getVertex(triIndex, 2))};
     }
 
     /**
      * Return the triangle id from a point coordinate inside the triangle
      *
-     * @param pt Point test
+     * @param context Query context
+     * @param slot    Cache slot of the last found triangle,
+     * {@link ObstructionQueryContext#FIRST_POINT} or {@link ObstructionQueryContext#SECOND_POINT}
+     * @param pt      Point test
      * @return Triangle Id, Or -1 if no triangle has been found
      */
-
-    private int getTriangleIdByCoordinate(Coordinate pt) {
+    private int getTriangleIdByCoordinate(ObstructionQueryContext context, int slot, Coordinate pt) {
         // Shortcut, test if the last found triangle contain this point, if not
-        // use the quadtree
-        Coordinate[] trit = getTriangle(lastFountPointTriTest);
-        if (dotInTri(pt, trit[0], trit[1], trit[2])) {
-            return lastFountPointTriTest;
+        // use the grid
+        final int lastFoundTri = context.lastFoundTri[slot];
+        if (dotInTri(pt, lastFoundTri)) {
+            return lastFoundTri;
+        }
+        final int idCell = triangleLocator.getCell(pt.x, pt.y);
+        if (idCell == -1) {
+            return -1;
         }
-        Envelope ptEnv = new Envelope(pt);
-        Iterator<Integer> res = triIndex.query(new Envelope(ptEnv));
-        while (res.hasNext()) {
-            int triId = res.next();
-            Coordinate[] tri = getTriangle(triId);
-            if (dotInTri(pt, tri[0], tri[1], tri[2])) {
-                lastFountPointTriTest = triId;
+        final int end = triangleLocator.getCellEnd(idCell);
+        for (int position = triangleLocator.getCellBegin(idCell); position < end; position++) {
+            final int triId = triangleLocator.getTriangle(position);
+            if (dotInTri(pt, triId)) {
+                context.lastFoundTri[slot] = triId;
                 return triId;
             }
         }
@@ -524,60 +662,72 @@ public class FastObstructionTest {
      * @param maxAngle Maximum angle [0-2Pi]
      * @return List of corners within parameters range
      */
-    public List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
+    public synchronized List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
+        final int vertexCount = mesh.getVertexCount();
         List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
-                vertices.size());
+                vertexCount);
+        computeVerticesOpenAngle();
+        for (int idvert = 0; idvert < vertexCount; idvert++) {
+            float angleVertex = verticesOpenAngle.get(idvert);
+            if (angleVertex >= minAngle && angleVertex <= maxAngle) {
+                wideAnglePts.add(new Coordinate(verticesOpenAngleTranslated.get(idvert * 3),
+                        verticesOpenAngleTranslated.get(idvert * 3 + 1),
+                        verticesOpenAngleTranslated.get(idvert * 3 + 2)));
+            }
+        }
+        return wideAnglePts;
+    }
+
+    /**
+     * Compute the open angle of vertices, if not done yet
+     */
+    private void computeVerticesOpenAngle() {
+        final int vertexCount = mesh.getVertexCount();
         if (verticesOpenAngle == null) {
-            verticesOpenAngle = new ArrayList<Float>(vertices.size()); // Reserve
-            // size
-            verticesOpenAngleTranslated = new ArrayList<Coordinate>(
-                    vertices.size());
+            float[] openAngles = new float[vertexCount];
+            double[] translated = new double[vertexCount * 3];
             // Vertex open angle. For each vertex
             // [ccwmin,ccwmax,ccwmin,ccwmax,..]
             ArrayList<ArrayList<Double>> verticesOpenAnglesTuples = new ArrayList<ArrayList<Double>>(
-                    vertices.size());
-            for (int idvert = 0; idvert < vertices.size(); idvert++) {
-                verticesOpenAngle.add(0.f);
+                    vertexCount);
+            for (int idvert = 0; idvert < vertexCount; idvert++) {
                 verticesOpenAnglesTuples.add(new ArrayList<Double>());
             }
 
 
-            for (Triangle tri : this.triVertices) {
-                if (tri.getBuidlingID() < 1) {
+            for (int idTri = 0; idTri < mesh.getTriangleCount(); idTri++) {
+                if (mesh.getBuildingId(idTri) < 1) {
                     // Compute angle at each corner, then add to vertices angle
                     // array
-                    Coordinate triA = vertices.get(tri.getA());
-                    Coordinate triB = vertices.get(tri.getB());
-                    Coordinate triC = vertices.get(tri.getC());
+                    final int a = mesh.getVertex(idTri, 0);
+                    final int b = mesh.getVertex(idTri, 1);
+                    final int c = mesh.getVertex(idTri, 2);
+                    Coordinate triA = mesh.getCoordinate(a);
+                    Coordinate triB = mesh.getCoordinate(b);
+                    Coordinate triC = mesh.getCoordinate(c);
                     // Add A vertex min/max angle
-                    updateMinMax(tri.getA(), triA, triB, triC,
+                    updateMinMax(a, triA, triB, triC,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getA(),
-                            (float) (verticesOpenAngle.get(tri.getA()) + Angle
-                                    .angleBetween(triB, triA, triC))
-                    );
+                    openAngles[a] = (float) (openAngles[a] + Angle
+                            .angleBetween(triB, triA, triC));
                     // Add B vertex angle
-                    updateMinMax(tri.getB(), triB, triC, triA,
+                    updateMinMax(b, triB, triC, triA,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getB(),
-                            (float) (verticesOpenAngle.get(tri.getB()) + Angle
-                                    .angleBetween(triA, triB, triC))
-                    );
+                    openAngles[b] = (float) (openAngles[b] + Angle
+                            .angleBetween(triA, triB, triC));
                     // Add C vertex angle
-                    updateMinMax(tri.getC(), triC, triA, triB,
+                    updateMinMax(c, triC, triA, triB,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getC(),
-                            (float) (verticesOpenAngle.get(tri.getC()) + Angle
-                                    .angleBetween(triB, triC, triA))
-                    );
+                    openAngles[c] = (float) (openAngles[c] + Angle
+                            .angleBetween(triB, triC, triA));
                 }
             }
 
-            for (int idvert = 0; idvert < vertices.size(); idvert++) {
+            for (int idvert = 0; idvert < vertexCount; idvert++) {
                 // Compute median angle of open angle point
                 ArrayList<Double> curvert = verticesOpenAnglesTuples
                         .get(idvert);
-                Coordinate curVert = vertices.get(idvert);
+                Coordinate curVert = mesh.getCoordinate(idvert);
                 if (curvert.size() == 2) {
                     double ccw1 = curvert.get(0);
                     double ccw2 = curvert.get(1);
@@ -585,23 +735,17 @@ public class FastObstructionTest {
                         ccw1 = ccw1 - (2 * Math.PI);
                     }
                     double midAngle = ((ccw2 - ccw1) / 2.) + ccw1;
-                    verticesOpenAngleTranslated.add(new Coordinate(curVert.x
-                            + (Math.cos(midAngle) * wideAngleTranslationEpsilon), curVert.y
-                            + (Math.sin(midAngle) * wideAngleTranslationEpsilon)));
+                    translated[idvert * 3] = curVert.x + (Math.cos(midAngle) * wideAngleTranslationEpsilon);
+                    translated[idvert * 3 + 1] = curVert.y + (Math.sin(midAngle) * wideAngleTranslationEpsilon);
                 } else {
-                    verticesOpenAngleTranslated.add(curVert);
+                    translated[idvert * 3] = curVert.x;
+                    translated[idvert * 3 + 1] = curVert.y;
                 }
+                translated[idvert * 3 + 2] = curVert.z;
             }
-
-        }
-        int idvert = 0;
-        for (Float angleVertex : verticesOpenAngle) {
-            if (angleVertex >= minAngle && angleVertex <= maxAngle) {
-                wideAnglePts.add(verticesOpenAngleTranslated.get(idvert));
-            }
-            idvert++;
+            verticesOpenAngle = FloatBuffer.wrap(openAngles);
+            verticesOpenAngleTranslated = DoubleBuffer.wrap(translated);
         }
-        return wideAnglePts;
     }
 
     /**
@@ -613,120 +757,176 @@ public class FastObstructionTest {
      */
     public LinkedList<LineSegment> getLimitsInRange(double maxDist,
                                                     Coordinate p1) {
+        return getLimitsInRange(getDefaultQueryContext(), maxDist, p1);
+    }
+
+    /**
+     * Compute the list of segments corresponding to holes and domain limitation
+     *
+     * @param context Query context of the calling thread
+     * @param maxDist Maximum distance from origin to segments
+     * @param p1      Origin of search
+     * @return List of segment
+     */
+    public LinkedList<LineSegment> getLimitsInRange(ObstructionQueryContext context, double maxDist,
+                                                    Coordinate p1) {
         LinkedList<LineSegment> walls = new LinkedList<LineSegment>();
-        int curTri = getTriangleIdByCoordinate(p1);
+        int curTri = getTriangleIdByCoordinate(context, ObstructionQueryContext.FIRST_POINT, p1);
         int nextTri = -1;
-        short firstSide = 0;
-        HashSet<Integer> navigationHistory = new HashSet<Integer>(); // List all
-        // triangles
-        // already
-        // processed
-        Stack<Integer> navigationNodes = new Stack<Integer>(); // List the
-        // current queue
-        // of triangles
-        // the process
-        // go through
-        Stack<Short> navigationSide = new Stack<Short>(); //History of current processing side
+        int firstSide = 0;
+        // Triangles already processed are visited, the navigation stack holds the current queue of triangles
+        // and processing side, as triangle * 3 + side
+        context.newNavigation();
+        context.clearNavigationStack();
 
         while (curTri != -1) {
-            navigationHistory.add(curTri);
+            context.setVisited(curTri);
             // for each side of the triangle
-            Triangle neighboors = this.triNeighbors.get(curTri);
             nextTri = -1;
-            for (short idside = firstSide; idside < 3; idside++) {
-                if (!navigationHistory.contains(neighboors.get(idside))) {
-                    IntSegment segVerticesIndex = this.triVertices.get(curTri)
-                            .getSegment(idside);
+            for (int idside = firstSide; idside < 3; idside++) {
+                final int neighbor = mesh.getNeighbor(curTri, idside);
+                if (neighbor == -1 || !context.isVisited(neighbor)) {
+                    // Side opposite to the corner idside
                     LineSegment side = new LineSegment(
-                            this.vertices.get(segVerticesIndex.getA()),
-                            this.vertices.get(segVerticesIndex.getB()));
+                            mesh.getCoordinate(mesh.getVertex(curTri, (idside + 1) % 3)),
+                            mesh.getCoordinate(mesh.getVertex(curTri, (idside + 2) % 3)));
                     Coordinate closestPoint = side.closestPoint(p1);
                     if (closestPoint.distance(p1) <= maxDist) {
                         // In this direction there is a building or this is outside
                         // of the geometry
-                        if (neighboors.get(idside)==-1 || triVertices.get(neighboors.get(idside)).getBuidlingID() >= 1) {
+                        if (neighbor==-1 || mesh.getBuildingId(neighbor) >= 1) {
                             walls.add(side);
                         } else {
                             // Store currentTriangle Id. This is where to go
                             // back when there is no more navigable neighbors at
                             // the next triangle
-                            navigationNodes.add(curTri);
-                            navigationSide.add(idside);
+                            context.pushNavigation(curTri * 3 + idside);
                             firstSide = 0;
-                            nextTri = neighboors.get(idside);
+                            nextTri = neighbor;
                             break; // Next triangle
                         }
                     }
                 }
             }
-            if (nextTri == -1 && !navigationNodes.empty()) {
+            if (nextTri == -1 && context.hasNavigation()) {
                 // All the side have been rejected, go back by one on the
                 // navigation
-                nextTri = navigationNodes.pop();
-                firstSide = navigationSide.pop();
+                int navigation = context.popNavigation();
+                nextTri = navigation / 3;
+                firstSide = navigation % 3;
             }
             curTri = nextTri;
         }
         return walls;
     }
 
-    /*
-     * compute diffraction.
+    /**
+     * Visibility test between two points. The altitude of the given coordinates is updated
+     * from the topography, see {@link #isFreeField(ObstructionQueryContext, Coordinate, Coordinate)}.
+     *
+     * @param p1 Receiver position
+     * @param p2 Source position
+     * @return True if p2 is visible from p1
      */
     public boolean isFreeField(Coordinate p1, Coordinate p2) {
-        nbObstructionTest++;
-        LineSegment propaLine = new LineSegment(p1, p2);
+        ObstructionQueryContext context = getDefaultQueryContext();
+        boolean freeField = isFreeField(context, p1, p2);
+        p1.z = context.p1.z;
+        p2.z = context.p2.z;
+        return freeField;
+    }
+
+    /**
+     * Visibility test between two points. Given coordinates are not modified, the positions with the altitude
+     * computed from the topography are available through {@link ObstructionQueryContext#getP1()} and
+     * {@link ObstructionQueryContext#getP2()}.
+     *
+     * @param context Query context of the calling thread
+     * @param receiver Receiver position
+     * @param source Source position
+     * @return True if source is visible from receiver
+     */
+    public boolean isFreeField(ObstructionQueryContext context, Coordinate receiver, Coordinate source) {
+        return isFreeField(context, receiver, source, true);
+    }
+
+    /**
+     * Visibility test between two points, the propagation line is walked once for the visibility and the
+     * vertical diffraction. If the source is hidden, {@link #getDirectPath(ObstructionQueryContext)} computes the
+     * diffraction path from the triangles crossed by this walk.
+     *
+     * @param context  Query context of the calling thread
+     * @param receiver Receiver position
+     * @param source   Source position
+     * @return True if source is visible from receiver, see
+     * {@link #isFreeField(ObstructionQueryContext, Coordinate, Coordinate)}
+     */
+    public boolean traceDirectPath(ObstructionQueryContext context, Coordinate receiver, Coordinate source) {
+        return isFreeField(context, receiver, source, !hasBuildingWithHeight);
+    }
+
+    /**
+     * Vertical diffraction path of the last {@link #traceDirectPath(ObstructionQueryContext, Coordinate, Coordinate)}
+     * query, same result as {@link #getPath(ObstructionQueryContext, Coordinate, Coordinate)} with the positions
+     * {@link ObstructionQueryContext#getP1()} and {@link ObstructionQueryContext#getP2()}.
+     *
+     * @param context Query context of the calling thread
+     * @return DiffractionWithSoilEffectZone, see {@link #getPath(Coordinate, Coordinate)}
+     */
+    public DiffractionWithSoilEffetZone getDirectPath(ObstructionQueryContext context) {
+        DiffractionWithSoilEffetZone totData = context.path;
+        //set default data
+        totData.reset();
+        if (!hasBuildingWithHeight || !context.directPathWalked) {
+            return totData;
+        }
+        return computePath(context);
+    }
+
+    private boolean isFreeField(ObstructionQueryContext context, Coordinate receiver, Coordinate source,
+                                boolean stopWhenBlocked) {
+        context.nbObstructionTest++;
+        context.directPathWalked = false;
+        Coordinate p1 = context.p1;
+        Coordinate p2 = context.p2;
+        p1.setCoordinate(receiver);
+        p2.setCoordinate(source);
         //get receiver triangle id
-        int curTri = getTriangleIdByCoordinate(p1);
+        int curTri = getTriangleIdByCoordinate(context, ObstructionQueryContext.FIRST_POINT, p1);
         //get source triangle id
-        int curTriS = getTriangleIdByCoordinate(p2);
-        Coordinate[] triR = getTriangle(curTri);
-        Coordinate[] triS = getTriangle(curTriS);
-        if (this.triVertices.get(curTri).getBuidlingID() >= 1) {
+        int curTriS = getTriangleIdByCoordinate(context, ObstructionQueryContext.SECOND_POINT, p2);
+        if (mesh.getBuildingId(curTri) >= 1) {
             //receiver is in the building so this propagation line is invisible
             return false;
         }
-        if (this.triVertices.get(curTriS).getBuidlingID() >= 1) {
+        if (mesh.getBuildingId(curTriS) >= 1) {
             //receiver is in the building so this propagation line is invisible
             return false;
         }
 
-        double zTopoR = getTopoZByGiven3Points(triR[0], triR[1], triR[2], p1);
-        double zTopoS = getTopoZByGiven3Points(triS[0], triS[1], triS[2], p2);
+        double zTopoR = getTopoZByGiven3Points(curTri, p1, context);
+        double zTopoS = getTopoZByGiven3Points(curTriS, p2, context);
 
 // todo
          if (zTopoR != 0) {
                 //Z value of the receiver is low than topography, we will modify this receiver height
-              p1.setCoordinate(new Coordinate(p1.x, p1.y, zTopoR + p1.z));
+              p1.z = zTopoR + p1.z;
           }
           if (zTopoS != 0) {
                 //Z value of the source is low than topography, we will modify this source height
-              p2.setCoordinate(new Coordinate(p2.x, p2.y, zTopoS + p2.z));
+              p2.z = zTopoS + p2.z;
           }
 
         if (p1.z < zTopoR || Double.isNaN(p1.z)) {
             //Z value of the receiver is low than topography, we will modify this receiver height
-            p1.setCoordinate(new Coordinate(p1.x, p1.y, zTopoR + receiverDefaultHeight));
+            p1.z = zTopoR + receiverDefaultHeight;
         }
         if (p2.z < zTopoS) {
             //Z value of the source is low than topography, than the propagation cant not be compute
             return false;
         }
-
-        HashSet<Integer> navigationHistory = new HashSet<Integer>();
-        if (this.triVertices.get(curTri).getBuidlingID() == 0) {
-            while (curTri != -1) {
-                navigationHistory.add(curTri);
-                Coordinate[] tri = getTriangle(curTri);
-                if (dotInTri(p2, tri[0], tri[1], tri[2])) {
-                    return true;
-                }
-                curTri = this.getNextTri(curTri, propaLine, navigationHistory);
-            }
-            return false;
-        } else {
-            return false;
-        }
+        context.directPathWalked = !stopWhenBlocked;
+        return walkPropagationLine(context, curTri, stopWhenBlocked);
     }
 
     /**
@@ -742,207 +942,244 @@ public class FastObstructionTest {
      * Double[Full_Diffraction_Distance]:the full distance of diffraction path
      * if Double[Delta_Distance],Double[E_Length],Double[Full_Diffraction_Distance],Double[Full_Distance_With_Soil_Effect] are -1. then no useful intersections.
      */
-    @SuppressWarnings("unchecked")
     public DiffractionWithSoilEffetZone getPath(Coordinate p1, Coordinate p2) {
+        ObstructionQueryContext context = getDefaultQueryContext();
+        DiffractionWithSoilEffetZone path = new DiffractionWithSoilEffetZone(getPath(context, p1, p2));
+        p1.z = context.p1.z;
+        p2.z = context.p2.z;
+        return path;
+    }
+
+    /**
+     * Get the distance of all intersections (after the filtration by algorithm Jarvis March)  between the source and
+     * the receiver to compute vertical diffraction. Given coordinates are not modified.
+     *
+     * @param context Query context of the calling thread
+     * @param receiver Coordinate receiver
+     * @param source Coordinate source
+     * @return DiffractionWithSoilEffectZone, see {@link #getPath(Coordinate, Coordinate)}
+     */
+    public DiffractionWithSoilEffetZone getPath(ObstructionQueryContext context, Coordinate receiver, Coordinate source) {
+        Coordinate p1 = context.p1;
+        Coordinate p2 = context.p2;
+        p1.setCoordinate(receiver);
+        p2.setCoordinate(source);
+        context.directPathWalked = false;
         /*
         data for calculate 3D diffraction,éé
         first Coordinate is the coordinate after the modification coordinate system,
         the second parameter will keep the data of original coordinate system
         */
 
-        HashMap<Coordinate, TriIdWithIntersection> newCoorInter = new HashMap<Coordinate, TriIdWithIntersection>();
-        GeometryFactory factory = new GeometryFactory();
-        LineString rOZone = factory.createLineString(new Coordinate[]{new Coordinate(-1, -1), new Coordinate(-1, -1)});
-        LineString sOZone = factory.createLineString(new Coordinate[]{new Coordinate(-1, -1), new Coordinate(-1, -1)});
-        Double[] data = new Double[3];
-        data[Delta_Distance] = -1.;
-        data[E_Length] = -1.;
-        data[Full_Diffraction_Distance] = -1.;
-        LinkedList<TriIdWithIntersection> interPoints = new LinkedList<TriIdWithIntersection>();
+        DiffractionWithSoilEffetZone totData = context.path;
         //set default data
-        DiffractionWithSoilEffetZone totData = new DiffractionWithSoilEffetZone(data, rOZone, sOZone);
+        totData.reset();
         if(!hasBuildingWithHeight) {
             return totData;
         }
-        LineSegment propaLine = new LineSegment(p1, p2);
-        int curTri = getTriangleIdByCoordinate(p1);
-        HashSet<Integer> navigationHistory = new HashSet<Integer>();
+        int curTri = getTriangleIdByCoordinate(context, ObstructionQueryContext.FIRST_POINT, p1);
 
         //get source triangle id
-        int curTriS = getTriangleIdByCoordinate(p2);
-        if (this.triVertices.get(curTri).getBuidlingID() >= 1) {
+        int curTriS = getTriangleIdByCoordinate(context, ObstructionQueryContext.SECOND_POINT, p2);
+        if (mesh.getBuildingId(curTri) >= 1) {
             //receiver is in the building, so we cant compute propagation
             return totData;
         }
-        if (this.triVertices.get(curTriS).getBuidlingID() >= 1) {
+        if (mesh.getBuildingId(curTriS) >= 1) {
 
             //source is in the building, so we cant compute propagation
             return totData;
         }
 
-        Coordinate[] triR = getTriangle(curTri);
-        Coordinate[] triS = getTriangle(curTriS);
-
-        double zTopoR = getTopoZByGiven3Points(triR[0], triR[1], triR[2], p1);
-        double zTopoS = getTopoZByGiven3Points(triS[0], triS[1], triS[2], p2);
+        double zTopoR = getTopoZByGiven3Points(curTri, p1, context);
+        double zTopoS = getTopoZByGiven3Points(curTriS, p2, context);
 
         if (p1.z < zTopoR || Double.isNaN(p1.z)) {
             //Z value of the receiver is low than topography, we will modify this receiver height
-            p1.setCoordinate(new Coordinate(p1.x, p1.y, zTopoR + receiverDefaultHeight));
+            p1.z = zTopoR + receiverDefaultHeight;
         }
         if (p2.z < zTopoS) {
             //Z value of the source is low than topography, than the propagation cant not be compute
             return totData;
         }
-        while (curTri != -1) {
-            navigationHistory.add(curTri);
-            Coordinate[] tri = getTriangle(curTri);
-            if (dotInTri(p2, tri[0], tri[1], tri[2])) {
-                break;
-            }
-            //get the next building ID, intersection Point
-            TriIdWithIntersection triIDWithIntersection = this.getNextTriWithIntersection(curTri, propaLine, navigationHistory);
-            curTri = triIDWithIntersection.getTriID();
-            Coordinate coorIntersection = triIDWithIntersection.getCoorIntersection();
-            if (!coorIntersection.equals(new Coordinate(-1, -1, -1))) {
-                interPoints.add(triIDWithIntersection);
-            }
-        }
-
-        //add point receiver and point source into list head and tail.
-
-        interPoints.addFirst(new TriIdWithIntersection(-1, p1, true));
-        interPoints.addLast(new TriIdWithIntersection(-1, p2, true));
-        //change Coordinate system from 3D to 2D
-        LinkedList<Coordinate> newPoints = getNewCoordinateSystem(interPoints);
-
-        double[] pointsX;
-        pointsX = new double[newPoints.size()];
-        double[] pointsY;
-        pointsY = new double[newPoints.size()];
+        walkPropagationLine(context, curTri, false);
+        return computePath(context);
+    }
 
-        for (int i = 0; i < newPoints.size(); i++) {
-            pointsX[i] = newPoints.get(i).x;
-            if (!Double.isNaN(newPoints.get(i).y)) {
-                pointsY[i] = newPoints.get(i).y;
-            } else {
-                pointsY[i] = 0.;
-            }
-            newPoints.get(i).setCoordinate(new Coordinate(pointsX[i], pointsY[i]));
-            newCoorInter.put(newPoints.get(i), interPoints.get(i));
+    /**
+     * Compute the vertical diffraction path from the triangles crossed by the propagation line.
+     *
+     * @param context Query context, the crossed triangles of context.p1 context.p2 are stored
+     * @return context.path
+     */
+    private DiffractionWithSoilEffetZone computePath(ObstructionQueryContext context) {
+        Coordinate p1 = context.p1;
+        Coordinate p2 = context.p2;
+        DiffractionWithSoilEffetZone totData = context.path;
+        context.ensureProfileCapacity(context.getCrossedSideCount() + 2);
+        //add point receiver and point source into profile head and tail.
+        setProfilePoint(context, 0, p1, true);
+        int profileSize = 1;
+        for (int idStep = 0; idStep < context.getCrossedSideCount(); idStep++) {
+            final int crossedTri = context.getCrossedTriangle(idStep);
+            loadTriangle(crossedTri, context);
+            profileSize = addProfileIntersection(crossedTri, context.getCrossedSide(idStep), context, profileSize);
         }
+        setProfilePoint(context, profileSize++, p2, true);
+        //change Coordinate system from 3D to 2D
+        setProfileCoordinateSystem(context, profileSize);
         //algorithm JarvisMarch to get the convex hull
-        JarvisMarch jm = new JarvisMarch(new JarvisMarch.Points(pointsX, pointsY));
-        JarvisMarch.Points points = jm.calculateHull();
+        final int hullSize = computeProfileHull(context, profileSize);
         //if there are no useful intersection
-        if (points.x.length <= 2) {
+        if (hullSize <= 2) {
             //after jarvis march if we get the length of list of points less than 2, so we have no useful points
             return totData;
-        } else {
-            LinkedList<LineSegment> path = new LinkedList<LineSegment>();
-            boolean isVisible = true;//check if the source and receiver is visible
-            for (int i = 0; i < points.x.length - 1; i++) {
-                //if the intersection point after Jarvis March is not on Building so we can sure this Source-Receiver is Invisible
-                if (!newCoorInter.get(new Coordinate(points.x[i], points.y[i])).getIsIntersectionOnBuilding()) {
-                    //The topography block this propagation line
-                    isVisible = false;
-                    break;
-                } else {
-                    path.add(new LineSegment(new Coordinate(points.x[i], points.y[i]), new Coordinate(points.x[i + 1], points.y[i + 1])));
-                    //When we get a point we will check if this point is equal with P2 we will stop finding next point
-                    if (p2.equals(newCoorInter.get(new Coordinate(points.x[i + 1], points.y[i + 1])).getCoorIntersection()) && i > 0) {
-                        break;
-                    }
-                    //if after Jarvis march the first point and the second point are Receiver and Source so we will quit loop and no diffraction in this case
-                    else if (p2.equals(newCoorInter.get(new Coordinate(points.x[i + 1], points.y[i + 1])).getCoorIntersection()) && i == 0) {
-                        // after jarvis march first point and second point are Receiver and Source
-                        return totData;
-                    }
-                }
+        }
+        final int[] hull = context.hull;
+        //the path goes through the hull points up to pathEnd
+        int pathEnd = hullSize - 1;
+        for (int i = 0; i < hullSize - 1; i++) {
+            //if the intersection point after Jarvis March is not on Building so we can sure this Source-Receiver is Invisible
+            if (!context.profileOnBuilding[findProfilePoint(context, profileSize, hull[i])]) {
+                //The topography block this propagation line
+                return totData;
             }
-            if (isVisible) {
-                double pathDistance = 0.0;//distance of path
-                //prepare data to compute pure diffraction
-                //h0 in expression diffraction:the highest point intersection
-                double pointHeight = 0.0;
-                for(LineSegment aPath : path) {
-                    pathDistance = aPath.getLength() + pathDistance;
-                    if (aPath.p0.y > pointHeight) {
-                        pointHeight = aPath.p0.y;
-                    }
-                }
-                if (Double.isInfinite(pathDistance)) {
+            //When we get a point we will check if this point is equal with P2 we will stop finding next point
+            final int next = findProfilePoint(context, profileSize, hull[i + 1]);
+            if (p2.x == context.profileX[next] && p2.y == context.profileY[next]) {
+                if (i == 0) {
+                    // after jarvis march first point and second point are Receiver and Source
                     return totData;
                 }
-                //we used coordinate after change coordinate system to get the right distance.
-                /*
-                                double dx = path.getFirst().p0.x-path.getLast().p1.x;
-                double dy = path.getFirst().p0.y-path.getLast().p1.y;
-                double dz = path.getFirst().p0.z-path.getLast().p1.z;
-
-                double distanceRandS =  Math.sqrt(dx*dx+dy*dy+dz*dz);
-                 */
-                double distanceRandS = path.getFirst().p0.distance(path.getLast().p1);              //distance of receiver and source
-                double e = pathDistance - path.getFirst().getLength() - path.getLast().getLength();//distance without first part path and last part path
-                double deltaDistance = pathDistance - distanceRandS;                                //delta distance
-
-                data[Delta_Distance] = deltaDistance;
-                data[E_Length] = e;
-                data[Full_Diffraction_Distance] = pathDistance;
-
-                //if we have soil data
-                Coordinate[] firstPart = new Coordinate[2];
-                Coordinate[] lastPart = new Coordinate[2];
-                firstPart[0] = p1;
-                //get original coordinate for first intersection with building
-                firstPart[1] = newCoorInter.get(path.getFirst().p1).getCoorIntersection();
-
-                //get original coordinate for last intersection with building
-                lastPart[0] = newCoorInter.get(path.getLast().p0).getCoorIntersection();
-                lastPart[1] = p2;
-                //receiver-first intersection zone aims to calculate ground effect
-                rOZone = factory.createLineString(firstPart);
-                //last intersection-source zone aims to calculate ground effect (between rOZone and sOZone we ignore ground effect)
-                sOZone = factory.createLineString(lastPart);
-
-                totData = new DiffractionWithSoilEffetZone(data, rOZone, sOZone);
+                pathEnd = i + 1;
+                break;
             }
+        }
+        double pathDistance = 0.0;//distance of path
+        for (int i = 0; i < pathEnd; i++) {
+            pathDistance = getProfileDistance(context, hull[i], hull[i + 1]) + pathDistance;
+        }
+        if (Double.isInfinite(pathDistance)) {
             return totData;
         }
+        //we used coordinate after change coordinate system to get the right distance.
+        double distanceRandS = getProfileDistance(context, hull[0], hull[pathEnd]);     //distance of receiver and source
+        //distance without first part path and last part path
+        double e = pathDistance - getProfileDistance(context, hull[0], hull[1]) -
+                getProfileDistance(context, hull[pathEnd - 1], hull[pathEnd]);
+        double deltaDistance = pathDistance - distanceRandS;                            //delta distance
+
+        //receiver-first intersection zone aims to calculate ground effect
+        //last intersection-source zone aims to calculate ground effect (between rOZone and sOZone we ignore ground effect)
+        copyProfilePoint(context, findProfilePoint(context, profileSize, hull[1]), context.rOZoneEnd);
+        copyProfilePoint(context, findProfilePoint(context, profileSize, hull[pathEnd - 1]), context.oSZoneStart);
+        totData.set(deltaDistance, e, pathDistance, p1, context.rOZoneEnd, context.oSZoneStart, p2);
+        return totData;
     }
 
     /**
-     * ChangeCoordinateSystem, use original coordinate in 3D to change into a new markland in 2D with new x' computed by algorithm and y' is original height of point.
-     * Attention this function can just be used when the points in the same plane.
+     * ChangeCoordinateSystem, use original coordinate in 3D to change into a new markland in 2D with new x' computed
+     * by algorithm and y' is original height of point. Attention this function can just be used when the points in
+     * the same plane. The first and last points of the profile are the receiver and the source.
      * {@link "http://en.wikipedia.org/wiki/Rotation_matrix"}
      * {@link "http://read.pudn.com/downloads93/ebook/364220/zbzh.pdf"}
      */
-    private LinkedList<Coordinate> getNewCoordinateSystem(LinkedList<TriIdWithIntersection> listPoints) {
-        LinkedList<Coordinate> newcoord = new LinkedList<Coordinate>();
+    private static void setProfileCoordinateSystem(ObstructionQueryContext context, int profileSize) {
+        final double[] x = context.profileX;
+        final double[] y = context.profileY;
+        final double[] z = context.profileZ;
         //get angle by ray source-receiver with the X-axis.
-        double angle = new LineSegment(listPoints.getFirst().getCoorIntersection(), listPoints.getLast().getCoorIntersection()).angle();
+        double angle = Math.atan2(y[profileSize - 1] - y[0], x[profileSize - 1] - x[0]);
         double sin = Math.sin(angle);
         double cos = Math.cos(angle);
+        for (int i = 0; i < profileSize; i++) {
+            context.profileU[i] = (x[i] - x[0]) * cos + (y[i] - y[0]) * sin;
+            context.profileV[i] = Double.isNaN(z[i]) ? 0. : z[i];
+        }
+    }
 
-        for (int i = 0; i < listPoints.size(); i++) {
-            double newX = (listPoints.get(i).getCoorIntersection().x - listPoints.get(0).getCoorIntersection().x) * cos +
-                    (listPoints.get(i).getCoorIntersection().y - listPoints.get(0).getCoorIntersection().y) * sin;
-            newcoord.add(new Coordinate(newX, listPoints.get(i).getCoorIntersection().z));
-
-
+    /**
+     * Convex hull of the profile points in the vertical plane, by the Jarvis March of {@link JarvisMarch}.
+     *
+     * @return Number of hull points, stored in context.hull
+     */
+    private static int computeProfileHull(ObstructionQueryContext context, int profileSize) {
+        final double[] x = context.profileU;
+        final double[] y = context.profileV;
+        // The starting point is the point with the lowest X, with ties going to the lowest Y
+        double minY = y[0];
+        double minX = x[0];
+        int startingPoint = 0;
+        for (int i = 1; i < profileSize; i++) {
+            if (x[i] < minX) {
+                minX = x[i];
+                startingPoint = i;
+            } else if (minX == x[i] && y[i] < minY) {
+                minY = y[i];
+                startingPoint = i;
+            }
         }
+        int hullSize = 0;
+        double currentAngle = 0;
+        int p = startingPoint;
+        do {
+            if (hullSize == context.hull.length) {
+                context.hull = Arrays.copyOf(context.hull, hullSize * 2);
+            }
+            context.hull[hullSize++] = p;
+            // The next point is the point with the next largest angle
+            double minAngle = JARVIS_MAX_ANGLE;
+            int minP = startingPoint;
+            for (int i = 0; i < profileSize; i++) {
+                if (i != p) {
+                    double thisAngle = JarvisMarch.pseudoAngle(x[i] - x[p], y[i] - y[p]);
+                    if (thisAngle >= currentAngle && thisAngle <= minAngle) {
+                        minP = i;
+                        minAngle = thisAngle;
+                    }
+                }
+            }
+            currentAngle = minAngle;
+            p = minP;
+        } while (p != startingPoint);
+        return hullSize;
+    }
 
-        return newcoord;
+    /**
+     * @return The last profile point at the same position in the vertical plane as the given profile point
+     */
+    private static int findProfilePoint(ObstructionQueryContext context, int profileSize, int index) {
+        final double u = context.profileU[index];
+        final double v = context.profileV[index];
+        for (int i = profileSize - 1; i > index; i--) {
+            if (context.profileU[i] == u && context.profileV[i] == v) {
+                return i;
+            }
+        }
+        return index;
+    }
 
+    private static double getProfileDistance(ObstructionQueryContext context, int i, int j) {
+        double dx = context.profileU[i] - context.profileU[j];
+        double dy = context.profileV[i] - context.profileV[j];
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
+    private static void copyProfilePoint(ObstructionQueryContext context, int index, Coordinate dest) {
+        dest.x = context.profileX[index];
+        dest.y = context.profileY[index];
+        dest.z = context.profileZ[index];
+    }
 
     /**
      * We will get all of building corners Z and set the building a average height using corner Z and original building height
      *
      * @param polygonWithHeight
+     * @return Average height of buildings
      */
-    private void setAverageBuildingHeight(List<MeshBuilder.PolygonWithHeight> polygonWithHeight) {
+    private static double[] setAverageBuildingHeight(List<MeshBuilder.PolygonWithHeight> polygonWithHeight) {
+        double[] buildingHeights = new double[polygonWithHeight.size()];
+        int buildingIndex = 0;
 
         for (MeshBuilder.PolygonWithHeight polygon : polygonWithHeight) {
             //When we get all of building, we will set every vertices of the same building a same Z,
@@ -966,7 +1203,9 @@ public class FastObstructionTest {
             }
             //set the averageBuildingZ
             polygon.setHeight(averageBuildingHeight);
+            buildingHeights[buildingIndex++] = averageBuildingHeight;
         }
+        return buildingHeights;
 
     }
 
@@ -979,17 +1218,14 @@ public class FastObstructionTest {
      * @param intersection the intersection which includes the x and y
      * @return z of intersection point
      */
-    private double calculateLinearInterpolation(Coordinate p1, Coordinate p2, Coordinate intersection) {
-        LinkedList<Coordinate> points = new LinkedList<Coordinate>();
+    private static double calculateLinearInterpolation(Coordinate p1, Coordinate p2, Coordinate intersection) {
         double zOfIntersection = 0.;
-        points.add(p1);
-        points.add(p2);
-        if (intersection != null) {
-            points.add(intersection);
-        } else {
+        if (intersection == null) {
             return zOfIntersection;
         }
-        setNaNZ0(points);
+        setNaNZ0(p1);
+        setNaNZ0(p2);
+        setNaNZ0(intersection);
         if ((p2.y - p1.y) + p1.z != 0 && (p2.y - p1.y) != 0) {
             zOfIntersection = ((p2.z - p1.z) * (intersection.y - p1.y)) / (p2.y - p1.y) + p1.z;
         }
@@ -1012,18 +1248,16 @@ public class FastObstructionTest {
      * {@see http://en.wikipedia.org/wiki/Plane_%28geometry%29}
      */
 
-    private double getTopoZByGiven3Points(Coordinate p1, Coordinate p2, Coordinate p3, Coordinate point) {
+    private static double getTopoZByGiven3Points(Coordinate p1, Coordinate p2, Coordinate p3, Coordinate point) {
         double a;
         double b;
         double c;
         double d;
         double topoZofPoint = 0.;
-        List<Coordinate> points = new LinkedList<Coordinate>();
-        points.add(p1);
-        points.add(p2);
-        points.add(p3);
-        points.add(point);
-        setNaNZ0(points);
+        setNaNZ0(p1);
+        setNaNZ0(p2);
+        setNaNZ0(p3);
+        setNaNZ0(point);
 
         a = ((p2.y - p1.y) * (p3.z - p1.z) - (p2.z - p1.z) * (p3.y - p1.y));
         b = ((p2.z - p1.z) * (p3.x - p1.x) - (p2.x - p1.x) * (p3.z - p1.z));
@@ -1036,11 +1270,14 @@ public class FastObstructionTest {
 
     }
 
-    private void setNaNZ0(List<Coordinate> points) {
-        for (Coordinate point : points) {
-            if (Double.isNaN(point.z)) {
-                point.setCoordinate(new Coordinate(point.x, point.y, 0.));
-            }
+    private double getTopoZByGiven3Points(int triIndex, Coordinate point, ObstructionQueryContext context) {
+        loadTriangle(triIndex, context);
+        return getTopoZByGiven3Points(context.triA, context.triB, context.triC, point);
+    }
+
+    private static void setNaNZ0(Coordinate point) {
+        if (Double.isNaN(point.z)) {
+            point.z = 0.;
         }
     }
 
@@ -0,0 +1,130 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.Arrays;
+
+/**
+ * Order points along a Hilbert curve, consecutive points of the order are close to each other.
+ * Receivers computed in this order share mesh triangles, walls and sources candidates.
+ *
+ * @author Nicolas Fortin
+ */
+final class HilbertCurve {
+    /** Number of bits by axis of the curve grid, curve positions are lower than 2^(2 * ORDER) and must fit in the
+     * 31 positive high bits of the sort keys */
+    static final int ORDER = 15;
+    /** Number of cells by axis of the curve grid */
+    static final int GRID_SIZE = 1 << ORDER;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * @param x Cell column [0-2^ORDER[
+     * @param y Cell row [0-2^ORDER[
+     * @return Position of the cell along the curve
+     */
+    static long getIndex(int x, int y) {
+        long index = 0;
+        for (int s = GRID_SIZE / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int tmp = x;
+                x = y;
+                y = tmp;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param points Points to order
+     * @return Indices of points sorted by their position along the curve covering the points envelope
+     */
+    static int[] sort(Coordinate[] points) {
+        double[] xs = new double[points.length];
+        double[] ys = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            xs[i] = points[i].x;
+            ys[i] = points[i].y;
+        }
+        return sort(xs, ys);
+    }
+
+    /**
+     * @param xs X of points to order
+     * @param ys Y of points to order
+     * @return Indices of points sorted by their position along the curve covering the points envelope
+     */
+    static int[] sort(double[] xs, double[] ys) {
+        int[] order = new int[xs.length];
+        if (xs.length == 0) {
+            return order;
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double size = Math.max(maxX - minX, maxY - minY);
+        double scale = size > 0 ? (GRID_SIZE - 1) / size : 0;
+        // Curve position in the high bits, point index in the low bits
+        long[] keys = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            int x = (int) ((xs[i] - minX) * scale);
+            int y = (int) ((ys[i] - minY) * scale);
+            keys[i] = (getIndex(x, y) << 32) | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -68,15 +68,12 @@ import org.slf4j.LoggerFactory;
  */
 public class LayerJDelaunay implements LayerDelaunay {
     private static Logger logger = LoggerFactory.getLogger(LayerJDelaunay.class);
-    private List<Coordinate> vertices = new ArrayList<Coordinate>();
+    private TriangleMesh mesh = new TriangleMesh();
     private ArrayList<DEdge> constraintEdge = new ArrayList<DEdge>();
     private LinkedList<DPoint> ptToInsert = new LinkedList<DPoint>();
     private HashMap<Integer,BuildingWithID> buildingWithID=new HashMap<Integer,BuildingWithID>();
     private boolean debugMode=false; //output primitives in a text file
     private boolean computeNeighbors=false;
-    List<Triangle> triangles = new ArrayList<Triangle>();
-    private List<Triangle> neighbors = new ArrayList<Triangle>(); // The first neighbor triangle is opposite the first corner of triangle  i
-    HashMap<Integer, LinkedList<Integer>> hashOfArrayIndex = new HashMap<Integer, LinkedList<Integer>>();
     //triangletest is for JDeLaunayTriangleDirectionChange to test triangle direction
     private List<DTriangle> triangletest=new ArrayList<DTriangle>();
 
@@ -150,47 +147,6 @@ public class LayerJDelaunay implements LayerDelaunay {
 
 
     }
-    private int getOrAppendVertices(Coordinate newCoord,
-                                    List<Coordinate> vertices,
-                                    HashMap<Integer, LinkedList<Integer>> hashOfArrayIndex) {
-        // We can obtain the same hash with two different coordinate (4 Bytes or
-        // 8 Bytes against 12 or 24 Bytes) , then we use a list as the value of
-        // the hashmap
-        // First step - Search the vertice parameter within the hashMap
-        int newCoordIndex = -1;
-        Integer coordinateHash = newCoord.hashCode();
-        LinkedList<Integer> listOfIndex = hashOfArrayIndex.get(coordinateHash);
-        if (listOfIndex != null) // There are the same hash value
-        {
-            for (int vind : listOfIndex) // Loop inside the coordinate index
-            {
-                if (newCoord.equals3D(vertices.get(vind))) // the coordinate is
-                // equal to the
-                // existing
-                // coordinate
-                {
-                    newCoordIndex = vind;
-                    break; // Exit for loop
-                }
-            }
-            if (newCoordIndex == -1) {
-                // No vertices has been found, we push the new coordinate into
-                // the existing linked list
-                newCoordIndex = vertices.size();
-                listOfIndex.add(newCoordIndex);
-                vertices.add(newCoord);
-            }
-        } else {
-            // Push a new hash element
-            listOfIndex = new LinkedList<Integer>();
-            newCoordIndex = vertices.size();
-            listOfIndex.add(newCoordIndex);
-            vertices.add(newCoord);
-            hashOfArrayIndex.put(coordinateHash, listOfIndex);
-        }
-        return newCoordIndex;
-    }
-
     private ConstrainedMesh delaunayTool = null;
 
     @Override
@@ -254,16 +210,13 @@ public class LayerJDelaunay implements LayerDelaunay {
                         .getTriangleList();
                 //this value is for the unit test
                 triangletest=delaunayTool.getTriangleList();
-                //triangles.ensureCapacity(trianglesDelaunay.size());// reserve
-                // memory
-                HashMap<Integer, Integer> gidToIndex = new HashMap<Integer, Integer>();
-                ArrayList<Triangle> gidTriangle=new ArrayList<Triangle>(trianglesDelaunay.size());
-
-                //Build ArrayList for binary search
-                //test add height
-
-
-
+                // Neighbors are stored as GID then translated to triangle index
+                int maxGid = 0;
+                for (DTriangle triangle : trianglesDelaunay) {
+                    maxGid = Math.max(maxGid, triangle.getGID());
+                }
+                int[] gidToIndex = new int[maxGid + 1];
+                int firstTriangle = mesh.getTriangleCount();
                 for (DTriangle triangle : trianglesDelaunay) {
                     Coordinate [] ring = new Coordinate [] {triangle.getPoint(0).getCoordinate(),triangle.getPoint(1).getCoordinate(),triangle.getPoint(2).getCoordinate(),triangle.getPoint(0).getCoordinate()};
                     boolean orientationReversed=false;
@@ -299,73 +252,32 @@ public class LayerJDelaunay implements LayerDelaunay {
                         orientationReversed=true;
                     }
 
-                    int a = getOrAppendVertices(ring[0], vertices, hashOfArrayIndex);
-                    int b = getOrAppendVertices(ring[1], vertices, hashOfArrayIndex);
-                    int c = getOrAppendVertices(ring[2], vertices, hashOfArrayIndex);
-                    int buildingID=triangle.getProperty();
-                    triangles.add(new Triangle(a, b, c,buildingID));
+                    int a = mesh.getOrAppendVertex(ring[0].x, ring[0].y, ring[0].z);
+                    int b = mesh.getOrAppendVertex(ring[1].x, ring[1].y, ring[1].z);
+                    int c = mesh.getOrAppendVertex(ring[2].x, ring[2].y, ring[2].z);
+                    int idTri = mesh.addTriangle(a, b, c, triangle.getProperty());
+                    gidToIndex[triangle.getGID()] = idTri;
                     if(this.computeNeighbors) {
-                        Triangle gidTri=new Triangle(-1,-1,-1,0);
                         for(int i=0;i<3;i++) {
                             DTriangle neighTriangle = triangle.getOppositeEdge(triangle.getPoint(i)).getOtherTriangle(triangle);
                             if(neighTriangle!=null&& neighTriangle.getExternalGID()!=0) {
-                                //if neighbor is in building
-
-                                if(neighTriangle.getPoint(0).getProperty()>=1||neighTriangle.getPoint(1).getProperty()>=1||neighTriangle.getPoint(2).getProperty()>=1){
-                                    int neighBuildingID=0;
-                                    for(int j=0; j<=2; j++){
-                                        int potentialNeighBuildingID=neighTriangle.getPoint(j).getProperty();
-                                        if(potentialNeighBuildingID>=1){
-                                            if(this.buildingWithID.get(potentialNeighBuildingID).isTriangleInBuilding(neighTriangle.getBarycenter())){
-                                                neighBuildingID=potentialNeighBuildingID;
-                                                break;
-                                            }
-
-                                        }
-
-                                    }
-
-                                    neighTriangle.setProperty(neighBuildingID);
-
-
-                                }
-                                else{
-                                    neighTriangle.setProperty(0);
-                                }
-                                gidTri.set(i,neighTriangle.getGID());
-
+                                // The side opposite to the corner i is opposite to the corner 2 - i when the
+                                // triangle is reversed
+                                mesh.setNeighbor(idTri, orientationReversed ? 2 - i : i, neighTriangle.getGID());
                             }
                         }
-
-                        if(!orientationReversed) {
-                            gidTriangle.add(gidTri);
-                        } else {
-                            gidTriangle.add(new Triangle(gidTri.getC(),gidTri.getB(),gidTri.getA(),buildingID));
-                        }
-                        gidToIndex.put(triangle.getGID(),gidTriangle.size()-1);
                     }
-
-
-
-
-
-
-
                 }
 
                 if(this.computeNeighbors) {
                     //Translate GID to local index
-                    for(Triangle tri : gidTriangle) {
-                        Triangle localTri=new Triangle(-1,-1,-1,0);
-                        for(int i=0;i<3;i++) {
-                            int index=tri.get(i);
-                            if(index!=-1){
-                                localTri.set(i, gidToIndex.get(index));
+                    for (int idTri = firstTriangle; idTri < mesh.getTriangleCount(); idTri++) {
+                        for (int side = 0; side < 3; side++) {
+                            int gid = mesh.getNeighbor(idTri, side);
+                            if (gid != -1) {
+                                mesh.setNeighbor(idTri, side, gidToIndex[gid]);
                             }
-
                         }
-
-                        neighbors.add(localTri);
                     }
                 }
                 delaunayTool = null;
@@ -475,18 +387,27 @@ public class LayerJDelaunay implements LayerDelaunay {
 
     @Override
     public List<Coordinate> getVertices() throws LayerDelaunayError {
-        return this.vertices;
+        return mesh.getVertices();
     }
 
     @Override
     public List<Triangle> getTriangles() throws LayerDelaunayError {
-        return this.triangles;
+        return mesh.getTriangles();
+    }
+
+    /**
+     * When the processDelaunay has been called, retrieve the triangulation without copying it into lists.
+     * Neighbors are set only if {@link #setRetrieveNeighbors(boolean)} has been enabled.
+     * @return Triangles, neighbors and vertices
+     */
+    public TriangleMesh getTriangleMesh() {
+        return mesh;
     }
 
     @Override
     public void addVertex(Coordinate vertexCoordinate)
             throws LayerDelaunayError {
-        this.getOrAppendVertices(vertexCoordinate, vertices, hashOfArrayIndex);
+        mesh.getOrAppendVertex(vertexCoordinate.x, vertexCoordinate.y, vertexCoordinate.z);
     }
 
     @Override
@@ -550,7 +471,7 @@ public class LayerJDelaunay implements LayerDelaunay {
     @Override
     public List<Triangle> getNeighbors() throws LayerDelaunayError {
         if(computeNeighbors) {
-            return neighbors;
+            return mesh.getNeighbors();
         } else {
             throw new LayerDelaunayError("You must call setRetrieveNeighbors(True) before process delaunay triangulation");
         }
@@ -34,6 +34,9 @@
 package org.orbisgis.noisemap.core;
 
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.LinkedList;
@@ -49,6 +52,7 @@ import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.io.WKBWriter;
 import org.jdelaunay.delaunay.evaluator.InsertionEvaluator;
 
 import java.util.List;
@@ -66,9 +70,12 @@ import java.util.List;
 
 
 public class MeshBuilder {
-    private List<Triangle> triVertices;
-    private List<Coordinate> vertices;
-    private List<Triangle> triNeighbors; // Neighbors
+    /** Version of the triangulation done by {@link #finishPolygonFeeding(Geometry)}, it must be incremented when
+     * the same inputs give another mesh: triangulation settings, library or building merge. */
+    public static final int TRIANGULATION_VERSION = 1;
+    /** Minimum angle of triangles, 0 does not refine the triangulation */
+    private static final double MIN_ANGLE = 0.;
+    private TriangleMesh mesh;
     private InsertionEvaluator insertionEvaluator;
     private LinkedList<PolygonWithHeight> polygonWithHeight = new LinkedList<PolygonWithHeight>();//list polygon with height
     private HashMap<Integer, PolygonWithHeight> buildingWithID = new HashMap<Integer, PolygonWithHeight>();//list to save all of buildings(both new polygon and old polygon) when do the merge building.
@@ -126,33 +133,47 @@ public class MeshBuilder {
         this.insertionEvaluator = insertionEvaluator;
     }
 
+    /**
+     * @return True if an insertion evaluator refines the triangulation, the mesh cannot be cached
+     */
+    public boolean hasInsertionEvaluator() {
+        return insertionEvaluator != null;
+    }
+
     public MeshBuilder() {
         super();
     }
 
     /**
-     * Retrieve triangle list
+     * Retrieve triangle list, copied from {@link #getTriangleMesh()}
      *
      * @return
      */
     public List<Triangle> getTriangles() {
-        return triVertices;
+        return mesh == null ? null : mesh.getTriangles();
     }
 
     /**
-     * Retrieve neighbors triangle list
+     * Retrieve neighbors triangle list, copied from {@link #getTriangleMesh()}
      *
      * @return
      */
     public List<Triangle> getTriNeighbors() {
-        return triNeighbors;
+        return mesh == null ? null : mesh.getNeighbors();
     }
 
     /**
-     * @return vertices list
+     * @return vertices list, copied from {@link #getTriangleMesh()}
      */
     public List<Coordinate> getVertices() {
-        return vertices;
+        return mesh == null ? null : mesh.getVertices();
+    }
+
+    /**
+     * @return Triangles, neighbors and vertices of the mesh, null before {@link #finishPolygonFeeding(Geometry)}
+     */
+    public TriangleMesh getTriangleMesh() {
+        return mesh;
     }
 
 
@@ -287,6 +308,46 @@ public class MeshBuilder {
         }
     }
 
+    /**
+     * Hash of the buildings, topographic points and triangulation settings, the same inputs give the same
+     * mesh. Must be called before {@link #finishPolygonFeeding(Geometry)}, see {@link MeshCache}.
+     *
+     * @param boundingBoxFilter Bounding box given to {@link #finishPolygonFeeding(Envelope)}
+     * @return SHA-256 of the inputs
+     * @throws IllegalStateException If an insertion evaluator is set, its settings are not known
+     */
+    public byte[] computeInputHash(Envelope boundingBoxFilter) {
+        if (insertionEvaluator != null) {
+            throw new IllegalStateException("The settings of the insertion evaluator are unknown, the mesh " +
+                    "inputs cannot be hashed");
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        WKBWriter wkbWriter = new WKBWriter(3);
+        ByteBuffer values = ByteBuffer.allocate(24);
+        values.putInt(TRIANGULATION_VERSION).putDouble(MIN_ANGLE);
+        values.putInt(polygonWithHeight.size()).putInt(topoPoints.size());
+        digest.update(values.array(), 0, values.position());
+        for (PolygonWithHeight polygon : polygonWithHeight) {
+            digest.update(wkbWriter.write(polygon.getGeometry()));
+            values.clear();
+            values.putDouble(polygon.getHeight());
+            values.put((byte) (polygon.hasHeight() ? 1 : 0));
+            digest.update(values.array(), 0, values.position());
+        }
+        for (Coordinate topoPoint : topoPoints) {
+            values.clear();
+            values.putDouble(topoPoint.x).putDouble(topoPoint.y).putDouble(topoPoint.z);
+            digest.update(values.array());
+        }
+        digest.update(wkbWriter.write(new GeometryFactory().toGeometry(boundingBoxFilter)));
+        return digest.digest();
+    }
+
     public void finishPolygonFeeding(Envelope boundingBoxFilter) throws LayerDelaunayError {
         finishPolygonFeeding(new GeometryFactory().toGeometry(boundingBoxFilter));
     }
@@ -318,7 +379,7 @@ public class MeshBuilder {
         delaunayTool.addPolygon((Polygon) boundingBoxGeom, false);
         //explodeAndAddPolygon(allbuilds, delaunayTool);
         //Process delaunay Triangulation
-        delaunayTool.setMinAngle(0.);
+        delaunayTool.setMinAngle(MIN_ANGLE);
         //computeNeighbors
         delaunayTool.setRetrieveNeighbors(true);
         // Refine result
@@ -328,9 +389,8 @@ public class MeshBuilder {
             delaunayTool.processDelaunay();
         }
         // Get results
-        this.triVertices = delaunayTool.getTriangles();
-        this.vertices = delaunayTool.getVertices();
-        this.triNeighbors = delaunayTool.getNeighbors();
+        this.mesh = delaunayTool.getTriangleMesh();
+        this.mesh.trimToSize();
     }
 
     //function just for test MergePolygon
@@ -0,0 +1,453 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Binary file of a triangulated mesh, read through memory mapping. Triangulation of the same buildings and
+ * topography is done once, the next runs open the {@link FastObstructionTest} from the file: vertices, triangles,
+ * neighbors, building ids and heights, vertices open angle for the wide angle points, and the grid that locates
+ * triangles. Mapped data is not copied into the heap.
+ *
+ * A mesh refined by an insertion evaluator is not cached, the settings of the evaluator are not known.
+ *
+ * File layout, little endian: header (magic, format version, {@link MeshBuilder#TRIANGULATION_VERSION}, input hash,
+ * counts, triangle grid size), then sections aligned on 8 bytes.
+ *
+ * @author Nicolas Fortin
+ */
+public final class MeshCache {
+    private static final int MAGIC = 0x4E4D4D43;
+    private static final int VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 80;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private MeshCache() {
+    }
+
+    /**
+     * @param directory Cache directory
+     * @param inputHash Hash of the mesh inputs, see {@link MeshBuilder#computeInputHash(Envelope)}
+     * @return File of the mesh in the cache directory
+     */
+    public static File getCacheFile(File directory, byte[] inputHash) {
+        StringBuilder name = new StringBuilder("mesh-");
+        for (byte value : inputHash) {
+            name.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+        }
+        return new File(directory, name.append(".bin").toString());
+    }
+
+    /**
+     * Open the mesh of the cache directory if its inputs are unchanged, else triangulate and store the mesh.
+     * The mesh is triangulated without cache if the builder has an insertion evaluator.
+     *
+     * @param directory   Cache directory
+     * @param builder     Buildings and topography, not triangulated yet
+     * @param boundingBox Bounding box of the triangulation
+     * @return Obstruction test of the mesh
+     * @throws IOException        Read or write error
+     * @throws LayerDelaunayError Triangulation error
+     */
+    public static FastObstructionTest getOrCreate(File directory, MeshBuilder builder, Envelope boundingBox)
+            throws IOException, LayerDelaunayError {
+        if (builder.hasInsertionEvaluator()) {
+            builder.finishPolygonFeeding(boundingBox);
+            return new FastObstructionTest(builder.getPolygonWithHeight(), builder.getTriangleMesh());
+        }
+        byte[] inputHash = builder.computeInputHash(boundingBox);
+        File file = getCacheFile(directory, inputHash);
+        FastObstructionTest obstructionTest = load(file, inputHash);
+        if (obstructionTest == null) {
+            builder.finishPolygonFeeding(boundingBox);
+            obstructionTest = new FastObstructionTest(builder.getPolygonWithHeight(), builder.getTriangleMesh());
+            write(file, inputHash, obstructionTest);
+        }
+        return obstructionTest;
+    }
+
+    /**
+     * Write a mesh. The file is written aside then renamed, readers never see a partial file.
+     *
+     * @param file            Destination file
+     * @param inputHash       Hash of the mesh inputs
+     * @param obstructionTest Mesh to store
+     * @throws IOException Write error
+     */
+    public static void write(File file, byte[] inputHash, FastObstructionTest obstructionTest) throws IOException {
+        if (inputHash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Input hash must be " + HASH_LENGTH + " bytes long");
+        }
+        AbstractTriangleMesh mesh = obstructionTest.getTriangleMesh();
+        double[] buildingHeights = obstructionTest.getBuildingHeights();
+        FloatBuffer openAngles = obstructionTest.getVerticesOpenAngle();
+        DoubleBuffer openAnglePoints = obstructionTest.getVerticesOpenAngleTranslated();
+        TriangleGridLocator locator = obstructionTest.getTriangleLocator();
+        Layout layout = new Layout(mesh.getTriangleCount(), mesh.getVertexCount(), buildingHeights.length,
+                locator.getColumnCount(), locator.getRowCount(), locator.getReferenceCount());
+        // Unique name, concurrent writers of the same mesh do not share a partial file
+        File tmpFile = File.createTempFile("mesh-", ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        FileOutputStream stream = new FileOutputStream(tmpFile);
+        try {
+            SectionWriter writer = new SectionWriter(stream.getChannel());
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putInt(MeshBuilder.TRIANGULATION_VERSION)
+                    .put(inputHash).putInt(layout.triangleCount)
+                    .putInt(layout.vertexCount).putInt(layout.buildingCount)
+                    .putInt(obstructionTest.hasBuildingWithHeight() ? 1 : 0).putInt(layout.columnCount)
+                    .putInt(layout.rowCount).putInt(layout.referenceCount);
+            writer.align(HEADER_LENGTH);
+            for (int idVertex = 0; idVertex < layout.vertexCount; idVertex++) {
+                writer.putDouble(mesh.getX(idVertex));
+            }
+            for (int idVertex = 0; idVertex < layout.vertexCount; idVertex++) {
+                writer.putDouble(mesh.getY(idVertex));
+            }
+            for (int idVertex = 0; idVertex < layout.vertexCount; idVertex++) {
+                writer.putDouble(mesh.getZ(idVertex));
+            }
+            for (int i = 0; i < layout.vertexCount * 3; i++) {
+                writer.putDouble(openAnglePoints.get(i));
+            }
+            for (double buildingHeight : buildingHeights) {
+                writer.putDouble(buildingHeight);
+            }
+            for (int idTri = 0; idTri < layout.triangleCount; idTri++) {
+                for (int corner = 0; corner < 3; corner++) {
+                    writer.putInt(mesh.getVertex(idTri, corner));
+                }
+            }
+            for (int idTri = 0; idTri < layout.triangleCount; idTri++) {
+                for (int side = 0; side < 3; side++) {
+                    writer.putInt(mesh.getNeighbor(idTri, side));
+                }
+            }
+            for (int idTri = 0; idTri < layout.triangleCount; idTri++) {
+                writer.putInt(mesh.getBuildingId(idTri));
+            }
+            for (int idVertex = 0; idVertex < layout.vertexCount; idVertex++) {
+                writer.putFloat(openAngles.get(idVertex));
+            }
+            writer.align(layout.locatorBoundsOffset);
+            for (double bound : locator.getBounds()) {
+                writer.putDouble(bound);
+            }
+            for (int idCell = 0; idCell < layout.columnCount * layout.rowCount; idCell++) {
+                writer.putInt(locator.getCellBegin(idCell));
+            }
+            writer.putInt(layout.referenceCount);
+            for (int position = 0; position < layout.referenceCount; position++) {
+                writer.putInt(locator.getTriangle(position));
+            }
+            writer.align(layout.length);
+            writer.flush();
+            written = true;
+        } finally {
+            stream.close();
+            if (!written) {
+                tmpFile.delete();
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms do not replace an existing file
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Open a mesh file, data is mapped in memory.
+     *
+     * @param file      Mesh file
+     * @param inputHash Expected hash of the mesh inputs
+     * @return Obstruction test of the mesh, null if the file does not exist or has been written from other inputs
+     * or by another version
+     * @throws IOException Read error
+     */
+    public static FastObstructionTest load(File file, byte[] inputHash) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() < HEADER_LENGTH) {
+                return null;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] fileHash = new byte[HASH_LENGTH];
+            if (header.getInt() != MAGIC || header.getInt() != VERSION ||
+                    header.getInt() != MeshBuilder.TRIANGULATION_VERSION ||
+                    !Arrays.equals(inputHash, readHash(header, fileHash))) {
+                return null;
+            }
+            int triangleCount = header.getInt();
+            int vertexCount = header.getInt();
+            int buildingCount = header.getInt();
+            boolean hasBuildingWithHeight = header.getInt() != 0;
+            Layout layout = new Layout(triangleCount, vertexCount, buildingCount, header.getInt(), header.getInt(),
+                    header.getInt());
+            if (channel.size() != layout.length) {
+                return null;
+            }
+            // Mappings stay valid when the channel is closed
+            DoubleBuffer xs = map(channel, layout.xsOffset, layout.vertexCount * 8L).asDoubleBuffer();
+            DoubleBuffer ys = map(channel, layout.ysOffset, layout.vertexCount * 8L).asDoubleBuffer();
+            DoubleBuffer zs = map(channel, layout.zsOffset, layout.vertexCount * 8L).asDoubleBuffer();
+            DoubleBuffer openAnglePoints = map(channel, layout.openAnglePointsOffset,
+                    layout.vertexCount * 24L).asDoubleBuffer();
+            double[] buildingHeights = new double[layout.buildingCount];
+            map(channel, layout.buildingHeightsOffset, layout.buildingCount * 8L).asDoubleBuffer()
+                    .get(buildingHeights);
+            IntBuffer triangleVertices = map(channel, layout.triangleVerticesOffset,
+                    layout.triangleCount * 12L).asIntBuffer();
+            IntBuffer triangleNeighbors = map(channel, layout.triangleNeighborsOffset,
+                    layout.triangleCount * 12L).asIntBuffer();
+            IntBuffer buildingIds = map(channel, layout.buildingIdsOffset, layout.triangleCount * 4L).asIntBuffer();
+            FloatBuffer openAngles = map(channel, layout.openAnglesOffset, layout.vertexCount * 4L).asFloatBuffer();
+            AbstractTriangleMesh mesh = new MappedTriangleMesh(layout.triangleCount, layout.vertexCount, triangleVertices,
+                    triangleNeighbors, buildingIds, xs, ys, zs);
+            double[] locatorBounds = new double[5];
+            map(channel, layout.locatorBoundsOffset, locatorBounds.length * 8L).asDoubleBuffer().get(locatorBounds);
+            IntBuffer cellStart = map(channel, layout.cellStartOffset,
+                    (layout.columnCount * layout.rowCount + 1) * 4L).asIntBuffer();
+            IntBuffer cellTriangles = map(channel, layout.cellTrianglesOffset,
+                    layout.referenceCount * 4L).asIntBuffer();
+            TriangleGridLocator locator = new TriangleGridLocator(locatorBounds, layout.columnCount, layout.rowCount,
+                    cellStart, cellTriangles);
+            return new FastObstructionTest(mesh, buildingHeights, hasBuildingWithHeight, openAngles,
+                    openAnglePoints, locator);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static byte[] readHash(ByteBuffer header, byte[] fileHash) {
+        header.get(fileHash);
+        return fileHash;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Offsets of the file sections
+     */
+    private static final class Layout {
+        private final int triangleCount;
+        private final int vertexCount;
+        private final int buildingCount;
+        private final long xsOffset;
+        private final long ysOffset;
+        private final long zsOffset;
+        private final long openAnglePointsOffset;
+        private final long buildingHeightsOffset;
+        private final long triangleVerticesOffset;
+        private final long triangleNeighborsOffset;
+        private final long buildingIdsOffset;
+        private final long openAnglesOffset;
+        private final int columnCount;
+        private final int rowCount;
+        private final int referenceCount;
+        private final long locatorBoundsOffset;
+        private final long cellStartOffset;
+        private final long cellTrianglesOffset;
+        private final long length;
+
+        private Layout(int triangleCount, int vertexCount, int buildingCount, int columnCount, int rowCount,
+                       int referenceCount) {
+            this.triangleCount = triangleCount;
+            this.vertexCount = vertexCount;
+            this.buildingCount = buildingCount;
+            this.columnCount = columnCount;
+            this.rowCount = rowCount;
+            this.referenceCount = referenceCount;
+            xsOffset = HEADER_LENGTH;
+            ysOffset = xsOffset + vertexCount * 8L;
+            zsOffset = ysOffset + vertexCount * 8L;
+            openAnglePointsOffset = zsOffset + vertexCount * 8L;
+            buildingHeightsOffset = openAnglePointsOffset + vertexCount * 24L;
+            triangleVerticesOffset = buildingHeightsOffset + buildingCount * 8L;
+            triangleNeighborsOffset = triangleVerticesOffset + triangleCount * 12L;
+            buildingIdsOffset = triangleNeighborsOffset + triangleCount * 12L;
+            openAnglesOffset = buildingIdsOffset + triangleCount * 4L;
+            // Triangle grid bounds and cell size, first triangle of each cell, triangles by cell
+            locatorBoundsOffset = align8(openAnglesOffset + vertexCount * 4L);
+            cellStartOffset = locatorBoundsOffset + 5 * 8L;
+            cellTrianglesOffset = cellStartOffset + ((long) columnCount * rowCount + 1) * 4L;
+            length = align8(cellTrianglesOffset + referenceCount * 4L);
+        }
+
+        private static long align8(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+
+    /**
+     * Buffered writes of little endian values into a channel
+     */
+    private static final class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        private SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void reserve(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void putDouble(double value) throws IOException {
+            reserve(8);
+            buffer.putDouble(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        private void putFloat(float value) throws IOException {
+            reserve(4);
+            buffer.putFloat(value);
+        }
+
+        /**
+         * Write zeros up to the offset
+         */
+        private void align(long offset) throws IOException {
+            while (position + buffer.position() < offset) {
+                reserve(1);
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Read only mesh, backed by buffers mapped from the file
+     */
+    private static final class MappedTriangleMesh extends AbstractTriangleMesh {
+        private final int triangleCount;
+        private final int vertexCount;
+        private final IntBuffer triangleVertices;
+        private final IntBuffer triangleNeighbors;
+        private final IntBuffer buildingIds;
+        private final DoubleBuffer xs;
+        private final DoubleBuffer ys;
+        private final DoubleBuffer zs;
+
+        private MappedTriangleMesh(int triangleCount, int vertexCount, IntBuffer triangleVertices,
+                                   IntBuffer triangleNeighbors, IntBuffer buildingIds, DoubleBuffer xs,
+                                   DoubleBuffer ys, DoubleBuffer zs) {
+            this.triangleCount = triangleCount;
+            this.vertexCount = vertexCount;
+            this.triangleVertices = triangleVertices;
+            this.triangleNeighbors = triangleNeighbors;
+            this.buildingIds = buildingIds;
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+        }
+
+        @Override
+        public int getTriangleCount() {
+            return triangleCount;
+        }
+
+        @Override
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        @Override
+        public int getVertex(int idTri, int corner) {
+            return triangleVertices.get(idTri * 3 + corner);
+        }
+
+        @Override
+        public int getNeighbor(int idTri, int side) {
+            return triangleNeighbors.get(idTri * 3 + side);
+        }
+
+        @Override
+        public int getBuildingId(int idTri) {
+            return buildingIds.get(idTri);
+        }
+
+        @Override
+        public double getX(int idVertex) {
+            return xs.get(idVertex);
+        }
+
+        @Override
+        public double getY(int idVertex) {
+            return ys.get(idVertex);
+        }
+
+        @Override
+        public double getZ(int idVertex) {
+            return zs.get(idVertex);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.Arrays;
+
+/**
+ * Mutable state of queries done on a {@link FastObstructionTest}.
+ * The mesh is shared between threads, each thread use its own query context.
+ * Obtained through {@link FastObstructionTest#createQueryContext()}.
+ *
+ * @author Nicolas Fortin
+ */
+public class ObstructionQueryContext {
+    /** Slot of the last found triangle cache used for the first point of a query */
+    static final int FIRST_POINT = 0;
+    /** Slot of the last found triangle cache used for the second point of a query */
+    static final int SECOND_POINT = 1;
+    /** Last triangles found by point location, next location start from it */
+    final int[] lastFoundTri = new int[2];
+    long nbObstructionTest = 0;
+    /** First point of the last query, with the altitude computed from the topography */
+    final Coordinate p1 = new Coordinate();
+    /** Second point of the last query, with the altitude computed from the topography */
+    final Coordinate p2 = new Coordinate();
+    /** Intersection of the propagation line with a triangle side */
+    final Coordinate intersection = new Coordinate();
+    /** Corners of the triangle being tested, copied from the mesh */
+    final Coordinate triA = new Coordinate();
+    final Coordinate triB = new Coordinate();
+    final Coordinate triC = new Coordinate();
+    /** Result of the last getPath query */
+    final DiffractionWithSoilEffetZone path = new DiffractionWithSoilEffetZone();
+    /** True if the last free field test has walked up to the source, for the diffraction path */
+    boolean directPathWalked = false;
+    /** Triangles crossed by the propagation line and their exit sides */
+    private int[] crossedTriangles = new int[16];
+    private int[] crossedSides = new int[16];
+    private int crossedSideCount = 0;
+    /** Vertical profile of the propagation line: receiver, intersections with triangle sides, source */
+    double[] profileX = new double[16];
+    double[] profileY = new double[16];
+    double[] profileZ = new double[16];
+    /** True if the profile point is on a building */
+    boolean[] profileOnBuilding = new boolean[16];
+    /** Profile point in the vertical plane of the propagation line, distance from receiver and altitude */
+    double[] profileU = new double[16];
+    double[] profileV = new double[16];
+    /** Profile points on the convex hull */
+    int[] hull = new int[16];
+    /** Ends of the diffraction zones, copied into the path */
+    final Coordinate rOZoneEnd = new Coordinate();
+    final Coordinate oSZoneStart = new Coordinate();
+    private final int triangleCount;
+    /** Navigation history, a triangle has been visited if its stamp is equal to visitEpoch.
+     * Allocated on the first navigation, only getLimitsInRange walks through the mesh */
+    private int[] visitedTriangles = null;
+    private int visitEpoch = 0;
+    /** Triangles to go back to when navigating through the mesh */
+    private int[] navigationStack = new int[16];
+    private int navigationStackSize = 0;
+
+    ObstructionQueryContext(int triangleCount) {
+        this.triangleCount = triangleCount;
+    }
+
+    /**
+     * Clear the navigation history without walking through the triangles.
+     */
+    void newNavigation() {
+        if (visitedTriangles == null) {
+            visitedTriangles = new int[triangleCount];
+        }
+        visitEpoch++;
+        if (visitEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(visitedTriangles, 0);
+            visitEpoch = 1;
+        }
+    }
+
+    void setVisited(int triIndex) {
+        visitedTriangles[triIndex] = visitEpoch;
+    }
+
+    boolean isVisited(int triIndex) {
+        return visitedTriangles[triIndex] == visitEpoch;
+    }
+
+    void clearNavigationStack() {
+        navigationStackSize = 0;
+    }
+
+    void pushNavigation(int value) {
+        if (navigationStackSize == navigationStack.length) {
+            navigationStack = Arrays.copyOf(navigationStack, navigationStackSize * 2);
+        }
+        navigationStack[navigationStackSize++] = value;
+    }
+
+    boolean hasNavigation() {
+        return navigationStackSize > 0;
+    }
+
+    int popNavigation() {
+        return navigationStack[--navigationStackSize];
+    }
+
+    void clearCrossedSides() {
+        crossedSideCount = 0;
+    }
+
+    void pushCrossedSide(int triIndex, int side) {
+        if (crossedSideCount == crossedTriangles.length) {
+            crossedTriangles = Arrays.copyOf(crossedTriangles, crossedSideCount * 2);
+            crossedSides = Arrays.copyOf(crossedSides, crossedSideCount * 2);
+        }
+        crossedTriangles[crossedSideCount] = triIndex;
+        crossedSides[crossedSideCount++] = side;
+    }
+
+    int getCrossedSideCount() {
+        return crossedSideCount;
+    }
+
+    int getCrossedTriangle(int step) {
+        return crossedTriangles[step];
+    }
+
+    int getCrossedSide(int step) {
+        return crossedSides[step];
+    }
+
+    /**
+     * Grow the vertical profile arrays, their content is not kept.
+     * @param size Number of profile points
+     */
+    void ensureProfileCapacity(int size) {
+        if (size > profileX.length) {
+            int capacity = Math.max(size, profileX.length * 2);
+            profileX = new double[capacity];
+            profileY = new double[capacity];
+            profileZ = new double[capacity];
+            profileOnBuilding = new boolean[capacity];
+            profileU = new double[capacity];
+            profileV = new double[capacity];
+        }
+    }
+
+    /**
+     * @return Number of free field tests done with this context
+     */
+    public long getNbObstructionTest() {
+        return nbObstructionTest;
+    }
+
+    /**
+     * @return First point of the last query with its altitude set from the topography.
+     * This instance is reused by the next query.
+     */
+    public Coordinate getP1() {
+        return p1;
+    }
+
+    /**
+     * @return Second point of the last query with its altitude set from the topography.
+     * This instance is reused by the next query.
+     */
+    public Coordinate getP2() {
+        return p2;
+    }
+}
@@ -33,29 +33,62 @@
  */
 package org.orbisgis.noisemap.core;
 
-import java.util.List;
+import java.util.Arrays;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
 
 /**
  * @brief Sources merging This class can merge source point by a
  *        maximum distance, from another closed source.
- *  TODO use hashmap with position/epsilon_merge
+ * Points are hashed into square cells of the merge distance size, a new point is compared with the points of
+ * the 9 cells around it. Cells are stored in an open addressing table of primitive arrays, stamped with a
+ * generation number: {@link #clear()} does not walk through the table and the instance can be reused without
+ * allocating memory.
  * @author Nicolas Fortin
  */
 public class PointsMerge {
-	private Quadtree ptQuad = new Quadtree();
+	private static final int INITIAL_CAPACITY = 64;
 	private double distMerge = 1.;
-        private int index_counter=-1;
-	
+	private int index_counter=-1;
+	/** Cell key by table slot */
+	private long[] cellKeys = new long[INITIAL_CAPACITY];
+	/** Slot is used if its stamp is equal to generation */
+	private int[] cellStamps = new int[INITIAL_CAPACITY];
+	/** Last point inserted in the cell, by table slot */
+	private int[] cellLastPoint = new int[INITIAL_CAPACITY];
+	private int cellCount = 0;
+	private int generation = 1;
+	/** x, y of points */
+	private double[] points = new double[INITIAL_CAPACITY * 2];
+	/** Previous point of the same cell, -1 for the first point of the cell */
+	private int[] previousInCell = new int[INITIAL_CAPACITY];
+
 	public PointsMerge(double distMerge) {
 		super();
 		this.distMerge = distMerge;
 	}
 
+	/**
+	 * Remove all points and set the merge distance, next index is 0
+	 * @param distMerge New merge distance
+	 */
+	public void clear(double distMerge) {
+		this.distMerge = distMerge;
+		clear();
+	}
+
+	/**
+	 * Remove all points, next index is 0
+	 */
+	public void clear() {
+		index_counter = -1;
+		cellCount = 0;
+		generation++;
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(cellStamps, 0);
+			generation = 1;
+		}
+	}
 
-	@SuppressWarnings("unchecked")
 	/**
 	 * Compute unique index for the coordinate
 	 * Index count from 0 to n
@@ -63,20 +96,99 @@ public class PointsMerge {
 	 * @return The index of the vertex
 	 */
 	public int getOrAppendVertex(Coordinate newCoord) {
-		Envelope queryEnv = new Envelope(newCoord);
-		queryEnv.expandBy(this.distMerge*2);
-		List<EnvelopeWithIndex<Integer>> result = this.ptQuad.query(queryEnv);
-		for (EnvelopeWithIndex<Integer> envel : result) {
-			if (envel.getPosition().distance(newCoord) < this.distMerge) {
-				return envel.getId();
+		return getOrAppendVertex(newCoord.x, newCoord.y);
+	}
+
+	/**
+	 * Compute unique index for the planar position
+	 * Index count from 0 to n
+	 * If the new vertex is closer than distMerge with an another vertex then it will return the lowest index of
+	 * these vertices.
+	 * @param x Vertex x
+	 * @param y Vertex y
+	 * @return The index of the vertex
+	 */
+	public int getOrAppendVertex(double x, double y) {
+		long cellX = (long) Math.floor(x / distMerge);
+		long cellY = (long) Math.floor(y / distMerge);
+		int found = Integer.MAX_VALUE;
+		for (long neighborX = cellX - 1; neighborX <= cellX + 1; neighborX++) {
+			for (long neighborY = cellY - 1; neighborY <= cellY + 1; neighborY++) {
+				int slot = findSlot(cellKey(neighborX, neighborY));
+				if (cellStamps[slot] == generation) {
+					for (int point = cellLastPoint[slot]; point != -1; point = previousInCell[point]) {
+						double dx = points[point * 2] - x;
+						double dy = points[point * 2 + 1] - y;
+						if (point < found && Math.sqrt(dx * dx + dy * dy) < distMerge) {
+							found = point;
+						}
+					}
+				}
 			}
 		}
+		if (found != Integer.MAX_VALUE) {
+			return found;
+		}
 		// Not found then
-		// Append to the list and QuadTree
-                index_counter++;
-		this.ptQuad.insert(queryEnv, new EnvelopeWithIndex<Integer>(queryEnv,
-				index_counter));
-                
+		// Append to the points and cells
+		index_counter++;
+		if (index_counter == previousInCell.length) {
+			points = Arrays.copyOf(points, index_counter * 4);
+			previousInCell = Arrays.copyOf(previousInCell, index_counter * 2);
+		}
+		points[index_counter * 2] = x;
+		points[index_counter * 2 + 1] = y;
+		long key = cellKey(cellX, cellY);
+		int slot = findSlot(key);
+		if (cellStamps[slot] != generation) {
+			if ((cellCount + 1) * 2 > cellKeys.length) {
+				growTable();
+				slot = findSlot(key);
+			}
+			cellKeys[slot] = key;
+			cellStamps[slot] = generation;
+			cellLastPoint[slot] = -1;
+			cellCount++;
+		}
+		previousInCell[index_counter] = cellLastPoint[slot];
+		cellLastPoint[slot] = index_counter;
 		return index_counter;
 	}
+
+	private static long cellKey(long cellX, long cellY) {
+		return (cellX << 32) ^ (cellY & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param key Cell key
+	 * @return Slot of this cell, or the free slot where the cell would be inserted
+	 */
+	private int findSlot(long key) {
+		int mask = cellKeys.length - 1;
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (cellStamps[slot] == generation && cellKeys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void growTable() {
+		long[] oldKeys = cellKeys;
+		int[] oldStamps = cellStamps;
+		int[] oldLastPoint = cellLastPoint;
+		int oldGeneration = generation;
+		cellKeys = new long[oldKeys.length * 2];
+		cellStamps = new int[oldKeys.length * 2];
+		cellLastPoint = new int[oldKeys.length * 2];
+		generation = 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldStamps[i] == oldGeneration) {
+				int slot = findSlot(oldKeys[i]);
+				cellKeys[slot] = oldKeys[i];
+				cellStamps[slot] = generation;
+				cellLastPoint[slot] = oldLastPoint[i];
+			}
+		}
+	}
 }
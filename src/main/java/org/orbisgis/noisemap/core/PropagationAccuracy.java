@@ -0,0 +1,102 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+/**
+ * Computation effort of a {@link PropagationProcess} derived from the target error in dB e of
+ * {@link PropagationProcessData#targetError}. The default target error gives the historical settings, other values
+ * scale each setting with the bound of the error it introduces:
+ * <ul>
+ *     <li>Point sources are forgotten while the sum of their free field contributions increases the receiver
+ *     level by less than e. The source search stops when a {@link #MAX_SOURCE_POWER} source at the next range
+ *     would not increase the level by more than e.</li>
+ *     <li>Point sources closer than the merge distance d are merged, the level error of a merged source at the
+ *     distance r is lower than 20 log10(1 + d / r). d is set so that this bound reaches e at the same distance
+ *     for all target errors, about 289 m. d does not exceed the default merge distance, a larger distance would
+ *     merge the discretized points of the lines close to the receiver.</li>
+ *     <li>The first search range, the maximum number of mirrored receivers and of diffraction paths by
+ *     source-receiver pair scale with the allowed relative power error 10^(e/10) - 1. The range uses the square
+ *     root of this ratio as the power of a source decreases with the square of the distance.</li>
+ * </ul>
+ *
+ * @author Nicolas Fortin
+ */
+final class PropagationAccuracy {
+    /** Sound power used to stop the source search, 94 dB(A). Max iso level is >75 dB(a). */
+    static final double MAX_SOURCE_POWER = Math.pow(10, 94. / 10.);
+    /** Merge distance of the default target error */
+    static final double DEFAULT_MERGE_DISTANCE = 1.;
+    /** First search range of the default target error */
+    static final double DEFAULT_FIRST_STEP_RANGE = 90;
+    /** Maximum number of mirrored receivers of the default target error */
+    static final int DEFAULT_MIRROR_LIMIT = 1000;
+    /** Maximum number of diffraction paths by source-receiver pair of the default target error */
+    static final int DEFAULT_DIFFRACTION_PATH_LIMIT = 1000;
+    /** Lowest path limits, whatever the target error */
+    static final int MIN_PATH_LIMIT = 10;
+
+    /** Target error in dB */
+    final double targetError;
+    /** Sources are forgotten while they increase the receiver level by less than this value in dB */
+    final double forgetSourceDb;
+    /** Maximum distance between merged point sources */
+    final double mergeDistance;
+    /** First source search range */
+    final double firstStepRange;
+    /** Maximum number of mirrored receivers */
+    final int mirrorLimit;
+    /** Maximum number of diffraction paths by source-receiver pair */
+    final int diffractionPathLimit;
+
+    /**
+     * @param targetError Target error in dB, strictly positive
+     */
+    PropagationAccuracy(double targetError) {
+        if (!(targetError > 0)) {
+            throw new IllegalArgumentException("Target error must be strictly positive, got " + targetError);
+        }
+        this.targetError = targetError;
+        forgetSourceDb = targetError;
+        mergeDistance = Math.min(DEFAULT_MERGE_DISTANCE, DEFAULT_MERGE_DISTANCE *
+                (Math.pow(10, targetError / 20) - 1) /
+                (Math.pow(10, PropagationProcessData.DEFAULT_TARGET_ERROR / 20) - 1));
+        // Allowed relative power error against the one of the default target error
+        double powerRatio = (Math.pow(10, PropagationProcessData.DEFAULT_TARGET_ERROR / 10) - 1) /
+                (Math.pow(10, targetError / 10) - 1);
+        firstStepRange = DEFAULT_FIRST_STEP_RANGE * Math.sqrt(powerRatio);
+        mirrorLimit = Math.max(MIN_PATH_LIMIT, (int) Math.round(DEFAULT_MIRROR_LIMIT * powerRatio));
+        diffractionPathLimit = Math.max(MIN_PATH_LIMIT,
+                (int) Math.round(DEFAULT_DIFFRACTION_PATH_LIMIT * powerRatio));
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run {@link PropagationProcess} cells on a bounded pool of threads.
+ * Waiting cells are ordered by estimated cost, the longest first, then the shortest cells fill the cores at the end
+ * of the run. Completion and errors of a cell are reported through the returned future.
+ * When receiver parallelism is greater than one, idle threads of the pool help to compute the receivers of running
+ * cells once no cell is waiting.
+ *
+ * @author Nicolas Fortin
+ */
+public class PropagationCellScheduler {
+    /** Priority of receiver helpers, lower than any cell */
+    private static final long HELPER_COST = -1;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong submitOrder = new AtomicLong(0);
+    private final Executor helperExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(new CellTask<Object>(command, null, HELPER_COST, submitOrder.getAndIncrement()));
+        }
+    };
+    private int receiverParallelism = 1;
+
+    /**
+     * @param threadCount Number of threads computing cells, usually the number of available processors
+     */
+    public PropagationCellScheduler(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The scheduler needs at least one thread");
+        }
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new CellThreadFactory());
+        // Started threads take tasks from the priority queue only
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * @param receiverParallelism Maximum number of threads computing the receivers of one cell, 1 to compute
+     *                            the receivers on the thread of the cell only.
+     */
+    public void setReceiverParallelism(int receiverParallelism) {
+        this.receiverParallelism = Math.max(1, receiverParallelism);
+    }
+
+    /**
+     * @return Number of threads computing cells
+     */
+    public int getThreadCount() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Estimate the relative computation cost of a cell. Only used to order the cells.
+     *
+     * @param data Cell data
+     * @return Estimated cost, greater or equal to 0
+     */
+    public static long estimateCost(PropagationProcessData data) {
+        long receiverCount = data.vertices == null ? 0 : data.vertices.size();
+        long sourceCount = data.sourceGeometries == null ? 0 : data.sourceGeometries.size();
+        return receiverCount * (1 + sourceCount) * (1 + Math.max(0, data.diffractionOrder))
+                * (1 + Math.max(0, data.reflexionOrder));
+    }
+
+    /**
+     * Queue a cell, ordered by its estimated cost.
+     *
+     * @param process Cell to compute
+     * @return Future of the cell output, thrown exceptions are the ones of {@link PropagationProcess#run()}
+     */
+    public Future<PropagationProcessOut> submit(PropagationProcess process) {
+        return submit(process, estimateCost(process.getData()));
+    }
+
+    /**
+     * Queue a cell with a cost computed by the caller.
+     *
+     * @param process Cell to compute
+     * @param cost    Cost of the cell, cells with higher cost are computed first
+     * @return Future of the cell output
+     */
+    public Future<PropagationProcessOut> submit(final PropagationProcess process, long cost) {
+        if (receiverParallelism > 1) {
+            process.setReceiverExecutor(helperExecutor, receiverParallelism);
+        }
+        CellTask<PropagationProcessOut> task = new CellTask<PropagationProcessOut>(
+                new Callable<PropagationProcessOut>() {
+                    @Override
+                    public PropagationProcessOut call() throws Exception {
+                        try {
+                            process.computeCell();
+                        } catch (ExecutionException ex) {
+                            if (ex.getCause() instanceof Exception) {
+                                throw (Exception) ex.getCause();
+                            }
+                            throw ex;
+                        }
+                        return process.getDataOut();
+                    }
+                }, Math.max(0, cost), submitOrder.getAndIncrement());
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Queue all cells at once, the longest cells are started first even if threads are idle.
+     *
+     * @param processes Cells to compute
+     * @return Futures of the cells, in the same order as processes
+     */
+    public List<Future<PropagationProcessOut>> submitAll(List<PropagationProcess> processes) {
+        final long[] costs = new long[processes.size()];
+        List<Integer> order = new ArrayList<Integer>(processes.size());
+        for (int idCell = 0; idCell < costs.length; idCell++) {
+            costs[idCell] = estimateCost(processes.get(idCell).getData());
+            order.add(idCell);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer cell1, Integer cell2) {
+                return costs[cell1] > costs[cell2] ? -1 : (costs[cell1] == costs[cell2] ? 0 : 1);
+            }
+        });
+        List<Future<PropagationProcessOut>> futures = new ArrayList<Future<PropagationProcessOut>>(
+                Collections.<Future<PropagationProcessOut>>nCopies(costs.length, null));
+        for (int idCell : order) {
+            futures.set(idCell, submit(processes.get(idCell), costs[idCell]));
+        }
+        return futures;
+    }
+
+    /**
+     * Queued cells are computed, new cells are rejected.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Cancel waiting cells and interrupt running cells.
+     */
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Wait for the end of all cells after {@link #shutdown()}
+     *
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of timeout
+     * @return False if the timeout elapsed before termination
+     * @throws InterruptedException Interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Task ordered by decreasing cost, then by submission order.
+     */
+    private static final class CellTask<V> extends FutureTask<V> implements Comparable<CellTask<?>> {
+        private final long cost;
+        private final long order;
+
+        CellTask(Callable<V> callable, long cost, long order) {
+            super(callable);
+            this.cost = cost;
+            this.order = order;
+        }
+
+        CellTask(Runnable runnable, V result, long cost, long order) {
+            super(runnable, result);
+            this.cost = cost;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(CellTask<?> other) {
+            if (cost != other.cost) {
+                return cost > other.cost ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private static final class CellThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PropagationCell-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -36,18 +36,23 @@ package org.orbisgis.noisemap.core;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.vividsolutions.jts.algorithm.NonRobustLineIntersector;
 import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.algorithm.RobustDeterminant;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineSegment;
-import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
 import com.vividsolutions.jts.index.strtree.STRtree;
@@ -61,23 +66,34 @@ import org.slf4j.LoggerFactory;
  */
 public class PropagationProcess implements Runnable {
     private final static double BASE_LVL = 1.; // 0dB lvl
-    private final static double ONETHIRD = 1. / 3.;
-    private final static double MERGE_SRC_DIST = 1.;
-    private final static double DBA_FORGET_SOURCE = 0.03;
-    private final static double FIRST_STEP_RANGE = 90;
-    private final static double W_RANGE = Math.pow(10, 94. / 10.); //94 dB(A) range search. Max iso level is >75 dB(a).
     private final static double CEL = 344.23935;
-    private final static int LIMITATION_RECEIVER_MIRROR = 1000;
-    private final static int LIMITATION_DIFFRACTION_PATH = 1000;
-    private Thread thread;
+    /** Maximum number of records given at once to the result sink */
+    private final static int RESULT_BATCH_SIZE = 4096;
     private PropagationProcessData data;
     private PropagationProcessOut dataOut;
+    /** Thread created by the deprecated {@link #start()} method */
+    private Thread thread = null;
+    /** Index of the diffraction corners of {@link #cornerGraph} */
     private Quadtree cornersQuad;
+    /** Diffraction corners and the corners visible from them */
+    private CornerVisibilityGraph cornerGraph;
+    /** Free field tests between corners and sources, shared by receivers */
+    private CornerSourceVisibilityCache cornerSourceVisibility;
     private int nbfreq;
-    private long diffractionPathCount = 0;
-    private long refpathcount = 0;
-    private double[] alpha_atmo;
-    private double[] freq_lambda;
+    private Executor receiverExecutor = null;
+    private int receiverParallelism = 1;
+    /** Scratch data of the threads calling computeSoundLevelAtPosition without context */
+    private final ThreadLocal<PropagationWorkerContext> defaultWorkerContext =
+            new ThreadLocal<PropagationWorkerContext>();
+    /** Contexts of defaultWorkerContext, their counters are pushed by {@link #flushStatistics()} */
+    private final List<PropagationWorkerContext> defaultWorkerContexts = new ArrayList<PropagationWorkerContext>();
+    private AttenuationKernel kernel;
+    /** Point sources of line sources, by receiver distance */
+    private SourceDiscretizationCache sourceDiscretization;
+    /** Settings derived from the target error */
+    private PropagationAccuracy accuracy;
+    /** Hierarchy of sources, null if sources are not clustered */
+    private SourceTree sourceTree;
     private STRtree rTreeOfGeoSoil;
     private boolean hasBuildingHeight;
     private final static Logger LOGGER = LoggerFactory.getLogger(PropagationProcess.class);
@@ -110,7 +126,7 @@ public class PropagationProcess implements Runnable {
      * @return True if the wall is oriented to the point
      */
     static public boolean wallPointTest(LineSegment wall1, Coordinate pt) {
-        return CGAlgorithms.isCCW(new Coordinate[]{wall1.getCoordinate(0), wall1.getCoordinate(1), pt, wall1.getCoordinate(0)});
+        return RobustDeterminant.orientationIndex(wall1.p0, wall1.p1, pt) == CGAlgorithms.COUNTERCLOCKWISE;
     }
 
     /**
@@ -128,7 +144,7 @@ public class PropagationProcess implements Runnable {
             List<MirrorReceiverResult> receiversImage,
             Coordinate receiverCoord, int lastResult,
             List<LineSegment> nearBuildingsWalls, int depth,
-            double distanceLimitation) {
+            double distanceLimitation, int mirrorLimit) {
         // For each wall (except parent wall) compute the mirrored coordinate
         int exceptionWallId = -1;
         if (lastResult != -1) {
@@ -163,13 +179,13 @@ public class PropagationProcess implements Runnable {
                         if (depth > 0) {
                             feedMirroredReceiverResults(receiversImage, mirrored,
                                     receiversImage.size() - 1, nearBuildingsWalls,
-                                    depth - 1, distanceLimitation);
+                                    depth - 1, distanceLimitation, mirrorLimit);
                         }
                     }
                 }
             }
             wallId++;
-            if (receiversImage.size() > LIMITATION_RECEIVER_MIRROR) {
+            if (receiversImage.size() > mirrorLimit) {
                 break;
             }
         }
@@ -187,31 +203,95 @@ public class PropagationProcess implements Runnable {
     static public List<MirrorReceiverResult> getMirroredReceiverResults(
             Coordinate receiverCoord, List<LineSegment> nearBuildingsWalls,
             int order, double distanceLimitation) {
+        return getMirroredReceiverResults(receiverCoord, nearBuildingsWalls, order, distanceLimitation,
+                PropagationAccuracy.DEFAULT_MIRROR_LIMIT);
+    }
+
+    /**
+     * Compute all receiver position mirrored by specified segments
+     *
+     * @param receiverCoord      Position of the original receiver
+     * @param nearBuildingsWalls Segments to mirror to
+     * @param order              Order of reflections 1 to a limited number
+     * @param distanceLimitation Limitation of searching mirrored receivers
+     * @param mirrorLimit        Walls are no longer processed when there is more mirrored receivers than this limit
+     * @return List of possible reflections
+     */
+    static public List<MirrorReceiverResult> getMirroredReceiverResults(
+            Coordinate receiverCoord, List<LineSegment> nearBuildingsWalls,
+            int order, double distanceLimitation, int mirrorLimit) {
         List<MirrorReceiverResult> receiversImage = new ArrayList<MirrorReceiverResult>();
         feedMirroredReceiverResults(receiversImage, receiverCoord, -1,
-                nearBuildingsWalls, order - 1, distanceLimitation);
+                nearBuildingsWalls, order - 1, distanceLimitation, mirrorLimit);
         return receiversImage;
     }
 
     public PropagationProcess(PropagationProcessData data,
                               PropagationProcessOut dataOut) {
-        thread = new Thread(this);
         this.dataOut = dataOut;
         this.data = data;
     }
 
-    public void start() {
-        thread.start();
+    /**
+     * @return Input data of this cell
+     */
+    public PropagationProcessData getData() {
+        return data;
     }
 
+    /**
+     * @return Output of this cell
+     */
+    public PropagationProcessOut getDataOut() {
+        return dataOut;
+    }
+
+    /**
+     * Run this cell in a new thread
+     * @deprecated Use {@link PropagationCellScheduler} to run cells on a bounded pool of threads
+     */
+    @Deprecated
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this);
+            thread.start();
+        }
+    }
+
+    /**
+     * Wait for the end of the thread created by {@link #start()}
+     * @deprecated Use the future returned by {@link PropagationCellScheduler}
+     */
+    @Deprecated
     public void join() {
+        Thread cellThread;
+        synchronized (this) {
+            cellThread = thread;
+        }
+        if (cellThread == null) {
+            return;
+        }
         try {
-            thread.join();
+            cellThread.join();
         } catch (Exception e) {
             return;
         }
     }
 
+    /**
+     * Compute the receivers of this cell with several threads. The thread calling {@link #run()} always
+     * computes receivers, up to parallelism - 1 helpers are submitted to the executor. Receivers are taken one
+     * by one by idle threads, then a receiver with a heavy diffraction does not stall the others.
+     * Helpers not started when all receivers are done are dropped, the executor can be the one running the cells.
+     *
+     * @param receiverExecutor Executor of helpers, null to compute receivers on the calling thread only
+     * @param parallelism      Maximum number of threads computing the receivers of this cell
+     */
+    public void setReceiverExecutor(Executor receiverExecutor, int parallelism) {
+        this.receiverExecutor = receiverExecutor;
+        this.receiverParallelism = Math.max(1, parallelism);
+    }
+
     public static double dbaToW(double dBA) {
         return Math.pow(10., dBA / 10.);
     }
@@ -220,58 +300,6 @@ public class PropagationProcess implements Runnable {
         return 10 * Math.log10(w);
     }
 
-    /**
-     * @param startPt Compute the closest point on lineString with this coordinate,
-     *                use it as one of the splitted points
-     * @return computed delta
-     */
-    private double splitLineStringIntoPoints(Geometry geom, Coordinate startPt,
-                                             List<Coordinate> pts, double minRecDist) {
-        // Find the position of the closest point
-        Coordinate[] points = geom.getCoordinates();
-        // For each segments
-        Double closestPtDist = Double.MAX_VALUE;
-        Coordinate closestPt = null;
-        double roadLength = 0.;
-        for (int i = 1; i < points.length; i++) {
-            LineSegment seg = new LineSegment(points[i - 1], points[i]);
-            roadLength += seg.getLength();
-            Coordinate SegClosest = seg.closestPoint(startPt);
-            double segcdist = SegClosest.distance(startPt);
-            if (segcdist < closestPtDist) {
-                closestPtDist = segcdist;
-                closestPt = SegClosest;
-            }
-        }
-        if (closestPt == null) {
-            return 1.;
-        }
-        double delta = 20.;
-        // If the minimum effective distance between the line source and the
-        // receiver is smaller than the minimum distance constraint then the
-        // discretization parameter is changed
-        // Delta must not not too small to avoid memory overhead.
-        if (closestPtDist < minRecDist) {
-            closestPtDist = minRecDist;
-        }
-        if (closestPtDist / 2 < delta) {
-            delta = closestPtDist / 2;
-        }
-        pts.add(closestPt);
-        Coordinate[] splitedPts = JTSUtility
-                .splitMultiPointsInRegularPoints(points, delta);
-        for (Coordinate pt : splitedPts) {
-            if (pt.distance(closestPt) > delta) {
-                pts.add(pt);
-            }
-        }
-        if (delta < roadLength) {
-            return delta;
-        } else {
-            return roadLength;
-        }
-    }
-
     /**
      * ISO-9613 p1 - At 15°C 70% humidity
      *
@@ -321,19 +349,36 @@ public class PropagationProcess implements Runnable {
         }
     }
 
-    private int nextFreeFieldNode(List<Coordinate> nodes, Coordinate startPt,
-                                  List<Integer> NodeExceptions, int firstTestNode,
-                                  FastObstructionTest freeFieldFinder) {
-        int validNode = firstTestNode;
-        while (NodeExceptions.contains(validNode)
-                || (validNode < nodes.size() && !freeFieldFinder.isFreeField(
-                startPt, nodes.get(validNode)))) {
-            validNode++;
+    private static boolean contains(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return true;
+            }
         }
-        if (validNode >= nodes.size()) {
-            return -1;
+        return false;
+    }
+
+    /**
+     * Find the next region corner visible from a region corner, using the corner visibility graph.
+     *
+     * @param regionCornerIds    Corner of the visibility graph, by region corner index
+     * @param regionCornerCount  Number of region corners
+     * @param startNode          Region corner index of the path end
+     * @param nodeExceptions     Region corners already in the path
+     * @param nodeExceptionsSize Number of corners in the path
+     * @param firstTestNode      First region corner index to test
+     * @return Region corner index, -1 if there is no more visible corner
+     */
+    private int nextFreeFieldNode(int[] regionCornerIds, int regionCornerCount, int startNode,
+                                  int[] nodeExceptions, int nodeExceptionsSize, int firstTestNode) {
+        final int startCorner = regionCornerIds[startNode];
+        for (int validNode = firstTestNode; validNode < regionCornerCount; validNode++) {
+            if (!contains(nodeExceptions, nodeExceptionsSize, validNode)
+                    && cornerGraph.isVisible(startCorner, regionCornerIds[validNode])) {
+                return validNode;
+            }
         }
-        return validNode;
+        return -1;
     }
 
     /**
@@ -355,42 +400,41 @@ public class PropagationProcess implements Runnable {
     }
 
     /**
-     * Source-Receiver Direct+Reflection+Diffraction computation
+     * Source-Receiver Direct+Reflection+Diffraction computation.
+     * Receiver data (walls, mirrored receivers, corners) are read from the context, see
+     * {@link #initReceiver(Coordinate, PropagationWorkerContext)}. Scratch objects of the context are reused,
+     * no objects are created here.
      *
      * @param[in] srcCoord Coordinate of source
      * @param[in] receiverCoord Coordinate of receiver
      * @param[out] energeticSum Energy by frequency band
-     * @param[in] alpha_atmo Atmospheric absorption by frequency band
-     * @param[in] wj Source sound pressure level dB(A) by frequency band
-     * @param[in] mirroredReceiver Receivers mirrored by walls (for reflection)
-     * @param[in] nearBuildingsWalls Walls within maxsrcdist
-     * @param[in] regionCorners Corners within maxsrcdist
-     * @param[in] regionCornersFreeToReceiver List of index of corners visible
-     * from receiver
-     * @param[in] freq_lambda Array of sound wave lambda value by frequency band
+     * @param[in] wj Source sound power by frequency band, first band at wjOffset
+     * @param[in,out] context Scratch data of the calling thread
      */
-    @SuppressWarnings("unchecked")
-    private void receiverSourcePropa(Coordinate srcCoord,
-                                     Coordinate receiverCoord, double energeticSum[],
-                                     double[] alpha_atmo, List<Double> wj,
-                                     List<MirrorReceiverResult> mirroredReceiver,
-                                     List<LineSegment> nearBuildingsWalls,
-                                     List<Coordinate> regionCorners,
-                                     List<Integer> regionCornersFreeToReceiver, double[] freq_lambda) {
-        GeometryFactory factory = new GeometryFactory();
-        int freqcount = data.freq_lvl.size();
-
-        Coordinate srcCoordtest = (new Coordinate(srcCoord.x, srcCoord.y, srcCoord.z));
-        Coordinate receiverCoordtest = (new Coordinate(receiverCoord.x, receiverCoord.y, receiverCoord.z));
+    void receiverSourcePropa(Coordinate srcCoord,
+                             Coordinate receiverCoord, double energeticSum[],
+                             double[] wj, int wjOffset,
+                             PropagationWorkerContext context) {
+        List<MirrorReceiverResult> mirroredReceiver = context.mirroredReceiver;
+        List<LineSegment> nearBuildingsWalls = context.nearBuildingsWalls;
+        List<Coordinate> regionCorners = context.regionCorners;
+        List<Integer> regionCornersFreeToReceiver = context.regionCornersFreeToReceiver;
 
         double PropaDistance = srcCoord.distance(receiverCoord);
         if (PropaDistance < data.maxSrcDist) {
+            long phaseStart = System.nanoTime();
             // Then, check if the source is visible from the receiver (not
             // hidden by a building)
             // Create the direct Line
             boolean somethingHideReceiver;
-            somethingHideReceiver = !data.freeFieldFinder.isFreeField(
-                    receiverCoordtest, srcCoordtest);
+            // The diffraction path is computed from the same walk, only if the source is hidden
+            somethingHideReceiver = !data.freeFieldFinder.traceDirectPath(context.freeFieldQuery,
+                    receiverCoord, srcCoord);
+            // Positions with the altitude set from the topography
+            Coordinate receiverCoordtest = context.pairReceiver;
+            Coordinate srcCoordtest = context.pairSource;
+            receiverCoordtest.setCoordinate(context.freeFieldQuery.getP1());
+            srcCoordtest.setCoordinate(context.freeFieldQuery.getP2());
 
 
             double dx = srcCoordtest.x-receiverCoordtest.x;
@@ -406,23 +450,13 @@ public class PropagationProcess implements Runnable {
                 // add=wj/(4*pi*distance²)
                 //add ground effect if necessary
                 double ASoilmin;
-                double ASoil;
                 double gPath;
                 double gPathPrime;
-                double totRSDistance = 0.;
+                double totRSDistance;
                 //will give a flag here for soil effect
                 if (data.geoWithSoilType != null) {
-
-                    LineString RSZone = factory.createLineString(new Coordinate[]{receiverCoord, srcCoord});
-                    List<EnvelopeWithIndex<Integer>> resultZ0 = rTreeOfGeoSoil.query(RSZone.getEnvelopeInternal());
-                    if (!resultZ0.isEmpty()) {
-                        for (EnvelopeWithIndex<Integer> envel : resultZ0) {
-                            //get the geo intersected
-                            Geometry geoInter = RSZone.intersection(data.geoWithSoilType.get(envel.getId()).getGeo());
-                            //add the intersected distance with ground effect
-                            totRSDistance += getIntersectedDistance(geoInter) * this.data.geoWithSoilType.get(envel.getId()).getType();
-                        }
-                    }
+                    totRSDistance = context.soilLength.getWeightedLength(rTreeOfGeoSoil, data.geoWithSoilType,
+                            receiverCoord, srcCoord);
                     gPath = totRSDistance / SrcReceiverDistance;
                     //NF S 31-133 page 39
                     double testForm = SrcReceiverDistance / (30 * (receiverCoord.z + srcCoord.z));
@@ -435,194 +469,110 @@ public class PropagationProcess implements Runnable {
 
                     ASoilmin = -3 * (1 - gPathPrime);
 
-                    for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-                        double AttenuatedWj = attDistW(wj.get(idfreq),
-                                SrcReceiverDistance);
-
-                        if (Double.compare(gPath, 0) != 0) {
-                            //get contribution of Ground Effect, ASoil will be a negative number so it's mean a contribution effect
-                            ASoil = getASoil(srcCoord.z, receiverCoord.z, SrcReceiverDistance, gPathPrime, data.freq_lvl.get(idfreq), ASoilmin);
-                        } else {
-                            //NF S 31-133 page 41 if gPath=0 we will add 3dB for the receiver point, -3 means it's a contribution effect
-                            ASoil = -3;
-                        }
-                        AttenuatedWj = dbaToW(wToDba(AttenuatedWj) - ASoil);
-
-                        AttenuatedWj = attAtmW(AttenuatedWj,
-                                SrcReceiverDistance,
-                                alpha_atmo[idfreq]);
-                        energeticSum[idfreq] += AttenuatedWj;
-                    }
+                    double[] factors = context.bandFactors;
+                    kernel.fill(factors, 1.);
+                    //get contribution of Ground Effect
+                    kernel.multiplyGroundEffect(factors, srcCoord.z, receiverCoord.z, SrcReceiverDistance, gPath,
+                            gPathPrime, ASoilmin);
+                    kernel.addAttenuatedPower(energeticSum, wj, wjOffset, factors, SrcReceiverDistance,
+                            SrcReceiverDistance);
                 } else {
-                    for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-                        double AttenuatedWj = attDistW(wj.get(idfreq),
-                                SrcReceiverDistance);
-
-                        AttenuatedWj = attAtmW(AttenuatedWj,
-                                SrcReceiverDistance,
-                                alpha_atmo[idfreq]);
-                        energeticSum[idfreq] += AttenuatedWj;
-                    }
+                    kernel.addAttenuatedPower(energeticSum, wj, wjOffset, 1., SrcReceiverDistance,
+                            SrcReceiverDistance);
                 }
             }
+            phaseStart = context.recordPhase(PropagationPhase.DIRECT_PATH, phaseStart);
             //Process diffraction 3D
-
-            DiffractionWithSoilEffetZone diffDataWithSoilEffet = data.freeFieldFinder.getPath(receiverCoordtest, srcCoordtest);
-            Double[] diffractiondata = diffDataWithSoilEffet.getDiffractionData();
-
-            double deltadistance = diffractiondata[data.freeFieldFinder.Delta_Distance];
-            double e = diffractiondata[data.freeFieldFinder.E_Length];
-            double fulldistance = diffractiondata[data.freeFieldFinder.Full_Diffraction_Distance];
+            DiffractionWithSoilEffetZone diffDataWithSoilEffet = null;
+            if (somethingHideReceiver) {
+                diffDataWithSoilEffet = data.freeFieldFinder.getDirectPath(context.freeFieldQuery);
+            }
 
             //delta diffraction
-            if (Double.compare(deltadistance, -1.) != 0 && Double.compare(e, -1.) != 0 && Double.compare(fulldistance, -1.) != 0 && somethingHideReceiver) {
-                for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-
-                    double cprime;
-                    //C" NMPB 2008 P.33
-                    //Multiple diffraction
-                    //CPRIME=( 1+(5*gamma)^2)/((1/3)+(5*gamma)^2)
-                    double gammapart = Math.pow((5 * freq_lambda[idfreq]) / e, 2);
-                    //NFS 31-133 page 46
-                    if (e > 0.3) {
-                        cprime = (1. + gammapart) / (ONETHIRD + gammapart);
+            if (diffDataWithSoilEffet != null && Double.compare(diffDataWithSoilEffet.getDeltaDistance(), -1.) != 0
+                    && Double.compare(diffDataWithSoilEffet.getELength(), -1.) != 0
+                    && Double.compare(diffDataWithSoilEffet.getFullDiffractionDistance(), -1.) != 0) {
+                double deltadistance = diffDataWithSoilEffet.getDeltaDistance();
+                double e = diffDataWithSoilEffet.getELength();
+                double fulldistance = diffDataWithSoilEffet.getFullDiffractionDistance();
+                // Soil zones of the path, the diffraction data is overwritten by the next query
+                Coordinate rOZoneStart = diffDataWithSoilEffet.getROZoneStart();
+                Coordinate rOZoneEnd = diffDataWithSoilEffet.getROZoneEnd();
+                Coordinate oSZoneStart = diffDataWithSoilEffet.getOSZoneStart();
+                Coordinate oSZoneEnd = diffDataWithSoilEffet.getOSZoneEnd();
+                double totRODistance = 0.;
+                double totOSDistance = 0.;
+                if (data.geoWithSoilType != null && !rTreeOfGeoSoil.isEmpty()) {
+                    //test intersection with GeoSoil
+                    //receiver-first intersection part
+                    totRODistance = context.soilLength.getWeightedLength(rTreeOfGeoSoil, data.geoWithSoilType,
+                            rOZoneStart, rOZoneEnd);
+                    //last intersection-source part
+                    totOSDistance = context.soilLength.getWeightedLength(rTreeOfGeoSoil, data.geoWithSoilType,
+                            oSZoneStart, oSZoneEnd);
+                }
+                double[] factors = context.bandFactors;
+                kernel.fill(factors, 1.);
+                //C" NMPB 2008 P.33, NFS 31-133 page 46 Multiple diffraction if e > 0.3
+                //NF S 31-133 page 46
+                //if delta diffraction > 25 we take 25dB for delta diffraction
+                kernel.multiplyDiffraction(factors, deltadistance, e > 0.3, e,
+                        AttenuationKernel.MAX_DIFFRACTION_FACTOR);
+
+                //if we add Ground effect
+                //delta soil
+                if (data.geoWithSoilType != null) {
+                    double gPathRO;
+                    double gPathOS;
+                    double gPathPrimeRO;
+                    double gPathPrimeOS;
+                    double rOZoneLength = rOZoneStart.distance(rOZoneEnd);
+                    double oSZoneLength = oSZoneStart.distance(oSZoneEnd);
+
+                    //NF S 31-133 page 40
+                    gPathRO = totRODistance / rOZoneLength;
+                    gPathOS = totOSDistance / oSZoneLength;
+                    //NF S 31-133 page 39
+                    double testFormROZone = rOZoneLength / (30 * (receiverCoord.z + rOZoneEnd.z));
+                    double testFormOSZone = oSZoneLength / (30 * (oSZoneStart.z + srcCoord.z));
+                    if (testFormROZone <= 1) {
+                        gPathPrimeRO = testFormROZone * gPathRO;
                     } else {
-                        cprime = 1.;
-                    }
-
-                    //(7.11) NMP2008 P.32
-                    double testForm = (40 / freq_lambda[idfreq])
-                            * cprime * deltadistance;
-                    double DiffractionAttenuation = 0.;
-                    if (testForm >= -2.) {
-                        DiffractionAttenuation = 10 * Math
-                                .log10(3 + testForm);
+                        gPathPrimeRO = gPathRO;
                     }
-                    // Limit to 0<=DiffractionAttenuation
-                    DiffractionAttenuation = Math.max(0,
-                            DiffractionAttenuation);
-                    //NF S 31-133 page 46
-                    //if delta diffraction > 25 we take 25dB for delta diffraction
-                    DiffractionAttenuation = Math.min(25., DiffractionAttenuation);
-                    double AttenuatedWj = wj.get(idfreq);
-                    // Geometric dispersion
-                    //fulldistance-deltdistance is the distance direct between source and receiver
-                    AttenuatedWj = attDistW(AttenuatedWj, fulldistance - deltadistance);
-
-
-                    //if we add Ground effect
-                    //delta soil
-
-                    double deltSoilSO = 0.;
-                    double deltSoilOR = 0.;
-                    if (data.geoWithSoilType != null) {
-                        double SoilSOAttenuation = 0.;
-                        double SoilORAttenuation = 0.;
-                        double gPathRO;
-                        double gPathOS;
-                        double gPathPrimeRO;
-                        double gPathPrimeOS;
-                        LineString ROZone = diffDataWithSoilEffet.getROZone();
-                        LineString OSZone = diffDataWithSoilEffet.getOSZone();
-                        double totRODistance = 0.;
-                        double totOSDistance = 0.;
-                        if (!rTreeOfGeoSoil.isEmpty()) {
-                            //test intersection with GeoSoil
-                            List<EnvelopeWithIndex<Integer>> resultZ0 = rTreeOfGeoSoil.query(ROZone.getEnvelopeInternal());
-                            List<EnvelopeWithIndex<Integer>> resultZ1 = rTreeOfGeoSoil.query(OSZone.getEnvelopeInternal());
-                            //if receiver-first intersection part has intersection(s)
-                            if (!resultZ0.isEmpty()) {
-                                //get every envelope intersected
-                                for (EnvelopeWithIndex<Integer> envel : resultZ0) {
-                                    //get the geo intersected
-                                    Geometry geoInter = ROZone.intersection(data.geoWithSoilType.get(envel.getId()).getGeo());
-
-                                    //add the intersected distance with ground effect
-                                    totRODistance += getIntersectedDistance(geoInter) * this.data.geoWithSoilType.get(envel.getId()).getType();
-                                }
-
-                            }
-                            //if last intersection-source part has intersection(s)
-                            if (!resultZ1.isEmpty()) {
-                                //get every envelope intersected
-                                for (EnvelopeWithIndex<Integer> envel : resultZ1) {
-                                    //get the geo intersected
-                                    Geometry geoInter = OSZone.intersection(this.data.geoWithSoilType.get(envel.getId()).getGeo());
-                                    //add the intersected distance with ground effect
-                                    totOSDistance += getIntersectedDistance(geoInter) * this.data.geoWithSoilType.get(envel.getId()).getType();
-                                }
-
-                            }
-
-
-                        }
 
-                        //NF S 31-133 page 40
-                        gPathRO = totRODistance / ROZone.getLength();
-                        gPathOS = totOSDistance / OSZone.getLength();
-                        //NF S 31-133 page 39
-                        double testFormROZone = ROZone.getLength() / (30 * (receiverCoord.z + ROZone.getEndPoint().getCoordinate().z));
-                        double testFormOSZone = OSZone.getLength() / (30 * (OSZone.getStartPoint().getCoordinate().z + srcCoord.z));
-                        if (testFormROZone <= 1) {
-                            gPathPrimeRO = testFormROZone * gPathRO;
-                        } else {
-                            gPathPrimeRO = gPathRO;
-                        }
-
-                        if (testFormOSZone <= 1) {
-                            gPathPrimeOS = testFormOSZone * gPathOS;
-                        } else {
-                            gPathPrimeOS = gPathOS;
-                        }
-
-                        //NF S 31-133 page 41 and page 40
-                        double ASoilOSMin = -3 * (1 - gPathPrimeOS);
-                        double ASoilROMin = -3 * (1 - gPathPrimeRO);
-
-                        //NF S 31-133 page 41
-                        if (Double.compare(gPathRO, 0.) == 0) {
-                            SoilORAttenuation = -3.;
-                        } else {
-
-                            SoilORAttenuation = getASoil(ROZone.getEndPoint().getCoordinate().z, ROZone.getStartPoint().getCoordinate().z, ROZone.getLength(), gPathRO, data.freq_lvl.get(idfreq), ASoilROMin);
-                        }
-                        //NF S 31-133 page 41
-                        if (Double.compare(gPathOS, 0.) == 0) {
-                            SoilSOAttenuation = -3.;
-                        } else {
-                            SoilSOAttenuation = getASoil(OSZone.getEndPoint().getCoordinate().z, OSZone.getStartPoint().getCoordinate().z, OSZone.getLength(), gPathPrimeOS, data.freq_lvl.get(idfreq), ASoilOSMin);
-
-                        }
-
-                        deltSoilSO = getDeltSoil(SoilSOAttenuation);
-                        deltSoilOR = getDeltSoil(SoilORAttenuation);
+                    if (testFormOSZone <= 1) {
+                        gPathPrimeOS = testFormOSZone * gPathOS;
+                    } else {
+                        gPathPrimeOS = gPathOS;
                     }
 
-                    //delta sol finished
-
+                    //NF S 31-133 page 41 and page 40
+                    double ASoilOSMin = -3 * (1 - gPathPrimeOS);
+                    double ASoilROMin = -3 * (1 - gPathPrimeRO);
 
-                    // Apply diffraction attenuation with ground effect if necessary
-                    AttenuatedWj = dbaToW(wToDba(AttenuatedWj)
-                            - DiffractionAttenuation - deltSoilSO - deltSoilOR);
-
-
-                    // Apply atmospheric absorption and ground
-                    AttenuatedWj = attAtmW(
-                            AttenuatedWj,
-                            fulldistance - deltadistance,
-                            alpha_atmo[idfreq]);
-
-                    energeticSum[idfreq] += AttenuatedWj;
+                    //NF S 31-133 page 41, delta soil -20*log10(1+(10^(-ASoil/20)-1)) is equal to ASoil
+                    kernel.multiplyGroundEffect(factors, rOZoneEnd.z, rOZoneStart.z, rOZoneLength, gPathRO, gPathRO,
+                            ASoilROMin);
+                    kernel.multiplyGroundEffect(factors, oSZoneEnd.z, oSZoneStart.z, oSZoneLength, gPathOS,
+                            gPathPrimeOS, ASoilOSMin);
                 }
 
-
+                // Geometric dispersion, atmospheric absorption
+                //fulldistance-deltdistance is the distance direct between source and receiver
+                kernel.addAttenuatedPower(energeticSum, wj, wjOffset, factors, fulldistance - deltadistance,
+                        fulldistance - deltadistance);
             }
+            phaseStart = context.recordPhase(PropagationPhase.VERTICAL_DIFFRACTION, phaseStart);
 
 
             // Process specular reflection
             if (data.reflexionOrder > 0) {
-                NonRobustLineIntersector linters = new NonRobustLineIntersector();
-                for (MirrorReceiverResult receiverReflection : mirroredReceiver) {
+                NonRobustLineIntersector linters = context.lineIntersector;
+                Coordinate destinationPt = context.destinationPt;
+                Coordinate reflectionPt = context.reflectionPt;
+                for (int idMirror = 0; idMirror < mirroredReceiver.size(); idMirror++) {
+                    MirrorReceiverResult receiverReflection = mirroredReceiver.get(idMirror);
 
                     // TODO change like line 384
                     double ReflectedSrcReceiverDistance = receiverReflection.getReceiverPos().distance(srcCoord);
@@ -632,7 +582,7 @@ public class PropagationProcess implements Runnable {
                         MirrorReceiverResult receiverReflectionCursor = receiverReflection;
                         // Test whether intersection point is on the wall
                         // segment or not
-                        Coordinate destinationPt = new Coordinate(srcCoord);
+                        destinationPt.setCoordinate(srcCoord);
                         LineSegment seg = nearBuildingsWalls
                                 .get(receiverReflection.getWallId());
                         linters.computeIntersection(seg.p0, seg.p1,
@@ -645,29 +595,26 @@ public class PropagationProcess implements Runnable {
                             reflectionOrderCounter++;
                             // There are a probable reflection point on the
                             // segment
-                            Coordinate reflectionPt = new Coordinate(
-                                    linters.getIntersection(0));
+                            reflectionPt.setCoordinate(linters.getIntersection(0));
                             // Translate reflection point by epsilon value to
                             // increase computation robustness
-                            Coordinate vec_epsilon = new Coordinate(
-                                    reflectionPt.x - destinationPt.x,
-                                    reflectionPt.y - destinationPt.y);
-                            double length = vec_epsilon
-                                    .distance(new Coordinate(0., 0., 0.));
+                            double vecEpsilonX = reflectionPt.x - destinationPt.x;
+                            double vecEpsilonY = reflectionPt.y - destinationPt.y;
+                            double length = Math.sqrt(vecEpsilonX * vecEpsilonX + vecEpsilonY * vecEpsilonY);
                             // Normalize vector
-                            vec_epsilon.x /= length;
-                            vec_epsilon.y /= length;
+                            vecEpsilonX /= length;
+                            vecEpsilonY /= length;
                             // Multiply by epsilon in meter
-                            vec_epsilon.x *= 0.01;
-                            vec_epsilon.y *= 0.01;
+                            vecEpsilonX *= 0.01;
+                            vecEpsilonY *= 0.01;
                             // Translate reflection pt by epsilon to get outside
                             // the wall
-                            reflectionPt.x -= vec_epsilon.x;
-                            reflectionPt.y -= vec_epsilon.y;
+                            reflectionPt.x -= vecEpsilonX;
+                            reflectionPt.y -= vecEpsilonY;
                             // Test if there is no obstacles between the
                             // reflection point and old reflection pt (or source
                             // position)
-                            validReflection = data.freeFieldFinder.isFreeField(
+                            validReflection = data.freeFieldFinder.isFreeField(context.freeFieldQuery,
                                     reflectionPt, destinationPt);
                             if (validReflection) // Reflection point can see
                             // source or its image
@@ -678,7 +625,7 @@ public class PropagationProcess implements Runnable {
                                     // the
                                     // receiver
                                     validReflection = data.freeFieldFinder
-                                            .isFreeField(reflectionPt,
+                                            .isFreeField(context.freeFieldQuery, reflectionPt,
                                                     receiverCoord);
                                     break; // That was the last reflection
                                 } else {
@@ -705,177 +652,98 @@ public class PropagationProcess implements Runnable {
                             }
                         }
                         if (validReflection) {
-                            //NTODO remove output
-                            /*
-   						    System.out.print("("+srcCoord+")Path : ");
-							receiverReflectionCursor = receiverReflection;
-							while(receiverReflectionCursor != null) {
-								System.out.print(receiverReflectionCursor.getWallId()+" ");
-								if(receiverReflectionCursor
-										.getMirrorResultId()!=-1) {
-								receiverReflectionCursor = mirroredReceiver
-								.get(receiverReflectionCursor
-										.getMirrorResultId());
-								}else{
-									receiverReflectionCursor=null;
-								}
-							}
-							System.out.println();
-							*/
                             // A path has been found
-                            refpathcount += 1;
-                            for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-                                // Geometric dispersion
-                                double AttenuatedWj = attDistW(wj.get(idfreq),
-                                        ReflectedSrcReceiverDistance);
-                                // Apply wall material attenuation
-                                AttenuatedWj *= Math.pow((1 - data.wallAlpha),
-                                        reflectionOrderCounter);
-                                // Apply atmospheric absorption and ground
-                                AttenuatedWj = attAtmW(
-                                        AttenuatedWj,
-                                        ReflectedSrcReceiverDistance,
-                                        alpha_atmo[idfreq]);
-                                energeticSum[idfreq] += AttenuatedWj;
-                            }
+                            context.reflexionPathCount += 1;
+                            // Apply wall material attenuation
+                            kernel.addAttenuatedPower(energeticSum, wj, wjOffset,
+                                    Math.pow((1 - data.wallAlpha), reflectionOrderCounter),
+                                    ReflectedSrcReceiverDistance, ReflectedSrcReceiverDistance);
                         }
                     }
                 }
+                phaseStart = context.recordPhase(PropagationPhase.REFLECTION, phaseStart);
             } // End reflexion
             // ///////////
             // Process diffraction paths
             if (somethingHideReceiver && data.diffractionOrder > 0
                     && !regionCornersFreeToReceiver.isEmpty()) {
+                // Number of diffraction paths found for this receiver-source couple
+                int pairDiffractionPathCount = 0;
                 // Get the first valid receiver->corner
                 int receiverFreeCornerIndex = 0;
                 int firstCorner = regionCornersFreeToReceiver
                         .get(receiverFreeCornerIndex);
                 if (firstCorner != -1) {
                     // History of propagation through corners
-                    List<Integer> curCorner = new ArrayList<Integer>();
-                    curCorner.add(firstCorner);
-                    while (!curCorner.isEmpty()) {
-                        Coordinate lastCorner = regionCorners.get(curCorner
-                                .get(curCorner.size() - 1));
+                    context.cornerPathSize = 0;
+                    context.pushCorner(firstCorner);
+                    while (context.cornerPathSize > 0) {
+                        final int[] curCorner = context.cornerPath;
+                        final int curCornerSize = context.cornerPathSize;
+                        Coordinate lastCorner = regionCorners.get(curCorner[curCornerSize - 1]);
                         // Test Path is free to the source
-                        if (data.freeFieldFinder.isFreeField(lastCorner,
-                                srcCoord)) {
+                        if (cornerSourceVisibility.isFreeField(context.regionCornerIds[curCorner[curCornerSize - 1]],
+                                lastCorner, srcCoord, data.freeFieldFinder, context.freeFieldQuery)) {
                             // True then the path is clear
                             // Compute attenuation level
                             double elength = 0;
                             //Compute distance of the corner path
 
                             // Todo change
-                            for (int ie = 1; ie < curCorner.size(); ie++) {
-                                double dxe =  regionCorners.get(curCorner.get(ie)).x-regionCorners.get(curCorner.get(ie - 1)).x;
-                                double dye =  regionCorners.get(curCorner.get(ie)).y-regionCorners.get(curCorner.get(ie - 1)).y;
-                                double dze =  regionCorners.get(curCorner.get(ie)).z-regionCorners.get(curCorner.get(ie - 1)).z;
+                            for (int ie = 1; ie < curCornerSize; ie++) {
+                                double dxe =  regionCorners.get(curCorner[ie]).x-regionCorners.get(curCorner[ie - 1]).x;
+                                double dye =  regionCorners.get(curCorner[ie]).y-regionCorners.get(curCorner[ie - 1]).y;
+                                double dze =  regionCorners.get(curCorner[ie]).z-regionCorners.get(curCorner[ie - 1]).z;
                                 elength +=  Math.sqrt(dxe*dxe+dye*dye+dze*dze);
                             }
                             // delta=SO^1+O^nO^(n+1)+O^nnR
-                            double dxf = regionCorners.get(curCorner.get(0)).x-receiverCoord.x;                         //Receiver to first corner distance
-                            double dyf = regionCorners.get(curCorner.get(0)).y-receiverCoord.y;
-                            double dzf = regionCorners.get(curCorner.get(0)).z-receiverCoord.z;
-                            double dxl = regionCorners.get(curCorner.get(curCorner.size() - 1)).x-srcCoord.x;           //Last corner to source distance
-                            double dyl = regionCorners.get(curCorner.get(curCorner.size() - 1)).y-srcCoord.y;
-                            double dzl = regionCorners.get(curCorner.get(curCorner.size() - 1)).z-srcCoord.z;
+                            double dxf = regionCorners.get(curCorner[0]).x-receiverCoord.x;                         //Receiver to first corner distance
+                            double dyf = regionCorners.get(curCorner[0]).y-receiverCoord.y;
+                            double dzf = regionCorners.get(curCorner[0]).z-receiverCoord.z;
+                            double dxl = lastCorner.x-srcCoord.x;           //Last corner to source distance
+                            double dyl = lastCorner.y-srcCoord.y;
+                            double dzl = lastCorner.z-srcCoord.z;
                             double diffractionFullDistance = Math.sqrt(dxf*dxf+dyf*dyf+dzf*dzf)
                                     + elength                                                                           //Corner to corner distance
                                     + Math.sqrt(dxl*dxl+dyl*dyl+dzl*dzl);
                             // Todo end
 
                             if (diffractionFullDistance < data.maxSrcDist) {
-                                diffractionPathCount++;
+                                context.diffractionPathCount++;
+                                pairDiffractionPathCount++;
                                 double delta = diffractionFullDistance
                                         - SrcReceiverDistance;
 
-                                for (int idfreq = 0; idfreq < freqcount; idfreq++) {
-
-                                    double cprime;
-                                    //C" NMPB 2008 P.33
-                                    if (curCorner.size() == 1) {
-                                        cprime = 1; //Single diffraction cprime=1
-                                    } else {
-                                        //Multiple diffraction
-                                        //CPRIME=( 1+(5*gamma)^2)/((1/3)+(5*gamma)^2)
-                                        double gammapart = Math.pow((5 * freq_lambda[idfreq]) / diffractionFullDistance, 2);
-                                        cprime = (1. + gammapart) / (ONETHIRD + gammapart);
-                                    }
-                                    //(7.11) NMP2008 P.32
-                                    double testForm = (40 / freq_lambda[idfreq])
-                                            * cprime * delta;
-                                    double DiffractionAttenuation = 0.;
-                                    if (testForm >= -2.) {
-                                        DiffractionAttenuation = 10 * Math
-                                                .log10(3 + testForm);
-                                    } else {
-
-                                    }
-                                    // Limit to 0<=DiffractionAttenuation
-                                    DiffractionAttenuation = Math.max(0,
-                                            DiffractionAttenuation);
-                                    double AttenuatedWj = wj.get(idfreq);
-                                    // Geometric dispersion
-                                    AttenuatedWj = attDistW(AttenuatedWj, SrcReceiverDistance);
-                                    // Apply diffraction attenuation
-                                    AttenuatedWj = dbaToW(wToDba(AttenuatedWj)
-                                            - DiffractionAttenuation);
-                                    // Apply atmospheric absorption and ground
-                                    AttenuatedWj = attAtmW(
-                                            AttenuatedWj,
-                                            diffractionFullDistance,
-                                            alpha_atmo[idfreq]);
-
-                                    energeticSum[idfreq] += AttenuatedWj;
-                                }
-                                if (diffractionPathCount > LIMITATION_DIFFRACTION_PATH) {
+                                double[] factors = context.bandFactors;
+                                kernel.fill(factors, 1.);
+                                //C" NMPB 2008 P.33, Single diffraction cprime=1
+                                kernel.multiplyDiffraction(factors, delta, curCornerSize > 1, diffractionFullDistance,
+                                        AttenuationKernel.NO_LIMIT);
+                                // Geometric dispersion, atmospheric absorption
+                                kernel.addAttenuatedPower(energeticSum, wj, wjOffset, factors, SrcReceiverDistance,
+                                        diffractionFullDistance);
+                                if (pairDiffractionPathCount > accuracy.diffractionPathLimit) {
                                     break; //exit diffraction search
                                 }
-                                // TODO removing
-								/*
-								 * if(somethingHideReceiver) { Coordinate[]
-								 * coordinates=new
-								 * Coordinate[2+curCorner.size()];
-								 * coordinates[0]=receiverCoord; int idvertex=1;
-								 * for(int idcorner : curCorner) {
-								 * coordinates[idvertex
-								 * ]=regionCorners.get(idcorner); idvertex++; }
-								 * coordinates[coordinates.length-1]=srcCoord;
-								 * Value[] row=new Value[3];
-								 * row[0]=ValueFactory.
-								 * createValue(factory.createLineString
-								 * (coordinates));
-								 * row[1]=ValueFactory.createValue(idReceiver);
-								 * row
-								 * [2]=ValueFactory.createValue(WToDba(largeAtt
-								 * )); try { driver.addValues(row); } catch
-								 * (DriverException e) { // TODO Auto-generated
-								 * catch block e.printStackTrace(); return; } }
-								 * //END REMOVING
-								 */
                             }
                         }
                         // Process to the next corner
                         int nextCorner = -1;
-                        if (data.diffractionOrder > curCorner.size()) {
+                        if (data.diffractionOrder > context.cornerPathSize) {
                             // Continue to next order valid corner
-                            nextCorner = nextFreeFieldNode(regionCorners,
-                                    lastCorner, curCorner, 0,
-                                    data.freeFieldFinder);
+                            nextCorner = nextFreeFieldNode(context.regionCornerIds, regionCorners.size(),
+                                    curCorner[curCornerSize - 1], context.cornerPath, context.cornerPathSize, 0);
                             if (nextCorner != -1) {
-                                curCorner.add(nextCorner);
+                                context.pushCorner(nextCorner);
                             }
                         }
-                        while (nextCorner == -1 && !curCorner.isEmpty()) {
-                            if (curCorner.size() > 1) {
+                        while (nextCorner == -1 && context.cornerPathSize > 0) {
+                            if (context.cornerPathSize > 1) {
                                 // Next free field corner
-                                nextCorner = nextFreeFieldNode(regionCorners,
-                                        regionCorners.get(curCorner
-                                                .get(curCorner.size() - 2)),
-                                        curCorner, curCorner.get(curCorner
-                                                .size() - 1),
-                                        data.freeFieldFinder
-                                );
+                                nextCorner = nextFreeFieldNode(context.regionCornerIds, regionCorners.size(),
+                                        context.cornerPath[context.cornerPathSize - 2],
+                                        context.cornerPath, context.cornerPathSize,
+                                        context.cornerPath[context.cornerPathSize - 1]);
                             } else {
                                 // Next receiver-corner tuple
                                 receiverFreeCornerIndex++;
@@ -888,186 +756,326 @@ public class PropagationProcess implements Runnable {
                                 }
                             }
                             if (nextCorner != -1) {
-                                curCorner.set(curCorner.size() - 1, nextCorner);
+                                context.cornerPath[context.cornerPathSize - 1] = nextCorner;
                             } else {
-                                curCorner.remove(curCorner.size() - 1);
+                                context.cornerPathSize--;
                             }
                         }
                     }
                 }
+                context.recordPhase(PropagationPhase.HORIZONTAL_DIFFRACTION, phaseStart);
             }
         }
     }
 
-    private static void insertPtSource(Coordinate receiverPos, Coordinate ptpos, List<Double> wj, double li, List<Coordinate> srcPos, List<ArrayList<Double>> srcWj, PointsMerge sourcesMerger, List<Integer> srcSortedIndex, List<Double> srcDistSorted) {
-        int mergedSrcIndex = sourcesMerger.getOrAppendVertex(ptpos);
-        if (mergedSrcIndex < srcPos.size()) {
-            ArrayList<Double> mergedWj = srcWj.get(mergedSrcIndex);
+    /**
+     * Add a point source to the sources of the search range, merged with a close point source if any
+     * @param receiverPos Receiver position
+     * @param x Source x
+     * @param y Source y
+     * @param z Source z
+     * @param wj Sound power of sources
+     * @param wjSource Source index in wj
+     * @param li Factor applied on the source power
+     * @param sources Point sources of the search range
+     * @param sourcesMerger Merge of close point sources of the search range
+     */
+    private void insertPtSource(Coordinate receiverPos, double x, double y, double z, SpectrumArray wj,
+                                int wjSource, double li, ReceiverSources sources, PointsMerge sourcesMerger) {
+        int mergedSrcIndex = sourcesMerger.getOrAppendVertex(x, y);
+        if (mergedSrcIndex < sources.size()) {
             //A source already exist and is close enough to merge
-            for (int fb = 0; fb < wj.size(); fb++) {
-                mergedWj.set(fb, mergedWj.get(fb) + wj.get(fb) * li);
-            }
+            sources.addPower(mergedSrcIndex, wj, wjSource, li);
         } else {
             //New source
-            ArrayList<Double> liWj = new ArrayList<Double>(wj.size());
-            for (Double lvl : wj) {
-                liWj.add(lvl * li);
-            }
-            srcPos.add(ptpos);
-            srcWj.add(liWj);
-
-            double dx = ptpos.x-receiverPos.x;
-            double dy = ptpos.y-receiverPos.y;
-            double dz = ptpos.z-receiverPos.z;
-
-            double distanceSrcPt = Math.sqrt(dx*dx+dy*dy+dz*dz);// TODO i have change like line 384
-
-            int index = Collections.binarySearch(srcDistSorted, distanceSrcPt);
-            if (index >= 0) {
-                srcSortedIndex.add(index, mergedSrcIndex);
-                srcDistSorted.add(index, distanceSrcPt);
-            } else {
-                srcSortedIndex.add(-index - 1, mergedSrcIndex);
-                srcDistSorted.add(-index - 1, distanceSrcPt);
-            }
+            double dx = x - receiverPos.x;
+            double dy = y - receiverPos.y;
+            double dz = z - receiverPos.z;
+            sources.addPoint(x, y, z, Math.sqrt(dx * dx + dy * dy + dz * dz), wj, wjSource, li);
         }
     }
 
     /**
-     * Compute the attenuation of atmospheric absorption
-     *
-     * @param Wj         Source energy
-     * @param dist       Propagation distance
-     * @param alpha_atmo Atmospheric alpha (dB/km)
-     * @return
+     * Add a raw source, point or line, to the sources of the search range
+     * @param receiverCoord Receiver position
+     * @param srcIndex Raw source index
+     * @param context Scratch data of the calling thread
      */
-    private Double attAtmW(double Wj, double dist, double alpha_atmo) {
-        return dbaToW(wToDba(Wj) - (alpha_atmo * dist) / 1000.);
+    private void insertSource(Coordinate receiverCoord, int srcIndex, PropagationWorkerContext context) {
+        Geometry source = data.sourceGeometries.get(srcIndex);
+        if (source instanceof Point) {
+            Coordinate ptpos = ((Point) source).getCoordinate();
+            insertPtSource(receiverCoord, ptpos.x, ptpos.y, ptpos.z, data.wj_sources, srcIndex, 1.,
+                    context.receiverSources, context.sourcesMerger);
+            // Compute li to equation 4.1 NMPB 2008 (June 2009)
+        } else {
+            // Discretization of line into multiple point
+            // First point is the closest point of the LineString from
+            // the receiver
+            SourceDiscretizationCache.LinePoints pts = context.linePoints;
+            sourceDiscretization.discretize(srcIndex, receiverCoord, data.minRecDist, pts);
+            for (int idPt = 0; idPt < pts.size; idPt++) {
+                insertPtSource(receiverCoord, pts.points[idPt * 3], pts.points[idPt * 3 + 1],
+                        pts.points[idPt * 3 + 2], data.wj_sources, srcIndex, pts.li, context.receiverSources,
+                        context.sourcesMerger);
+            }
+            // Compute li to equation 4.1 NMPB 2008 (June 2009)
+        }
     }
 
     /**
-     * Compute sound level by frequency band at this receiver position
+     * Compute sound level by frequency band at this receiver position.
+     * Use {@link #computeSoundLevels(double[], double[], double[], double[])} for several receivers.
+     * Counters and phase timings are kept by the calling thread until {@link #flushStatistics()}.
      *
      * @param receiverCoord
      * @param energeticSum
      */
     public void computeSoundLevelAtPosition(Coordinate receiverCoord, double energeticSum[]) {
-        // List of walls within maxReceiverSource distance
-        double srcEnergeticSum = BASE_LVL; //Global energetic sum of all sources processed
-        List<LineSegment> nearBuildingsWalls = null;
-        List<MirrorReceiverResult> mirroredReceiver = null;
-        if (data.reflexionOrder > 0) {
+        computeSoundLevelAtPosition(receiverCoord, energeticSum, getDefaultWorkerContext());
+    }
 
-            nearBuildingsWalls = new ArrayList<LineSegment>(
-                    data.freeFieldFinder.getLimitsInRange(
-                            data.maxRefDist, receiverCoord)
-            );
-            // Build mirrored receiver list from wall list
-            mirroredReceiver = getMirroredReceiverResults(receiverCoord,
-                    nearBuildingsWalls, data.reflexionOrder,
-                    data.maxRefDist * 2);
-            this.dataOut.appendImageReceiver(mirroredReceiver.size());
+    /**
+     * @return Scratch data of the calling thread, used by methods without context parameter
+     */
+    private PropagationWorkerContext getDefaultWorkerContext() {
+        PropagationWorkerContext context = defaultWorkerContext.get();
+        if (context == null) {
+            context = new PropagationWorkerContext(nbfreq, data.freeFieldFinder);
+            defaultWorkerContext.set(context);
+            synchronized (defaultWorkerContexts) {
+                defaultWorkerContexts.add(context);
+            }
         }
-        List<Coordinate> regionCorners = new ArrayList<Coordinate>();
-        List<Integer> regionCornersFreeToReceiver = new ArrayList<Integer>(); // Corners
-        // free
-        // field
-        // with
-        // receiver
-        if (data.diffractionOrder > 0) {
-            // Query corners in the current zone
-            ArrayCoordinateListVisitor cornerQuery = new ArrayCoordinateListVisitor(
-                    receiverCoord, data.maxRefDist);
-            cornersQuad.query(new Envelope(receiverCoord.x
-                    - data.maxRefDist, receiverCoord.x + data.maxRefDist,
-                    receiverCoord.y - data.maxRefDist, receiverCoord.y
-                    + data.maxRefDist
-            ), cornerQuery);
-            regionCorners = cornerQuery.getItems();
-            // regionCornersFreeToReceiver.ensureCapacity(regionCorners.size());
-            for (int icorner = 0; icorner < regionCorners.size(); icorner++) {
-                if (data.freeFieldFinder.isFreeField(receiverCoord,
-                        regionCorners.get(icorner))) {
-                    regionCornersFreeToReceiver.add(icorner);
-                }
+        return context;
+    }
+
+    /**
+     * Push to {@link PropagationProcessOut} the counters and phase timings of the receivers computed by
+     * {@link #computeSoundLevelAtPosition(Coordinate, double[])}, on all threads.
+     * Call it when these computations are done, the counters of a thread still computing are not consistent.
+     * Cell and batch computations push their own counters.
+     */
+    public void flushStatistics() {
+        synchronized (defaultWorkerContexts) {
+            for (PropagationWorkerContext context : defaultWorkerContexts) {
+                context.pushStatistics(dataOut, data.cellId);
             }
         }
+    }
+
+    /**
+     * Compute sound level by frequency band at this receiver position
+     *
+     * @param receiverCoord Receiver position
+     * @param energeticSum  Energetic sum by frequency band, added to the current values
+     * @param context       Scratch data of the calling thread
+     */
+    void computeSoundLevelAtPosition(Coordinate receiverCoord, double energeticSum[],
+                                     PropagationWorkerContext context) {
+        initReceiver(receiverCoord, context);
+        // Receivers are shared with other threads, work on the context copy
+        receiverCoord = context.receiverPos;
+        ReceiverSources sources = context.receiverSources;
+        sources.newReceiver(data.sourceGeometries.size());
+        context.forgottenPower = 0;
+        if (sourceTree != null) {
+            computeClusteredSources(receiverCoord, energeticSum, context);
+            return;
+        }
+        double srcEnergeticSum = BASE_LVL; //Global energetic sum of all sources processed
         // Source search by multiple range query
-        HashSet<Integer> processedLineSources = new HashSet<Integer>(); //Already processed Raw source (line and/or points)
-        double[] ranges = new double[]{FIRST_STEP_RANGE, data.maxSrcDist / 5, data.maxSrcDist / 4, data.maxSrcDist / 2, data.maxSrcDist};
-        long sourceCount = 0;
+        double[] ranges = new double[]{accuracy.firstStepRange, data.maxSrcDist / 5, data.maxSrcDist / 4, data.maxSrcDist / 2, data.maxSrcDist};
+        Envelope queriedRegion = context.queriedSourceRegion;
+        queriedRegion.setToNull();
 
         for (double searchSourceDistance : ranges) {
-            Envelope receiverSourceRegion = new Envelope(receiverCoord.x
+            long phaseStart = System.nanoTime();
+            Envelope receiverSourceRegion = context.sourceRegion;
+            receiverSourceRegion.init(receiverCoord.x
                     - searchSourceDistance, receiverCoord.x + searchSourceDistance,
                     receiverCoord.y - searchSourceDistance, receiverCoord.y
                     + searchSourceDistance
             );
-            Iterator<Integer> regionSourcesLst = data.sourcesIndex
-                    .query(receiverSourceRegion);
-
-            PointsMerge sourcesMerger = new PointsMerge(MERGE_SRC_DIST);
-            List<Integer> srcSortByDist = new ArrayList<Integer>();
-            List<Double> srcDist = new ArrayList<Double>();
-            List<Coordinate> srcPos = new ArrayList<Coordinate>();
-            List<ArrayList<Double>> srcWj = new ArrayList<ArrayList<Double>>();
+            // Only the sources that are not in the previous ranges
+            Iterator<Integer> regionSourcesLst;
+            if (queriedRegion.isNull()) {
+                regionSourcesLst = data.sourcesIndex.query(receiverSourceRegion);
+            } else {
+                regionSourcesLst = data.sourcesIndex.queryRing(queriedRegion, receiverSourceRegion);
+            }
+            queriedRegion.expandToInclude(receiverSourceRegion);
+
+            context.sourcesMerger.clear(accuracy.mergeDistance);
+            sources.clearPoints();
             while (regionSourcesLst.hasNext()) {
-                Integer srcIndex = regionSourcesLst.next();
-                if (!processedLineSources.contains(srcIndex)) {
-                    processedLineSources.add(srcIndex);
-                    Geometry source = data.sourceGeometries.get(srcIndex);
-                    List<Double> wj = data.wj_sources.get(srcIndex); // DbaToW(sdsSources.getDouble(srcIndex,dbField
-                    if (source instanceof Point) {
-                        Coordinate ptpos = ((Point) source).getCoordinate();
-                        insertPtSource(receiverCoord, ptpos, wj, 1., srcPos, srcWj, sourcesMerger, srcSortByDist, srcDist);
-                        // Compute li to equation 4.1 NMPB 2008 (June 2009)
-                    } else {
-                        // Discretization of line into multiple point
-                        // First point is the closest point of the LineString from
-                        // the receiver
-                        ArrayList<Coordinate> pts = new ArrayList<Coordinate>();
-                        double li = splitLineStringIntoPoints(source, receiverCoord,
-                                pts, data.minRecDist);
-                        for (Coordinate pt : pts) {
-                            insertPtSource(receiverCoord, pt, wj, li, srcPos, srcWj, sourcesMerger, srcSortByDist, srcDist);
-                        }
-                        // Compute li to equation 4.1 NMPB 2008 (June 2009)
-                    }
+                int srcIndex = regionSourcesLst.next();
+                if (sources.markProcessed(srcIndex)) {
+                    insertSource(receiverCoord, srcIndex, context);
                 }
             }
-            //Iterate over source point sorted by their distance from the receiver
-            for (int mergedSrcId : srcSortByDist) {
-                // For each Pt Source - Pt Receiver
-                Coordinate srcCoord = srcPos.get(mergedSrcId);
-                ArrayList<Double> wj = srcWj.get(mergedSrcId);
-                double allreceiverfreqlvl = GetGlobalLevel(nbfreq, energeticSum);
-                double allsourcefreqlvl = 0;
-                for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-                    allsourcefreqlvl += wj.get(idfreq);
-                }
+            sources.sortByDistance();
+            context.recordPhase(PropagationPhase.SOURCE_QUERY, phaseStart);
+            srcEnergeticSum += propagateSources(receiverCoord, energeticSum, context);
+            //srcEnergeticSum=GetGlobalLevel(nbfreq,energeticSum);
+            if (Math.abs(wToDba(attDistW(PropagationAccuracy.MAX_SOURCE_POWER, searchSourceDistance) + srcEnergeticSum) - wToDba(srcEnergeticSum)) < accuracy.forgetSourceDb) {
+                break; //Stop search for fartest sources
+            }
+        }
+    }
 
-                double dx = srcCoord.x-receiverCoord.x;
-                double dy = srcCoord.y-receiverCoord.y;
-                double dz = srcCoord.z-receiverCoord.z;
+    /**
+     * Compute the receiver level from the sources returned by the source tree: raw sources are discretized,
+     * far clusters are a single point source.
+     * @param receiverCoord Receiver position
+     * @param energeticSum  Energetic sum by frequency band, added to the current values
+     * @param context       Scratch data of the calling thread
+     */
+    private void computeClusteredSources(Coordinate receiverCoord, double energeticSum[],
+                                         PropagationWorkerContext context) {
+        long phaseStart = System.nanoTime();
+        SourceTree.Query query = context.sourceTreeQuery;
+        sourceTree.query(receiverCoord, data.maxSrcDist, data.sourceClusterTolerance, query);
+        context.sourcesMerger.clear(accuracy.mergeDistance);
+        context.receiverSources.clearPoints();
+        for (int i = 0; i < query.sourceCount; i++) {
+            insertSource(receiverCoord, query.sources[i], context);
+        }
+        SpectrumArray nodeSpectrums = sourceTree.getNodeSpectrums();
+        for (int i = 0; i < query.nodeCount; i++) {
+            int node = query.nodes[i];
+            insertPtSource(receiverCoord, sourceTree.getCentroidX(node), sourceTree.getCentroidY(node),
+                    sourceTree.getCentroidZ(node), nodeSpectrums, node, 1., context.receiverSources,
+                    context.sourcesMerger);
+        }
+        context.receiverSources.sortByDistance();
+        context.recordPhase(PropagationPhase.SOURCE_QUERY, phaseStart);
+        propagateSources(receiverCoord, energeticSum, context);
+    }
 
-                double SrcReceiverDistance = Math.sqrt(dx*dx+dy*dy+dz*dz);   // TODO i have change like line 384
+    /**
+     * Propagate the point sources of the search range, sorted from the closest to the farthest
+     * @param receiverCoord Receiver position
+     * @param energeticSum  Energetic sum by frequency band, added to the current values
+     * @param context       Scratch data of the calling thread
+     * @return Free field energetic sum of the point sources
+     */
+    private double propagateSources(Coordinate receiverCoord, double energeticSum[],
+                                    PropagationWorkerContext context) {
+        ReceiverSources sources = context.receiverSources;
+        Coordinate srcCoord = context.sourcePos;
+        double srcEnergeticSum = 0;
+        SpectrumArray srcWj = sources.getSpectrums();
+        //Iterate over source point sorted by their distance from the receiver
+        for (int rank = 0; rank < sources.size(); rank++) {
+            // For each Pt Source - Pt Receiver
+            int mergedSrcId = sources.getSortedPoint(rank);
+            srcCoord.x = sources.getX(mergedSrcId);
+            srcCoord.y = sources.getY(mergedSrcId);
+            srcCoord.z = sources.getZ(mergedSrcId);
+            double allreceiverfreqlvl = GetGlobalLevel(nbfreq, energeticSum);
+            double allsourcefreqlvl = srcWj.sum(mergedSrcId);
+
+            double SrcReceiverDistance = sources.getDistance(mergedSrcId);
+
+            double wAttDistSource = attDistW(allsourcefreqlvl, SrcReceiverDistance);
+            srcEnergeticSum += wAttDistSource;
+            double forgottenPower = context.forgottenPower + wAttDistSource;
+            if (wToDba(forgottenPower + allreceiverfreqlvl) - wToDba(allreceiverfreqlvl) > accuracy.forgetSourceDb) {
+                context.sourceCount++;
+                receiverSourcePropa(srcCoord, receiverCoord, energeticSum,
+                        srcWj.getValues(), srcWj.offset(mergedSrcId), context);
+            } else if (!Double.isNaN(wAttDistSource)) {
+                // Forgotten sources share the target error of the receiver
+                // Projected points of lines have no altitude, they are not counted
+                context.forgottenPower = forgottenPower;
+            }
+        }
+        return srcEnergeticSum;
+    }
 
-                double wAttDistSource = attDistW(allsourcefreqlvl, SrcReceiverDistance);
-                srcEnergeticSum += wAttDistSource;
-                if (Math.abs(wToDba(wAttDistSource + allreceiverfreqlvl) - wToDba(allreceiverfreqlvl)) > DBA_FORGET_SOURCE) {
-                    sourceCount++;
-                    receiverSourcePropa(srcCoord, receiverCoord, energeticSum,
-                            alpha_atmo, wj, mirroredReceiver,
-                            nearBuildingsWalls, regionCorners,
-                            regionCornersFreeToReceiver, freq_lambda);
+    /**
+     * Find the walls, mirrored receivers and diffraction corners of a receiver. Results are stored in the context
+     * and used by {@link #receiverSourcePropa(Coordinate, Coordinate, double[], double[], int, PropagationWorkerContext)}.
+     *
+     * @param receiverCoord Receiver position, not modified
+     * @param context       Scratch data of the calling thread
+     */
+    void initReceiver(Coordinate receiverCoord, PropagationWorkerContext context) {
+        // Walls, mirrored receivers and corners do not depend on the altitude,
+        // receivers of the same facade point at several floors share them
+        boolean samePlanarPosition = context.planarPositionComputed
+                && context.receiverPos.x == receiverCoord.x && context.receiverPos.y == receiverCoord.y;
+        // Receivers are shared with other threads, work on a copy
+        context.receiverPos.setCoordinate(receiverCoord);
+        receiverCoord = context.receiverPos;
+        long phaseStart = System.nanoTime();
+        if (samePlanarPosition) {
+            if (context.mirroredReceiver != null) {
+                context.imageReceiverCount += context.mirroredReceiver.size();
+            }
+        } else {
+            phaseStart = initReceiverPlanarPosition(receiverCoord, context, phaseStart);
+        }
+        // Corners free field with receiver
+        context.regionCornersFreeToReceiver.clear();
+        if (data.diffractionOrder > 0) {
+            for (int icorner = 0; icorner < context.regionCorners.size(); icorner++) {
+                boolean freeField = data.freeFieldFinder.isFreeField(context.freeFieldQuery, receiverCoord,
+                        context.regionCorners.get(icorner));
+                if (freeField) {
+                    context.regionCornersFreeToReceiver.add(icorner);
                 }
             }
-            //srcEnergeticSum=GetGlobalLevel(nbfreq,energeticSum);
-            if (Math.abs(wToDba(attDistW(W_RANGE, searchSourceDistance) + srcEnergeticSum) - wToDba(srcEnergeticSum)) < DBA_FORGET_SOURCE) {
-                break; //Stop search for fartest sources
+            context.recordPhase(PropagationPhase.HORIZONTAL_DIFFRACTION, phaseStart);
+        }
+    }
+
+    /**
+     * Find the walls, mirrored receivers and diffraction corners around the planar position of a receiver.
+     *
+     * @param receiverCoord Receiver position
+     * @param context       Scratch data of the calling thread
+     * @param phaseStart    Start time of the mirror generation phase
+     * @return Start time of the diffraction phase
+     */
+    private long initReceiverPlanarPosition(Coordinate receiverCoord, PropagationWorkerContext context,
+                                            long phaseStart) {
+        // List of walls within maxReceiverSource distance
+        context.nearBuildingsWalls = null;
+        context.mirroredReceiver = null;
+        if (data.reflexionOrder > 0) {
+
+            context.nearBuildingsWalls = new ArrayList<LineSegment>(
+                    data.freeFieldFinder.getLimitsInRange(context.freeFieldQuery,
+                            data.maxRefDist, receiverCoord)
+            );
+            // Build mirrored receiver list from wall list
+            context.mirroredReceiver = getMirroredReceiverResults(receiverCoord,
+                    context.nearBuildingsWalls, data.reflexionOrder,
+                    data.maxRefDist * 2, accuracy.mirrorLimit);
+            context.imageReceiverCount += context.mirroredReceiver.size();
+            phaseStart = context.recordPhase(PropagationPhase.MIRROR_GENERATION, phaseStart);
+        }
+        context.regionCorners.clear();
+        if (data.diffractionOrder > 0) {
+            // Query corners in the current zone
+            // Only corner indices are inserted in the quadtree
+            @SuppressWarnings("unchecked")
+            List<Integer> cornerIds = cornersQuad.query(new Envelope(receiverCoord.x
+                    - data.maxRefDist, receiverCoord.x + data.maxRefDist,
+                    receiverCoord.y - data.maxRefDist, receiverCoord.y
+                    + data.maxRefDist
+            ));
+            for (int cornerId : cornerIds) {
+                Coordinate corner = cornerGraph.getCorner(cornerId);
+                if (receiverCoord.distance(corner) <= data.maxRefDist) {
+                    context.addRegionCorner(cornerId, corner);
+                }
             }
         }
-        dataOut.appendSourceCount(sourceCount);
+        context.planarPositionComputed = true;
+        return phaseStart;
     }
 
     /**
@@ -1075,8 +1083,9 @@ public class PropagationProcess implements Runnable {
      */
     public void initStructures() {
         nbfreq = data.freq_lvl.size();
+        accuracy = new PropagationAccuracy(data.targetError);
         // Init wave length for each frequency
-        freq_lambda = new double[nbfreq];
+        double[] freq_lambda = new double[nbfreq];
         for (int idf = 0; idf < nbfreq; idf++) {
             if (data.freq_lvl.get(idf) > 0) {
                 freq_lambda[idf] = CEL / data.freq_lvl.get(idf);
@@ -1085,21 +1094,32 @@ public class PropagationProcess implements Runnable {
             }
         }
         // Compute atmospheric alpha value by specified frequency band
-        alpha_atmo = new double[data.freq_lvl.size()];
+        double[] alpha_atmo = new double[data.freq_lvl.size()];
         for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
             alpha_atmo[idfreq] = getAlpha(data.freq_lvl.get(idfreq));
         }
+        kernel = new AttenuationKernel(data.freq_lvl, alpha_atmo, freq_lambda, CEL);
+        sourceDiscretization = new SourceDiscretizationCache(data.sourceGeometries);
+        sourceTree = null;
+        if (data.sourceClusterTolerance > 0) {
+            sourceTree = new SourceTree(data.sourceGeometries, data.wj_sources);
+        }
         // /////////////////////////////////////////////
         // Search diffraction corners
         cornersQuad = new Quadtree();
+        List<Coordinate> corners = Collections.emptyList();
         if (data.diffractionOrder > 0) {
-            List<Coordinate> corners = data.freeFieldFinder.getWideAnglePoints(
+            corners = data.freeFieldFinder.getWideAnglePoints(
                     Math.PI * (1 + 1 / 16.0), Math.PI * (2 - (1 / 16.)));
             // Build Quadtree
-            for (Coordinate corner : corners) {
-                cornersQuad.insert(new Envelope(corner), corner);
+            for (int idCorner = 0; idCorner < corners.size(); idCorner++) {
+                cornersQuad.insert(new Envelope(corners.get(idCorner)), idCorner);
             }
         }
+        // Corners of a diffraction path are within maxRefDist of the receiver
+        cornerGraph = new CornerVisibilityGraph(corners, 2 * data.maxRefDist, data.freeFieldFinder,
+                receiverExecutor, receiverParallelism);
+        cornerSourceVisibility = new CornerSourceVisibilityCache(CornerSourceVisibilityCache.DEFAULT_CAPACITY);
         //Build R-tree for soil geometry and soil type
         rTreeOfGeoSoil = new STRtree();
         if (data.geoWithSoilType != null) {
@@ -1108,151 +1128,312 @@ public class PropagationProcess implements Runnable {
                 rTreeOfGeoSoil.insert(geoWithSoilType.getGeo().getEnvelopeInternal(),
                         new EnvelopeWithIndex<Integer>(geoWithSoilType.getGeo().getEnvelopeInternal(), i));
             }
+            if (!data.geoWithSoilType.isEmpty()) {
+                // The tree is shared by receiver threads, build it now
+                rTreeOfGeoSoil.build();
+            }
         }
     }
 
     @Override
     public void run() {
         try {
-            initStructures();
-            GeometryFactory factory = new GeometryFactory();
-
-            // TODO comment debugging code
-
-            /*
-             * Type
-             * meta_type[]={TypeFactory.createType(Type.GEOMETRY),TypeFactory.createType
-             * (Type.INT),TypeFactory.createType(Type.DOUBLE)}; String
-             * meta_name[]={"the_geom","difid","largebandatt"}; DefaultMetadata
-             * metadata = new DefaultMetadata(meta_type,meta_name); DiskBufferDriver
-             * driver; try { driver = new DiskBufferDriver(data.dsf,metadata ); }
-             * catch (DriverException e) { e.printStackTrace(); return; }
-             */
-
-            double verticesSoundLevel[] = new double[data.vertices.size()]; // Computed
-            // sound
-            // level
-            // of
-            // vertices
-
-
-            // For each vertices, find sources where the distance is within
-            // maxSrcDist meters
-            ProgressionProcess propaProcessProgression = data.cellProg;
-            int idReceiver = 0;
-            long min_compute_time = Long.MAX_VALUE;
-            long max_compute_time = 0;
-            long sum_compute = 0;
-            for (Coordinate receiverCoord : data.vertices) {
-                long debReceiverTime = System.nanoTime();
-
-                propaProcessProgression.nextSubProcessEnd();
-                double energeticSum[] = new double[data.freq_lvl.size()];
-                for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-                    energeticSum[idfreq] = 0.0;
-                }
-                computeSoundLevelAtPosition(receiverCoord, energeticSum);
-                // Save the sound level at this receiver
-                // Do the sum of all frequency bands
-                double allfreqlvl = 0;
-                for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-                    allfreqlvl += energeticSum[idfreq];
+            computeCell();
+        } catch (Exception ex) {
+            LOGGER.error(ex.getLocalizedMessage(), ex);
+        }
+    }
+
+    /**
+     * Compute all receivers of the cell and push the results into {@link PropagationProcessOut}.
+     * Same as {@link #run()} but errors are thrown to the caller.
+     *
+     * @throws ExecutionException   A receiver computation failed
+     * @throws InterruptedException Interrupted while waiting for helpers
+     */
+    void computeCell() throws ExecutionException, InterruptedException {
+        initStructures();
+        GeometryFactory factory = new GeometryFactory();
+
+        // TODO comment debugging code
+
+        /*
+         * Type
+         * meta_type[]={TypeFactory.createType(Type.GEOMETRY),TypeFactory.createType
+         * (Type.INT),TypeFactory.createType(Type.DOUBLE)}; String
+         * meta_name[]={"the_geom","difid","largebandatt"}; DefaultMetadata
+         * metadata = new DefaultMetadata(meta_type,meta_name); DiskBufferDriver
+         * driver; try { driver = new DiskBufferDriver(data.dsf,metadata ); }
+         * catch (DriverException e) { e.printStackTrace(); return; }
+         */
+
+        double verticesSoundLevel[] = new double[data.vertices.size()]; // Computed
+        // sound
+        // level
+        // of
+        // vertices
+
+
+        // For each vertices, find sources where the distance is within
+        // maxSrcDist meters
+        computeReceivers(verticesSoundLevel);
+        if (data.triangles != null) { //Triangle output type
+            // Subdivide each triangle, and apply BiCubic interpolation.
+                    /*
+                     * ArrayList<Triangle> bicubictri=new ArrayList<Triangle>();
+                     * bicubictri.ensureCapacity(data.triangles.size()); for(Triangle tri :
+                     * data.triangles) { //////////////////////// //Find the fourth vertex }
+                     */
+            // Now export all triangles with the sound level at each vertices
+            int tri_id = 0;
+            List<PropagationResultTriRecord> triBatch = new ArrayList<PropagationResultTriRecord>(
+                    Math.min(RESULT_BATCH_SIZE, data.triangles.size()));
+            for (Triangle tri : data.triangles) {
+                Coordinate pverts[] = {data.vertices.get(tri.getA()),
+                        data.vertices.get(tri.getB()),
+                        data.vertices.get(tri.getC()),
+                        data.vertices.get(tri.getA())};
+                triBatch.add(new PropagationResultTriRecord(
+                        factory.createPolygon(factory.createLinearRing(pverts), null),
+                        verticesSoundLevel[tri.getA()],
+                        verticesSoundLevel[tri.getB()],
+                        verticesSoundLevel[tri.getC()],
+                        data.cellId,
+                        tri_id));
+                tri_id++;
+                if (triBatch.size() == RESULT_BATCH_SIZE) {
+                    dataOut.addTriRecords(triBatch);
+                    triBatch = new ArrayList<PropagationResultTriRecord>(RESULT_BATCH_SIZE);
                 }
-                allfreqlvl = Math.max(allfreqlvl, BASE_LVL);
-                verticesSoundLevel[idReceiver] = allfreqlvl;
-
-                long computeTime = System.nanoTime() - debReceiverTime;
-                min_compute_time = Math.min(computeTime, min_compute_time);
-                max_compute_time = Math.max(computeTime, max_compute_time);
-                sum_compute += computeTime;
-                idReceiver++;
             }
-            if (data.triangles != null) { //Triangle output type
-                // Subdivide each triangle, and apply BiCubic interpolation.
-                        /*
-                         * ArrayList<Triangle> bicubictri=new ArrayList<Triangle>();
-                         * bicubictri.ensureCapacity(data.triangles.size()); for(Triangle tri :
-                         * data.triangles) { //////////////////////// //Find the fourth vertex }
-                         */
-                // Now export all triangles with the sound level at each vertices
-                int tri_id = 0;
-                for (Triangle tri : data.triangles) {
-                    Coordinate pverts[] = {data.vertices.get(tri.getA()),
-                            data.vertices.get(tri.getB()),
-                            data.vertices.get(tri.getC()),
-                            data.vertices.get(tri.getA())};
-                    dataOut.addValues(new PropagationResultTriRecord(
-                            factory.createPolygon(factory.createLinearRing(pverts), null),
-                            verticesSoundLevel[tri.getA()],
-                            verticesSoundLevel[tri.getB()],
-                            verticesSoundLevel[tri.getC()],
-                            data.cellId,
-                            tri_id));
-                    tri_id++;
-                }
-            } else {
-                //Vertices output type
-                for (int receiverId = 0; receiverId < data.vertices.size(); receiverId++) {
-                    dataOut.addValues(new PropagationResultPtRecord(data.receiverRowId.get(receiverId), data.cellId, verticesSoundLevel[receiverId]));
+            if (!triBatch.isEmpty()) {
+                dataOut.addTriRecords(triBatch);
+            }
+        } else {
+            //Vertices output type
+            List<PropagationResultPtRecord> ptBatch = new ArrayList<PropagationResultPtRecord>(
+                    Math.min(RESULT_BATCH_SIZE, data.vertices.size()));
+            for (int receiverId = 0; receiverId < data.vertices.size(); receiverId++) {
+                ptBatch.add(new PropagationResultPtRecord(data.receiverRowId.get(receiverId), data.cellId, verticesSoundLevel[receiverId]));
+                if (ptBatch.size() == RESULT_BATCH_SIZE) {
+                    dataOut.addPtRecords(ptBatch);
+                    ptBatch = new ArrayList<PropagationResultPtRecord>(RESULT_BATCH_SIZE);
                 }
             }
-            dataOut.appendFreeFieldTestCount(data.freeFieldFinder.getNbObstructionTest());
-            dataOut.appendCellComputed();
-            dataOut.updateMaximalReceiverComputationTime(max_compute_time);
-            dataOut.updateMinimalReceiverComputationTime(min_compute_time);
-            dataOut.addSumReceiverComputationTime(sum_compute);
-            dataOut.appendDiffractionPath(diffractionPathCount);
-            dataOut.appendReflexionPath(refpathcount);
-        } catch (Exception ex) {
-            LOGGER.error(ex.getLocalizedMessage(), ex);
+            if (!ptBatch.isEmpty()) {
+                dataOut.addPtRecords(ptBatch);
+            }
         }
+        dataOut.appendCellComputed();
     }
 
+    /**
+     * Compute the sound level of all receivers of the cell, using helper threads if an executor has been set.
+     *
+     * @param verticesSoundLevel Global sound level of receivers, written by receiver index
+     * @throws ExecutionException   A receiver computation failed
+     * @throws InterruptedException Interrupted while waiting for helpers
+     */
+    private void computeReceivers(double[] verticesSoundLevel) throws ExecutionException, InterruptedException {
+        int receiverCount = data.vertices.size();
+        double[] xs = new double[receiverCount];
+        double[] ys = new double[receiverCount];
+        double[] zs = new double[receiverCount];
+        for (int idReceiver = 0; idReceiver < receiverCount; idReceiver++) {
+            Coordinate receiver = data.vertices.get(idReceiver);
+            xs[idReceiver] = receiver.x;
+            ys[idReceiver] = receiver.y;
+            zs[idReceiver] = receiver.z;
+        }
+        computeReceivers(new ReceiverBatch(xs, ys, zs, verticesSoundLevel, false, data.cellProg));
+    }
 
-    private double getIntersectedDistance(Geometry geo) {
-
-        double totDistance = 0.;
-        for (int i = 0; i < geo.getNumGeometries(); i++) {
-            Coordinate[] coordinates = geo.getGeometryN(i).getCoordinates();
-            if (coordinates.length > 1 && geo.getGeometryN(i) instanceof LineString) {
-                totDistance += geo.getGeometryN(i).getLength();
-            }
+    /**
+     * Compute sound level by frequency band of a batch of receivers, using helper threads if an executor has been
+     * set. Receivers are computed along a Hilbert curve by a few scratch contexts, close receivers share the mesh
+     * location and the walls, mirrored receivers and corners of receivers at the same planar position.
+     * {@link #initStructures()} is called if it has not been called yet.
+     *
+     * @param xs            Receivers X
+     * @param ys            Receivers Y
+     * @param zs            Receivers altitude relative to the ground
+     * @param energeticSums Energetic sum of receivers, band idFreq of receiver idReceiver is written at
+     *                      idReceiver * nbFreq + idFreq. Length must be receiver count * frequency band count.
+     * @throws ExecutionException   A receiver computation failed
+     * @throws InterruptedException Interrupted while waiting for helpers
+     */
+    public void computeSoundLevels(double[] xs, double[] ys, double[] zs, double[] energeticSums)
+            throws ExecutionException, InterruptedException {
+        if (accuracy == null) {
+            initStructures();
+        }
+        if (ys.length != xs.length || zs.length != xs.length) {
+            throw new IllegalArgumentException("Receivers coordinates arrays must have the same length");
         }
-        return totDistance;
+        if (energeticSums.length != xs.length * nbfreq) {
+            throw new IllegalArgumentException("Energetic sums length must be " + xs.length * nbfreq);
+        }
+        computeReceivers(new ReceiverBatch(xs, ys, zs, energeticSums, true, null));
+    }
 
+    /**
+     * Compute sound level by frequency band of a batch of receivers.
+     *
+     * @param xs Receivers X
+     * @param ys Receivers Y
+     * @param zs Receivers altitude relative to the ground
+     * @return Energetic sum of receivers, band idFreq of receiver idReceiver is at idReceiver * nbFreq + idFreq
+     * @throws ExecutionException   A receiver computation failed
+     * @throws InterruptedException Interrupted while waiting for helpers
+     * @see #computeSoundLevels(double[], double[], double[], double[])
+     */
+    public double[] computeSoundLevels(double[] xs, double[] ys, double[] zs)
+            throws ExecutionException, InterruptedException {
+        double[] energeticSums = new double[xs.length * data.freq_lvl.size()];
+        computeSoundLevels(xs, ys, zs, energeticSums);
+        return energeticSums;
     }
 
     /**
-     * getASoil use equation ASol in NF S 31-133 page 41 to calculate Attenuation(or contribution) Ground Effect
+     * Compute the receivers of a batch, using helper threads if an executor has been set.
      *
-     * @param zs       z of source point
-     * @param zr       z of receiver point
-     * @param dp       dp in equation
-     * @param gw       Gw
-     * @param fm       frequency
-     * @param aSoilMin min ASoil
-     * @return ASoil
+     * @param batch Receivers and results
+     * @throws ExecutionException   A receiver computation failed
+     * @throws InterruptedException Interrupted while waiting for helpers
      */
-    private double getASoil(double zs, double zr, double dp, double gw, int fm, double aSoilMin) {
-        //NF S 31-133 page 41 c
-        double k = 2 * Math.PI * fm / CEL;
-        //NF S 31-113 page 41 w
-        double w = 0.0185 * Math.pow(fm, 2.5) * Math.pow(gw, 2.6) /
-                (Math.pow(fm, 1.5) * Math.pow(gw, 2.6) + 1.3 * Math.pow(10, 3) * Math.pow(fm, 0.75) * Math.pow(gw, 1.3) + 1.16 * Math.pow(10, 6));
-        //NF S 31-113 page 41 Cf
-        double cf = dp * (1 + 3 * w * dp * Math.pow(Math.E, -Math.sqrt(w * dp))) / (1 + w * dp);
-        //NF S 31-113 page 41 A sol
-        double ASoil = -10 * Math.log10(4 * Math.pow(k, 2) / Math.pow(dp, 2) *
-                (Math.pow(zs, 2) - Math.sqrt(2 * cf / k) * zs + cf / k) * (Math.pow(zr, 2) - Math.sqrt(2 * cf / k) * zr + cf / k));
-        ASoil = Math.max(ASoil, aSoilMin);
-        return ASoil;
+    private void computeReceivers(ReceiverBatch batch) throws ExecutionException, InterruptedException {
+        List<ReceiverWorker> workers = new ArrayList<ReceiverWorker>();
+        ReceiverWorker mainWorker = new ReceiverWorker(batch);
+        workers.add(mainWorker);
+        if (receiverExecutor != null) {
+            int helperCount = Math.min(receiverParallelism, batch.order.length) - 1;
+            for (int idHelper = 0; idHelper < helperCount; idHelper++) {
+                ReceiverWorker helper = new ReceiverWorker(batch);
+                try {
+                    receiverExecutor.execute(helper);
+                    workers.add(helper);
+                } catch (RejectedExecutionException ex) {
+                    // Executor is full or shut down, the other threads will do the job
+                    break;
+                }
+            }
+        }
+        mainWorker.run();
+        // Wait for helpers, drop the ones that are still in the executor queue
+        Throwable error = null;
+        for (ReceiverWorker worker : workers) {
+            if (worker.awaitOrCancel()) {
+                if (worker.error != null) {
+                    error = worker.error;
+                } else {
+                    worker.context.pushStatistics(dataOut, data.cellId);
+                }
+            }
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+    }
 
+    /**
+     * Receivers shared by the workers of a computation, and their results.
+     */
+    private static final class ReceiverBatch {
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] zs;
+        /** Receiver index by computation rank, close receivers are computed one after the other */
+        private final int[] order;
+        /** Results, stored by receiver index */
+        private final double[] levels;
+        /** True to store the energetic sum by frequency band, false to store the global level */
+        private final boolean byFrequency;
+        /** Progression of the cell, may be null */
+        private final ProgressionProcess progression;
+        private final AtomicInteger nextReceiver = new AtomicInteger(0);
+
+        private ReceiverBatch(double[] xs, double[] ys, double[] zs, double[] levels, boolean byFrequency,
+                              ProgressionProcess progression) {
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.order = HilbertCurve.sort(xs, ys);
+            this.levels = levels;
+            this.byFrequency = byFrequency;
+            this.progression = progression;
+        }
     }
 
+    /**
+     * Compute receivers of a batch until there is no more receiver to take.
+     */
+    private final class ReceiverWorker implements Runnable {
+        private final ReceiverBatch batch;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final PropagationWorkerContext context = new PropagationWorkerContext(nbfreq, data.freeFieldFinder);
+        private Throwable error = null;
+
+        private ReceiverWorker(ReceiverBatch batch) {
+            this.batch = batch;
+        }
 
-    private double getDeltSoil(double ASoil) {
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                // Cancelled before being started
+                return;
+            }
+            try {
+                double[] energeticSum = context.energeticSum;
+                Coordinate receiver = new Coordinate();
+                int rank;
+                while ((rank = batch.nextReceiver.getAndIncrement()) < batch.order.length) {
+                    int idReceiver = batch.order[rank];
+                    long debReceiverTime = System.nanoTime();
+                    if (batch.progression != null) {
+                        batch.progression.nextSubProcessEnd();
+                    }
+                    for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+                        energeticSum[idfreq] = 0.0;
+                    }
+                    receiver.x = batch.xs[idReceiver];
+                    receiver.y = batch.ys[idReceiver];
+                    receiver.z = batch.zs[idReceiver];
+                    computeSoundLevelAtPosition(receiver, energeticSum, context);
+                    // Save the sound level at this receiver
+                    if (batch.byFrequency) {
+                        System.arraycopy(energeticSum, 0, batch.levels, idReceiver * nbfreq, nbfreq);
+                    } else {
+                        // Do the sum of all frequency bands
+                        double allfreqlvl = 0;
+                        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+                            allfreqlvl += energeticSum[idfreq];
+                        }
+                        allfreqlvl = Math.max(allfreqlvl, BASE_LVL);
+                        batch.levels[idReceiver] = allfreqlvl;
+                    }
+                    context.addReceiverComputationTime(System.nanoTime() - debReceiverTime);
+                }
+            } catch (Throwable ex) {
+                error = ex;
+            } finally {
+                done.countDown();
+            }
+        }
 
-        return -20 * Math.log10(1 + (Math.pow(10, -ASoil / 20) - 1));
+        /**
+         * Wait for the end of this worker, or cancel it if it has not been started yet.
+         *
+         * @return True if the worker has been run
+         * @throws InterruptedException Interrupted while waiting
+         */
+        private boolean awaitOrCancel() throws InterruptedException {
+            if (claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            done.await();
+            return true;
+        }
     }
-
 }
@@ -45,6 +45,8 @@ import java.util.List;
  * @author Nicolas Fortin
  */
 public class PropagationProcessData {
+    /** Default value of {@link #targetError} */
+    public static final double DEFAULT_TARGET_ERROR = 0.03;
     /** Coordinate of receivers */
     public List<Coordinate> vertices;
     /** Row id of receivers, not used by PropagationProcess */
@@ -58,7 +60,7 @@ public class PropagationProcessData {
     /** Sources geometries. Can be LINESTRING or POINT */
     public List<Geometry> sourceGeometries;
     /** Sound level of source. By frequency band, energetic */
-    public List<ArrayList<Double>> wj_sources;
+    public SpectrumArray wj_sources;
     /** Frequency bands values, by third octave */
     public List<Integer> freq_lvl;
     /** Maximum reflexion order */
@@ -79,13 +81,39 @@ public class PropagationProcessData {
     public ProgressionProcess cellProg;
     /** list Geometry of soil and the type of this soil */
     public List<GeoWithSoilType> geoWithSoilType;
+    /** Target error in dB, drives the source pruning and the reflection and diffraction path limits */
+    public double targetError = DEFAULT_TARGET_ERROR;
+    /** Maximum error in dB of far sources clustering, 0 to compute every source (default) */
+    public double sourceClusterTolerance = 0;
 
+    /**
+     * Constructor with source spectrums stored in lists. The spectrums are copied once into {@link #wj_sources},
+     * later changes of the given lists are not seen by the computation.
+     *
+     * @param wj_sources Sound level of sources by frequency band, energetic. Missing bands are set to 0.
+     */
     public PropagationProcessData(List<Coordinate> vertices, List<Long> receiverRowId, List<Triangle> triangles,
                                   FastObstructionTest freeFieldFinder, QueryGeometryStructure sourcesIndex,
                                   List<Geometry> sourceGeometries, List<ArrayList<Double>> wj_sources,
                                   List<Integer> freq_lvl, int reflexionOrder, int diffractionOrder, double maxSrcDist,
                                   double maxRefDist, double minRecDist, double wallAlpha, int cellId, ProgressionProcess cellProg,
                                   List<GeoWithSoilType> geoWithSoilType) {
+        this(vertices, receiverRowId, triangles, freeFieldFinder, sourcesIndex, sourceGeometries,
+                SpectrumArray.fromLists(wj_sources, freq_lvl.size()), freq_lvl, reflexionOrder, diffractionOrder,
+                maxSrcDist, maxRefDist, minRecDist, wallAlpha, cellId, cellProg, geoWithSoilType);
+    }
+
+    /**
+     * Constructor with source spectrums stored in a flat array.
+     *
+     * @param wj_sources Sound level of sources by frequency band, energetic. The array is not copied.
+     */
+    public PropagationProcessData(List<Coordinate> vertices, List<Long> receiverRowId, List<Triangle> triangles,
+                                  FastObstructionTest freeFieldFinder, QueryGeometryStructure sourcesIndex,
+                                  List<Geometry> sourceGeometries, SpectrumArray wj_sources,
+                                  List<Integer> freq_lvl, int reflexionOrder, int diffractionOrder, double maxSrcDist,
+                                  double maxRefDist, double minRecDist, double wallAlpha, int cellId, ProgressionProcess cellProg,
+                                  List<GeoWithSoilType> geoWithSoilType) {
         this.vertices = vertices;
         this.receiverRowId = receiverRowId;
         this.triangles = triangles;
@@ -105,5 +133,21 @@ public class PropagationProcessData {
         this.geoWithSoilType = geoWithSoilType;
     }
 
-
+    /**
+     * @return New lists of the source spectrums, in the type of {@link #wj_sources} before it became a
+     * {@link SpectrumArray}
+     * @deprecated Read {@link #wj_sources} without copy
+     */
+    @Deprecated
+    public List<ArrayList<Double>> getWjSourcesAsLists() {
+        List<ArrayList<Double>> spectrums = new ArrayList<ArrayList<Double>>(wj_sources.getSourceCount());
+        for (int idSource = 0; idSource < wj_sources.getSourceCount(); idSource++) {
+            ArrayList<Double> spectrum = new ArrayList<Double>(wj_sources.getFreqCount());
+            for (int idFreq = 0; idFreq < wj_sources.getFreqCount(); idFreq++) {
+                spectrum.add(wj_sources.get(idSource, idFreq));
+            }
+            spectrums.add(spectrum);
+        }
+        return spectrums;
+    }
 }
@@ -33,17 +33,21 @@
  */
 package org.orbisgis.noisemap.core;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 /**
  * Way to store data computed by thread.
- * Multiple threads use the same Out, then all methods has been synchronized
+ * Multiple threads use the same Out, then all methods has been synchronized.
+ * Results are given to a {@link ResultSink} by batches.
  * 
  * @author Nicolas Fortin
  */
 public class PropagationProcessOut {
-	private Stack<PropagationResultTriRecord> triToDriver;
-        private Stack<PropagationResultPtRecord> ptToDriver;
+	private final ResultSink resultSink;
 
 	private long nb_couple_receiver_src = 0;
 	private long nb_obstr_test = 0;
@@ -54,6 +58,9 @@ public class PropagationProcessOut {
         private long minimalReceiverComputationTime=Long.MAX_VALUE;
         private long maximalReceiverComputationTime=0;
         private long sumReceiverComputationTime=0;
+        private final Map<PropagationPhase, LatencyHistogram> phaseTimings =
+                new EnumMap<PropagationPhase, LatencyHistogram>(PropagationPhase.class);
+        private volatile PropagationMetricsListener metricsListener = null;
 
         public synchronized long getSumReceiverComputationTime() {
             return sumReceiverComputationTime;
@@ -79,19 +86,94 @@ public class PropagationProcessOut {
             return minimalReceiverComputationTime;
         }
 
+        /**
+         * @param metricsListener Receive the phase timings of each thread and cell, null to remove
+         */
+        public void setMetricsListener(PropagationMetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+        }
+
+        /**
+         * @return Receiver of the phase timings, null if not set
+         */
+        public PropagationMetricsListener getMetricsListener() {
+            return metricsListener;
+        }
+
+        /**
+         * Merge the phase timings of a thread, then give them to the metrics listener.
+         * @param cellId Cell identifier
+         * @param timings Durations in nanoseconds by phase
+         */
+        public void addPhaseTimings(int cellId, Map<PropagationPhase, LatencyHistogram> timings) {
+            synchronized (this) {
+                for (Map.Entry<PropagationPhase, LatencyHistogram> entry : timings.entrySet()) {
+                    LatencyHistogram histogram = phaseTimings.get(entry.getKey());
+                    if (histogram == null) {
+                        phaseTimings.put(entry.getKey(), new LatencyHistogram(entry.getValue()));
+                    } else {
+                        histogram.add(entry.getValue());
+                    }
+                }
+            }
+            PropagationMetricsListener listener = metricsListener;
+            if (listener != null) {
+                listener.phaseTimings(cellId, timings);
+            }
+        }
+
+        /**
+         * @param phase Computation phase
+         * @return Copy of the durations in nanoseconds of this phase, for all cells and threads
+         */
+        public synchronized LatencyHistogram getPhaseTimings(PropagationPhase phase) {
+            LatencyHistogram histogram = phaseTimings.get(phase);
+            return histogram == null ? new LatencyHistogram() : new LatencyHistogram(histogram);
+        }
+
+        /**
+         * Keep all results in memory
+         * @param triToDriver Triangle results destination
+         * @param ptToDriver Receiver results destination
+         */
         public PropagationProcessOut(Stack<PropagationResultTriRecord> triToDriver, Stack<PropagationResultPtRecord> ptToDriver) {
-            this.triToDriver = triToDriver;
-            this.ptToDriver = ptToDriver;
+            this(new StackResultSink(triToDriver, ptToDriver));
+        }
+
+        /**
+         * @param resultSink Results destination
+         */
+        public PropagationProcessOut(ResultSink resultSink) {
+            this.resultSink = resultSink;
         }
 
+        /**
+         * @return Results destination
+         */
+        public ResultSink getResultSink() {
+            return resultSink;
+        }
 
+	public void addValues(PropagationResultTriRecord record) {
+		resultSink.addTriRecords(Collections.singletonList(record));
+	}
 
-	public synchronized void addValues(PropagationResultTriRecord record) {
-		triToDriver.push(record);
+	public void addValues(PropagationResultPtRecord record) {
+		resultSink.addPtRecords(Collections.singletonList(record));
 	}
 
-	public synchronized void addValues(PropagationResultPtRecord record) {
-		ptToDriver.push(record);
+	/**
+	 * @param records Batch of triangle results, filled by the calling thread only
+	 */
+	public void addTriRecords(List<PropagationResultTriRecord> records) {
+		resultSink.addTriRecords(records);
+	}
+
+	/**
+	 * @param records Batch of receiver results, filled by the calling thread only
+	 */
+	public void addPtRecords(List<PropagationResultPtRecord> records) {
+		resultSink.addPtRecords(records);
 	}
 
 	public synchronized long getNb_couple_receiver_src() {
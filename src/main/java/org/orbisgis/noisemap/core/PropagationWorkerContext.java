@@ -0,0 +1,199 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.algorithm.NonRobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineSegment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scratch data of a thread computing receivers of a {@link PropagationProcess}.
+ * A context must not be shared between threads, counters are pushed to
+ * {@link PropagationProcessOut} when the thread has finished its work.
+ *
+ * @author Nicolas Fortin
+ */
+class PropagationWorkerContext {
+    /** Number of receiver-source couples computed */
+    long sourceCount = 0;
+    /** Number of receiver images created by walls */
+    long imageReceiverCount = 0;
+    /** Number of horizontal diffraction paths found */
+    long diffractionPathCount = 0;
+    /** Number of reflection paths found */
+    long reflexionPathCount = 0;
+    long minReceiverComputationTime = Long.MAX_VALUE;
+    long maxReceiverComputationTime = 0;
+    long sumReceiverComputationTime = 0;
+    /** Energetic sum by frequency band of the receiver being computed */
+    final double[] energeticSum;
+    /** Attenuation factors by frequency band of the path being computed */
+    final double[] bandFactors;
+    /** Query state of this thread on the shared obstruction test mesh */
+    final ObstructionQueryContext freeFieldQuery;
+    /** Point sources of the receiver being computed */
+    final ReceiverSources receiverSources;
+    /** Merge of close point sources of the search range */
+    final PointsMerge sourcesMerger = new PointsMerge(PropagationAccuracy.DEFAULT_MERGE_DISTANCE);
+    /** Sources and clusters of the receiver being computed, when sources are clustered */
+    final SourceTree.Query sourceTreeQuery = new SourceTree.Query();
+    /** Free field power of the sources forgotten for the receiver being computed */
+    double forgottenPower = 0;
+    /** Position of the point source being computed */
+    final Coordinate sourcePos = new Coordinate();
+    /** Source search range of the receiver being computed */
+    final Envelope sourceRegion = new Envelope();
+    /** Union of the source search ranges already queried for the receiver being computed */
+    final Envelope queriedSourceRegion = new Envelope();
+    /** Position of the receiver being computed, altitude relative to the ground as the sources */
+    final Coordinate receiverPos = new Coordinate();
+    /** True if walls, mirrored receivers and corners have been computed at the planar position of receiverPos */
+    boolean planarPositionComputed = false;
+    /** Walls within maxRefDist of the receiver, null if there is no reflection */
+    List<LineSegment> nearBuildingsWalls = null;
+    /** Receivers mirrored by walls, null if there is no reflection */
+    List<MirrorReceiverResult> mirroredReceiver = null;
+    /** Diffraction corners within maxRefDist of the receiver */
+    final List<Coordinate> regionCorners = new ArrayList<Coordinate>();
+    /** Index in the corner visibility graph of the region corners */
+    int[] regionCornerIds = new int[16];
+    /** Index of the corners visible from the receiver */
+    final List<Integer> regionCornersFreeToReceiver = new ArrayList<Integer>();
+    /** Receiver of the source-receiver pair, altitude set from the topography */
+    final Coordinate pairReceiver = new Coordinate();
+    /** Source of the source-receiver pair, altitude set from the topography */
+    final Coordinate pairSource = new Coordinate();
+    /** Reflection scratch data */
+    final NonRobustLineIntersector lineIntersector = new NonRobustLineIntersector();
+    final Coordinate destinationPt = new Coordinate();
+    final Coordinate reflectionPt = new Coordinate();
+    /** Corners of the diffraction path being tested, from the receiver to the source */
+    int[] cornerPath = new int[4];
+    int cornerPathSize = 0;
+    /** Point sources of the line source being discretized */
+    final SourceDiscretizationCache.LinePoints linePoints = new SourceDiscretizationCache.LinePoints();
+    /** Length of propagation paths over soil areas */
+    final SoilLengthVisitor soilLength = new SoilLengthVisitor();
+    /** Durations of computation phases, by {@link PropagationPhase} ordinal */
+    private final LatencyHistogram[] phaseTimings = new LatencyHistogram[PropagationPhase.values().length];
+
+    PropagationWorkerContext(int nbfreq, FastObstructionTest freeFieldFinder) {
+        energeticSum = new double[nbfreq];
+        bandFactors = new double[nbfreq];
+        receiverSources = new ReceiverSources(nbfreq);
+        freeFieldQuery = freeFieldFinder.createQueryContext();
+        for (int i = 0; i < phaseTimings.length; i++) {
+            phaseTimings[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the duration of a phase
+     * @param phase Computation phase
+     * @param start Phase start time, from {@link System#nanoTime()}
+     * @return Phase end time, start of the next phase
+     */
+    long recordPhase(PropagationPhase phase, long start) {
+        long end = System.nanoTime();
+        phaseTimings[phase.ordinal()].record(end - start);
+        return end;
+    }
+
+    void pushCorner(int corner) {
+        if (cornerPathSize == cornerPath.length) {
+            cornerPath = Arrays.copyOf(cornerPath, cornerPath.length * 2);
+        }
+        cornerPath[cornerPathSize++] = corner;
+    }
+
+    void addRegionCorner(int cornerId, Coordinate corner) {
+        if (regionCorners.size() == regionCornerIds.length) {
+            regionCornerIds = Arrays.copyOf(regionCornerIds, regionCornerIds.length * 2);
+        }
+        regionCornerIds[regionCorners.size()] = cornerId;
+        regionCorners.add(corner);
+    }
+
+    void addReceiverComputationTime(long computeTime) {
+        minReceiverComputationTime = Math.min(computeTime, minReceiverComputationTime);
+        maxReceiverComputationTime = Math.max(computeTime, maxReceiverComputationTime);
+        sumReceiverComputationTime += computeTime;
+    }
+
+    /**
+     * Append counters and phase timings to the shared output, then reset them.
+     * @param dataOut Output of the cell
+     * @param cellId Cell identifier
+     */
+    void pushStatistics(PropagationProcessOut dataOut, int cellId) {
+        dataOut.appendSourceCount(sourceCount);
+        dataOut.appendImageReceiver(imageReceiverCount);
+        dataOut.appendDiffractionPath(diffractionPathCount);
+        dataOut.appendReflexionPath(reflexionPathCount);
+        dataOut.appendFreeFieldTestCount(freeFieldQuery.nbObstructionTest);
+        if (sumReceiverComputationTime > 0) {
+            dataOut.updateMinimalReceiverComputationTime(minReceiverComputationTime);
+            dataOut.updateMaximalReceiverComputationTime(maxReceiverComputationTime);
+            dataOut.addSumReceiverComputationTime(sumReceiverComputationTime);
+        }
+        Map<PropagationPhase, LatencyHistogram> timings =
+                new EnumMap<PropagationPhase, LatencyHistogram>(PropagationPhase.class);
+        for (PropagationPhase phase : PropagationPhase.values()) {
+            if (phaseTimings[phase.ordinal()].getTotalCount() > 0) {
+                timings.put(phase, phaseTimings[phase.ordinal()]);
+            }
+        }
+        if (!timings.isEmpty()) {
+            dataOut.addPhaseTimings(cellId, timings);
+        }
+        for (LatencyHistogram histogram : phaseTimings) {
+            histogram.reset();
+        }
+        sourceCount = 0;
+        imageReceiverCount = 0;
+        diffractionPathCount = 0;
+        reflexionPathCount = 0;
+        freeFieldQuery.nbObstructionTest = 0;
+        minReceiverComputationTime = Long.MAX_VALUE;
+        maxReceiverComputationTime = 0;
+        sumReceiverComputationTime = 0;
+    }
+}
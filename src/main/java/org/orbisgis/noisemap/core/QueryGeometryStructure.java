@@ -33,6 +33,7 @@
  */
 package org.orbisgis.noisemap.core;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import java.util.Iterator;
@@ -50,4 +51,20 @@ public interface QueryGeometryStructure {
 
 	Iterator<Integer> query(Envelope queryEnv);
 
+	/**
+	 * Query of the new part of an expanding search region.
+	 * @param innerEnv Region already queried
+	 * @param outerEnv New search region
+	 * @return Items returned by query(outerEnv) that are not returned by query(innerEnv)
+	 */
+	Iterator<Integer> queryRing(Envelope innerEnv, Envelope outerEnv);
+
+	/**
+	 * @param center Query center
+	 * @param maxDistance Half side of the queried square
+	 * @return Items returned by query(center +/- maxDistance), from the closest to the farthest of center.
+	 * The distance is computed from the item envelope, or from the closest cell of the item for grid indexes.
+	 */
+	Iterator<Integer> queryByDistance(Coordinate center, double maxDistance);
+
 }
@@ -34,8 +34,11 @@
 package org.orbisgis.noisemap.core;
 
 import com.vividsolutions.jts.geom.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -52,6 +55,8 @@ public class QueryGridIndex implements QueryGeometryStructure {
         private double cellSizeJ;
         private Envelope mainEnv;
         private Map<Integer,RowsUnionClassification> gridContent = new HashMap<Integer,RowsUnionClassification>();
+        /** Cells of the envelope of each item [minI, maxI, minJ, maxJ], by item index */
+        private int[] itemCells = new int[0];
              
         
         
@@ -115,6 +120,9 @@ public class QueryGridIndex implements QueryGeometryStructure {
                 // Compute index intervals from envelopes
                 int[] ranges = getRange(newGeom.getEnvelopeInternal());
                 int minI = ranges[0], maxI = ranges[1], minJ = ranges[2], maxJ = ranges[3];
+                if (externalId >= 0) {
+                    setItemCells(externalId, ranges);
+                }
                
                 GeometryFactory factory = new GeometryFactory();
                 //Compute intersection between the geom and grid cells
@@ -132,6 +140,23 @@ public class QueryGridIndex implements QueryGeometryStructure {
                 }
         }
         
+        private void setItemCells(int externalId, int[] ranges) {
+            int offset = externalId * 4;
+            if (offset >= itemCells.length) {
+                itemCells = Arrays.copyOf(itemCells, Math.max(offset + 4, itemCells.length * 2));
+            }
+            // Items not appended yet have an empty range
+            if (itemCells[offset] == itemCells[offset + 1]) {
+                System.arraycopy(ranges, 0, itemCells, offset, 4);
+            } else {
+                // Geometry appended twice with the same id
+                itemCells[offset] = Math.min(itemCells[offset], ranges[0]);
+                itemCells[offset + 1] = Math.max(itemCells[offset + 1], ranges[1]);
+                itemCells[offset + 2] = Math.min(itemCells[offset + 2], ranges[2]);
+                itemCells[offset + 3] = Math.max(itemCells[offset + 3], ranges[3]);
+            }
+        }
+
         /**
          * @return The number of items in the grid
          */
@@ -158,6 +183,109 @@ public class QueryGridIndex implements QueryGeometryStructure {
             }
             return querySet;
         }
+
+        @Override
+        public Iterator<Integer> queryRing(Envelope innerEnv, Envelope outerEnv) {
+            int[] outer = getRange(outerEnv);
+            if (innerEnv.isNull()) {
+                return query(outerEnv);
+            }
+            int[] inner = getRange(innerEnv);
+            // Inner cells limited to the outer cells, their items are all returned by query(innerEnv)
+            int innerMinI = Math.min(Math.max(inner[0], outer[0]), outer[1]);
+            int innerMaxI = Math.max(Math.min(inner[1], outer[1]), innerMinI);
+            int innerMinJ = Math.min(Math.max(inner[2], outer[2]), outer[3]);
+            int innerMaxJ = Math.max(Math.min(inner[3], outer[3]), innerMinJ);
+            RowIterator querySet = new RowIterator();
+            // Cells below and above the inner cells
+            addRingCells(querySet, inner, outer[0], innerMinI, outer[2], outer[3]);
+            addRingCells(querySet, inner, innerMaxI, outer[1], outer[2], outer[3]);
+            // Cells at the left and at the right of the inner cells
+            addRingCells(querySet, inner, innerMinI, innerMaxI, outer[2], innerMinJ);
+            addRingCells(querySet, inner, innerMinI, innerMaxI, innerMaxJ, outer[3]);
+            return querySet;
+        }
+
+        /**
+         * Add the items of the cells that are not in an inner cell.
+         * @param innerRange Inner cells [minI, maxI, minJ, maxJ]
+         */
+        private void addRingCells(RowIterator querySet, int[] innerRange, int minI, int maxI, int minJ, int maxJ) {
+            for (int i = minI; i < maxI; i++) {
+                for (int j = minJ; j < maxJ; j++) {
+                    RowsUnionClassification res = gridContent.get(getFlatIndex(i, j));
+                    if (res != null) {
+                        for (RowInterval interval : res) {
+                            for (int row = interval.getBegin(); row < interval.getEnd(); row++) {
+                                if (!isInCells(row, innerRange)) {
+                                    querySet.addRow(row);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param row Item
+         * @param range Cells [minI, maxI, minJ, maxJ]
+         * @return True if the item has been added to one of the cells
+         */
+        private boolean isInCells(int row, int[] range) {
+            int minI = range[0], maxI = range[1], minJ = range[2], maxJ = range[3];
+            // Only the cells of the item envelope can hold it
+            if (row >= 0 && row * 4 < itemCells.length) {
+                int offset = row * 4;
+                minI = Math.max(minI, itemCells[offset]);
+                maxI = Math.min(maxI, itemCells[offset + 1]);
+                minJ = Math.max(minJ, itemCells[offset + 2]);
+                maxJ = Math.min(maxJ, itemCells[offset + 3]);
+            }
+            for (int i = minI; i < maxI; i++) {
+                for (int j = minJ; j < maxJ; j++) {
+                    RowsUnionClassification res = gridContent.get(getFlatIndex(i, j));
+                    if (res != null && res.contains(row)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<Integer> queryByDistance(Coordinate center, double maxDistance) {
+            Envelope queryEnv = new Envelope(center);
+            queryEnv.expandBy(maxDistance);
+            Envelope centerEnv = new Envelope(center);
+            int[] ranges = getRange(queryEnv);
+            int minI = ranges[0], maxI = ranges[1], minJ = ranges[2], maxJ = ranges[3];
+            // Cells from the closest to the farthest
+            DistanceOrderedItems cells = new DistanceOrderedItems();
+            for (int i = minI; i < maxI; i++) {
+                for (int j = minJ; j < maxJ; j++) {
+                    int flatIndex = getFlatIndex(i, j);
+                    if (gridContent.containsKey(flatIndex)) {
+                        cells.add(flatIndex, getCellEnv(i, j).distance(centerEnv));
+                    }
+                }
+            }
+            // An item is returned with its closest cell
+            RowsUnionClassification returned = new RowsUnionClassification();
+            List<Integer> items = new ArrayList<Integer>();
+            Iterator<Integer> cellIterator = cells.iterator();
+            while (cellIterator.hasNext()) {
+                for (RowInterval interval : gridContent.get(cellIterator.next())) {
+                    for (int row = interval.getBegin(); row < interval.getEnd(); row++) {
+                        if (!returned.contains(row)) {
+                            returned.addRow(row);
+                            items.add(row);
+                        }
+                    }
+                }
+            }
+            return items.iterator();
+        }
                 
         //This iterator is specific to a multiple rows union classification result
         private class RowIterator implements Iterator<Integer> {
@@ -188,11 +316,26 @@ public class QueryGridIndex implements QueryGeometryStructure {
                     }
                 }
             }
+
+            /**
+             * Add a row
+             * @param row Row index
+             */
+            public void addRow(int row) {
+                if(intervalsIterator!=null) {
+                    throw new UnsupportedOperationException("Intervals can't be pushed when this iterator is used.");
+                }
+                if(rowsIndex==null) {
+                    rowsIndex = new RowsUnionClassification(row);
+                } else {
+                    rowsIndex.addRow(row);
+                }
+            }
            
             @Override
             public boolean hasNext() {
                 if(intervalsIterator==null) {
-                    return !rowsIndex.isEmpty();
+                    return rowsIndex!=null && !rowsIndex.isEmpty();
                 } else {
                     return curIntervalCursor<curIntervalEnd || intervalsIterator.hasNext();
                 }
@@ -33,6 +33,7 @@
  */
 package org.orbisgis.noisemap.core;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
@@ -72,4 +73,38 @@ public class QueryQuadTree implements QueryGeometryStructure {
 		return ret.iterator();
 	}
 
+	@Override
+	public Iterator<Integer> queryRing(Envelope innerEnv, Envelope outerEnv) {
+		Envelope[] parts = EnvelopeRing.split(innerEnv, outerEnv);
+		ArrayList<Integer> ret = new ArrayList<Integer>();
+		for (int idPart = 0; idPart < parts.length; idPart++) {
+			@SuppressWarnings("unchecked")
+			ArrayList<EnvelopeWithIndex<Integer>> resq = (ArrayList<EnvelopeWithIndex<Integer>>) quad
+					.query(parts[idPart]);
+			for (EnvelopeWithIndex<Integer> it : resq) {
+				if (parts[idPart].intersects(it) && !innerEnv.intersects(it)
+						&& !EnvelopeRing.intersectsPrevious(parts, idPart, it)) {
+					ret.add(it.getId());
+				}
+			}
+		}
+		return ret.iterator();
+	}
+
+	@Override
+	public Iterator<Integer> queryByDistance(Coordinate center, double maxDistance) {
+		Envelope queryEnv = new Envelope(center);
+		queryEnv.expandBy(maxDistance);
+		@SuppressWarnings("unchecked")
+		ArrayList<EnvelopeWithIndex<Integer>> resq = (ArrayList<EnvelopeWithIndex<Integer>>) quad.query(queryEnv);
+		Envelope centerEnv = new Envelope(center);
+		DistanceOrderedItems ret = new DistanceOrderedItems();
+		for (EnvelopeWithIndex<Integer> it : resq) {
+			if (queryEnv.intersects(it)) {
+				ret.add(it.getId(), it.distance(centerEnv));
+			}
+		}
+		return ret.iterator();
+	}
+
 }
@@ -33,10 +33,13 @@
  */
 package org.orbisgis.noisemap.core;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.index.strtree.STRtree;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Connector for RTree.
@@ -50,12 +53,49 @@ public class QueryRTree implements QueryGeometryStructure {
 
     @Override
     public void appendGeometry(Geometry newGeom, Integer externalId) {
-        rTree.insert(newGeom.getEnvelopeInternal(), externalId);
+        rTree.insert(newGeom.getEnvelopeInternal(),
+                new EnvelopeWithIndex<Integer>(newGeom.getEnvelopeInternal(), externalId));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EnvelopeWithIndex<Integer>> queryItems(Envelope queryEnv) {
+        return rTree.query(queryEnv);
     }
 
     @Override
     public Iterator<Integer> query(Envelope queryEnv) {
-        return rTree.query(queryEnv).iterator();
+        List<EnvelopeWithIndex<Integer>> items = queryItems(queryEnv);
+        List<Integer> ret = new ArrayList<Integer>(items.size());
+        for (EnvelopeWithIndex<Integer> item : items) {
+            ret.add(item.getId());
+        }
+        return ret.iterator();
+    }
+
+    @Override
+    public Iterator<Integer> queryRing(Envelope innerEnv, Envelope outerEnv) {
+        Envelope[] parts = EnvelopeRing.split(innerEnv, outerEnv);
+        List<Integer> ret = new ArrayList<Integer>();
+        for (int idPart = 0; idPart < parts.length; idPart++) {
+            for (EnvelopeWithIndex<Integer> item : queryItems(parts[idPart])) {
+                if (!innerEnv.intersects(item) && !EnvelopeRing.intersectsPrevious(parts, idPart, item)) {
+                    ret.add(item.getId());
+                }
+            }
+        }
+        return ret.iterator();
+    }
+
+    @Override
+    public Iterator<Integer> queryByDistance(Coordinate center, double maxDistance) {
+        Envelope queryEnv = new Envelope(center);
+        queryEnv.expandBy(maxDistance);
+        Envelope centerEnv = new Envelope(center);
+        DistanceOrderedItems ret = new DistanceOrderedItems();
+        for (EnvelopeWithIndex<Integer> item : queryItems(queryEnv)) {
+            ret.add(item.getId(), item.distance(centerEnv));
+        }
+        return ret.iterator();
     }
     
 }
@@ -0,0 +1,251 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.Arrays;
+
+/**
+ * Point sources gathered around a receiver, reused by a receiver thread.
+ * Sources already processed for the receiver are marked with the receiver stamp, then the marks are cleared
+ * without walking through the sources. Point sources of a search range are stored in primitive arrays, then
+ * sorted once by distance from the receiver.
+ *
+ * @author Nicolas Fortin
+ */
+final class ReceiverSources {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /** Raw source (point or line) has been processed for the receiver if its stamp is equal to receiverStamp */
+    private int[] processedSources = new int[0];
+    private int receiverStamp = 0;
+    /** x, y, z of point sources */
+    private double[] positions = new double[3 * 64];
+    /** Distance from the receiver by point source */
+    private double[] distances = new double[64];
+    /** Point source index sorted by distance */
+    private int[] sortedPoints = new int[64];
+    private int size = 0;
+    /** Sound power of point sources */
+    private final SpectrumArray spectrums;
+
+    /**
+     * @param freqCount Number of frequency bands
+     */
+    ReceiverSources(int freqCount) {
+        spectrums = new SpectrumArray(freqCount, 64);
+    }
+
+    /**
+     * Clear the processed raw sources and the point sources.
+     * @param rawSourceCount Number of raw sources of the cell
+     */
+    void newReceiver(int rawSourceCount) {
+        if (processedSources.length < rawSourceCount) {
+            processedSources = new int[rawSourceCount];
+            receiverStamp = 0;
+        }
+        receiverStamp++;
+        if (receiverStamp == Integer.MAX_VALUE) {
+            Arrays.fill(processedSources, 0);
+            receiverStamp = 1;
+        }
+        clearPoints();
+    }
+
+    /**
+     * @param idSource Raw source index
+     * @return True if the raw source has not been processed yet for this receiver, it is now marked as processed
+     */
+    boolean markProcessed(int idSource) {
+        if (processedSources[idSource] == receiverStamp) {
+            return false;
+        }
+        processedSources[idSource] = receiverStamp;
+        return true;
+    }
+
+    /**
+     * Remove point sources, processed raw sources are kept
+     */
+    void clearPoints() {
+        size = 0;
+        spectrums.clear();
+    }
+
+    /**
+     * @return Number of point sources
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Append a point source
+     * @param x Source x
+     * @param y Source y
+     * @param z Source z
+     * @param distance Distance from the receiver
+     * @param wj Raw source spectrums
+     * @param idSource Raw source index
+     * @param li Factor applied on the raw source power
+     */
+    void addPoint(double x, double y, double z, double distance, SpectrumArray wj, int idSource, double li) {
+        if (size == distances.length) {
+            int capacity = size * 2;
+            positions = Arrays.copyOf(positions, capacity * 3);
+            distances = Arrays.copyOf(distances, capacity);
+            sortedPoints = Arrays.copyOf(sortedPoints, capacity);
+        }
+        positions[size * 3] = x;
+        positions[size * 3 + 1] = y;
+        positions[size * 3 + 2] = z;
+        distances[size] = distance;
+        spectrums.addMultiplied(spectrums.addSource(), wj, idSource, li);
+        size++;
+    }
+
+    /**
+     * Add the power of a raw source to an existing point source
+     * @param point Point source index
+     * @param wj Raw source spectrums
+     * @param idSource Raw source index
+     * @param li Factor applied on the raw source power
+     */
+    void addPower(int point, SpectrumArray wj, int idSource, double li) {
+        spectrums.addMultiplied(point, wj, idSource, li);
+    }
+
+    double getX(int point) {
+        return positions[point * 3];
+    }
+
+    double getY(int point) {
+        return positions[point * 3 + 1];
+    }
+
+    double getZ(int point) {
+        return positions[point * 3 + 2];
+    }
+
+    double getDistance(int point) {
+        return distances[point];
+    }
+
+    /**
+     * @return Sound power of point sources
+     */
+    SpectrumArray getSpectrums() {
+        return spectrums;
+    }
+
+    /**
+     * @param rank Rank in ascending distance order, see {@link #sortByDistance()}
+     * @return Point source index
+     */
+    int getSortedPoint(int rank) {
+        return sortedPoints[rank];
+    }
+
+    /**
+     * Sort point sources by ascending distance, then by insertion order. Undefined distances are last.
+     */
+    void sortByDistance() {
+        for (int i = 0; i < size; i++) {
+            sortedPoints[i] = i;
+        }
+        sort(0, size - 1);
+    }
+
+    private boolean isBefore(int pointA, int pointB) {
+        int cmp = Double.compare(distances[pointA], distances[pointB]);
+        return cmp < 0 || (cmp == 0 && pointA < pointB);
+    }
+
+    private void swap(int i, int j) {
+        int tmp = sortedPoints[i];
+        sortedPoints[i] = sortedPoints[j];
+        sortedPoints[j] = tmp;
+    }
+
+    /**
+     * Quick sort of sortedPoints, from low to high inclusive
+     */
+    private void sort(int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            // Median of three as pivot
+            int middle = (low + high) >>> 1;
+            if (isBefore(sortedPoints[middle], sortedPoints[low])) {
+                swap(middle, low);
+            }
+            if (isBefore(sortedPoints[high], sortedPoints[low])) {
+                swap(high, low);
+            }
+            if (isBefore(sortedPoints[high], sortedPoints[middle])) {
+                swap(high, middle);
+            }
+            int pivot = sortedPoints[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (isBefore(sortedPoints[i], pivot)) {
+                    i++;
+                }
+                while (isBefore(pivot, sortedPoints[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse on the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int point = sortedPoints[i];
+            int j = i - 1;
+            while (j >= low && isBefore(point, sortedPoints[j])) {
+                sortedPoints[j + 1] = sortedPoints[j];
+                j--;
+            }
+            sortedPoints[j + 1] = point;
+        }
+    }
+}
@@ -33,44 +33,24 @@
  */
 package org.orbisgis.noisemap.core;
 
-import com.vividsolutions.jts.geom.Coordinate;
+import java.util.List;
+
 /**
- * TriIdWithIntersection work for FastObstructionTest, 
- * aims to keep the interested points coordinate and check if this point in building
- * @author SU Qi
+ * Destination of the results of {@link PropagationProcess}.
+ * Records are given by batches, a batch is filled by a single thread then handed over to the sink.
+ * Implementations must accept batches from several threads at the same time. The sink takes ownership
+ * of the batch, the caller does not modify it after the call.
+ *
+ * @author Nicolas Fortin
  */
-public class TriIdWithIntersection {
-    
-           private int triID;//triangle id 
-           private Coordinate coorIntersection;//intersection coordinate
-           private boolean isIntersectionOnBuilding;//if this intersection is on building
-           public TriIdWithIntersection(int triID, Coordinate coorIntersection, boolean isIntersectionOnBuilding){
-
-               this.triID=triID;
-               this.coorIntersection=coorIntersection;
-               this.isIntersectionOnBuilding=isIntersectionOnBuilding;
-           }
-           
-           /**
-            * 
-            * @return Triangle ID
-            */
-           public int getTriID(){
+public interface ResultSink {
+    /**
+     * @param records Triangle results of a cell
+     */
+    void addTriRecords(List<PropagationResultTriRecord> records);
 
-               return this.triID;
-           }
-           /**
-            * 
-            * @return Intersection coordinate
-            */
-           public Coordinate getCoorIntersection(){
-               return this.coorIntersection;
-           }
-           /**
-            * 
-            * @return 
-            */
-           public boolean getIsIntersectionOnBuilding(){
-               return this.isIntersectionOnBuilding;
-           }
+    /**
+     * @param records Receiver results of a cell
+     */
+    void addPtRecords(List<PropagationResultPtRecord> records);
 }
@@ -100,6 +100,16 @@ public class RowsUnionClassification implements Iterable<RowInterval> {
     public boolean isEmpty() {
         return this.rowrange.isEmpty();
     }
+    /**
+     * @param row Row index
+     * @return True if the row index is in one of the intervals
+     */
+    public boolean contains(int row) {
+        int index = Collections.binarySearch(rowrange, row);
+        // Between the begin and the end of an interval if the insertion point is odd
+        return index >= 0 || (-index - 1) % 2 == 1;
+    }
+
     /**
      * Add a row index in the list
      * @param row The row index. Duplicates are not pushed, and do not raise errors.
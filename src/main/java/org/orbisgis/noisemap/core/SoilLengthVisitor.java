@@ -0,0 +1,195 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compute the length of a segment covered by soil areas, weighted by the soil type.
+ * Polygonal soil areas are processed without creating intersection geometries, an instance is reused
+ * by a single thread for all its queries.
+ *
+ * @author Nicolas Fortin
+ */
+class SoilLengthVisitor implements ItemVisitor {
+    private final Envelope queryEnvelope = new Envelope();
+    private List<GeoWithSoilType> soils;
+    private double ax;
+    private double ay;
+    private double dx;
+    private double dy;
+    private double weightedLength;
+    /** Position of the segment crossings with the polygon rings, from 0 (start) to 1 (end) */
+    private double[] crossings = new double[16];
+    private int crossingCount = 0;
+
+    /**
+     * @param soilIndex Soil envelopes, items are {@link EnvelopeWithIndex} of soils index
+     * @param soils     Soil geometries and types
+     * @param start     First point of the segment
+     * @param end       Last point of the segment
+     * @return Sum of the 2D length of the segment inside each soil area multiplied by the soil type
+     */
+    double getWeightedLength(STRtree soilIndex, List<GeoWithSoilType> soils, Coordinate start, Coordinate end) {
+        this.soils = soils;
+        ax = start.x;
+        ay = start.y;
+        dx = end.x - start.x;
+        dy = end.y - start.y;
+        weightedLength = 0;
+        queryEnvelope.init(start.x, end.x, start.y, end.y);
+        soilIndex.query(queryEnvelope, this);
+        this.soils = null;
+        return weightedLength;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void visitItem(Object item) {
+        GeoWithSoilType soil = soils.get(((EnvelopeWithIndex<Integer>) item).getId());
+        weightedLength += getLengthInside(soil.getGeo()) * soil.getType();
+    }
+
+    private double getLengthInside(Geometry geo) {
+        if (geo instanceof Polygon) {
+            return getLengthInside((Polygon) geo);
+        } else if (geo instanceof GeometryCollection) {
+            double length = 0;
+            for (int i = 0; i < geo.getNumGeometries(); i++) {
+                length += getLengthInside(geo.getGeometryN(i));
+            }
+            return length;
+        } else {
+            // Not polygonal, use the overlay
+            LineString segment = new GeometryFactory().createLineString(new Coordinate[]{new Coordinate(ax, ay),
+                    new Coordinate(ax + dx, ay + dy)});
+            Geometry intersection = segment.intersection(geo);
+            double length = 0;
+            for (int i = 0; i < intersection.getNumGeometries(); i++) {
+                if (intersection.getGeometryN(i) instanceof LineString) {
+                    length += intersection.getGeometryN(i).getLength();
+                }
+            }
+            return length;
+        }
+    }
+
+    private double getLengthInside(Polygon polygon) {
+        crossingCount = 0;
+        addCrossing(0);
+        addCrossing(1);
+        addCrossings(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            addCrossings(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        Arrays.sort(crossings, 0, crossingCount);
+        // The segment is split by the crossings, each part is fully inside or outside of the polygon
+        double insideRatio = 0;
+        for (int i = 1; i < crossingCount; i++) {
+            double partLength = crossings[i] - crossings[i - 1];
+            if (partLength > 0) {
+                double middle = (crossings[i] + crossings[i - 1]) / 2;
+                if (isInside(polygon, ax + middle * dx, ay + middle * dy)) {
+                    insideRatio += partLength;
+                }
+            }
+        }
+        return insideRatio * Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void addCrossing(double position) {
+        if (crossingCount == crossings.length) {
+            crossings = Arrays.copyOf(crossings, crossings.length * 2);
+        }
+        crossings[crossingCount++] = position;
+    }
+
+    private void addCrossings(CoordinateSequence ring) {
+        for (int i = 0; i < ring.size() - 1; i++) {
+            final double cx = ring.getX(i);
+            final double cy = ring.getY(i);
+            final double sx = ring.getX(i + 1) - cx;
+            final double sy = ring.getY(i + 1) - cy;
+            final double denom = dx * sy - dy * sx;
+            if (denom != 0) {
+                final double t = ((cx - ax) * sy - (cy - ay) * sx) / denom;
+                final double u = ((cx - ax) * dy - (cy - ay) * dx) / denom;
+                if (t > 0 && t < 1 && u >= 0 && u <= 1) {
+                    addCrossing(t);
+                }
+            }
+        }
+    }
+
+    private static boolean isInside(Polygon polygon, double x, double y) {
+        if (!isInside(polygon.getExteriorRing().getCoordinateSequence(), x, y)) {
+            return false;
+        }
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            if (isInside(polygon.getInteriorRingN(i).getCoordinateSequence(), x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Crossing number test
+     */
+    private static boolean isInside(CoordinateSequence ring, double x, double y) {
+        boolean inside = false;
+        for (int i = 0; i < ring.size() - 1; i++) {
+            final double x1 = ring.getX(i);
+            final double y1 = ring.getY(i);
+            final double x2 = ring.getX(i + 1);
+            final double y2 = ring.getY(i + 1);
+            if ((y1 > y) != (y2 > y) && x < x1 + (y - y1) * (x2 - x1) / (y2 - y1)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Discretization of line sources into point sources, computed once by cell.
+ * The spacing of points depends on the distance between the receiver and the line (NMPB 2008 4.1): half of this
+ * distance, up to {@link #MAX_DELTA}. Points of the spacings MAX_DELTA / 2^level are computed at construction,
+ * a receiver uses the first level that is not coarser than its spacing. Receivers closer than the finest level
+ * use their own spacing, computed on the fly from the cumulated lengths of the line.
+ * Vertices and points are stored in primitive arrays, queries do not allocate memory once the output is large
+ * enough. Shared by the receiver threads of the cell.
+ *
+ * @author Nicolas Fortin
+ */
+final class SourceDiscretizationCache {
+    /** Largest spacing of points */
+    static final double MAX_DELTA = 20.;
+    /** Number of precomputed spacings: 20, 10, 5 and 2.5 m */
+    static final int LEVEL_COUNT = 4;
+    /** First vertex of the source, by source index. Point sources have no vertices. */
+    private final int[] vertexStart;
+    /** x, y, z of line vertices */
+    private final double[] vertices;
+    /** Planar length from the first vertex of the line, by vertex */
+    private final double[] cumulatedLength;
+    /** First point of the level, by source index * LEVEL_COUNT + level */
+    private final int[] pointStart;
+    /** x, y, z of precomputed points */
+    private final double[] points;
+
+    /**
+     * @param sourceGeometries Sources of the cell, points and lines
+     */
+    SourceDiscretizationCache(List<Geometry> sourceGeometries) {
+        int sourceCount = sourceGeometries.size();
+        vertexStart = new int[sourceCount + 1];
+        for (int idSource = 0; idSource < sourceCount; idSource++) {
+            Geometry source = sourceGeometries.get(idSource);
+            vertexStart[idSource + 1] = vertexStart[idSource] +
+                    (source instanceof Point ? 0 : source.getNumPoints());
+        }
+        vertices = new double[vertexStart[sourceCount] * 3];
+        cumulatedLength = new double[vertexStart[sourceCount]];
+        pointStart = new int[sourceCount * LEVEL_COUNT + 1];
+        for (int idSource = 0; idSource < sourceCount; idSource++) {
+            int first = vertexStart[idSource];
+            int last = vertexStart[idSource + 1] - 1;
+            if (last > first) {
+                Coordinate[] coordinates = sourceGeometries.get(idSource).getCoordinates();
+                for (int i = 0; i < coordinates.length; i++) {
+                    int vertex = first + i;
+                    vertices[vertex * 3] = coordinates[i].x;
+                    vertices[vertex * 3 + 1] = coordinates[i].y;
+                    vertices[vertex * 3 + 2] = coordinates[i].z;
+                    if (i > 0) {
+                        cumulatedLength[vertex] = cumulatedLength[vertex - 1] +
+                                coordinates[i].distance(coordinates[i - 1]);
+                    }
+                }
+            }
+            for (int level = 0; level < LEVEL_COUNT; level++) {
+                int slot = idSource * LEVEL_COUNT + level;
+                pointStart[slot + 1] = pointStart[slot] +
+                        (last > first ? getPointCount(getLength(first, last), getLevelDelta(level)) : 0);
+            }
+        }
+        points = new double[pointStart[pointStart.length - 1] * 3];
+        for (int idSource = 0; idSource < sourceCount; idSource++) {
+            int first = vertexStart[idSource];
+            int last = vertexStart[idSource + 1] - 1;
+            if (last > first) {
+                for (int level = 0; level < LEVEL_COUNT; level++) {
+                    samplePoints(first, last, getLevelDelta(level), points,
+                            pointStart[idSource * LEVEL_COUNT + level]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param level Precomputed level
+     * @return Spacing of points of this level
+     */
+    static double getLevelDelta(int level) {
+        return MAX_DELTA / (1 << level);
+    }
+
+    private double getLength(int first, int last) {
+        return cumulatedLength[last] - cumulatedLength[first];
+    }
+
+    /**
+     * @return Number of regular points of a line, the last point is the end of the line
+     */
+    private static int getPointCount(double length, double delta) {
+        return length < delta ? 1 : (int) Math.ceil(length / delta);
+    }
+
+    /**
+     * Write regular points of a line. Spacing is the length divided by the number of points, not greater than
+     * delta. A line shorter than delta is represented by its middle point.
+     * @param first First vertex of the line
+     * @param last Last vertex of the line
+     * @param delta Maximum spacing
+     * @param out Points destination x, y, z
+     * @param outStart First point written in out
+     * @return Number of points written
+     */
+    private int samplePoints(int first, int last, double delta, double[] out, int outStart) {
+        double length = getLength(first, last);
+        int pointCount = getPointCount(length, delta);
+        double spacing = length < delta ? length / 2 : length / pointCount;
+        int segment = first;
+        for (int i = 0; i < pointCount; i++) {
+            double position = cumulatedLength[first] + (length < delta ? spacing : spacing * (i + 1));
+            while (segment < last - 1 && cumulatedLength[segment + 1] < position) {
+                segment++;
+            }
+            double segmentLength = cumulatedLength[segment + 1] - cumulatedLength[segment];
+            double ratio = segmentLength > 0 ? Math.min(1, (position - cumulatedLength[segment]) / segmentLength) : 0;
+            int outPos = (outStart + i) * 3;
+            for (int dim = 0; dim < 3; dim++) {
+                double start = vertices[segment * 3 + dim];
+                out[outPos + dim] = start + ratio * (vertices[(segment + 1) * 3 + dim] - start);
+            }
+        }
+        return pointCount;
+    }
+
+    /**
+     * Point sources of a line source, for a receiver. The first point is the closest point of the line from the
+     * receiver, followed by regular points farther than the spacing from the closest point.
+     * @param idSource Source index
+     * @param receiver Receiver position
+     * @param minRecDist Minimal distance between the receiver and the line used to compute the spacing
+     * @param out Points destination
+     */
+    void discretize(int idSource, Coordinate receiver, double minRecDist, LinePoints out) {
+        out.size = 0;
+        out.li = 1.;
+        int first = vertexStart[idSource];
+        int last = vertexStart[idSource + 1] - 1;
+        if (last <= first) {
+            return;
+        }
+        // Closest point of the line from the receiver
+        double closestDist = Double.MAX_VALUE;
+        double closestX = 0, closestY = 0, closestZ = 0;
+        for (int vertex = first; vertex < last; vertex++) {
+            double x0 = vertices[vertex * 3], y0 = vertices[vertex * 3 + 1], z0 = vertices[vertex * 3 + 2];
+            double x1 = vertices[vertex * 3 + 3], y1 = vertices[vertex * 3 + 4], z1 = vertices[vertex * 3 + 5];
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double len2 = dx * dx + dy * dy;
+            double ratio = len2 > 0 ? ((receiver.x - x0) * dx + (receiver.y - y0) * dy) / len2 : 0;
+            double x, y, z;
+            if (ratio > 0 && ratio < 1) {
+                x = x0 + ratio * dx;
+                y = y0 + ratio * dy;
+                // Same as LineSegment.closestPoint, the altitude of a projected point is not set
+                z = Double.NaN;
+            } else if (distance(x0, y0, receiver) < distance(x1, y1, receiver)) {
+                x = x0;
+                y = y0;
+                z = z0;
+            } else {
+                x = x1;
+                y = y1;
+                z = z1;
+            }
+            double dist = distance(x, y, receiver);
+            if (dist < closestDist) {
+                closestDist = dist;
+                closestX = x;
+                closestY = y;
+                closestZ = z;
+            }
+        }
+        // Spacing of points, not too small to avoid memory overhead
+        double delta = Math.min(MAX_DELTA, Math.max(closestDist, minRecDist) / 2);
+        int level = 0;
+        while (level < LEVEL_COUNT && getLevelDelta(level) > delta) {
+            level++;
+        }
+        double length = getLength(first, last);
+        int pointCount;
+        double[] linePoints;
+        int lineStart;
+        if (level < LEVEL_COUNT) {
+            delta = getLevelDelta(level);
+            linePoints = points;
+            lineStart = pointStart[idSource * LEVEL_COUNT + level];
+            pointCount = pointStart[idSource * LEVEL_COUNT + level + 1] - lineStart;
+        } else {
+            // Closer than the finest level, use the exact spacing
+            pointCount = getPointCount(length, delta);
+            out.ensureCapacity(pointCount * 2 + 1);
+            linePoints = out.points;
+            lineStart = pointCount + 1;
+            samplePoints(first, last, delta, linePoints, lineStart);
+        }
+        out.ensureCapacity(pointCount + 1);
+        out.add(closestX, closestY, closestZ);
+        for (int i = lineStart; i < lineStart + pointCount; i++) {
+            double x = linePoints[i * 3];
+            double y = linePoints[i * 3 + 1];
+            double dx = x - closestX;
+            double dy = y - closestY;
+            if (Math.sqrt(dx * dx + dy * dy) > delta) {
+                out.add(x, y, linePoints[i * 3 + 2]);
+            }
+        }
+        out.li = Math.min(delta, length);
+    }
+
+    private static double distance(double x, double y, Coordinate pt) {
+        double dx = x - pt.x;
+        double dy = y - pt.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Point sources of a line source, reused by a receiver thread.
+     */
+    static final class LinePoints {
+        /** x, y, z of points */
+        double[] points = new double[3 * 64];
+        /** Number of points */
+        int size = 0;
+        /** Length of line represented by each point */
+        double li = 1.;
+
+        void ensureCapacity(int pointCount) {
+            if (points.length < pointCount * 3) {
+                points = Arrays.copyOf(points, Math.max(pointCount * 3, points.length * 2));
+            }
+        }
+
+        void add(double x, double y, double z) {
+            points[size * 3] = x;
+            points[size * 3 + 1] = y;
+            points[size * 3 + 2] = z;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchy of the sources of a cell, computed once by cell and shared by the receiver threads.
+ * Each node holds the bounding box, the total sound power and the power weighted centroid of its sources.
+ * Line sources weight their power per meter by their length.
+ * A receiver walks through the tree from the closest nodes, a node is:
+ * <ul>
+ *     <li>skipped if its upper bound contribution, its power at the distance of its bounding box, added to the
+ *     other skipped nodes does not increase the free field level of the collected sources by more than the
+ *     tolerance.</li>
+ *     <li>aggregated into a single point source at its centroid if the ratio of the farthest and closest
+ *     distances of its bounding box gives a level error lower than the tolerance.</li>
+ *     <li>opened otherwise, sources of leaves are returned to be discretized as usual.</li>
+ * </ul>
+ *
+ * @author Nicolas Fortin
+ */
+final class SourceTree {
+    /** Maximum number of sources in a leaf */
+    static final int LEAF_SIZE = 8;
+    /** Raw source index, sources of a node are contiguous */
+    private final int[] sourceOrder;
+    /** First and last (exclusive) position in sourceOrder, by node */
+    private final int[] nodeStart;
+    private final int[] nodeEnd;
+    /** First child of the node, the second child is the next node. -1 for leaves */
+    private final int[] nodeChild;
+    /** minX, minY, maxX, maxY by node */
+    private final double[] nodeEnvelope;
+    /** x, y, z power weighted centroid by node */
+    private final double[] nodeCentroid;
+    /** Sum of bands power, by node */
+    private final double[] nodePower;
+    /** Power by frequency band, by node */
+    private final SpectrumArray nodeSpectrums;
+    /** Raw source envelopes minX, minY, maxX, maxY */
+    private final double[] sourceEnvelope;
+    private int nodeCount = 0;
+
+    /**
+     * @param sourceGeometries Sources of the cell, points and lines
+     * @param wjSources Sound power of sources, by meter for lines
+     */
+    SourceTree(List<Geometry> sourceGeometries, SpectrumArray wjSources) {
+        int sourceCount = sourceGeometries.size();
+        int freqCount = wjSources.getFreqCount();
+        sourceOrder = new int[sourceCount];
+        sourceEnvelope = new double[sourceCount * 4];
+        // Position, weight and envelope center of sources
+        double[] sourcePosition = new double[sourceCount * 3];
+        double[] sourceWeight = new double[sourceCount];
+        double[] sourceCenter = new double[sourceCount * 2];
+        for (int idSource = 0; idSource < sourceCount; idSource++) {
+            sourceOrder[idSource] = idSource;
+            Geometry source = sourceGeometries.get(idSource);
+            Envelope envelope = source.getEnvelopeInternal();
+            sourceEnvelope[idSource * 4] = envelope.getMinX();
+            sourceEnvelope[idSource * 4 + 1] = envelope.getMinY();
+            sourceEnvelope[idSource * 4 + 2] = envelope.getMaxX();
+            sourceEnvelope[idSource * 4 + 3] = envelope.getMaxY();
+            sourceCenter[idSource * 2] = (envelope.getMinX() + envelope.getMaxX()) / 2;
+            sourceCenter[idSource * 2 + 1] = (envelope.getMinY() + envelope.getMaxY()) / 2;
+            if (source instanceof Point) {
+                Coordinate pt = source.getCoordinate();
+                sourcePosition[idSource * 3] = pt.x;
+                sourcePosition[idSource * 3 + 1] = pt.y;
+                sourcePosition[idSource * 3 + 2] = zOrGround(pt);
+                sourceWeight[idSource] = 1;
+            } else {
+                // Length weighted middle of segments
+                Coordinate[] coordinates = source.getCoordinates();
+                double length = 0;
+                for (int i = 1; i < coordinates.length; i++) {
+                    Coordinate p0 = coordinates[i - 1];
+                    Coordinate p1 = coordinates[i];
+                    double segLength = p0.distance(p1);
+                    sourcePosition[idSource * 3] += (p0.x + p1.x) / 2 * segLength;
+                    sourcePosition[idSource * 3 + 1] += (p0.y + p1.y) / 2 * segLength;
+                    sourcePosition[idSource * 3 + 2] += (zOrGround(p0) + zOrGround(p1)) / 2 * segLength;
+                    length += segLength;
+                }
+                if (length > 0) {
+                    for (int dim = 0; dim < 3; dim++) {
+                        sourcePosition[idSource * 3 + dim] /= length;
+                    }
+                } else {
+                    sourcePosition[idSource * 3] = coordinates[0].x;
+                    sourcePosition[idSource * 3 + 1] = coordinates[0].y;
+                    sourcePosition[idSource * 3 + 2] = zOrGround(coordinates[0]);
+                }
+                sourceWeight[idSource] = length;
+            }
+        }
+        int maxNodes = 2 * sourceCount + 1;
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        nodeChild = new int[maxNodes];
+        nodeEnvelope = new double[maxNodes * 4];
+        nodeCentroid = new double[maxNodes * 3];
+        nodePower = new double[maxNodes];
+        nodeSpectrums = new SpectrumArray(freqCount, maxNodes);
+        int root = newNode(0, sourceCount);
+        buildNode(root, sourceCenter, sourcePosition, sourceWeight, wjSources);
+    }
+
+    private static double zOrGround(Coordinate pt) {
+        return Double.isNaN(pt.z) ? 0 : pt.z;
+    }
+
+    private int newNode(int start, int end) {
+        nodeStart[nodeCount] = start;
+        nodeEnd[nodeCount] = end;
+        nodeChild[nodeCount] = -1;
+        nodeSpectrums.addSource();
+        return nodeCount++;
+    }
+
+    private void buildNode(int node, double[] sourceCenter, double[] sourcePosition, double[] sourceWeight,
+                           SpectrumArray wjSources) {
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double weightSum = 0;
+        double powerSum = 0;
+        double[] centroid = new double[3];
+        double[] centerCentroid = new double[3];
+        for (int i = start; i < end; i++) {
+            int idSource = sourceOrder[i];
+            minX = Math.min(minX, sourceEnvelope[idSource * 4]);
+            minY = Math.min(minY, sourceEnvelope[idSource * 4 + 1]);
+            maxX = Math.max(maxX, sourceEnvelope[idSource * 4 + 2]);
+            maxY = Math.max(maxY, sourceEnvelope[idSource * 4 + 3]);
+            nodeSpectrums.addMultiplied(node, wjSources, idSource, sourceWeight[idSource]);
+            double power = wjSources.sum(idSource) * sourceWeight[idSource];
+            powerSum += power;
+            weightSum += sourceWeight[idSource];
+            for (int dim = 0; dim < 3; dim++) {
+                centroid[dim] += sourcePosition[idSource * 3 + dim] * power;
+                centerCentroid[dim] += sourcePosition[idSource * 3 + dim] * sourceWeight[idSource];
+            }
+        }
+        nodeEnvelope[node * 4] = minX;
+        nodeEnvelope[node * 4 + 1] = minY;
+        nodeEnvelope[node * 4 + 2] = maxX;
+        nodeEnvelope[node * 4 + 3] = maxY;
+        nodePower[node] = powerSum;
+        for (int dim = 0; dim < 3; dim++) {
+            if (powerSum > 0) {
+                nodeCentroid[node * 3 + dim] = centroid[dim] / powerSum;
+            } else if (weightSum > 0) {
+                nodeCentroid[node * 3 + dim] = centerCentroid[dim] / weightSum;
+            } else {
+                nodeCentroid[node * 3 + dim] = dim == 0 ? minX : dim == 1 ? minY : 0;
+            }
+        }
+        if (end - start > LEAF_SIZE) {
+            // Median split along the largest side
+            int axis = maxX - minX >= maxY - minY ? 0 : 1;
+            int middle = (start + end) / 2;
+            select(sourceCenter, axis, start, end - 1, middle);
+            int left = newNode(start, middle);
+            int right = newNode(middle, end);
+            nodeChild[node] = left;
+            buildNode(left, sourceCenter, sourcePosition, sourceWeight, wjSources);
+            buildNode(right, sourceCenter, sourcePosition, sourceWeight, wjSources);
+        }
+    }
+
+    /**
+     * Partial sort of sourceOrder, the source at position k has the same rank as in a sorted array.
+     */
+    private void select(double[] sourceCenter, int axis, int left, int right, int k) {
+        while (right > left) {
+            double pivot = sourceCenter[sourceOrder[(left + right) >>> 1] * 2 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (sourceCenter[sourceOrder[i] * 2 + axis] < pivot) {
+                    i++;
+                }
+                while (sourceCenter[sourceOrder[j] * 2 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = sourceOrder[i];
+                    sourceOrder[i] = sourceOrder[j];
+                    sourceOrder[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Number of nodes
+     */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return Power by frequency band of nodes
+     */
+    SpectrumArray getNodeSpectrums() {
+        return nodeSpectrums;
+    }
+
+    double getCentroidX(int node) {
+        return nodeCentroid[node * 3];
+    }
+
+    double getCentroidY(int node) {
+        return nodeCentroid[node * 3 + 1];
+    }
+
+    double getCentroidZ(int node) {
+        return nodeCentroid[node * 3 + 2];
+    }
+
+    /**
+     * Walk through the tree from the receiver, see the class comment.
+     * @param receiver Receiver position
+     * @param maxSrcDist Sources with an envelope outside of receiver +/- maxSrcDist are ignored
+     * @param toleranceDb Maximum level error in dB of skipped and aggregated nodes
+     * @param query Output, raw sources and aggregated nodes
+     */
+    void query(Coordinate receiver, double maxSrcDist, double toleranceDb, Query query) {
+        query.sourceCount = 0;
+        query.nodeCount = 0;
+        if (nodeCount == 0 || nodeEnd[0] == 0) {
+            return;
+        }
+        double minX = receiver.x - maxSrcDist;
+        double minY = receiver.y - maxSrcDist;
+        double maxX = receiver.x + maxSrcDist;
+        double maxY = receiver.y + maxSrcDist;
+        // Maximum ratio of the farthest and closest distances, for an error of toleranceDb
+        double maxDistanceRatio = Math.pow(10, toleranceDb / 20);
+        // Maximum ratio of the skipped power and the collected power
+        double maxSkippedRatio = Math.pow(10, toleranceDb / 10) - 1;
+        double collected = 0;
+        double skipped = 0;
+        int stackSize = 0;
+        int[] stack = query.stack;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int env = node * 4;
+            if (nodeEnvelope[env] > maxX || nodeEnvelope[env + 2] < minX || nodeEnvelope[env + 1] > maxY ||
+                    nodeEnvelope[env + 3] < minY) {
+                continue;
+            }
+            double minDist = getMinDistance(node, receiver);
+            double bound = PropagationProcess.attDistW(nodePower[node], minDist);
+            if (collected > 0 && skipped + bound <= collected * maxSkippedRatio) {
+                skipped += bound;
+                continue;
+            }
+            double centroidDist = getCentroidDistance(node, receiver);
+            boolean inside = nodeEnvelope[env] >= minX && nodeEnvelope[env + 2] <= maxX &&
+                    nodeEnvelope[env + 1] >= minY && nodeEnvelope[env + 3] <= maxY;
+            if (inside && nodeEnd[node] - nodeStart[node] > 1 && minDist > 0 &&
+                    getMaxDistance(node, receiver) <= minDist * maxDistanceRatio) {
+                query.addNode(node);
+                collected += PropagationProcess.attDistW(nodePower[node], centroidDist);
+            } else if (nodeChild[node] == -1) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                    int idSource = sourceOrder[i];
+                    int srcEnv = idSource * 4;
+                    if (sourceEnvelope[srcEnv] <= maxX && sourceEnvelope[srcEnv + 2] >= minX &&
+                            sourceEnvelope[srcEnv + 1] <= maxY && sourceEnvelope[srcEnv + 3] >= minY) {
+                        query.addSource(idSource);
+                    }
+                }
+                collected += PropagationProcess.attDistW(nodePower[node], centroidDist);
+            } else {
+                // Push the farthest child first, the closest one is opened before
+                int left = nodeChild[node];
+                int right = left + 1;
+                if (stackSize + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    query.stack = stack;
+                }
+                if (getMinDistance(left, receiver) <= getMinDistance(right, receiver)) {
+                    stack[stackSize++] = right;
+                    stack[stackSize++] = left;
+                } else {
+                    stack[stackSize++] = left;
+                    stack[stackSize++] = right;
+                }
+            }
+        }
+    }
+
+    private double getMinDistance(int node, Coordinate receiver) {
+        int env = node * 4;
+        double dx = Math.max(0, Math.max(nodeEnvelope[env] - receiver.x, receiver.x - nodeEnvelope[env + 2]));
+        double dy = Math.max(0, Math.max(nodeEnvelope[env + 1] - receiver.y, receiver.y - nodeEnvelope[env + 3]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private double getMaxDistance(int node, Coordinate receiver) {
+        int env = node * 4;
+        double dx = Math.max(Math.abs(nodeEnvelope[env] - receiver.x), Math.abs(nodeEnvelope[env + 2] - receiver.x));
+        double dy = Math.max(Math.abs(nodeEnvelope[env + 1] - receiver.y),
+                Math.abs(nodeEnvelope[env + 3] - receiver.y));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private double getCentroidDistance(int node, Coordinate receiver) {
+        double dx = nodeCentroid[node * 3] - receiver.x;
+        double dy = nodeCentroid[node * 3 + 1] - receiver.y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Result of a receiver query, reused by the receivers of a thread.
+     */
+    static final class Query {
+        /** Raw sources to discretize */
+        int[] sources = new int[16];
+        int sourceCount = 0;
+        /** Nodes evaluated as a single point source */
+        int[] nodes = new int[16];
+        int nodeCount = 0;
+        private int[] stack = new int[64];
+
+        private void addSource(int idSource) {
+            if (sourceCount == sources.length) {
+                sources = Arrays.copyOf(sources, sourceCount * 2);
+            }
+            sources[sourceCount++] = idSource;
+        }
+
+        private void addNode(int node) {
+            if (nodeCount == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodeCount * 2);
+            }
+            nodes[nodeCount++] = node;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sound power of sources by frequency band, stored in a single array.
+ * The value of the band idFreq of the source idSource is at index idSource * freqCount + idFreq of
+ * {@link #getValues()}.
+ *
+ * @author Nicolas Fortin
+ */
+public class SpectrumArray {
+    private final int freqCount;
+    private int sourceCount = 0;
+    private double[] values;
+
+    /**
+     * Empty array
+     * @param freqCount Number of frequency bands
+     * @param capacity Number of sources to reserve
+     */
+    public SpectrumArray(int freqCount, int capacity) {
+        this.freqCount = freqCount;
+        this.values = new double[Math.max(1, capacity) * freqCount];
+    }
+
+    /**
+     * Copy spectrums stored in lists
+     * @param spectrums Sound power of sources by frequency band
+     * @param freqCount Number of frequency bands, missing bands are set to 0
+     * @return New spectrum array
+     */
+    public static SpectrumArray fromLists(List<? extends List<Double>> spectrums, int freqCount) {
+        SpectrumArray array = new SpectrumArray(freqCount, spectrums.size());
+        for (List<Double> spectrum : spectrums) {
+            int offset = array.offset(array.addSource());
+            for (int idFreq = 0; idFreq < freqCount && idFreq < spectrum.size(); idFreq++) {
+                array.values[offset + idFreq] = spectrum.get(idFreq);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * @return Number of frequency bands
+     */
+    public int getFreqCount() {
+        return freqCount;
+    }
+
+    /**
+     * @return Number of sources
+     */
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    /**
+     * @return Values of all sources, the array is replaced when a source is added beyond the capacity
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param idSource Source index
+     * @return Index of the first band of this source in {@link #getValues()}
+     */
+    public int offset(int idSource) {
+        return idSource * freqCount;
+    }
+
+    public double get(int idSource, int idFreq) {
+        return values[idSource * freqCount + idFreq];
+    }
+
+    public void set(int idSource, int idFreq, double value) {
+        values[idSource * freqCount + idFreq] = value;
+    }
+
+    /**
+     * Append a source with all bands set to 0
+     * @return Index of the new source
+     */
+    public int addSource() {
+        int end = (sourceCount + 1) * freqCount;
+        if (end > values.length) {
+            values = Arrays.copyOf(values, Math.max(end, values.length * 2));
+        }
+        Arrays.fill(values, sourceCount * freqCount, end, 0.);
+        return sourceCount++;
+    }
+
+    /**
+     * Append a source
+     * @param spectrum Value by frequency band
+     * @return Index of the new source
+     */
+    public int addSource(double... spectrum) {
+        int idSource = addSource();
+        System.arraycopy(spectrum, 0, values, offset(idSource), Math.min(freqCount, spectrum.length));
+        return idSource;
+    }
+
+    /**
+     * Add the spectrum of a source multiplied by a factor to the spectrum of another source
+     * @param idSource Destination source in this array
+     * @param source Array of the added source
+     * @param idSourceAdded Index of the added source
+     * @param factor Multiplication factor of the added source
+     */
+    public void addMultiplied(int idSource, SpectrumArray source, int idSourceAdded, double factor) {
+        int offset = idSource * freqCount;
+        int offsetAdded = idSourceAdded * source.freqCount;
+        double[] valuesAdded = source.values;
+        for (int idFreq = 0; idFreq < freqCount; idFreq++) {
+            values[offset + idFreq] += valuesAdded[offsetAdded + idFreq] * factor;
+        }
+    }
+
+    /**
+     * @param idSource Source index
+     * @return Sum of all bands of this source
+     */
+    public double sum(int idSource) {
+        int offset = idSource * freqCount;
+        double sum = 0;
+        for (int idFreq = 0; idFreq < freqCount; idFreq++) {
+            sum += values[offset + idFreq];
+        }
+        return sum;
+    }
+
+    /**
+     * Remove all sources, keep the allocated memory
+     */
+    public void clear() {
+        sourceCount = 0;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.nio.IntBuffer;
+
+/**
+ * Uniform bucket grid of the triangles of a {@link AbstractTriangleMesh}, for point location.
+ * The grid has about one cell per triangle, a cell references the triangles whose envelope
+ * intersects the cell. Triangle references are stored by cell in a single buffer, on the heap or mapped from a
+ * {@link MeshCache} file.
+ *
+ * @author Nicolas Fortin
+ */
+class TriangleGridLocator {
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double cellSize;
+    private final int nbX;
+    private final int nbY;
+    /** Triangles of the cell idCell are at cellStart[idCell] (included) to cellStart[idCell + 1] (excluded) */
+    private final IntBuffer cellStart;
+    private final IntBuffer cellTriangles;
+
+    /**
+     * Build the grid, in a time linear with the number of triangles
+     * @param mesh Triangles and vertices
+     */
+    TriangleGridLocator(AbstractTriangleMesh mesh) {
+        final int triangleCount = mesh.getTriangleCount();
+        double envMinX = Double.POSITIVE_INFINITY, envMinY = Double.POSITIVE_INFINITY;
+        double envMaxX = Double.NEGATIVE_INFINITY, envMaxY = Double.NEGATIVE_INFINITY;
+        for (int idTri = 0; idTri < triangleCount; idTri++) {
+            for (int corner = 0; corner < 3; corner++) {
+                final int vertex = mesh.getVertex(idTri, corner);
+                envMinX = Math.min(envMinX, mesh.getX(vertex));
+                envMinY = Math.min(envMinY, mesh.getY(vertex));
+                envMaxX = Math.max(envMaxX, mesh.getX(vertex));
+                envMaxY = Math.max(envMaxY, mesh.getY(vertex));
+            }
+        }
+        if (triangleCount == 0) {
+            envMinX = envMinY = envMaxX = envMaxY = 0;
+        }
+        minX = envMinX;
+        minY = envMinY;
+        maxX = envMaxX;
+        maxY = envMaxY;
+        // About one cell by triangle
+        final double width = maxX - minX;
+        final double height = maxY - minY;
+        final int targetCells = Math.max(1, triangleCount);
+        double size = Math.sqrt(width * height / targetCells);
+        if (!(size > 0)) {
+            size = Math.max(Math.max(width, height) / targetCells, 1.);
+        }
+        cellSize = size;
+        nbX = Math.max(1, (int) Math.ceil(width / cellSize));
+        nbY = Math.max(1, (int) Math.ceil(height / cellSize));
+        // Count the triangles of each cell, then fill cells
+        int[] cellStart = new int[nbX * nbY + 1];
+        int[] ranges = new int[4];
+        for (int idTri = 0; idTri < triangleCount; idTri++) {
+            getCellRange(mesh, idTri, ranges);
+            for (int j = ranges[1]; j <= ranges[3]; j++) {
+                for (int i = ranges[0]; i <= ranges[2]; i++) {
+                    cellStart[j * nbX + i + 1]++;
+                }
+            }
+        }
+        for (int idCell = 0; idCell < nbX * nbY; idCell++) {
+            cellStart[idCell + 1] += cellStart[idCell];
+        }
+        int[] cellTriangles = new int[cellStart[nbX * nbY]];
+        int[] cellFill = new int[nbX * nbY];
+        for (int idTri = 0; idTri < triangleCount; idTri++) {
+            getCellRange(mesh, idTri, ranges);
+            for (int j = ranges[1]; j <= ranges[3]; j++) {
+                for (int i = ranges[0]; i <= ranges[2]; i++) {
+                    final int idCell = j * nbX + i;
+                    cellTriangles[cellStart[idCell] + cellFill[idCell]++] = idTri;
+                }
+            }
+        }
+        this.cellStart = IntBuffer.wrap(cellStart);
+        this.cellTriangles = IntBuffer.wrap(cellTriangles);
+    }
+
+    /**
+     * Grid already built, see {@link MeshCache}
+     * @param bounds Grid minX, minY, maxX, maxY and cell size
+     * @param nbX Number of columns
+     * @param nbY Number of rows
+     * @param cellStart Position of the first triangle of each cell, nbX * nbY + 1 values
+     * @param cellTriangles Triangles by cell
+     */
+    TriangleGridLocator(double[] bounds, int nbX, int nbY, IntBuffer cellStart, IntBuffer cellTriangles) {
+        if (bounds.length != 5 || cellStart.capacity() != nbX * nbY + 1 ||
+                cellTriangles.capacity() != cellStart.get(nbX * nbY)) {
+            throw new IllegalArgumentException("Inconsistent triangle grid");
+        }
+        minX = bounds[0];
+        minY = bounds[1];
+        maxX = bounds[2];
+        maxY = bounds[3];
+        cellSize = bounds[4];
+        this.nbX = nbX;
+        this.nbY = nbY;
+        this.cellStart = cellStart;
+        this.cellTriangles = cellTriangles;
+    }
+
+    /**
+     * Compute the cells covered by the envelope of a triangle
+     * @param mesh Triangles and vertices
+     * @param idTri Triangle index
+     * @param ranges Output, [minI, minJ, maxI, maxJ] included
+     */
+    private void getCellRange(AbstractTriangleMesh mesh, int idTri, int[] ranges) {
+        final int a = mesh.getVertex(idTri, 0);
+        final int b = mesh.getVertex(idTri, 1);
+        final int c = mesh.getVertex(idTri, 2);
+        ranges[0] = getColumn(Math.min(mesh.getX(a), Math.min(mesh.getX(b), mesh.getX(c))));
+        ranges[1] = getRow(Math.min(mesh.getY(a), Math.min(mesh.getY(b), mesh.getY(c))));
+        ranges[2] = getColumn(Math.max(mesh.getX(a), Math.max(mesh.getX(b), mesh.getX(c))));
+        ranges[3] = getRow(Math.max(mesh.getY(a), Math.max(mesh.getY(b), mesh.getY(c))));
+    }
+
+    private int getColumn(double x) {
+        return Math.min(nbX - 1, Math.max(0, (int) ((x - minX) / cellSize)));
+    }
+
+    private int getRow(double y) {
+        return Math.min(nbY - 1, Math.max(0, (int) ((y - minY) / cellSize)));
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Cell that contains the point, -1 if the point is outside of the mesh envelope
+     */
+    int getCell(double x, double y) {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+            return -1;
+        }
+        return getRow(y) * nbX + getColumn(x);
+    }
+
+    /**
+     * @param idCell Cell index
+     * @return Position of the first triangle of the cell, see {@link #getTriangle(int)}
+     */
+    int getCellBegin(int idCell) {
+        return cellStart.get(idCell);
+    }
+
+    /**
+     * @param idCell Cell index
+     * @return Position after the last triangle of the cell
+     */
+    int getCellEnd(int idCell) {
+        return cellStart.get(idCell + 1);
+    }
+
+    /**
+     * @param position Position in [getCellBegin(idCell), getCellEnd(idCell)[
+     * @return Triangle index
+     */
+    int getTriangle(int position) {
+        return cellTriangles.get(position);
+    }
+
+    /**
+     * @return Number of triangle references stored in the cells
+     */
+    int getReferenceCount() {
+        return cellTriangles.capacity();
+    }
+
+    /**
+     * @return Grid minX, minY, maxX, maxY and cell size
+     */
+    double[] getBounds() {
+        return new double[] {minX, minY, maxX, maxY, cellSize};
+    }
+
+    /**
+     * @return Number of columns
+     */
+    int getColumnCount() {
+        return nbX;
+    }
+
+    /**
+     * @return Number of rows
+     */
+    int getRowCount() {
+        return nbY;
+    }
+}
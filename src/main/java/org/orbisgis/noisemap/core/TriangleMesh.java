@@ -0,0 +1,289 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Triangulation stored in primitive arrays. The corners of the triangle idTri are the vertices at
+ * 3 * idTri, 3 * idTri + 1 and 3 * idTri + 2 of the vertex index array. The neighbor at 3 * idTri + side
+ * shares the triangle side opposite to the corner of the same rank, as {@link LayerDelaunay#getNeighbors()}.
+ * This mesh can be modified while it is built, see {@link AbstractTriangleMesh} for the read access.
+ *
+ * @author Nicolas Fortin
+ */
+public class TriangleMesh extends AbstractTriangleMesh {
+    private static final int DEFAULT_CAPACITY = 16;
+    private int triangleCount = 0;
+    private int vertexCount = 0;
+    private int[] triangleVertices;
+    /** Neighbor triangle by triangle side, -1 if there is no neighbor */
+    private int[] triangleNeighbors;
+    /** Building of triangles, {@link Triangle#getBuidlingID()} */
+    private int[] buildingIds;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    /** Open addressing table of vertex index + 1, by coordinate hash. Built by the first vertex search */
+    private int[] vertexTable = null;
+
+    /**
+     * Empty mesh
+     */
+    public TriangleMesh() {
+        this(DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Empty mesh
+     * @param triangleCapacity Number of triangles to reserve
+     * @param vertexCapacity Number of vertices to reserve
+     */
+    public TriangleMesh(int triangleCapacity, int vertexCapacity) {
+        triangleCapacity = Math.max(1, triangleCapacity);
+        vertexCapacity = Math.max(1, vertexCapacity);
+        triangleVertices = new int[triangleCapacity * 3];
+        triangleNeighbors = new int[triangleCapacity * 3];
+        buildingIds = new int[triangleCapacity];
+        xs = new double[vertexCapacity];
+        ys = new double[vertexCapacity];
+        zs = new double[vertexCapacity];
+    }
+
+    /**
+     * Copy a mesh stored in lists
+     * @param triangles Vertices and building of triangles
+     * @param neighbors Neighbors of triangles, null if unknown
+     * @param vertices Vertices coordinates
+     * @return New mesh
+     */
+    public static TriangleMesh fromLists(List<Triangle> triangles, List<Triangle> neighbors,
+                                         List<Coordinate> vertices) {
+        TriangleMesh mesh = new TriangleMesh(triangles.size(), vertices.size());
+        for (Coordinate vertex : vertices) {
+            mesh.addVertex(vertex.x, vertex.y, vertex.z);
+        }
+        for (int idTri = 0; idTri < triangles.size(); idTri++) {
+            Triangle tri = triangles.get(idTri);
+            mesh.addTriangle(tri.getA(), tri.getB(), tri.getC(), tri.getBuidlingID());
+            if (neighbors != null) {
+                Triangle neighbor = neighbors.get(idTri);
+                for (int side = 0; side < 3; side++) {
+                    mesh.setNeighbor(idTri, side, neighbor.get(side));
+                }
+            }
+        }
+        return mesh;
+    }
+
+    @Override
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public int getVertex(int idTri, int corner) {
+        return triangleVertices[idTri * 3 + corner];
+    }
+
+    @Override
+    public int getNeighbor(int idTri, int side) {
+        return triangleNeighbors[idTri * 3 + side];
+    }
+
+    public void setNeighbor(int idTri, int side, int neighbor) {
+        triangleNeighbors[idTri * 3 + side] = neighbor;
+    }
+
+    @Override
+    public int getBuildingId(int idTri) {
+        return buildingIds[idTri];
+    }
+
+    @Override
+    public double getX(int idVertex) {
+        return xs[idVertex];
+    }
+
+    @Override
+    public double getY(int idVertex) {
+        return ys[idVertex];
+    }
+
+    @Override
+    public double getZ(int idVertex) {
+        return zs[idVertex];
+    }
+
+    public void setZ(int idVertex, double z) {
+        zs[idVertex] = z;
+    }
+
+    @Override
+    public void getCoordinate(int idVertex, Coordinate coordinate) {
+        coordinate.x = xs[idVertex];
+        coordinate.y = ys[idVertex];
+        coordinate.z = zs[idVertex];
+    }
+
+    @Override
+    public Coordinate getCoordinate(int idVertex) {
+        return new Coordinate(xs[idVertex], ys[idVertex], zs[idVertex]);
+    }
+
+    /**
+     * Append a vertex
+     * @return Index of the new vertex
+     */
+    public int addVertex(double x, double y, double z) {
+        if (vertexCount == xs.length) {
+            int capacity = vertexCount * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+        }
+        xs[vertexCount] = x;
+        ys[vertexCount] = y;
+        zs[vertexCount] = z;
+        int idVertex = vertexCount++;
+        if (vertexTable != null) {
+            if (vertexCount * 2 > vertexTable.length) {
+                rehashVertices(vertexTable.length * 2);
+            } else {
+                int slot = findVertexSlot(x, y, z);
+                if (vertexTable[slot] == 0) {
+                    vertexTable[slot] = idVertex + 1;
+                }
+            }
+        }
+        return idVertex;
+    }
+
+    /**
+     * Search a vertex with the same 3D coordinate, append it if not found.
+     * @return Index of the vertex
+     */
+    public int getOrAppendVertex(double x, double y, double z) {
+        if (vertexTable == null) {
+            rehashVertices(Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, vertexCount * 4)));
+        }
+        int idVertex = vertexTable[findVertexSlot(x, y, z)] - 1;
+        if (idVertex == -1) {
+            idVertex = addVertex(x, y, z);
+        }
+        return idVertex;
+    }
+
+    /**
+     * Append a triangle without neighbors
+     * @param a First vertex
+     * @param b Second vertex
+     * @param c Third vertex
+     * @param buildingId Building of the triangle, 0 if the triangle is not in a building
+     * @return Index of the new triangle
+     */
+    public int addTriangle(int a, int b, int c, int buildingId) {
+        if (triangleCount == buildingIds.length) {
+            int capacity = triangleCount * 2;
+            triangleVertices = Arrays.copyOf(triangleVertices, capacity * 3);
+            triangleNeighbors = Arrays.copyOf(triangleNeighbors, capacity * 3);
+            buildingIds = Arrays.copyOf(buildingIds, capacity);
+        }
+        int offset = triangleCount * 3;
+        triangleVertices[offset] = a;
+        triangleVertices[offset + 1] = b;
+        triangleVertices[offset + 2] = c;
+        Arrays.fill(triangleNeighbors, offset, offset + 3, -1);
+        buildingIds[triangleCount] = buildingId;
+        return triangleCount++;
+    }
+
+    /**
+     * Release the memory reserved for the next triangles and vertices, and the vertex search table.
+     */
+    public void trimToSize() {
+        triangleVertices = Arrays.copyOf(triangleVertices, triangleCount * 3);
+        triangleNeighbors = Arrays.copyOf(triangleNeighbors, triangleCount * 3);
+        buildingIds = Arrays.copyOf(buildingIds, triangleCount);
+        xs = Arrays.copyOf(xs, vertexCount);
+        ys = Arrays.copyOf(ys, vertexCount);
+        zs = Arrays.copyOf(zs, vertexCount);
+        vertexTable = null;
+    }
+
+    private void rehashVertices(int capacity) {
+        vertexTable = new int[capacity];
+        for (int idVertex = 0; idVertex < vertexCount; idVertex++) {
+            int slot = findVertexSlot(xs[idVertex], ys[idVertex], zs[idVertex]);
+            if (vertexTable[slot] == 0) {
+                vertexTable[slot] = idVertex + 1;
+            }
+        }
+    }
+
+    /**
+     * @return Slot of the vertex equal to this coordinate in the vertex table, or the free slot where to store it
+     */
+    private int findVertexSlot(double x, double y, double z) {
+        int mask = vertexTable.length - 1;
+        int slot = hash(x, y, z) & mask;
+        while (vertexTable[slot] != 0) {
+            int idVertex = vertexTable[slot] - 1;
+            // Same test as Coordinate#equals3D
+            if (xs[idVertex] == x && ys[idVertex] == y &&
+                    (zs[idVertex] == z || (Double.isNaN(zs[idVertex]) && Double.isNaN(z)))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(double x, double y, double z) {
+        // Adding 0 gives the same bits to -0 and 0, equal coordinates have the same hash
+        long bits = Double.doubleToLongBits(x + 0.);
+        bits = bits * 31 + Double.doubleToLongBits(y + 0.);
+        bits = bits * 31 + Double.doubleToLongBits(z + 0.);
+        int h = (int) (bits ^ (bits >>> 32));
+        return h ^ (h >>> 16);
+    }
+}
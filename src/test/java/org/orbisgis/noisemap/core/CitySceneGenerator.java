@@ -0,0 +1,384 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic city, used to test and benchmark the computation at scale.
+ * The city is a square grid of blocks separated by streets. A block is either a building with a random
+ * footprint and height or a park with a soil absorption. Each street section between two crossings is a road
+ * with its own traffic. The ground follows gentle hills given by {@link #getGroundAltitude(double, double)}.
+ * All the content is only function of the block count and of the seed.
+ *
+ * @author Nicolas Fortin
+ */
+public class CitySceneGenerator {
+    /** Width of a block */
+    public static final double BLOCK_SIZE = 40;
+    /** Width of the streets between blocks */
+    public static final double STREET_WIDTH = 20;
+    public static final double BUILDING_HEIGHT_MIN = 6;
+    public static final double BUILDING_HEIGHT_MAX = 30;
+    /** Maximum inward shift of a building side from the block side */
+    public static final double BUILDING_JITTER = 5;
+    /** Probability of a block to be a park */
+    public static final double PARK_RATIO = 0.1;
+    /** Receiver height from the ground, the propagation adds the ground altitude */
+    public static final double RECEIVER_HEIGHT = 4;
+    /** Source height from the ground */
+    public static final double SOURCE_HEIGHT = 0.05;
+    private static final double HILL_AMPLITUDE = 5;
+    private static final double HILL_WAVELENGTH = 800;
+    private static final double[] PARK_SOIL_TYPES = {0.5, 0.7, 1.};
+    private static final int[] FREQ_LVL = {125, 250, 500, 1000, 2000, 4000};
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final Envelope envelope;
+    private final List<Polygon> buildings = new ArrayList<Polygon>();
+    private final List<Double> buildingHeights = new ArrayList<Double>();
+    private final List<GeoWithSoilType> soils = new ArrayList<GeoWithSoilType>();
+    private final List<Coordinate> topographicPoints = new ArrayList<Coordinate>();
+    private final List<Geometry> roads = new ArrayList<Geometry>();
+    private final List<Integer> freqLvl = new ArrayList<Integer>();
+    private final SpectrumArray roadSpectrums;
+
+    /**
+     * @param blockCount Number of blocks on each side of the city
+     * @param seed       Random seed
+     */
+    public CitySceneGenerator(int blockCount, long seed) {
+        Random random = new Random(seed);
+        double pitch = BLOCK_SIZE + STREET_WIDTH;
+        double size = blockCount * pitch + STREET_WIDTH;
+        envelope = new Envelope(0, size, 0, size);
+        for (int freq : FREQ_LVL) {
+            freqLvl.add(freq);
+        }
+        // Blocks
+        for (int i = 0; i < blockCount; i++) {
+            for (int j = 0; j < blockCount; j++) {
+                double minX = STREET_WIDTH + i * pitch;
+                double minY = STREET_WIDTH + j * pitch;
+                if (random.nextDouble() < PARK_RATIO) {
+                    soils.add(new GeoWithSoilType(createRectangle(minX, minY, minX + BLOCK_SIZE, minY + BLOCK_SIZE),
+                            PARK_SOIL_TYPES[random.nextInt(PARK_SOIL_TYPES.length)]));
+                    topographicPoints.add(createGroundPoint(minX + BLOCK_SIZE / 2, minY + BLOCK_SIZE / 2));
+                } else {
+                    buildings.add(createRectangle(minX + random.nextDouble() * BUILDING_JITTER,
+                            minY + random.nextDouble() * BUILDING_JITTER,
+                            minX + BLOCK_SIZE - random.nextDouble() * BUILDING_JITTER,
+                            minY + BLOCK_SIZE - random.nextDouble() * BUILDING_JITTER));
+                    buildingHeights.add(BUILDING_HEIGHT_MIN +
+                            random.nextDouble() * (BUILDING_HEIGHT_MAX - BUILDING_HEIGHT_MIN));
+                }
+            }
+        }
+        // Street crossings and middle of street sections
+        for (int i = 0; i <= blockCount * 2; i++) {
+            for (int j = 0; j <= blockCount * 2; j++) {
+                if (i % 2 == 0 || j % 2 == 0) {
+                    topographicPoints.add(createGroundPoint(STREET_WIDTH / 2 + i * pitch / 2,
+                            STREET_WIDTH / 2 + j * pitch / 2));
+                }
+            }
+        }
+        // Roads, one by street section
+        roadSpectrums = new SpectrumArray(freqLvl.size(), blockCount * (blockCount + 1) * 2);
+        double[] spectrum = new double[freqLvl.size()];
+        for (int i = 0; i <= blockCount; i++) {
+            double street = STREET_WIDTH / 2 + i * pitch;
+            for (int j = 0; j < blockCount; j++) {
+                double start = STREET_WIDTH / 2 + j * pitch;
+                addRoad(random, spectrum, new Coordinate(street, start, SOURCE_HEIGHT),
+                        new Coordinate(street, start + pitch, SOURCE_HEIGHT));
+                addRoad(random, spectrum, new Coordinate(start, street, SOURCE_HEIGHT),
+                        new Coordinate(start + pitch, street, SOURCE_HEIGHT));
+            }
+        }
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Ground altitude of the city at this location
+     */
+    public static double getGroundAltitude(double x, double y) {
+        return HILL_AMPLITUDE * (1 + Math.sin(2 * Math.PI * x / HILL_WAVELENGTH) *
+                Math.cos(2 * Math.PI * y / HILL_WAVELENGTH));
+    }
+
+    private Coordinate createGroundPoint(double x, double y) {
+        return new Coordinate(x, y, getGroundAltitude(x, y));
+    }
+
+    private Polygon createRectangle(double minX, double minY, double maxX, double maxY) {
+        return factory.createPolygon(factory.createLinearRing(new Coordinate[]{createGroundPoint(minX, minY),
+                createGroundPoint(maxX, minY), createGroundPoint(maxX, maxY), createGroundPoint(minX, maxY),
+                createGroundPoint(minX, minY)}), null);
+    }
+
+    private void addRoad(Random random, double[] spectrum, Coordinate start, Coordinate end) {
+        roads.add(factory.createLineString(new Coordinate[]{start, end}));
+        double speed = 30 + random.nextInt(4) * 10;
+        int lightVehicle = 100 + random.nextInt(2000);
+        int heavyVehicle = random.nextInt(lightVehicle / 10 + 1);
+        double level = EvalRoadSource.evaluate(speed, lightVehicle, heavyVehicle);
+        for (int idFreq = 0; idFreq < spectrum.length; idFreq++) {
+            spectrum[idFreq] = PropagationProcess.dbaToW(level +
+                    VehicleSpectrumRepartition.getAttenuatedValue(freqLvl.get(idFreq)));
+        }
+        roadSpectrums.addSource(spectrum);
+    }
+
+    /**
+     * @return Extent of the city
+     */
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return Building footprints, vertices altitude is the ground altitude
+     */
+    public List<Polygon> getBuildings() {
+        return Collections.unmodifiableList(buildings);
+    }
+
+    /**
+     * @return Height of buildings, in the same order as {@link #getBuildings()}
+     */
+    public List<Double> getBuildingHeights() {
+        return Collections.unmodifiableList(buildingHeights);
+    }
+
+    /**
+     * @return Park areas with their soil absorption
+     */
+    public List<GeoWithSoilType> getSoils() {
+        return Collections.unmodifiableList(soils);
+    }
+
+    /**
+     * @return Ground points, all outside of buildings
+     */
+    public List<Coordinate> getTopographicPoints() {
+        return Collections.unmodifiableList(topographicPoints);
+    }
+
+    /**
+     * @return Road sections, vertices altitude is the source height from the ground
+     */
+    public List<Geometry> getRoads() {
+        return Collections.unmodifiableList(roads);
+    }
+
+    /**
+     * @return Emission of roads in W, in the same order as {@link #getRoads()}
+     */
+    public SpectrumArray getRoadSpectrums() {
+        return roadSpectrums;
+    }
+
+    /**
+     * @return Frequency bands of the road spectrums
+     */
+    public List<Integer> getFreqLvl() {
+        return Collections.unmodifiableList(freqLvl);
+    }
+
+    /**
+     * @param pt Position
+     * @return True if the position is in the envelope of a building
+     */
+    public boolean isInBuilding(Coordinate pt) {
+        for (Polygon building : buildings) {
+            if (building.getEnvelopeInternal().contains(pt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Regular grid of receivers covering the city. Coordinates are computed on access, the memory use does not
+     * depend on the receiver count. Receivers are not moved out of buildings.
+     * @param receiverCount Number of receivers
+     * @return Receivers, row by row
+     */
+    public List<Coordinate> createReceiverGrid(final int receiverCount) {
+        final int columns = (int) Math.ceil(Math.sqrt(receiverCount));
+        final int rows = (receiverCount + columns - 1) / Math.max(1, columns);
+        final double stepX = envelope.getWidth() / Math.max(1, columns);
+        final double stepY = envelope.getHeight() / Math.max(1, rows);
+        return new AbstractList<Coordinate>() {
+            @Override
+            public Coordinate get(int index) {
+                if (index < 0 || index >= receiverCount) {
+                    throw new IndexOutOfBoundsException("Receiver " + index + " of " + receiverCount);
+                }
+                double x = envelope.getMinX() + (index % columns + 0.5) * stepX;
+                double y = envelope.getMinY() + (index / columns + 0.5) * stepY;
+                return new Coordinate(x, y, RECEIVER_HEIGHT);
+            }
+
+            @Override
+            public int size() {
+                return receiverCount;
+            }
+        };
+    }
+
+    /**
+     * @param receiverCount Number of receivers
+     * @return Row identifier of receivers, equal to the receiver index
+     */
+    private static List<Long> createRowIds(final int receiverCount) {
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(int index) {
+                if (index < 0 || index >= receiverCount) {
+                    throw new IndexOutOfBoundsException("Receiver " + index + " of " + receiverCount);
+                }
+                return (long) index;
+            }
+
+            @Override
+            public int size() {
+                return receiverCount;
+            }
+        };
+    }
+
+    /**
+     * @return Triangulation of buildings and topography, not yet finished
+     */
+    public MeshBuilder createMeshBuilder() {
+        MeshBuilder mesh = new MeshBuilder();
+        for (int i = 0; i < buildings.size(); i++) {
+            mesh.addGeometry(buildings.get(i), buildingHeights.get(i));
+        }
+        for (Coordinate topoPoint : topographicPoints) {
+            mesh.addTopographicPoint(new Coordinate(topoPoint));
+        }
+        return mesh;
+    }
+
+    /**
+     * @return Obstruction test of the whole city
+     * @throws LayerDelaunayError On triangulation error
+     */
+    public FastObstructionTest createObstructionTest() throws LayerDelaunayError {
+        MeshBuilder mesh = createMeshBuilder();
+        mesh.finishPolygonFeeding(envelope);
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangleMesh());
+    }
+
+    /**
+     * @param receivers        Receivers, see {@link #createReceiverGrid(int)}
+     * @param reflexionOrder   Reflection order
+     * @param diffractionOrder Diffraction order
+     * @param maxSrcDist       Maximum source distance
+     * @return Propagation data of the whole city, as a single cell
+     * @throws LayerDelaunayError On triangulation error
+     */
+    public PropagationProcessData createPropagationData(List<Coordinate> receivers, int reflexionOrder,
+                                                        int diffractionOrder, double maxSrcDist)
+            throws LayerDelaunayError {
+        FastObstructionTest obstructionTest = createObstructionTest();
+        int subdivisions = Math.max(1, (int) (envelope.getWidth() / maxSrcDist) * 4);
+        QueryGeometryStructure sourcesIndex = new QueryGridIndex(envelope, subdivisions, subdivisions);
+        for (int idRoad = 0; idRoad < roads.size(); idRoad++) {
+            sourcesIndex.appendGeometry(roads.get(idRoad), idRoad);
+        }
+        return new PropagationProcessData(receivers, createRowIds(receivers.size()), null, obstructionTest, sourcesIndex, getRoads(),
+                roadSpectrums, getFreqLvl(), reflexionOrder, diffractionOrder, maxSrcDist, maxSrcDist / 4,
+                1, 0.2, 0, null, getSoils());
+    }
+
+    /**
+     * Compare two computations of this city on the receivers outside of buildings, see
+     * {@link #isInBuilding(Coordinate)}. Statistics of both computations are flushed.
+     * @param receivers Receivers
+     * @param reference Reference computation, structures initialised
+     * @param variant   Computation with other settings, structures initialised
+     * @return Maximum absolute difference of the global levels in dB(A)
+     */
+    public double getMaxLevelDifference(List<Coordinate> receivers, PropagationProcess reference,
+                                        PropagationProcess variant) {
+        double[] referenceSum = new double[freqLvl.size()];
+        double[] variantSum = new double[freqLvl.size()];
+        double maxDifference = 0;
+        for (Coordinate receiver : receivers) {
+            if (isInBuilding(receiver)) {
+                continue;
+            }
+            Arrays.fill(referenceSum, 0);
+            Arrays.fill(variantSum, 0);
+            reference.computeSoundLevelAtPosition(receiver, referenceSum);
+            variant.computeSoundLevelAtPosition(receiver, variantSum);
+            double referenceLevel = getGlobalLevel(referenceSum);
+            double variantLevel = getGlobalLevel(variantSum);
+            if (referenceLevel != variantLevel) {
+                maxDifference = Math.max(maxDifference, Math.abs(referenceLevel - variantLevel));
+            }
+        }
+        reference.flushStatistics();
+        variant.flushStatistics();
+        return maxDifference;
+    }
+
+    /**
+     * @param energeticSum Power by frequency band in W
+     * @return Global level in dB(A)
+     */
+    public static double getGlobalLevel(double[] energeticSum) {
+        double sum = 0;
+        for (double value : energeticSum) {
+            sum += value;
+        }
+        return PropagationProcess.wToDba(sum);
+    }
+}
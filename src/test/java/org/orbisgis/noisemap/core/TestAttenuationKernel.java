@@ -0,0 +1,142 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compare the linear attenuation factors with the attenuation equations in dB.
+ * @author Nicolas Fortin
+ */
+public class TestAttenuationKernel extends TestCase {
+    private static final double CEL = 344.23935;
+    private static final double[] ALPHA = {0.1, 0.4, 1., 1.9, 3.7, 9.7};
+    private static final int[] FREQUENCIES = {125, 250, 500, 1000, 2000, 4000};
+
+    private static AttenuationKernel createKernel() {
+        List<Integer> freqLvl = new ArrayList<Integer>();
+        double[] lambda = new double[FREQUENCIES.length];
+        for (int idfreq = 0; idfreq < FREQUENCIES.length; idfreq++) {
+            freqLvl.add(FREQUENCIES[idfreq]);
+            lambda[idfreq] = CEL / FREQUENCIES[idfreq];
+        }
+        return new AttenuationKernel(freqLvl, ALPHA, lambda, CEL);
+    }
+
+    private static double attAtmDb(double dist, double alpha) {
+        return alpha * dist / 1000.;
+    }
+
+    private static double diffractionDb(double lambda, double delta, double cprime, double max) {
+        double testForm = (40 / lambda) * cprime * delta;
+        double att = 0;
+        if (testForm >= -2.) {
+            att = 10 * Math.log10(3 + testForm);
+        }
+        return Math.min(max, Math.max(0, att));
+    }
+
+    private static double aSoilDb(double zs, double zr, double dp, double gw, int fm, double aSoilMin) {
+        double k = 2 * Math.PI * fm / CEL;
+        double w = 0.0185 * Math.pow(fm, 2.5) * Math.pow(gw, 2.6) /
+                (Math.pow(fm, 1.5) * Math.pow(gw, 2.6) + 1.3 * Math.pow(10, 3) * Math.pow(fm, 0.75) * Math.pow(gw, 1.3) + 1.16 * Math.pow(10, 6));
+        double cf = dp * (1 + 3 * w * dp * Math.pow(Math.E, -Math.sqrt(w * dp))) / (1 + w * dp);
+        double aSoil = -10 * Math.log10(4 * Math.pow(k, 2) / Math.pow(dp, 2) *
+                (Math.pow(zs, 2) - Math.sqrt(2 * cf / k) * zs + cf / k) * (Math.pow(zr, 2) - Math.sqrt(2 * cf / k) * zr + cf / k));
+        return Math.max(aSoil, aSoilMin);
+    }
+
+    private static void assertSameDb(double expectedW, double w) {
+        assertEquals(PropagationProcess.wToDba(expectedW), PropagationProcess.wToDba(w), 1e-9);
+    }
+
+    public void testDiffractionAndAtmosphere() {
+        AttenuationKernel kernel = createKernel();
+        double[] wj = new double[FREQUENCIES.length];
+        for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+            wj[idfreq] = PropagationProcess.dbaToW(90 + idfreq);
+        }
+        double[] factors = new double[wj.length];
+        for (double delta : new double[]{-0.5, 0.01, 0.5, 3., 40.}) {
+            for (double e : new double[]{0.1, 2., 15.}) {
+                double distance = 120.;
+                double[] energeticSum = new double[wj.length];
+                kernel.fill(factors, 1.);
+                kernel.multiplyDiffraction(factors, delta, e > 0.3, e, AttenuationKernel.MAX_DIFFRACTION_FACTOR);
+                kernel.addAttenuatedPower(energeticSum, wj, 0, factors, distance - delta, distance);
+                for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+                    double lambda = CEL / FREQUENCIES[idfreq];
+                    double cprime = 1;
+                    if (e > 0.3) {
+                        double gammapart = Math.pow((5 * lambda) / e, 2);
+                        cprime = (1. + gammapart) / (1. / 3. + gammapart);
+                    }
+                    double expected = PropagationProcess.dbaToW(PropagationProcess.wToDba(
+                            PropagationProcess.attDistW(wj[idfreq], distance - delta))
+                            - diffractionDb(lambda, delta, cprime, 25.) - attAtmDb(distance, ALPHA[idfreq]));
+                    assertSameDb(expected, energeticSum[idfreq]);
+                }
+            }
+        }
+    }
+
+    public void testGroundEffect() {
+        AttenuationKernel kernel = createKernel();
+        double[] wj = new double[FREQUENCIES.length];
+        for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+            wj[idfreq] = PropagationProcess.dbaToW(100);
+        }
+        double[] factors = new double[wj.length];
+        for (double gw : new double[]{0, 0.2, 0.7, 1.}) {
+            for (double dp : new double[]{5., 50., 300.}) {
+                double zs = 0.05;
+                double zr = 4.;
+                double aSoilMin = -3 * (1 - gw);
+                double[] energeticSum = new double[wj.length];
+                kernel.fill(factors, 1.);
+                kernel.multiplyGroundEffect(factors, zs, zr, dp, gw, gw, aSoilMin);
+                kernel.addAttenuatedPower(energeticSum, wj, 0, factors, dp, dp);
+                for (int idfreq = 0; idfreq < wj.length; idfreq++) {
+                    double aSoil = Double.compare(gw, 0) == 0 ? -3 : aSoilDb(zs, zr, dp, gw, FREQUENCIES[idfreq], aSoilMin);
+                    double expected = PropagationProcess.dbaToW(PropagationProcess.wToDba(
+                            PropagationProcess.attDistW(wj[idfreq], dp)) - aSoil - attAtmDb(dp, ALPHA[idfreq]));
+                    assertSameDb(expected, energeticSum[idfreq]);
+                }
+            }
+        }
+    }
+}
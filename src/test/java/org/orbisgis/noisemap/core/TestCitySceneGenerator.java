@@ -0,0 +1,112 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Check the synthetic city used for scale tests.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestCitySceneGenerator extends TestCase {
+
+    public void testDeterministic() {
+        CitySceneGenerator scene = new CitySceneGenerator(6, 42);
+        CitySceneGenerator sameScene = new CitySceneGenerator(6, 42);
+        CitySceneGenerator otherScene = new CitySceneGenerator(6, 43);
+        assertEquals(scene.getBuildings().size(), sameScene.getBuildings().size());
+        for (int i = 0; i < scene.getBuildings().size(); i++) {
+            assertTrue(scene.getBuildings().get(i).equalsExact(sameScene.getBuildings().get(i)));
+        }
+        assertEquals(scene.getBuildingHeights(), sameScene.getBuildingHeights());
+        assertEquals(scene.getSoils().size(), sameScene.getSoils().size());
+        assertEquals(scene.getTopographicPoints(), sameScene.getTopographicPoints());
+        assertTrue(Arrays.equals(scene.getRoadSpectrums().getValues(), sameScene.getRoadSpectrums().getValues()));
+        assertFalse(scene.getBuildingHeights().equals(otherScene.getBuildingHeights()));
+        // 6x6 blocks and one road by street section
+        assertEquals(36, scene.getBuildings().size() + scene.getSoils().size());
+        assertEquals(6 * 7 * 2, scene.getRoads().size());
+        assertEquals(scene.getRoads().size(), scene.getRoadSpectrums().getSourceCount());
+    }
+
+    public void testTopographicPointsOutsideBuildings() {
+        CitySceneGenerator scene = new CitySceneGenerator(5, 1);
+        for (Coordinate topoPoint : scene.getTopographicPoints()) {
+            assertFalse(scene.isInBuilding(topoPoint));
+        }
+    }
+
+    public void testReceiverGrid() {
+        CitySceneGenerator scene = new CitySceneGenerator(10, 1);
+        for (int receiverCount : new int[]{1000, 1001, 10000000}) {
+            List<Coordinate> receivers = scene.createReceiverGrid(receiverCount);
+            assertEquals(receiverCount, receivers.size());
+            assertTrue(scene.getEnvelope().contains(receivers.get(0)));
+            assertTrue(scene.getEnvelope().contains(receivers.get(receiverCount - 1)));
+            assertFalse(receivers.get(0).equals2D(receivers.get(receiverCount - 1)));
+        }
+        try {
+            scene.createReceiverGrid(10).get(10);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // Expected
+        }
+    }
+
+    public void testPropagation() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+        List<Coordinate> receivers = scene.createReceiverGrid(20);
+        PropagationProcessData data = scene.createPropagationData(receivers, 1, 1, 200);
+        PropagationProcess process = new PropagationProcess(data, new PropagationProcessOut(null, null));
+        process.initStructures();
+        double[] energeticSum = new double[scene.getFreqLvl().size()];
+        int computedReceivers = 0;
+        for (Coordinate receiver : receivers) {
+            if (scene.isInBuilding(receiver)) {
+                continue;
+            }
+            Arrays.fill(energeticSum, 0);
+            process.computeSoundLevelAtPosition(receiver, energeticSum);
+            double level = PropagationProcess.wToDba(energeticSum[0]);
+            assertTrue(String.valueOf(level), level > 0 && level < 120);
+            computedReceivers++;
+        }
+        assertTrue(computedReceivers > receivers.size() / 2);
+    }
+}
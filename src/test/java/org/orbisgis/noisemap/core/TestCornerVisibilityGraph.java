@@ -0,0 +1,116 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test the free field links between diffraction corners.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestCornerVisibilityGraph extends TestCase {
+
+    public void testLinks() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+        FastObstructionTest obstructionTest = scene.createObstructionTest();
+        List<Coordinate> corners = obstructionTest.getWideAnglePoints(Math.PI * (1 + 1 / 16.0),
+                Math.PI * (2 - (1 / 16.)));
+        final double maxLinkLength = 60;
+        CornerVisibilityGraph graph = new CornerVisibilityGraph(corners, maxLinkLength, obstructionTest, null, 1);
+        assertEquals(corners.size(), graph.getCornerCount());
+        assertTrue(graph.getLinkCount() > 0);
+        ObstructionQueryContext context = obstructionTest.createQueryContext();
+        for (int from = 0; from < corners.size(); from++) {
+            assertSame(corners.get(from), graph.getCorner(from));
+            for (int to = 0; to < corners.size(); to++) {
+                boolean expected = from != to && corners.get(from).distance(corners.get(to)) <= maxLinkLength
+                        && obstructionTest.isFreeField(context, corners.get(from), corners.get(to));
+                assertEquals(expected, graph.isVisible(from, to));
+            }
+            for (int position = graph.getLinkBegin(from) + 1; position < graph.getLinkEnd(from); position++) {
+                assertTrue(graph.getLink(position - 1) < graph.getLink(position));
+            }
+        }
+        // Same links with helper threads
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            CornerVisibilityGraph parallelGraph = new CornerVisibilityGraph(corners, maxLinkLength, obstructionTest,
+                    executorService, 4);
+            assertEquals(graph.getLinkCount(), parallelGraph.getLinkCount());
+            for (int position = 0; position < graph.getLinkCount(); position++) {
+                assertEquals(graph.getLink(position), parallelGraph.getLink(position));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        // No corners
+        CornerVisibilityGraph emptyGraph = new CornerVisibilityGraph(Collections.<Coordinate>emptyList(),
+                maxLinkLength, obstructionTest, executorService, 4);
+        assertEquals(0, emptyGraph.getCornerCount());
+    }
+
+    public void testCornerSourceCache() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+        FastObstructionTest obstructionTest = scene.createObstructionTest();
+        List<Coordinate> corners = obstructionTest.getWideAnglePoints(Math.PI * (1 + 1 / 16.0),
+                Math.PI * (2 - (1 / 16.)));
+        // Tiny cache, stripes are cleared when full
+        CornerSourceVisibilityCache cache = new CornerSourceVisibilityCache(128);
+        ObstructionQueryContext context = obstructionTest.createQueryContext();
+        Random random = new Random(7);
+        Envelope envelope = scene.getEnvelope();
+        for (int pass = 0; pass < 2; pass++) {
+            random.setSeed(7);
+            for (int i = 0; i < 2000; i++) {
+                int idCorner = random.nextInt(corners.size());
+                Coordinate source = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight(), 0.05);
+                boolean expected = obstructionTest.isFreeField(context, corners.get(idCorner), source);
+                assertEquals(expected, cache.isFreeField(idCorner, corners.get(idCorner), source, obstructionTest,
+                        context));
+                assertTrue(cache.size() <= 128);
+            }
+        }
+        assertTrue(cache.size() > 0);
+    }
+}
@@ -35,6 +35,8 @@ package org.orbisgis.noisemap.core;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
@@ -220,6 +222,85 @@ public class TestFastObstruction extends TestCase {
 		}
 		assertTrue("Missed visible corner or found more than visible",freefieldcpt==2);
 	}
+
+	/**
+	 * Share the same mesh between threads, each thread use its own query context
+	 */
+	public void testSharedQueries() throws LayerDelaunayError, InterruptedException {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] building1Coords = { new Coordinate(15., 5.,0.),
+				new Coordinate(30., 5.,0.), new Coordinate(30., 30.,0.),
+				new Coordinate(15., 30.,0.), new Coordinate(15., 5.,0.) };
+		Polygon building1 = factory.createPolygon(
+				factory.createLinearRing(building1Coords), null);
+		MeshBuilder mesh = new MeshBuilder();
+		mesh.addGeometry(building1);
+		mesh.finishPolygonFeeding(new Envelope(new Coordinate(0., 0.,0.),
+				new Coordinate(45., 45.,0.)));
+		final FastObstructionTest manager=new FastObstructionTest(mesh.getPolygonWithHeight(),mesh.getTriangles(),mesh.getTriNeighbors(),mesh.getVertices());
+		// Query with context does not update given coordinates
+		ObstructionQueryContext context = manager.createQueryContext();
+		Coordinate receiver = new Coordinate(5, 20);
+		assertTrue(manager.isFreeField(context, receiver, new Coordinate(14, 30)));
+		assertTrue(Double.isNaN(receiver.z));
+		assertEquals(0., context.getP1().z, 1e-12);
+		assertEquals(1, context.getNbObstructionTest());
+		final int queryCount = 2000;
+		final AtomicInteger errors = new AtomicInteger(0);
+		Thread[] threads = new Thread[4];
+		for(int idThread = 0; idThread < threads.length; idThread++) {
+			threads[idThread] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ObstructionQueryContext threadContext = manager.createQueryContext();
+					for(int i = 0; i < queryCount; i++) {
+						if(!manager.isFreeField(threadContext, new Coordinate(5, 20), new Coordinate(14, 30))
+								|| manager.isFreeField(threadContext, new Coordinate(5, 20), new Coordinate(16, 31))
+								|| manager.isFreeField(threadContext, new Coordinate(40, 40), new Coordinate(20, 20))) {
+							errors.incrementAndGet();
+						}
+					}
+					if(threadContext.getNbObstructionTest() != 3 * queryCount) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+			threads[idThread].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, errors.get());
+	}
+	public void testDirectPath() throws LayerDelaunayError {
+		CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+		FastObstructionTest manager = scene.createObstructionTest();
+		Envelope envelope = scene.getEnvelope();
+		ObstructionQueryContext context = manager.createQueryContext();
+		ObstructionQueryContext otherContext = manager.createQueryContext();
+		Random random = new Random(5);
+		int hiddenPaths = 0;
+		for(int i = 0; i < 2000; i++) {
+			Coordinate receiver = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+					envelope.getMinY() + random.nextDouble() * envelope.getHeight(), 4);
+			Coordinate source = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+					envelope.getMinY() + random.nextDouble() * envelope.getHeight(), 0.05);
+			boolean freeField = manager.traceDirectPath(context, receiver, source);
+			assertEquals(manager.isFreeField(otherContext, receiver, source), freeField);
+			if(!freeField) {
+				hiddenPaths++;
+				// Same path as a full query from the positions set on the topography
+				DiffractionWithSoilEffetZone path = manager.getDirectPath(context);
+				DiffractionWithSoilEffetZone expected = manager.getPath(otherContext,
+						new Coordinate(otherContext.getP1()), new Coordinate(otherContext.getP2()));
+				assertEquals(expected.getDeltaDistance(), path.getDeltaDistance());
+				assertEquals(expected.getELength(), path.getELength());
+				assertEquals(expected.getFullDiffractionDistance(), path.getFullDiffractionDistance());
+			}
+		}
+		assertTrue(hiddenPaths > 0);
+	}
+
 	private void collisionTask(FastObstructionTest manager) throws LayerDelaunayError {
 
 		assertTrue("Intersection test #1 failed",manager.isFreeField(new Coordinate(5,20), new Coordinate(14,30)));
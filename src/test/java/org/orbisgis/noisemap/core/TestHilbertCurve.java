@@ -0,0 +1,116 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test the receiver ordering along the Hilbert curve.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestHilbertCurve extends TestCase {
+
+    public void testIndex() {
+        // Consecutive positions are neighbour cells
+        int size = 64;
+        int[] cellByIndex = new int[size * size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                cellByIndex[(int) HilbertCurve.getIndex(x, y)] = x * size + y;
+            }
+        }
+        for (int i = 1; i < cellByIndex.length; i++) {
+            int dx = Math.abs(cellByIndex[i] / size - cellByIndex[i - 1] / size);
+            int dy = Math.abs(cellByIndex[i] % size - cellByIndex[i - 1] % size);
+            assertEquals(1, dx + dy);
+        }
+    }
+
+    public void testSort() {
+        Random random = new Random(12);
+        Coordinate[] points = new Coordinate[5000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new Coordinate(random.nextDouble() * 1000 - 500, random.nextDouble() * 300);
+        }
+        int[] order = HilbertCurve.sort(points);
+        boolean[] found = new boolean[points.length];
+        double orderedLength = 0;
+        double inputLength = 0;
+        for (int i = 0; i < order.length; i++) {
+            assertFalse(found[order[i]]);
+            found[order[i]] = true;
+            if (i > 0) {
+                orderedLength += points[order[i]].distance(points[order[i - 1]]);
+                inputLength += points[i].distance(points[i - 1]);
+            }
+        }
+        assertTrue(orderedLength * 10 < inputLength);
+        // Degenerated envelopes
+        assertEquals(0, HilbertCurve.sort(new Coordinate[0]).length);
+        assertEquals(2, HilbertCurve.sort(new Coordinate[]{new Coordinate(1, 1), new Coordinate(1, 1)}).length);
+    }
+
+    /**
+     * Sorted points must follow the curve up to its last cells, including the envelope corners
+     */
+    public void testSortedPositions() {
+        Random random = new Random(5);
+        double size = 100;
+        Coordinate[] points = new Coordinate[1000];
+        double[] corners = new double[]{0, size / 4, size / 2, size * 3 / 4, size};
+        int idPoint = 0;
+        for (double x : corners) {
+            for (double y : corners) {
+                points[idPoint++] = new Coordinate(x, y);
+            }
+        }
+        for (; idPoint < points.length; idPoint++) {
+            points[idPoint] = new Coordinate(random.nextDouble() * size, random.nextDouble() * size);
+        }
+        int[] order = HilbertCurve.sort(points);
+        double scale = (HilbertCurve.GRID_SIZE - 1) / size;
+        long previous = -1;
+        for (int id : order) {
+            long position = HilbertCurve.getIndex((int) (points[id].x * scale), (int) (points[id].y * scale));
+            assertTrue(position >= previous);
+            previous = position;
+        }
+        // The last cell of the curve is a corner of the envelope
+        assertEquals((long) HilbertCurve.GRID_SIZE * HilbertCurve.GRID_SIZE - 1, previous);
+    }
+}
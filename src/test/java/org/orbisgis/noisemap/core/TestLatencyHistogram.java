@@ -0,0 +1,165 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import junit.framework.TestCase;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test phase timings of the receiver computation.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestLatencyHistogram extends TestCase {
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getTotalCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-9);
+        assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * 0.04);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * 0.04);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        // Small values are exact
+        histogram.reset();
+        histogram.record(3);
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(3, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    public void testMerge() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(1000000);
+        }
+        LatencyHistogram merged = new LatencyHistogram(fast);
+        merged.add(slow);
+        assertEquals(90, fast.getTotalCount());
+        assertEquals(100, merged.getTotalCount());
+        assertEquals(1000, merged.getMin());
+        assertEquals(1000000, merged.getMax());
+        assertEquals(1000, merged.getValueAtPercentile(90), 1000 * 0.04);
+        assertEquals(1000000, merged.getValueAtPercentile(95), 1000000 * 0.04);
+    }
+
+    /**
+     * All phases must be timed and given to the listener.
+     */
+    public void testMetricsListener() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+        List<Coordinate> receivers = scene.createReceiverGrid(30);
+        PropagationProcessData data = scene.createPropagationData(receivers, 1, 1, 200);
+        data.cellProg = new ProgressionProcess(null, receivers.size());
+        data.cellId = 7;
+        PropagationProcessOut dataOut = new PropagationProcessOut(null, new Stack<PropagationResultPtRecord>());
+        final Map<PropagationPhase, Long> listenedCounts = new ConcurrentHashMap<PropagationPhase, Long>();
+        dataOut.setMetricsListener(new PropagationMetricsListener() {
+            @Override
+            public void phaseTimings(int cellId, Map<PropagationPhase, LatencyHistogram> phaseTimings) {
+                assertEquals(7, cellId);
+                for (Map.Entry<PropagationPhase, LatencyHistogram> entry : phaseTimings.entrySet()) {
+                    Long count = listenedCounts.get(entry.getKey());
+                    listenedCounts.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue().getTotalCount());
+                }
+            }
+        });
+        new PropagationProcess(data, dataOut).run();
+        assertEquals(1, dataOut.getCellComputed());
+        Map<PropagationPhase, Long> expectedCounts = new EnumMap<PropagationPhase, Long>(PropagationPhase.class);
+        for (PropagationPhase phase : PropagationPhase.values()) {
+            LatencyHistogram timings = dataOut.getPhaseTimings(phase);
+            assertTrue(phase.name(), timings.getTotalCount() > 0);
+            assertTrue(phase.name(), timings.getMax() >= timings.getValueAtPercentile(50));
+            expectedCounts.put(phase, timings.getTotalCount());
+        }
+        assertEquals(expectedCounts, listenedCounts);
+        // There is at least one direct path and one diffraction path over buildings by source
+        assertEquals(dataOut.getPhaseTimings(PropagationPhase.DIRECT_PATH).getTotalCount(),
+                dataOut.getPhaseTimings(PropagationPhase.VERTICAL_DIFFRACTION).getTotalCount());
+        assertEquals(receivers.size(), dataOut.getPhaseTimings(PropagationPhase.MIRROR_GENERATION).getTotalCount());
+    }
+
+    /**
+     * Receivers computed one by one keep their statistics until the flush.
+     */
+    public void testFlushStatistics() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+        List<Coordinate> receivers = scene.createReceiverGrid(60);
+        PropagationProcessData data = scene.createPropagationData(receivers, 1, 1, 200);
+        PropagationProcessOut dataOut = new PropagationProcessOut(null, null);
+        final AtomicInteger listenerCalls = new AtomicInteger(0);
+        dataOut.setMetricsListener(new PropagationMetricsListener() {
+            @Override
+            public void phaseTimings(int cellId, Map<PropagationPhase, LatencyHistogram> phaseTimings) {
+                listenerCalls.incrementAndGet();
+            }
+        });
+        PropagationProcess process = new PropagationProcess(data, dataOut);
+        process.initStructures();
+        double[] energeticSum = new double[data.freq_lvl.size()];
+        for (Coordinate receiver : receivers) {
+            process.computeSoundLevelAtPosition(receiver, energeticSum);
+        }
+        assertEquals(0, listenerCalls.get());
+        assertEquals(0, dataOut.getNb_couple_receiver_src());
+        process.flushStatistics();
+        assertEquals(1, listenerCalls.get());
+        assertTrue(dataOut.getNb_couple_receiver_src() > 0);
+        assertEquals(receivers.size(), dataOut.getPhaseTimings(PropagationPhase.MIRROR_GENERATION).getTotalCount());
+        // Counters have been reset
+        long sourceCount = dataOut.getNb_couple_receiver_src();
+        process.flushStatistics();
+        assertEquals(sourceCount, dataOut.getNb_couple_receiver_src());
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test the memory mapped mesh file.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestMeshCache extends TestCase {
+
+    public void testLoadMesh() throws Throwable {
+        File directory = File.createTempFile("meshcache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        try {
+            CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+            Envelope envelope = scene.getEnvelope();
+            FastObstructionTest heapMesh = scene.createObstructionTest();
+            MeshBuilder builder = scene.createMeshBuilder();
+            byte[] inputHash = builder.computeInputHash(envelope);
+            File file = MeshCache.getCacheFile(directory, inputHash);
+            assertFalse(file.exists());
+            FastObstructionTest created = MeshCache.getOrCreate(directory, builder, envelope);
+            assertTrue(file.isFile());
+            // The temporary file has been renamed
+            assertEquals(1, directory.listFiles().length);
+            assertEquals(heapMesh.getTriangleMesh().getTriangleCount(), created.getTriangleMesh().getTriangleCount());
+            // Same inputs, the mesh is read from the file
+            MeshBuilder sameBuilder = scene.createMeshBuilder();
+            assertTrue(Arrays.equals(inputHash, sameBuilder.computeInputHash(envelope)));
+            FastObstructionTest mappedMesh = MeshCache.getOrCreate(directory, sameBuilder, envelope);
+            assertNull(sameBuilder.getTriangleMesh());
+            AbstractTriangleMesh heapTriangles = heapMesh.getTriangleMesh();
+            AbstractTriangleMesh mappedTriangles = mappedMesh.getTriangleMesh();
+            assertEquals(heapTriangles.getTriangleCount(), mappedTriangles.getTriangleCount());
+            assertEquals(heapTriangles.getVertexCount(), mappedTriangles.getVertexCount());
+            for (int idTri = 0; idTri < heapTriangles.getTriangleCount(); idTri++) {
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(heapTriangles.getVertex(idTri, i), mappedTriangles.getVertex(idTri, i));
+                    assertEquals(heapTriangles.getNeighbor(idTri, i), mappedTriangles.getNeighbor(idTri, i));
+                }
+                assertEquals(heapTriangles.getBuildingId(idTri), mappedTriangles.getBuildingId(idTri));
+            }
+            assertEquals(heapTriangles.getVertices(), mappedTriangles.getVertices());
+            double minAngle = Math.PI * (1 + 1 / 16.0);
+            double maxAngle = Math.PI * (2 - (1 / 16.));
+            List<Coordinate> heapCorners = heapMesh.getWideAnglePoints(minAngle, maxAngle);
+            List<Coordinate> mappedCorners = mappedMesh.getWideAnglePoints(minAngle, maxAngle);
+            assertEquals(heapCorners.size(), mappedCorners.size());
+            for (int i = 0; i < heapCorners.size(); i++) {
+                assertTrue(heapCorners.get(i).equals3D(mappedCorners.get(i)));
+            }
+            ObstructionQueryContext heapContext = heapMesh.createQueryContext();
+            ObstructionQueryContext mappedContext = mappedMesh.createQueryContext();
+            Random random = new Random(3);
+            for (int i = 0; i < 500; i++) {
+                Coordinate receiver = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight(), 4);
+                Coordinate source = new Coordinate(envelope.getMinX() + random.nextDouble() * envelope.getWidth(),
+                        envelope.getMinY() + random.nextDouble() * envelope.getHeight(), 0.05);
+                boolean freeField = heapMesh.isFreeField(heapContext, receiver, source);
+                assertEquals(freeField, mappedMesh.isFreeField(mappedContext, receiver, source));
+                if (!freeField) {
+                    Double[] heapPath = heapMesh.getPath(heapContext, receiver, source).getDiffractionData();
+                    Double[] mappedPath = mappedMesh.getPath(mappedContext, receiver, source).getDiffractionData();
+                    assertTrue(Arrays.equals(heapPath, mappedPath));
+                }
+            }
+            // Other inputs, other file
+            MeshBuilder otherBuilder = new CitySceneGenerator(3, 2).createMeshBuilder();
+            assertFalse(Arrays.equals(inputHash, otherBuilder.computeInputHash(envelope)));
+            // Wrong key
+            byte[] otherHash = Arrays.copyOf(inputHash, inputHash.length);
+            otherHash[0]++;
+            assertNull(MeshCache.load(file, otherHash));
+            assertNull(MeshCache.load(new File(directory, "missing.bin"), inputHash));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * The triangle grid is read from the file, points are located in the same cells and triangles
+     */
+    public void testLoadTriangleLocator() throws Throwable {
+        File directory = File.createTempFile("meshcache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        try {
+            CitySceneGenerator scene = new CitySceneGenerator(3, 1);
+            Envelope envelope = scene.getEnvelope();
+            FastObstructionTest heapMesh = scene.createObstructionTest();
+            byte[] inputHash = scene.createMeshBuilder().computeInputHash(envelope);
+            File file = MeshCache.getCacheFile(directory, inputHash);
+            MeshCache.write(file, inputHash, heapMesh);
+            FastObstructionTest mappedMesh = MeshCache.load(file, inputHash);
+            assertNotNull(mappedMesh);
+            TriangleGridLocator heapLocator = heapMesh.getTriangleLocator();
+            TriangleGridLocator mappedLocator = mappedMesh.getTriangleLocator();
+            assertTrue(Arrays.equals(heapLocator.getBounds(), mappedLocator.getBounds()));
+            assertEquals(heapLocator.getColumnCount(), mappedLocator.getColumnCount());
+            assertEquals(heapLocator.getRowCount(), mappedLocator.getRowCount());
+            assertEquals(heapLocator.getReferenceCount(), mappedLocator.getReferenceCount());
+            Random random = new Random(7);
+            for (int i = 0; i < 2000; i++) {
+                // Some points are outside of the mesh
+                double x = envelope.getMinX() + (random.nextDouble() * 1.2 - 0.1) * envelope.getWidth();
+                double y = envelope.getMinY() + (random.nextDouble() * 1.2 - 0.1) * envelope.getHeight();
+                int idCell = heapLocator.getCell(x, y);
+                assertEquals(idCell, mappedLocator.getCell(x, y));
+                if (idCell != -1) {
+                    assertEquals(heapLocator.getCellBegin(idCell), mappedLocator.getCellBegin(idCell));
+                    assertEquals(heapLocator.getCellEnd(idCell), mappedLocator.getCellEnd(idCell));
+                    for (int position = heapLocator.getCellBegin(idCell); position < heapLocator.getCellEnd(idCell);
+                         position++) {
+                        assertEquals(heapLocator.getTriangle(position), mappedLocator.getTriangle(position));
+                    }
+                }
+            }
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Settings of an insertion evaluator are not known, the refined mesh must not be cached
+     */
+    public void testInsertionEvaluatorNotCached() throws Throwable {
+        File directory = File.createTempFile("meshcache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        try {
+            CitySceneGenerator scene = new CitySceneGenerator(2, 1);
+            Envelope envelope = scene.getEnvelope();
+            MeshBuilder builder = scene.createMeshBuilder();
+            builder.setInsertionEvaluator(new MeshRefinement(1e6, 1, MeshRefinement.DEFAULT_QUALITY, builder));
+            try {
+                builder.computeInputHash(envelope);
+                fail("The hash must not ignore the evaluator settings");
+            } catch (IllegalStateException ex) {
+                // Expected
+            }
+            FastObstructionTest obstructionTest = MeshCache.getOrCreate(directory, builder, envelope);
+            assertTrue(obstructionTest.getTriangleMesh().getTriangleCount() > 0);
+            assertEquals(0, directory.listFiles().length);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
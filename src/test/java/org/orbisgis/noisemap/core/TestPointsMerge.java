@@ -0,0 +1,102 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test the merge of close points.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestPointsMerge extends TestCase {
+
+    public void testMerge() {
+        PointsMerge merge = new PointsMerge(1.);
+        assertEquals(0, merge.getOrAppendVertex(0.5, 0.5));
+        assertEquals(1, merge.getOrAppendVertex(2.5, 0.5));
+        // Neighbour cell
+        assertEquals(0, merge.getOrAppendVertex(1.2, 0.5));
+        assertEquals(1, merge.getOrAppendVertex(1.7, 0.5));
+        // Exactly at the merge distance
+        assertEquals(2, merge.getOrAppendVertex(0.5, 1.5));
+        // Negative cells
+        assertEquals(3, merge.getOrAppendVertex(-0.6, -0.6));
+        assertEquals(3, merge.getOrAppendVertex(-0.1, -1.2));
+        // Lowest index is kept when several points are close enough
+        assertEquals(0, merge.getOrAppendVertex(0., 0.));
+    }
+
+    public void testClear() {
+        PointsMerge merge = new PointsMerge(1.);
+        assertEquals(0, merge.getOrAppendVertex(10, 10));
+        assertEquals(1, merge.getOrAppendVertex(20, 20));
+        merge.clear();
+        assertEquals(0, merge.getOrAppendVertex(20, 20));
+        assertEquals(1, merge.getOrAppendVertex(10.5, 10));
+        assertEquals(0, merge.getOrAppendVertex(20.5, 20));
+    }
+
+    /**
+     * Compare with a brute force merge, with table growth and reuse
+     */
+    public void testBruteForce() {
+        Random random = new Random(42);
+        PointsMerge merge = new PointsMerge(2.);
+        for (int pass = 0; pass < 3; pass++) {
+            merge.clear();
+            List<double[]> points = new ArrayList<double[]>();
+            for (int i = 0; i < 2000; i++) {
+                double x = random.nextDouble() * 200 - 100;
+                double y = random.nextDouble() * 200 - 100;
+                int expected = -1;
+                for (int idPt = 0; idPt < points.size() && expected == -1; idPt++) {
+                    double[] pt = points.get(idPt);
+                    if (Math.sqrt((pt[0] - x) * (pt[0] - x) + (pt[1] - y) * (pt[1] - y)) < 2.) {
+                        expected = idPt;
+                    }
+                }
+                if (expected == -1) {
+                    expected = points.size();
+                    points.add(new double[]{x, y});
+                }
+                assertEquals(expected, merge.getOrAppendVertex(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Test the settings derived from the target error.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestPropagationAccuracy extends TestCase {
+
+    public void testDefaultSettings() {
+        PropagationAccuracy accuracy = new PropagationAccuracy(PropagationProcessData.DEFAULT_TARGET_ERROR);
+        assertEquals(0.03, accuracy.forgetSourceDb);
+        assertEquals(1., accuracy.mergeDistance);
+        assertEquals(90., accuracy.firstStepRange);
+        assertEquals(1000, accuracy.mirrorLimit);
+        assertEquals(1000, accuracy.diffractionPathLimit);
+    }
+
+    public void testScaling() {
+        PropagationAccuracy regulatory = new PropagationAccuracy(0.1);
+        PropagationAccuracy draft = new PropagationAccuracy(1);
+        PropagationAccuracy precise = new PropagationAccuracy(0.01);
+        assertTrue(precise.mergeDistance < PropagationAccuracy.DEFAULT_MERGE_DISTANCE);
+        assertEquals(PropagationAccuracy.DEFAULT_MERGE_DISTANCE, draft.mergeDistance);
+        assertTrue(draft.firstStepRange < regulatory.firstStepRange);
+        assertTrue(draft.mirrorLimit < regulatory.mirrorLimit);
+        assertTrue(draft.diffractionPathLimit < regulatory.diffractionPathLimit);
+        assertTrue(new PropagationAccuracy(100).mirrorLimit >= PropagationAccuracy.MIN_PATH_LIMIT);
+        // Merge error bound reaches the target error at the same distance
+        double distance = PropagationAccuracy.DEFAULT_MERGE_DISTANCE /
+                (Math.pow(10, PropagationProcessData.DEFAULT_TARGET_ERROR / 20) - 1);
+        assertEquals(0.01, 20 * Math.log10(1 + precise.mergeDistance / distance), 1e-9);
+        try {
+            new PropagationAccuracy(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    public void testDraftPropagation() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(6, 4);
+        List<Coordinate> receivers = scene.createReceiverGrid(20);
+        PropagationProcessOut preciseOut = new PropagationProcessOut(null, null);
+        PropagationProcess precise = new PropagationProcess(scene.createPropagationData(receivers, 1, 1, 500),
+                preciseOut);
+        precise.initStructures();
+        PropagationProcessData draftData = scene.createPropagationData(receivers, 1, 1, 500);
+        draftData.targetError = 1;
+        PropagationProcessOut draftOut = new PropagationProcessOut(null, null);
+        PropagationProcess draft = new PropagationProcess(draftData, draftOut);
+        draft.initStructures();
+        double maxDifference = scene.getMaxLevelDifference(receivers, precise, draft);
+        assertTrue(maxDifference + " dB(A)", maxDifference <= 2 * draftData.targetError);
+        assertTrue(draftOut.getNb_couple_receiver_src() < preciseOut.getNb_couple_receiver_src());
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that the source-receiver propagation does not create objects once the receiver data is ready.
+ * @author Nicolas Fortin
+ */
+public class TestPropagationAllocation extends TestCase {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static Polygon createRectangle(double minX, double minY, double maxX, double maxY, LinearRing[] holes) {
+        return FACTORY.createPolygon(FACTORY.createLinearRing(new Coordinate[]{new Coordinate(minX, minY),
+                new Coordinate(maxX, minY), new Coordinate(maxX, maxY), new Coordinate(minX, maxY),
+                new Coordinate(minX, minY)}), holes);
+    }
+
+    /**
+     * Direct, reflection and diffraction paths of receiver-source couples must not allocate memory.
+     */
+    public void testReceiverSourcePropaAllocation() throws LayerDelaunayError {
+        checkReceiverSourcePropaAllocation(0);
+    }
+
+    /**
+     * Vertical diffraction paths over buildings must not allocate memory.
+     */
+    public void testBuildingHeightPropaAllocation() throws LayerDelaunayError {
+        checkReceiverSourcePropaAllocation(10);
+    }
+
+    /**
+     * @param cellEnvelope   Envelope of the mesh
+     * @param buildingHeight Height of buildings, 0 for buildings without height
+     * @return Mesh of three buildings around the source (12, 8)
+     */
+    private static FastObstructionTest createObstructionTest(Envelope cellEnvelope, double buildingHeight)
+            throws LayerDelaunayError {
+        MeshBuilder mesh = new MeshBuilder();
+        Polygon[] buildings = new Polygon[]{createRectangle(6, 2, 18, 6, null),
+                createRectangle(6, 10, 24, 18, null), createRectangle(30, -10, 34, 30, null)};
+        for (Polygon building : buildings) {
+            if (buildingHeight > 0) {
+                mesh.addGeometry(building, buildingHeight);
+            } else {
+                mesh.addGeometry(building);
+            }
+        }
+        mesh.finishPolygonFeeding(cellEnvelope);
+        return new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+    }
+
+    /**
+     * @param buildingHeight Height of buildings, 0 for buildings without height
+     */
+    private void checkReceiverSourcePropaAllocation(double buildingHeight) throws LayerDelaunayError {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            // Allocated memory is not available on this virtual machine
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Envelope cellEnvelope = new Envelope(new Coordinate(-100., -100., 0.), new Coordinate(100, 100, 0.));
+        FastObstructionTest manager = createObstructionTest(cellEnvelope, buildingHeight);
+        if (buildingHeight > 0) {
+            // The first building is between the first receiver and the source
+            assertTrue(manager.getPath(new Coordinate(2, 4, 0), new Coordinate(12, 8, 0.05)).getDeltaDistance() > 0);
+        }
+        List<Geometry> srclst = new ArrayList<Geometry>();
+        srclst.add(FACTORY.createPoint(new Coordinate(12, 8, 0)));
+        List<ArrayList<Double>> srcSpectrum = new ArrayList<ArrayList<Double>>();
+        List<Integer> freqLvl = new ArrayList<Integer>();
+        srcSpectrum.add(new ArrayList<Double>());
+        for (int freq = 100; freq <= 5000; freq *= 2) {
+            freqLvl.add(freq);
+            srcSpectrum.get(0).add(PropagationProcess.dbaToW(100.));
+        }
+        QueryGeometryStructure sourcesIndex = new QueryGridIndex(cellEnvelope, 8, 8);
+        sourcesIndex.appendGeometry(srclst.get(0), 0);
+        List<GeoWithSoilType> soils = new ArrayList<GeoWithSoilType>();
+        soils.add(new GeoWithSoilType(createRectangle(-50, -50, 0, 50, null), 0.8));
+        List<Coordinate> receivers = new ArrayList<Coordinate>();
+        receivers.add(new Coordinate(2, 4, 0));
+        receivers.add(new Coordinate(-5, 20, 0));
+        PropagationProcessData propData = new PropagationProcessData(receivers, null, null, manager, sourcesIndex,
+                srclst, srcSpectrum, freqLvl, 2, 2, 200., 100., 1., 0.2, 0, null, soils);
+        PropagationProcess process = new PropagationProcess(propData, new PropagationProcessOut(null, null));
+        process.initStructures();
+        // Sources all around the buildings
+        double[] wj = new double[freqLvl.size()];
+        for (int idFreq = 0; idFreq < wj.length; idFreq++) {
+            wj[idFreq] = PropagationProcess.dbaToW(100.);
+        }
+        List<Coordinate> sources = new ArrayList<Coordinate>();
+        for (int x = -20; x < 60; x += 7) {
+            for (int y = -20; y < 40; y += 7) {
+                sources.add(new Coordinate(x + 0.5, y + 0.5, 0.05));
+            }
+        }
+        double[] energeticSum = new double[wj.length];
+        List<PropagationWorkerContext> contexts = new ArrayList<PropagationWorkerContext>();
+        for (Coordinate receiver : receivers) {
+            PropagationWorkerContext context = new PropagationWorkerContext(wj.length, manager);
+            process.initReceiver(receiver, context);
+            contexts.add(context);
+        }
+        // Warm up
+        for (int loop = 0; loop < 200; loop++) {
+            for (PropagationWorkerContext context : contexts) {
+                for (Coordinate source : sources) {
+                    process.receiverSourcePropa(source, context.receiverPos, energeticSum, wj, 0, context);
+                }
+            }
+        }
+        long pairCount = 0;
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int loop = 0; loop < 50; loop++) {
+            for (int idContext = 0; idContext < contexts.size(); idContext++) {
+                PropagationWorkerContext context = contexts.get(idContext);
+                for (int idSource = 0; idSource < sources.size(); idSource++) {
+                    process.receiverSourcePropa(sources.get(idSource), context.receiverPos, energeticSum, wj, 0,
+                            context);
+                    pairCount++;
+                }
+            }
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long reflexionPathCount = 0;
+        long diffractionPathCount = 0;
+        for (PropagationWorkerContext context : contexts) {
+            reflexionPathCount += context.reflexionPathCount;
+            diffractionPathCount += context.diffractionPathCount;
+        }
+        assertTrue(reflexionPathCount > 0);
+        assertTrue(diffractionPathCount > 0);
+        assertTrue(energeticSum[0] > 0);
+        // A single object by couple would be at least 16 bytes
+        assertTrue(allocated + " bytes allocated for " + pairCount + " receiver-source couples",
+                allocated < pairCount);
+    }
+
+    /**
+     * The single receiver entry point must reuse the scratch data of the calling thread.
+     */
+    public void testSingleReceiverContext() throws LayerDelaunayError {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            // Allocated memory is not available on this virtual machine
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        long threadId = Thread.currentThread().getId();
+        Envelope cellEnvelope = new Envelope(new Coordinate(-100., -100., 0.), new Coordinate(100, 100, 0.));
+        // Blocks of buildings, the mesh is larger than the query context
+        MeshBuilder mesh = new MeshBuilder();
+        for (int x = -90; x < 90; x += 12) {
+            for (int y = -90; y < 90; y += 12) {
+                if (Math.abs(x) > 24 || Math.abs(y) > 24) {
+                    mesh.addGeometry(createRectangle(x, y, x + 6, y + 6, null));
+                }
+            }
+        }
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        List<Geometry> srclst = new ArrayList<Geometry>();
+        List<ArrayList<Double>> srcSpectrum = new ArrayList<ArrayList<Double>>();
+        List<Integer> freqLvl = new ArrayList<Integer>();
+        for (int freq = 100; freq <= 5000; freq *= 2) {
+            freqLvl.add(freq);
+        }
+        QueryGeometryStructure sourcesIndex = new QueryGridIndex(cellEnvelope, 8, 8);
+        for (int x = -20; x < 60; x += 7) {
+            for (int y = -20; y < 40; y += 7) {
+                ArrayList<Double> spectrum = new ArrayList<Double>();
+                for (int idFreq = 0; idFreq < freqLvl.size(); idFreq++) {
+                    spectrum.add(PropagationProcess.dbaToW(100.));
+                }
+                srcSpectrum.add(spectrum);
+                srclst.add(FACTORY.createPoint(new Coordinate(x + 0.5, y + 0.5, 0.05)));
+                sourcesIndex.appendGeometry(srclst.get(srclst.size() - 1), srclst.size() - 1);
+            }
+        }
+        List<Coordinate> receivers = new ArrayList<Coordinate>();
+        receivers.add(new Coordinate(2, 4, 0));
+        PropagationProcessData propData = new PropagationProcessData(receivers, null, null, manager, sourcesIndex,
+                srclst, srcSpectrum, freqLvl, 1, 1, 150., 100., 1., 0.2, 0, null, null);
+        PropagationProcess process = new PropagationProcess(propData, new PropagationProcessOut(null, null));
+        process.initStructures();
+        double[] energeticSum = new double[freqLvl.size()];
+        int triangleCount = manager.getTriangles().size();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        propData.freeFieldFinder.createQueryContext();
+        long queryContextSize = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        // The navigation history of the mesh is not allocated with the context
+        assertTrue(queryContextSize + " bytes allocated by a query context of " + triangleCount + " triangles",
+                queryContextSize < triangleCount * 4L);
+        allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        PropagationWorkerContext context = new PropagationWorkerContext(energeticSum.length, propData.freeFieldFinder);
+        long contextSize = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        // Warm up
+        for (int loop = 0; loop < 20; loop++) {
+            process.computeSoundLevelAtPosition(receivers.get(0), energeticSum);
+            process.computeSoundLevelAtPosition(receivers.get(0), energeticSum, context);
+        }
+        final int callCount = 10;
+        allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int loop = 0; loop < callCount; loop++) {
+            process.computeSoundLevelAtPosition(receivers.get(0), energeticSum, context);
+        }
+        long withContext = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int loop = 0; loop < callCount; loop++) {
+            process.computeSoundLevelAtPosition(receivers.get(0), energeticSum);
+        }
+        long withoutContext = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue((withoutContext - withContext) + " more bytes allocated by " + callCount
+                        + " calls without context, a worker context is " + contextSize + " bytes",
+                withoutContext - withContext < contextSize);
+    }
+}
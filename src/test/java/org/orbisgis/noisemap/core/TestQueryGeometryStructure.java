@@ -0,0 +1,146 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Test the ring and distance queries of the geometry indexes.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestQueryGeometryStructure extends TestCase {
+
+    private static List<QueryGeometryStructure> createIndexes(CitySceneGenerator scene) {
+        List<QueryGeometryStructure> indexes = new ArrayList<QueryGeometryStructure>();
+        indexes.add(new QueryGridIndex(scene.getEnvelope(), 16, 16));
+        indexes.add(new QueryQuadTree());
+        indexes.add(new QueryRTree());
+        List<Geometry> roads = scene.getRoads();
+        for (QueryGeometryStructure index : indexes) {
+            for (int idRoad = 0; idRoad < roads.size(); idRoad++) {
+                index.appendGeometry(roads.get(idRoad), idRoad);
+            }
+        }
+        return indexes;
+    }
+
+    private static List<Integer> toList(Iterator<Integer> it) {
+        List<Integer> items = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            items.add(it.next());
+        }
+        return items;
+    }
+
+    private static Envelope square(Coordinate center, double halfSide) {
+        Envelope env = new Envelope(center);
+        env.expandBy(halfSide);
+        return env;
+    }
+
+    public void testQueryRing() {
+        CitySceneGenerator scene = new CitySceneGenerator(10, 2);
+        Coordinate center = new Coordinate(scene.getEnvelope().getMinX() + 130, scene.getEnvelope().getMinY() + 250);
+        for (QueryGeometryStructure index : createIndexes(scene)) {
+            Set<Integer> returned = new HashSet<Integer>();
+            Envelope queried = new Envelope();
+            for (double range : new double[]{50, 40, 120, 300, 1000}) {
+                Envelope region = square(center, range);
+                List<Integer> ring = queried.isNull() ? toList(index.query(region)) :
+                        toList(index.queryRing(queried, region));
+                queried.expandToInclude(region);
+                for (Integer item : ring) {
+                    // Never returned twice
+                    assertTrue(returned.add(item));
+                }
+                // All items of the range are returned
+                assertEquals(new HashSet<Integer>(toList(index.query(queried))), returned);
+            }
+            assertEquals(scene.getRoads().size(), returned.size());
+        }
+    }
+
+    public void testQueryRingDifference() {
+        CitySceneGenerator scene = new CitySceneGenerator(10, 2);
+        Envelope sceneEnv = scene.getEnvelope();
+        Random random = new Random(5);
+        for (QueryGeometryStructure index : createIndexes(scene)) {
+            for (int i = 0; i < 50; i++) {
+                Coordinate center = new Coordinate(sceneEnv.getMinX() + random.nextDouble() * sceneEnv.getWidth(),
+                        sceneEnv.getMinY() + random.nextDouble() * sceneEnv.getHeight());
+                Envelope outer = square(center, 20 + random.nextDouble() * 300);
+                // Inner region not centered, sometimes partly outside the outer region
+                Envelope inner = square(new Coordinate(center.x + (random.nextDouble() - 0.5) * 200,
+                        center.y + (random.nextDouble() - 0.5) * 200), random.nextDouble() * 200);
+                Set<Integer> expected = new HashSet<Integer>(toList(index.query(outer)));
+                expected.removeAll(toList(index.query(inner)));
+                List<Integer> ring = toList(index.queryRing(inner, outer));
+                assertEquals(index.getClass().getSimpleName(), expected.size(), ring.size());
+                assertEquals(expected, new HashSet<Integer>(ring));
+            }
+        }
+    }
+
+    public void testQueryByDistance() {
+        CitySceneGenerator scene = new CitySceneGenerator(10, 2);
+        Coordinate center = new Coordinate(scene.getEnvelope().getMinX() + 210, scene.getEnvelope().getMinY() + 170);
+        Envelope centerEnv = new Envelope(center);
+        for (QueryGeometryStructure index : createIndexes(scene)) {
+            for (double maxDistance : new double[]{30, 150}) {
+                List<Integer> items = toList(index.queryByDistance(center, maxDistance));
+                assertEquals(new HashSet<Integer>(toList(index.query(square(center, maxDistance)))),
+                        new HashSet<Integer>(items));
+                assertEquals(items.size(), new HashSet<Integer>(items).size());
+                if (!(index instanceof QueryGridIndex)) {
+                    for (int i = 1; i < items.size(); i++) {
+                        double previous = scene.getRoads().get(items.get(i - 1)).getEnvelopeInternal().distance(centerEnv);
+                        double current = scene.getRoads().get(items.get(i)).getEnvelopeInternal().distance(centerEnv);
+                        assertTrue(previous <= current);
+                    }
+                }
+            }
+        }
+    }
+}
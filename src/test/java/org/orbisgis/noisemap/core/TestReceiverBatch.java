@@ -0,0 +1,122 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test the computation of a batch of receivers.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestReceiverBatch extends TestCase {
+    private static final int RECEIVER_COUNT = 10;
+    private static final double[] FLOOR_HEIGHTS = new double[]{1.5, 4, 7};
+
+    public void testComputeSoundLevels() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(4, 7);
+        List<Coordinate> grid = scene.createReceiverGrid(RECEIVER_COUNT);
+        // Facade like receivers, floors of a point are not consecutive in the batch
+        double[] xs = new double[grid.size() * FLOOR_HEIGHTS.length];
+        double[] ys = new double[xs.length];
+        double[] zs = new double[xs.length];
+        for (int floor = 0; floor < FLOOR_HEIGHTS.length; floor++) {
+            for (int i = 0; i < grid.size(); i++) {
+                int idReceiver = floor * grid.size() + i;
+                xs[idReceiver] = grid.get(i).x;
+                ys[idReceiver] = grid.get(i).y;
+                zs[idReceiver] = FLOOR_HEIGHTS[floor];
+            }
+        }
+        PropagationProcess reference = new PropagationProcess(scene.createPropagationData(grid, 1, 1, 300),
+                new PropagationProcessOut(null, null));
+        reference.initStructures();
+        int nbFreq = scene.getFreqLvl().size();
+        double[] expected = new double[xs.length * nbFreq];
+        double[] energeticSum = new double[nbFreq];
+        for (int idReceiver = 0; idReceiver < xs.length; idReceiver++) {
+            Arrays.fill(energeticSum, 0);
+            reference.computeSoundLevelAtPosition(new Coordinate(xs[idReceiver], ys[idReceiver], zs[idReceiver]),
+                    energeticSum);
+            System.arraycopy(energeticSum, 0, expected, idReceiver * nbFreq, nbFreq);
+        }
+        // Structures are initialised by the batch call
+        PropagationProcessOut batchOut = new PropagationProcessOut(null, null);
+        PropagationProcess batch = new PropagationProcess(scene.createPropagationData(grid, 1, 1, 300), batchOut);
+        assertArrayEquals(expected, batch.computeSoundLevels(xs, ys, zs));
+        assertTrue(batchOut.getNb_couple_receiver_src() > 0);
+        // Same results with helper threads
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            batch.setReceiverExecutor(executorService, 4);
+            double[] levels = new double[xs.length * nbFreq];
+            batch.computeSoundLevels(xs, ys, zs, levels);
+            assertArrayEquals(expected, levels);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    public void testInvalidArguments() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(2, 7);
+        List<Coordinate> grid = scene.createReceiverGrid(2);
+        PropagationProcess process = new PropagationProcess(scene.createPropagationData(grid, 0, 0, 100),
+                new PropagationProcessOut(null, null));
+        try {
+            process.computeSoundLevels(new double[2], new double[2], new double[1]);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        try {
+            process.computeSoundLevels(new double[2], new double[2], new double[2], new double[2]);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    private static void assertArrayEquals(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], Math.abs(expected[i]) * 1e-12);
+        }
+    }
+}
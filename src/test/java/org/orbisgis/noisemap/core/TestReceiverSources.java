@@ -0,0 +1,92 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test the point sources gathered around a receiver.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestReceiverSources extends TestCase {
+
+    public void testMarkProcessed() {
+        ReceiverSources sources = new ReceiverSources(1);
+        sources.newReceiver(10);
+        assertTrue(sources.markProcessed(3));
+        assertFalse(sources.markProcessed(3));
+        assertTrue(sources.markProcessed(9));
+        // Marks are kept between search ranges of the same receiver
+        sources.clearPoints();
+        assertFalse(sources.markProcessed(9));
+        sources.newReceiver(10);
+        assertTrue(sources.markProcessed(3));
+        // More raw sources
+        sources.newReceiver(20);
+        assertTrue(sources.markProcessed(3));
+        assertTrue(sources.markProcessed(19));
+    }
+
+    public void testSortByDistance() {
+        SpectrumArray wj = new SpectrumArray(2, 1);
+        wj.addSource(1., 2.);
+        ReceiverSources sources = new ReceiverSources(2);
+        Random random = new Random(5);
+        for (int size : new int[]{0, 1, 10, 1000}) {
+            sources.newReceiver(1);
+            for (int i = 0; i < size; i++) {
+                double distance = i % 50 == 7 ? Double.NaN : random.nextInt(size / 2 + 1);
+                sources.addPoint(i, -i, 0, distance, wj, 0, i);
+            }
+            assertEquals(size, sources.size());
+            sources.sortByDistance();
+            for (int rank = 1; rank < size; rank++) {
+                int previous = sources.getSortedPoint(rank - 1);
+                int point = sources.getSortedPoint(rank);
+                int cmp = Double.compare(sources.getDistance(previous), sources.getDistance(point));
+                assertTrue(cmp < 0 || (cmp == 0 && previous < point));
+            }
+            for (int i = 0; i < size; i++) {
+                assertEquals((double) i, sources.getX(i));
+                assertEquals((double) -i, sources.getY(i));
+                assertEquals(i * 2., sources.getSpectrums().get(i, 1));
+            }
+        }
+        sources.addPower(0, wj, 0, 3);
+        assertEquals(3., sources.getSpectrums().get(0, 0));
+    }
+}
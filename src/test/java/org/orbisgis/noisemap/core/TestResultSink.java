@@ -0,0 +1,128 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import junit.framework.TestCase;
+
+/**
+ * Hand over of result batches to a consumer thread.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestResultSink extends TestCase {
+
+	public void testAsyncSink() throws InterruptedException {
+		final Stack<PropagationResultPtRecord> ptStack = new Stack<PropagationResultPtRecord>();
+		final List<Thread> consumerThreads = new ArrayList<Thread>();
+		ResultSink destination = new StackResultSink(null, ptStack) {
+			@Override
+			public void addPtRecords(List<PropagationResultPtRecord> records) {
+				if(!consumerThreads.contains(Thread.currentThread())) {
+					consumerThreads.add(Thread.currentThread());
+				}
+				super.addPtRecords(records);
+			}
+		};
+		AsyncResultSink asyncSink = new AsyncResultSink(destination, 2);
+		final PropagationProcessOut dataOut = new PropagationProcessOut(asyncSink);
+		final int batchCount = 50;
+		final int batchSize = 100;
+		Thread[] producers = new Thread[4];
+		for(int idThread = 0; idThread < producers.length; idThread++) {
+			final int cellId = idThread;
+			producers[idThread] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int idBatch = 0; idBatch < batchCount; idBatch++) {
+						List<PropagationResultPtRecord> batch = new ArrayList<PropagationResultPtRecord>(batchSize);
+						for(int i = 0; i < batchSize; i++) {
+							batch.add(new PropagationResultPtRecord(idBatch * batchSize + i, cellId, 1.));
+						}
+						dataOut.addPtRecords(batch);
+					}
+				}
+			});
+			producers[idThread].start();
+		}
+		for(Thread producer : producers) {
+			producer.join();
+		}
+		asyncSink.close();
+		assertEquals(producers.length * batchCount * batchSize, ptStack.size());
+		// Destination sink is fed by a single thread
+		assertEquals(1, consumerThreads.size());
+		long[] rowSum = new long[producers.length];
+		for(PropagationResultPtRecord record : ptStack) {
+			rowSum[record.getCellId()] += record.getReceiverRecordRow();
+		}
+		long expectedSum = (long)(batchCount * batchSize) * (batchCount * batchSize - 1) / 2;
+		for(long sum : rowSum) {
+			assertEquals(expectedSum, sum);
+		}
+	}
+
+	public void testConsumerError() throws InterruptedException {
+		AsyncResultSink asyncSink = new AsyncResultSink(new StackResultSink(null, null), 1);
+		List<PropagationResultPtRecord> batch = new ArrayList<PropagationResultPtRecord>();
+		batch.add(new PropagationResultPtRecord(0, 0, 1.));
+		asyncSink.addPtRecords(batch);
+		try {
+			asyncSink.close();
+			fail("Error of the destination sink must be thrown by close");
+		} catch (IllegalStateException ex) {
+			assertTrue(ex.getCause() instanceof NullPointerException);
+		}
+	}
+
+	public void testPutAfterClose() throws InterruptedException {
+		final Stack<PropagationResultPtRecord> ptStack = new Stack<PropagationResultPtRecord>();
+		AsyncResultSink asyncSink = new AsyncResultSink(new StackResultSink(null, ptStack), 1);
+		List<PropagationResultPtRecord> batch = new ArrayList<PropagationResultPtRecord>();
+		batch.add(new PropagationResultPtRecord(0, 0, 1.));
+		asyncSink.addPtRecords(batch);
+		asyncSink.close();
+		assertEquals(1, ptStack.size());
+		try {
+			asyncSink.addPtRecords(batch);
+			fail("Records given after close would be lost");
+		} catch (IllegalStateException ex) {
+			// Expected
+		}
+		assertEquals(1, ptStack.size());
+	}
+}
@@ -128,4 +128,20 @@ public class TestRowsUnionClassification extends TestCase  {
         System.out.println("Merging of rows took :"+timeadd+" ms");
 
     }
+
+    public void testContains() {
+        RowsUnionClassification mergeTool=new RowsUnionClassification(5);
+        for(int i=10;i<20;i++) {
+            mergeTool.addRow(i);
+        }
+        assertFalse(mergeTool.contains(4));
+        assertTrue(mergeTool.contains(5));
+        assertFalse(mergeTool.contains(6));
+        assertFalse(mergeTool.contains(9));
+        assertTrue(mergeTool.contains(10));
+        assertTrue(mergeTool.contains(15));
+        assertTrue(mergeTool.contains(19));
+        assertFalse(mergeTool.contains(20));
+        assertFalse(new RowsUnionClassification().contains(0));
+    }
 }
@@ -0,0 +1,91 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test the soil length of propagation paths.
+ * @author Nicolas Fortin
+ */
+public class TestSoilLengthVisitor extends TestCase {
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static Polygon createRectangle(double minX, double minY, double maxX, double maxY, LinearRing[] holes) {
+        return FACTORY.createPolygon(FACTORY.createLinearRing(new Coordinate[]{new Coordinate(minX, minY),
+                new Coordinate(maxX, minY), new Coordinate(maxX, maxY), new Coordinate(minX, maxY),
+                new Coordinate(minX, minY)}), holes);
+    }
+
+    /**
+     * Soil length computed without overlay must be the same as the JTS intersection length
+     */
+    public void testSoilLength() {
+        Polygon hole = createRectangle(10, 10, 20, 20, null);
+        List<GeoWithSoilType> soils = new ArrayList<GeoWithSoilType>();
+        soils.add(new GeoWithSoilType(createRectangle(0, 0, 30, 30,
+                new LinearRing[]{(LinearRing) hole.getExteriorRing()}), 0.5));
+        soils.add(new GeoWithSoilType(FACTORY.createMultiPolygon(new Polygon[]{createRectangle(40, 0, 50, 10, null),
+                FACTORY.createPolygon(FACTORY.createLinearRing(new Coordinate[]{new Coordinate(60, 0),
+                        new Coordinate(80, 20), new Coordinate(60, 30), new Coordinate(60, 0)}), null)}), 1.));
+        STRtree soilIndex = new STRtree();
+        for (int i = 0; i < soils.size(); i++) {
+            Envelope env = soils.get(i).getGeo().getEnvelopeInternal();
+            soilIndex.insert(env, new EnvelopeWithIndex<Integer>(env, i));
+        }
+        SoilLengthVisitor visitor = new SoilLengthVisitor();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            Coordinate start = new Coordinate(random.nextDouble() * 100 - 10, random.nextDouble() * 50 - 10);
+            Coordinate end = new Coordinate(random.nextDouble() * 100 - 10, random.nextDouble() * 50 - 10);
+            LineString segment = FACTORY.createLineString(new Coordinate[]{start, end});
+            double expected = 0;
+            for (GeoWithSoilType soil : soils) {
+                expected += segment.intersection(soil.getGeo()).getLength() * soil.getType();
+            }
+            assertEquals(expected, visitor.getWeightedLength(soilIndex, soils, start, end), 1e-9);
+        }
+    }
+}
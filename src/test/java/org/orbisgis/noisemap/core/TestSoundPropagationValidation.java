@@ -43,6 +43,10 @@ import com.vividsolutions.jts.geom.Polygon;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import junit.framework.TestCase;
@@ -152,20 +156,20 @@ public class TestSoundPropagationValidation extends TestCase {
 		// Get reference spl value
 		propData.reflexionOrder=0;
 		propData.diffractionOrder=0;
-		srcSpectrum.get(0).set(0,PropagationProcess.dbaToW(100.)+PropagationProcess.dbaToW(100.));
+		propData.wj_sources.set(0,0,PropagationProcess.dbaToW(100.)+PropagationProcess.dbaToW(100.));
 		double dbaSingleSource=splCompute(propManager, new Coordinate(40,20,0));
 		//spl value
-		srcSpectrum.add(new ArrayList<Double>());
-		srcSpectrum.get(0).set(0,PropagationProcess.dbaToW(100.));
-		srcSpectrum.get(1).add(PropagationProcess.dbaToW(100.)); // 100 dB(A) @ 125 Hz
+		propData.wj_sources.set(0,0,PropagationProcess.dbaToW(100.));
+		propData.wj_sources.addSource(PropagationProcess.dbaToW(100.)); // 100 dB(A) @ 125 Hz
 		srclst.add(factory.createPoint(new Coordinate(40,15,0)));
 		sourcesIndex.appendGeometry(srclst.get(1), idsrc);
 		idsrc++;
 		double dbaDupp=splCompute(propManager, new Coordinate(40,20,0));
 		splCompare(dbaSingleSource, "Scene 1 R3_S2",dbaDupp);
 
+		propManager.flushStatistics();
 		System.out.println("Simulation done in "+(System.currentTimeMillis()-startSimulation)+"ms");
-		System.out.println(manager.getNbObstructionTest()+" obstruction test has been done..");
+		System.out.println(propDataOut.getNb_obstr_test()+" obstruction test has been done..");
 		System.out.println("testScene1 done in "+(System.currentTimeMillis()-startMakeScene)+"ms");
 	}
 	/**
@@ -265,12 +269,167 @@ public class TestSoundPropagationValidation extends TestCase {
 
 
 
+		propManager.flushStatistics();
 		System.out.println("Simulation done in "+(System.currentTimeMillis()-startSimulation)+"ms");
-		System.out.println(manager.getNbObstructionTest()+" obstruction test has been done..");
+		System.out.println(propDataOut.getNb_obstr_test()+" obstruction test has been done..");
 		System.out.println(propDataOut.getNb_couple_receiver_src()+" point source created..");
 		System.out.println(propDataOut.getNb_image_receiver()+" receiver image found..");
 		System.out.println(propDataOut.getNb_reflexion_path()+" reflection path found..");
 		splCompare(dbaRef, "Scene 2 (20,4)",90.67017);
 		System.out.println("testScene1 done in "+(System.currentTimeMillis()-startMakeScene)+"ms");
 	}
+
+	/**
+	 * Compute the receivers of a cell on a single thread then on multiple threads, results must be the same.
+	 * @throws LayerDelaunayError
+	 */
+	public void testParallelReceivers() throws LayerDelaunayError, InterruptedException, ExecutionException {
+		GeometryFactory factory = new GeometryFactory();
+		Coordinate[] building1Coords = { new Coordinate(6., 2.,0.),
+				new Coordinate(18., 2.,0.),new Coordinate(18., 6.,0.),
+				new Coordinate(6., 6.,0.),new Coordinate(6., 2.,0.)};
+		Coordinate[] building2Coords = { new Coordinate(6., 10.,0.),
+				new Coordinate(24., 10.,0.),new Coordinate(24.,18.,0.),
+				new Coordinate(6., 18.,0.),new Coordinate(6., 10.,0.)};
+		List<Geometry> srclst=new ArrayList<Geometry>();
+		srclst.add(factory.createLineString(new Coordinate[]{new Coordinate(2,8,0),new Coordinate(24,8,0),new Coordinate(30,14,0)}));
+		srclst.add(factory.createPoint(new Coordinate(40,15,0)));
+		Envelope cellEnvelope=new Envelope(new Coordinate(-100., -100.,0.),new Coordinate(100, 100,0.));
+		List<ArrayList<Double>> srcSpectrum=new ArrayList<ArrayList<Double>>();
+		for(int idsrc=0;idsrc<srclst.size();idsrc++) {
+			srcSpectrum.add(new ArrayList<Double>());
+			srcSpectrum.get(idsrc).add(PropagationProcess.dbaToW(100.));
+		}
+		List<Integer> freqLvl=new ArrayList<Integer>();
+		freqLvl.add(125);
+		QueryGeometryStructure sourcesIndex = new QueryGridIndex(cellEnvelope, 8, 8);
+		for(int idsrc=0;idsrc<srclst.size();idsrc++) {
+			sourcesIndex.appendGeometry(srclst.get(idsrc), idsrc);
+		}
+		MeshBuilder mesh = new MeshBuilder();
+		mesh.addGeometry(factory.createPolygon(factory.createLinearRing(building1Coords), null));
+		mesh.addGeometry(factory.createPolygon(factory.createLinearRing(building2Coords), null));
+		mesh.finishPolygonFeeding(cellEnvelope);
+		FastObstructionTest manager=new FastObstructionTest(mesh.getPolygonWithHeight(),mesh.getTriangles(),mesh.getTriNeighbors(),mesh.getVertices());
+		// Receivers grid
+		List<Coordinate> receivers = new ArrayList<Coordinate>();
+		List<Long> receiversRowId = new ArrayList<Long>();
+		for(int x=-20;x<60;x+=4) {
+			for(int y=-20;y<40;y+=4) {
+				receivers.add(new Coordinate(x + 0.5, y + 0.5, 0));
+				receiversRowId.add((long)receiversRowId.size());
+			}
+		}
+		double[] sequentialLevels = computeReceiversLevel(receivers, receiversRowId, manager, sourcesIndex, srclst, srcSpectrum, freqLvl, null);
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			double[] parallelLevels = computeReceiversLevel(receivers, receiversRowId, manager, sourcesIndex, srclst, srcSpectrum, freqLvl, executorService);
+			for(int idReceiver=0;idReceiver<receivers.size();idReceiver++) {
+				assertEquals("Receiver "+idReceiver, sequentialLevels[idReceiver], parallelLevels[idReceiver], 1e-12);
+			}
+		} finally {
+			executorService.shutdown();
+		}
+		// Cells of different sizes computed by the scheduler
+		PropagationCellScheduler scheduler = new PropagationCellScheduler(3);
+		scheduler.setReceiverParallelism(3);
+		try {
+			List<PropagationProcess> cells = new ArrayList<PropagationProcess>();
+			List<Stack<PropagationResultPtRecord>> cellsStack = new ArrayList<Stack<PropagationResultPtRecord>>();
+			int[] cellsStart = new int[] {0, 10, 60, receivers.size()};
+			for(int idCell = 0; idCell < cellsStart.length - 1; idCell++) {
+				List<Coordinate> cellReceivers = receivers.subList(cellsStart[idCell], cellsStart[idCell + 1]);
+				List<Long> cellRowIds = receiversRowId.subList(cellsStart[idCell], cellsStart[idCell + 1]);
+				Stack<PropagationResultPtRecord> dataStack = new Stack<PropagationResultPtRecord>();
+				PropagationProcessData propData=new PropagationProcessData(cellReceivers, cellRowIds, null, manager, sourcesIndex, srclst, srcSpectrum, freqLvl, 1, 1, 80.,50., 1., 0.2, idCell, new ProgressionProcess(null, cellReceivers.size()),null);
+				cells.add(new PropagationProcess(propData, new PropagationProcessOut(null, dataStack)));
+				cellsStack.add(dataStack);
+			}
+			List<Future<PropagationProcessOut>> futures = scheduler.submitAll(cells);
+			for(int idCell = 0; idCell < cells.size(); idCell++) {
+				assertEquals(1, futures.get(idCell).get().getCellComputed());
+				assertEquals(cellsStart[idCell + 1] - cellsStart[idCell], cellsStack.get(idCell).size());
+				for(PropagationResultPtRecord record : cellsStack.get(idCell)) {
+					assertEquals(sequentialLevels[(int)record.getReceiverRecordRow()], record.getReceiverLvl(), 1e-12);
+				}
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	private double[] computeReceiversLevel(List<Coordinate> receivers, List<Long> receiversRowId, FastObstructionTest manager,
+			QueryGeometryStructure sourcesIndex, List<Geometry> srclst, List<ArrayList<Double>> srcSpectrum,
+			List<Integer> freqLvl, ExecutorService executorService) {
+		Stack<PropagationResultPtRecord> dataStack=new Stack<PropagationResultPtRecord>();
+		PropagationProcessData propData=new PropagationProcessData(receivers, receiversRowId, null, manager, sourcesIndex, srclst, srcSpectrum, freqLvl, 1, 1, 80.,50., 1., 0.2, 0, new ProgressionProcess(null, receivers.size()),null);
+		PropagationProcessOut propDataOut=new PropagationProcessOut(null,dataStack);
+		PropagationProcess propManager=new PropagationProcess(propData, propDataOut);
+		propManager.setReceiverExecutor(executorService, 4);
+		propManager.run();
+		assertEquals(receivers.size(), dataStack.size());
+		double[] levels = new double[receivers.size()];
+		for(PropagationResultPtRecord record : dataStack) {
+			levels[(int)record.getReceiverRecordRow()] = record.getReceiverLvl();
+		}
+		return levels;
+	}
+
+	/**
+	 * On sloped ground, the corner visibility tests must not move the receiver.
+	 * Corner paths only add energy to the direct path, the level stays close to the level without diffraction.
+	 */
+	public void testSlopedGroundReceiverAltitude() throws LayerDelaunayError {
+		GeometryFactory factory = new GeometryFactory();
+		Envelope cellEnvelope = new Envelope(new Coordinate(-170., -170., 0.), new Coordinate(170, 170, 0.));
+		MeshBuilder mesh = new MeshBuilder();
+		// Four buildings around the receiver, the source is in direct view
+		double[][] buildingsEnv = {{10, 20, 10, 20}, {-20, -10, 10, 20}, {-20, -10, -20, -10}, {10, 20, -20, -10}};
+		for (double[] env : buildingsEnv) {
+			Coordinate[] coords = {new Coordinate(env[0], env[2], getSlopeAltitude(env[0])),
+					new Coordinate(env[1], env[2], getSlopeAltitude(env[1])),
+					new Coordinate(env[1], env[3], getSlopeAltitude(env[1])),
+					new Coordinate(env[0], env[3], getSlopeAltitude(env[0])),
+					new Coordinate(env[0], env[2], getSlopeAltitude(env[0]))};
+			mesh.addGeometry(factory.createPolygon(factory.createLinearRing(coords), null));
+		}
+		// Ground rising along X
+		for (double x = -165; x <= 165; x += 30) {
+			for (double y = -165; y <= 165; y += 30) {
+				if (Math.abs(x) > 30 || Math.abs(y) > 30) {
+					mesh.addTopographicPoint(new Coordinate(x, y, getSlopeAltitude(x)));
+				}
+			}
+		}
+		mesh.finishPolygonFeeding(cellEnvelope);
+		FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+				mesh.getTriNeighbors(), mesh.getVertices());
+		List<Geometry> srclst = new ArrayList<Geometry>();
+		srclst.add(factory.createPoint(new Coordinate(40, 2, 0.05)));
+		QueryGeometryStructure sourcesIndex = new QueryGridIndex(cellEnvelope, 8, 8);
+		sourcesIndex.appendGeometry(srclst.get(0), 0);
+		List<ArrayList<Double>> srcSpectrum = new ArrayList<ArrayList<Double>>();
+		srcSpectrum.add(new ArrayList<Double>());
+		srcSpectrum.get(0).add(PropagationProcess.dbaToW(100.));
+		List<Integer> freqLvl = new ArrayList<Integer>();
+		freqLvl.add(125);
+		Coordinate receiver = new Coordinate(2, 2, 4);
+		double[] levels = new double[2];
+		for (int diffractionOrder = 0; diffractionOrder < levels.length; diffractionOrder++) {
+			PropagationProcessData propData = new PropagationProcessData(null, null, null, manager, sourcesIndex,
+					srclst, srcSpectrum, freqLvl, 0, diffractionOrder, 200., 50., 1., 0., 0, null, null);
+			PropagationProcess propManager = new PropagationProcess(propData, new PropagationProcessOut(null, null));
+			propManager.initStructures();
+			levels[diffractionOrder] = splCompute(propManager, receiver);
+		}
+		double directLevel = levels[0];
+		double diffractionLevel = levels[1];
+		assertEquals(4., receiver.z, 0.);
+		assertTrue(diffractionLevel >= directLevel);
+		assertEquals(directLevel, diffractionLevel, splEpsilon);
+	}
+
+	private static double getSlopeAltitude(double x) {
+		return 50 + 0.1 * x;
+	}
 }
@@ -0,0 +1,102 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line sources discretized from the cache must be the same as the regular points of JTSUtility.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestSourceDiscretizationCache extends TestCase {
+    private static final Coordinate[] ROAD = {new Coordinate(0, 0, 0), new Coordinate(100, 0, 1),
+            new Coordinate(100, 50, 2), new Coordinate(103, 51, 2)};
+
+    private static void checkPoints(SourceDiscretizationCache.LinePoints linePoints, Coordinate receiver,
+                                    double expectedDelta) {
+        assertEquals(expectedDelta, linePoints.li, 1e-12);
+        // First point is the closest point of the line
+        Coordinate closest = new Coordinate(linePoints.points[0], linePoints.points[1]);
+        GeometryFactory factory = new GeometryFactory();
+        assertEquals(factory.createLineString(ROAD).distance(factory.createPoint(receiver)),
+                receiver.distance(closest), 1e-9);
+        List<Coordinate> expected = new ArrayList<Coordinate>();
+        for (Coordinate pt : JTSUtility.splitMultiPointsInRegularPoints(ROAD, expectedDelta)) {
+            if (pt.distance(closest) > expectedDelta) {
+                expected.add(pt);
+            }
+        }
+        assertEquals(expected.size() + 1, linePoints.size);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).x, linePoints.points[(i + 1) * 3], 1e-9);
+            assertEquals(expected.get(i).y, linePoints.points[(i + 1) * 3 + 1], 1e-9);
+            assertEquals(expected.get(i).z, linePoints.points[(i + 1) * 3 + 2], 1e-9);
+        }
+    }
+
+    public void testDiscretize() {
+        GeometryFactory factory = new GeometryFactory();
+        List<Geometry> sources = new ArrayList<Geometry>();
+        sources.add(factory.createPoint(new Coordinate(5, 5)));
+        sources.add(factory.createLineString(ROAD));
+        SourceDiscretizationCache cache = new SourceDiscretizationCache(sources);
+        SourceDiscretizationCache.LinePoints linePoints = new SourceDiscretizationCache.LinePoints();
+        // Point sources are not discretized
+        cache.discretize(0, new Coordinate(50, 50), 1, linePoints);
+        assertEquals(0, linePoints.size);
+        // Far receiver, spacing of 20 m
+        Coordinate receiver = new Coordinate(50, 120);
+        cache.discretize(1, receiver, 1, linePoints);
+        checkPoints(linePoints, receiver, 20);
+        // Spacing of 7.5 m, the 5 m level is used
+        receiver = new Coordinate(40, 15);
+        cache.discretize(1, receiver, 1, linePoints);
+        checkPoints(linePoints, receiver, 5);
+        // Closer than the finest level, exact spacing of 1.5 m
+        receiver = new Coordinate(97, 20);
+        cache.discretize(1, receiver, 1, linePoints);
+        checkPoints(linePoints, receiver, 1.5);
+        // Minimal receiver distance
+        receiver = new Coordinate(30, 0.2);
+        cache.discretize(1, receiver, 1, linePoints);
+        checkPoints(linePoints, receiver, 0.5);
+    }
+}
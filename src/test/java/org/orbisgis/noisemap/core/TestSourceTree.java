@@ -0,0 +1,112 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Test the hierarchical aggregation of sources.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestSourceTree extends TestCase {
+
+    public void testNodePower() {
+        CitySceneGenerator scene = new CitySceneGenerator(6, 3);
+        List<Geometry> roads = scene.getRoads();
+        SpectrumArray wj = scene.getRoadSpectrums();
+        SourceTree tree = new SourceTree(roads, wj);
+        assertTrue(tree.getNodeCount() > 1);
+        // Root holds the power of all sources, lines power is by meter
+        for (int idFreq = 0; idFreq < wj.getFreqCount(); idFreq++) {
+            double expected = 0;
+            for (int idRoad = 0; idRoad < roads.size(); idRoad++) {
+                expected += wj.get(idRoad, idFreq) * roads.get(idRoad).getLength();
+            }
+            assertEquals(expected, tree.getNodeSpectrums().get(0, idFreq), expected * 1e-12);
+        }
+        assertTrue(scene.getEnvelope().contains(tree.getCentroidX(0), tree.getCentroidY(0)));
+    }
+
+    public void testQueryWithoutError() {
+        CitySceneGenerator scene = new CitySceneGenerator(6, 3);
+        List<Geometry> roads = scene.getRoads();
+        SourceTree tree = new SourceTree(roads, scene.getRoadSpectrums());
+        SourceTree.Query query = new SourceTree.Query();
+        Coordinate receiver = scene.getEnvelope().centre();
+        // A negligible tolerance returns every source once
+        tree.query(receiver, 1e6, 1e-9, query);
+        assertEquals(0, query.nodeCount);
+        assertEquals(roads.size(), query.sourceCount);
+        boolean[] found = new boolean[roads.size()];
+        for (int i = 0; i < query.sourceCount; i++) {
+            assertFalse(found[query.sources[i]]);
+            found[query.sources[i]] = true;
+        }
+        // Sources outside of the maximum distance are ignored
+        double maxSrcDist = CitySceneGenerator.BLOCK_SIZE;
+        tree.query(receiver, maxSrcDist, 1e-9, query);
+        assertTrue(query.sourceCount > 0 && query.sourceCount < roads.size());
+        for (int i = 0; i < query.sourceCount; i++) {
+            assertTrue(roads.get(query.sources[i]).getEnvelopeInternal().intersects(
+                    new Envelope(receiver.x - maxSrcDist, receiver.x + maxSrcDist,
+                            receiver.y - maxSrcDist, receiver.y + maxSrcDist)));
+        }
+    }
+
+    /**
+     * Compare clustered sources with the computation of all sources
+     */
+    public void testClusteredPropagation() throws LayerDelaunayError {
+        CitySceneGenerator scene = new CitySceneGenerator(12, 7);
+        List<Coordinate> receivers = scene.createReceiverGrid(30);
+        PropagationProcessData data = scene.createPropagationData(receivers, 0, 0, 1000);
+        PropagationProcessOut exactOut = new PropagationProcessOut(null, null);
+        PropagationProcess exact = new PropagationProcess(data, exactOut);
+        exact.initStructures();
+        PropagationProcessData clusteredData = scene.createPropagationData(receivers, 0, 0, 1000);
+        clusteredData.sourceClusterTolerance = 0.5;
+        PropagationProcessOut clusteredOut = new PropagationProcessOut(null, null);
+        PropagationProcess clustered = new PropagationProcess(clusteredData, clusteredOut);
+        clustered.initStructures();
+        double maxDifference = scene.getMaxLevelDifference(receivers, exact, clustered);
+        assertTrue(maxDifference + " dB(A)", maxDifference <= 1.);
+        assertTrue(clusteredOut.getNb_couple_receiver_src() < exactOut.getNb_couple_receiver_src());
+    }
+}
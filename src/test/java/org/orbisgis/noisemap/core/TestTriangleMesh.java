@@ -0,0 +1,162 @@
+/**
+ * NoiseMap is a scientific computation plugin for OrbisGIS developed in order to
+ * evaluate the noise impact on urban mobility plans. This model is
+ * based on the French standard method NMPB2008. It includes traffic-to-noise
+ * sources evaluation and sound propagation processing.
+ *
+ * This version is developed at French IRSTV Institute and at IFSTTAR
+ * (http://www.ifsttar.fr/) as part of the Eval-PDU project, funded by the
+ * French Agence Nationale de la Recherche (ANR) under contract ANR-08-VILL-0005-01.
+ *
+ * Noisemap is distributed under GPL 3 license. Its reference contact is Judicaël
+ * Picaut <judicael.picaut@ifsttar.fr>. It is maintained by Nicolas Fortin
+ * as part of the "Atelier SIG" team of the IRSTV Institute <http://www.irstv.fr/>.
+ *
+ * Copyright (C) 2011 IFSTTAR
+ * Copyright (C) 2011-2012 IRSTV (FR CNRS 2488)
+ *
+ * Noisemap is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * Noisemap is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Noisemap. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.orbisgis.noisemap.core;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the mesh stored in arrays.
+ *
+ * @author Nicolas Fortin
+ */
+public class TestTriangleMesh extends TestCase {
+
+    public void testGetOrAppendVertex() {
+        TriangleMesh mesh = new TriangleMesh(1, 1);
+        assertEquals(0, mesh.addVertex(0, 0, 0));
+        assertEquals(0, mesh.getOrAppendVertex(0, 0, 0));
+        assertEquals(0, mesh.getOrAppendVertex(-0., 0, 0));
+        assertEquals(1, mesh.getOrAppendVertex(0, 0, 1));
+        assertEquals(2, mesh.getOrAppendVertex(0, 0, Double.NaN));
+        assertEquals(2, mesh.getOrAppendVertex(0, 0, Double.NaN));
+        // Grow the search table
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(3 + i, mesh.getOrAppendVertex(i, 2 * i, 5));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(3 + i, mesh.getOrAppendVertex(i, 2 * i, 5));
+        }
+        assertEquals(1003, mesh.getVertexCount());
+        mesh.trimToSize();
+        assertEquals(1, mesh.getOrAppendVertex(0, 0, 1));
+        assertEquals(1003, mesh.addVertex(1, 1, 1));
+    }
+
+    public void testLists() {
+        List<Coordinate> vertices = Arrays.asList(new Coordinate(0, 0), new Coordinate(1, 0, 2),
+                new Coordinate(1, 1, 3), new Coordinate(0, 1, 4));
+        List<Triangle> triangles = Arrays.asList(new Triangle(0, 1, 2, 0), new Triangle(0, 2, 3, 1));
+        List<Triangle> neighbors = Arrays.asList(new Triangle(-1, 1, -1, 0), new Triangle(-1, -1, 0, 0));
+        TriangleMesh mesh = TriangleMesh.fromLists(triangles, neighbors, vertices);
+        assertEquals(2, mesh.getTriangleCount());
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(3, mesh.getVertex(1, 2));
+        assertEquals(1, mesh.getBuildingId(1));
+        assertEquals(1, mesh.getNeighbor(0, 1));
+        assertEquals(0, mesh.getNeighbor(1, 2));
+        assertEquals(-1, mesh.getNeighbor(1, 0));
+        assertEquals(3., mesh.getZ(2));
+        assertTrue(Double.isNaN(mesh.getZ(0)));
+        List<Triangle> copy = mesh.getTriangles();
+        List<Triangle> neighborsCopy = mesh.getNeighbors();
+        for (int idTri = 0; idTri < triangles.size(); idTri++) {
+            for (int corner = 0; corner < 3; corner++) {
+                assertEquals(triangles.get(idTri).get(corner), copy.get(idTri).get(corner));
+                assertEquals(neighbors.get(idTri).get(corner), neighborsCopy.get(idTri).get(corner));
+            }
+            assertEquals(triangles.get(idTri).getBuidlingID(), copy.get(idTri).getBuidlingID());
+        }
+        assertEquals(vertices, mesh.getVertices());
+    }
+
+    public void testMeshBuilder() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(2, 3);
+        MeshBuilder builder = scene.createMeshBuilder();
+        builder.finishPolygonFeeding(scene.getEnvelope());
+        TriangleMesh mesh = builder.getTriangleMesh();
+        assertTrue(mesh.getTriangleCount() > 0);
+        int buildingTriangles = 0;
+        for (int idTri = 0; idTri < mesh.getTriangleCount(); idTri++) {
+            if (mesh.getBuildingId(idTri) > 0) {
+                buildingTriangles++;
+            }
+            for (int side = 0; side < 3; side++) {
+                int neighbor = mesh.getNeighbor(idTri, side);
+                if (neighbor != -1) {
+                    // Neighbors share the side opposite to the corner
+                    int a = mesh.getVertex(idTri, (side + 1) % 3);
+                    int b = mesh.getVertex(idTri, (side + 2) % 3);
+                    assertTrue(hasSide(mesh, neighbor, a, b));
+                    // Neighborhood is symmetric
+                    assertTrue(mesh.getNeighbor(neighbor, 0) == idTri || mesh.getNeighbor(neighbor, 1) == idTri
+                            || mesh.getNeighbor(neighbor, 2) == idTri);
+                }
+            }
+        }
+        assertTrue(buildingTriangles > 0);
+    }
+
+    public void testGridLocator() throws Throwable {
+        CitySceneGenerator scene = new CitySceneGenerator(2, 3);
+        MeshBuilder builder = scene.createMeshBuilder();
+        builder.finishPolygonFeeding(scene.getEnvelope());
+        TriangleMesh mesh = builder.getTriangleMesh();
+        TriangleGridLocator locator = new TriangleGridLocator(mesh);
+        // Each triangle is referenced by the cell of its centroid
+        for (int idTri = 0; idTri < mesh.getTriangleCount(); idTri++) {
+            double x = 0, y = 0;
+            for (int corner = 0; corner < 3; corner++) {
+                x += mesh.getX(mesh.getVertex(idTri, corner)) / 3;
+                y += mesh.getY(mesh.getVertex(idTri, corner)) / 3;
+            }
+            int idCell = locator.getCell(x, y);
+            assertTrue(idCell != -1);
+            boolean found = false;
+            for (int position = locator.getCellBegin(idCell); position < locator.getCellEnd(idCell); position++) {
+                found |= locator.getTriangle(position) == idTri;
+            }
+            assertTrue(found);
+        }
+        // Cells reference a few triangles
+        assertTrue(locator.getReferenceCount() < 10 * mesh.getTriangleCount());
+        Envelope envelope = scene.getEnvelope();
+        assertEquals(-1, locator.getCell(envelope.getMinX() - 1000, envelope.getMinY()));
+    }
+
+    private static boolean hasSide(TriangleMesh mesh, int idTri, int a, int b) {
+        int found = 0;
+        for (int corner = 0; corner < 3; corner++) {
+            int vertex = mesh.getVertex(idTri, corner);
+            if (vertex == a || vertex == b) {
+                found++;
+            }
+        }
+        return found == 2;
+    }
+}